@@ -0,0 +1,44 @@
+package com.dozingcatsoftware.vectorcamera
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+
+/**
+ * Replays a video recorded with the app through the preview pipeline with every default effect,
+ * and writes the results to replay_results.json in the PhotoLibrary temp directory. Uses the
+ * most recent video unless one is given, and is skipped if there are none:
+ *
+ *   adb shell am instrument -w -e class com.dozingcatsoftware.vectorcamera.PipelineReplayTest \
+ *       -e videoId 2024-01-01-12-00-00-000 -e pacing MAX_SPEED -e loops 3 \
+ *       com.dozingcatsoftware.vectorcamera.test/androidx.test.runner.AndroidJUnitRunner
+ */
+@RunWith(AndroidJUnit4::class)
+class PipelineReplayTest {
+    @Test
+    fun replayDefaultEffects() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        val args = InstrumentationRegistry.getArguments()
+        val photoLibrary = PhotoLibrary.defaultLibrary(context)
+        val videoId = args.getString("videoId") ?: photoLibrary.allItemIds()
+                .filter({photoLibrary.metadataForItemId(it).mediaType == MediaType.VIDEO})
+                .maxOrNull()
+        assumeTrue("No recorded videos", videoId != null)
+        val pacing = FrameReplayer.Pacing.valueOf(args.getString("pacing") ?: "MAX_SPEED")
+        val loops = (args.getString("loops") ?: "1").toInt()
+
+        val replay = PipelineReplay(photoLibrary, videoId!!, pacing, loops)
+        val reports = replay.replayDefaultEffects()
+        val outputFile = File(photoLibrary.getTempDirectory(), "replay_results.json")
+        PipelineReplay.writeReports(reports, outputFile)
+        Log.i(PipelineReplay.TAG, "Wrote ${outputFile}")
+        for (report in reports) {
+            assertTrue("${report.effectName} processed no frames", report.processed > 0)
+        }
+    }
+}
@@ -3,8 +3,9 @@
 #include <cmath>
 #include <algorithm>
 #include <cstring>
-#include <thread>
 #include <vector>
+#include "thread_pool.h"
+#include "yuv.h"
 
 #define LOG_TAG "AsciiEffectNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
@@ -39,22 +40,6 @@ inline int yuvToBrightness(int y, int u, int v) {
     return (r * 299 + g * 587 + b * 114) / 1000;
 }
 
-/**
- * Fast YUV to ARGB conversion for color extraction.
- */
-inline int yuvToArgb(int y, int u, int v) {
-    int r = y + ((359 * (v - 128)) >> 8);
-    int g = y - ((88 * (u - 128) + 183 * (v - 128)) >> 8);
-    int b = y + ((454 * (u - 128)) >> 8);
-    
-    // Clamp values
-    r = std::max(0, std::min(255, r));
-    g = std::max(0, std::min(255, g));
-    b = std::max(0, std::min(255, b));
-    
-    return (0xFF << 24) | (r << 16) | (g << 8) | b;
-}
-
 /**
  * Extract primary color from RGB using simple dominant component method.
  */
@@ -86,7 +71,6 @@ void renderAsciiCharacterGrid(
     const int* __restrict__ characterIndices,
     const uint32_t* __restrict__ characterColors,
     int numCharColumns,
-    int numCharRows,
     bool isPortrait,
     int outputWidth,
     int outputHeight,
@@ -170,6 +154,7 @@ void renderAsciiCharacterGrid(
     }
 }
 
+// The U and V planes can be dense or interleaved, as described by uvPixelStride and uvRowStride.
 extern "C" JNIEXPORT jintArray JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_AsciiEffect_computeAsciiDataNativeFromPlanes(
     JNIEnv *env,
@@ -177,6 +162,8 @@ Java_com_dozingcatsoftware_vectorcamera_effect_AsciiEffect_computeAsciiDataNativ
     jbyteArray yData_,
     jbyteArray uData_,
     jbyteArray vData_,
+    jint uvPixelStride,
+    jint uvRowStride,
     jint width,
     jint height,
     jint numCharCols,
@@ -200,10 +187,10 @@ Java_com_dozingcatsoftware_vectorcamera_effect_AsciiEffect_computeAsciiDataNativ
     }
 
     const auto* yData = reinterpret_cast<const uint8_t*>(yBytes);
-    const auto* uData = reinterpret_cast<const uint8_t*>(uBytes);
-    const auto* vData = reinterpret_cast<const uint8_t*>(vBytes);
+    const YuvUtils::ChromaPlanes chroma{reinterpret_cast<const uint8_t*>(uBytes),
+                                        reinterpret_cast<const uint8_t*>(vBytes),
+                                        uvPixelStride, uvRowStride};
 
-    const int uvSize = (width / 2) * (height / 2);
     const int numCells = numCharCols * numCharRows;
     
     // Result array: [characterIndices..., characterColors...]
@@ -252,18 +239,18 @@ Java_com_dozingcatsoftware_vectorcamera_effect_AsciiEffect_computeAsciiDataNativ
                 for (int xx = xmin; xx < xmax; ++xx) {
                     if (xx >= 0 && xx < width && yy >= 0 && yy < height) {
                         const int yIndex = yy * width + xx;
-                        const int uvIndex = (yy / 2) * (width / 2) + (xx / 2);
+                        const int uvOffset = chroma.offset(xx / 2, yy / 2);
                         
                         const int y = yData[yIndex] & 0xFF;
-                        const int u = (uvIndex < uvSize) ? (uData[uvIndex] & 0xFF) : 128;
-                        const int v = (uvIndex < uvSize) ? (vData[uvIndex] & 0xFF) : 128;
+                        const int u = chroma.u[uvOffset];
+                        const int v = chroma.v[uvOffset];
                         
                         // Accumulate brightness
                         brightnessTotal += y;
                         
                         // For color modes, also accumulate RGB values
                         if (colorMode == PRIMARY || colorMode == FULL) {
-                            const int argb = yuvToArgb(y, u, v);
+                            const int argb = YuvUtils::yuvToRgb(y, u, v);
                             rTotal += (argb >> 16) & 0xFF;
                             gTotal += (argb >> 8) & 0xFF;
                             bTotal += argb & 0xFF;
@@ -443,29 +430,12 @@ Java_com_dozingcatsoftware_vectorcamera_effect_AsciiEffect_renderCharacterGridNa
     const int totalPixels = outputWidth * outputHeight;
     std::fill(outputPtr, outputPtr + totalPixels, bgColor);
     
-    if (numThreads == 1) {
+    // Process bands of character rows on the shared worker threads
+    parallelFor(numCharRows, numThreads, [&](int startRow, int endRow) {
         renderAsciiCharacterGrid(templatePtr, templateWidth, templateHeight, charWidth, charHeight,
-                                indicesPtr, colorsPtr, numCharColumns, numCharRows,
-                                isPortrait, outputWidth, outputHeight, outputPtr, bgColor, 0, numCharRows);
-    } else {
-        std::vector<std::thread> threads;
-        const int rowsPerThread = numCharRows / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            const int startRow = threadIndex * rowsPerThread;
-            const int endRow = (threadIndex == numThreads - 1) ? 
-                numCharRows : (threadIndex + 1) * rowsPerThread;
-            
-            threads.emplace_back(renderAsciiCharacterGrid, templatePtr, templateWidth, templateHeight,
-                               charWidth, charHeight, indicesPtr, colorsPtr, numCharColumns, numCharRows,
-                               isPortrait, outputWidth, outputHeight, outputPtr, bgColor, startRow, endRow);
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+                                indicesPtr, colorsPtr, numCharColumns,
+                                isPortrait, outputWidth, outputHeight, outputPtr, bgColor, startRow, endRow);
+    });
     
     // Release arrays
     env->ReleaseIntArrayElements(templatePixels, templateInts, JNI_ABORT);
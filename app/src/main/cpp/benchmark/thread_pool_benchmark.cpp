@@ -0,0 +1,62 @@
+// Measures the per-call overhead of ThreadPool::parallelFor, compared with starting and joining
+// std::threads for every call as the effects used to do. The work per band is trivial, so the
+// times are almost entirely overhead. This doesn't use JNI, so it runs on a desktop or through
+// adb shell:
+//
+//   g++ -O2 -std=c++17 -pthread -I.. thread_pool_benchmark.cpp ../thread_pool.cpp -o thread_pool_benchmark
+//   ./thread_pool_benchmark
+#include <chrono>
+#include <cstdio>
+#include <thread>
+#include <vector>
+#include "thread_pool.h"
+
+static volatile int sink;
+
+static void touchRows(int start, int end) {
+    int sum = 0;
+    for (int i = start; i < end; i++) {
+        sum += i;
+    }
+    sink = sum;
+}
+
+static void spawnThreads(int count, int numThreads) {
+    std::vector<std::thread> threads;
+    int rowsPerThread = count / numThreads;
+    for (int i = 0; i < numThreads; i++) {
+        int start = i * rowsPerThread;
+        int end = (i == numThreads - 1) ? count : (i + 1) * rowsPerThread;
+        threads.emplace_back(touchRows, start, end);
+    }
+    for (auto& thread : threads) {
+        thread.join();
+    }
+}
+
+template <typename Fn>
+static double microsPerCall(int iterations, Fn fn) {
+    for (int i = 0; i < iterations / 10; i++) {
+        fn();
+    }
+    auto start = std::chrono::steady_clock::now();
+    for (int i = 0; i < iterations; i++) {
+        fn();
+    }
+    std::chrono::duration<double, std::micro> elapsed = std::chrono::steady_clock::now() - start;
+    return elapsed.count() / iterations;
+}
+
+int main() {
+    const int rows = 1080;
+    const int iterations = 2000;
+    const ThreadPool::RangeFunction fn = touchRows;
+    std::printf("pool workers: %d\n", ThreadPool::shared().workerCount());
+    for (int numThreads : {2, 4, 8}) {
+        double spawn = microsPerCall(iterations, [&] { spawnThreads(rows, numThreads); });
+        double pooled = microsPerCall(iterations, [&] { parallelFor(rows, numThreads, fn); });
+        std::printf("%d threads: std::thread per call %.1f us, pool %.1f us\n",
+                    numThreads, spawn, pooled);
+    }
+    return 0;
+}
@@ -0,0 +1,130 @@
+// Checks YuvUtils::yuvToRgb against the floating-point BT.601 formula for every (Y, U, V) input
+// and against the checksum that core's YuvUtilsTest computes with the Kotlin tables, then
+// compares the speed of the table conversion and the float and 8-bit fixed-point conversions
+// that it replaced on a 1080p frame. Exits with status 1 if the checksum differs or any channel
+// is off by more than 1. This doesn't use JNI, so it runs on a desktop or through adb shell:
+//
+//   g++ -O2 -std=c++17 -I.. yuv_benchmark.cpp -o yuv_benchmark
+//   ./yuv_benchmark
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <random>
+#include <vector>
+#include "yuv.h"
+
+// Must match ALL_INPUTS_CHECKSUM in core/src/test/.../util/YuvUtilsTest.kt.
+static const uint32_t ALL_INPUTS_CHECKSUM = 0xDEABBD00;
+
+static int clampByte(int c) {
+    return c < 0 ? 0 : c > 255 ? 255 : c;
+}
+
+// YuvUtils.yuvToRgbFloat from core, rounding as Kotlin's roundToInt does.
+static uint32_t referenceYuvToRgb(int y, int u, int v) {
+    const float yValue = static_cast<float>(y);
+    const float uValue = static_cast<float>(u - 128);
+    const float vValue = static_cast<float>(v - 128);
+    const int red = clampByte(static_cast<int>(std::floor(yValue + 1.370705f * vValue + 0.5f)));
+    const int green = clampByte(static_cast<int>(
+            std::floor(yValue - 0.698001f * vValue - 0.337633f * uValue + 0.5f)));
+    const int blue = clampByte(static_cast<int>(std::floor(yValue + 1.732446f * uValue + 0.5f)));
+    return (red << 16) | (green << 8) | blue;
+}
+
+// The previous YuvUtils::yuvToRgbFloat, which truncated instead of rounding.
+static uint32_t previousFloatYuvToRgb(int y, int u, int v) {
+    const float uValue = static_cast<float>(u - 128);
+    const float vValue = static_cast<float>(v - 128);
+    const int red = clampByte(static_cast<int>(y + 1.370705f * vValue));
+    const int green = clampByte(static_cast<int>(y - 0.698001f * vValue - 0.337633f * uValue));
+    const int blue = clampByte(static_cast<int>(y + 1.732446f * uValue));
+    return (red << 16) | (green << 8) | blue;
+}
+
+// The previous YuvUtils::yuvToRgbFixed, with 8 fractional bits and no rounding.
+static uint32_t previousFixedYuvToRgb(int y, int u, int v) {
+    const int red = clampByte(y + ((351 * (v - 128)) >> 8));
+    const int green = clampByte(y - ((179 * (v - 128) + 86 * (u - 128)) >> 8));
+    const int blue = clampByte(y + ((443 * (u - 128)) >> 8));
+    return (red << 16) | (green << 8) | blue;
+}
+
+static int channelError(uint32_t a, uint32_t b) {
+    int maxError = 0;
+    for (int shift = 0; shift <= 16; shift += 8) {
+        maxError = std::max(maxError, std::abs(static_cast<int>((a >> shift) & 0xFF) -
+                                               static_cast<int>((b >> shift) & 0xFF)));
+    }
+    return maxError;
+}
+
+template <typename Convert>
+static double timeFrame(const char* name, Convert convert, const std::vector<uint8_t>& yPlane,
+                        const std::vector<uint8_t>& uPlane, const std::vector<uint8_t>& vPlane,
+                        int width, int height, std::vector<uint32_t>& out) {
+    const int iterations = 50;
+    const int uvWidth = width / 2;
+    uint32_t sink = 0;
+    const auto start = std::chrono::steady_clock::now();
+    for (int i = 0; i < iterations; i++) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                const int uvIndex = (y / 2) * uvWidth + x / 2;
+                out[y * width + x] = convert(yPlane[y * width + x], uPlane[uvIndex], vPlane[uvIndex]);
+            }
+        }
+        sink += out[i];
+    }
+    const std::chrono::duration<double, std::milli> elapsed =
+            std::chrono::steady_clock::now() - start;
+    const double perFrame = elapsed.count() / iterations;
+    std::printf("%-10s %dx%d: %.3f ms/frame (%u)\n", name, width, height, perFrame, sink & 1);
+    return perFrame;
+}
+
+int main() {
+    uint32_t checksum = 0;
+    int maxError = 0;
+    long mismatches = 0;
+    for (int y = 0; y < 256; y++) {
+        for (int u = 0; u < 256; u++) {
+            for (int v = 0; v < 256; v++) {
+                const uint32_t rgb = YuvUtils::yuvToRgb(y, u, v);
+                checksum = checksum * 31 + rgb;
+                const uint32_t reference = referenceYuvToRgb(y, u, v);
+                if (rgb != reference) {
+                    mismatches++;
+                    maxError = std::max(maxError, channelError(rgb, reference));
+                }
+            }
+        }
+    }
+    std::printf("checksum 0x%08X (expected 0x%08X), max error %d, %ld of 2^24 inputs differ\n",
+                checksum, ALL_INPUTS_CHECKSUM, maxError, mismatches);
+    if (checksum != ALL_INPUTS_CHECKSUM || maxError > 1) {
+        std::printf("FAILED\n");
+        return 1;
+    }
+
+    const int width = 1920;
+    const int height = 1080;
+    std::mt19937 rng(1);
+    std::vector<uint8_t> yPlane(width * height);
+    std::vector<uint8_t> uPlane((width / 2) * (height / 2));
+    std::vector<uint8_t> vPlane(uPlane.size());
+    for (auto& b : yPlane) b = static_cast<uint8_t>(rng());
+    for (auto& b : uPlane) b = static_cast<uint8_t>(rng());
+    for (auto& b : vPlane) b = static_cast<uint8_t>(rng());
+    std::vector<uint32_t> out(width * height);
+
+    const double floatMs = timeFrame("float", previousFloatYuvToRgb,
+                                     yPlane, uPlane, vPlane, width, height, out);
+    timeFrame("fixed8", previousFixedYuvToRgb, yPlane, uPlane, vPlane, width, height, out);
+    const double tableMs = timeFrame("table", [](int y, int u, int v) {
+        return YuvUtils::yuvToRgb(y, u, v);
+    }, yPlane, uPlane, vPlane, width, height, out);
+    std::printf("table speedup over float: %.2fx\n", floatMs / tableMs);
+    return 0;
+}
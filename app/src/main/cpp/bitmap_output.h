@@ -0,0 +1,101 @@
+#ifndef BITMAP_OUTPUT_H
+#define BITMAP_OUTPUT_H
+
+#include <jni.h>
+#include <android/bitmap.h>
+#include <android/log.h>
+#include <cstdint>
+
+/**
+ * Helpers for effects that write their output directly into the pixels of an ARGB_8888 Bitmap,
+ * rather than filling an int array that Kotlin then copies with Bitmap.setPixels.
+ */
+namespace BitmapOutput {
+
+    /**
+     * Converts a color in the format used by android.graphics.Color (0xAARRGGBB, not
+     * premultiplied) to the in-memory format of an ARGB_8888 bitmap. Bitmap memory stores bytes
+     * in R, G, B, A order, which on little-endian CPUs reads as 0xAABBGGRR, and the color
+     * channels are premultiplied by alpha. Premultiplying rounds the same way as setPixels.
+     */
+    inline uint32_t toBitmapPixel(uint32_t argb) {
+        const uint32_t a = argb >> 24;
+        uint32_t r = (argb >> 16) & 0xFF;
+        uint32_t g = (argb >> 8) & 0xFF;
+        uint32_t b = argb & 0xFF;
+        if (a != 255) {
+            uint32_t pr = r * a + 128;
+            uint32_t pg = g * a + 128;
+            uint32_t pb = b * a + 128;
+            r = (pr + (pr >> 8)) >> 8;
+            g = (pg + (pg >> 8)) >> 8;
+            b = (pb + (pb >> 8)) >> 8;
+        }
+        return (a << 24) | (b << 16) | (g << 8) | r;
+    }
+
+    /**
+     * Converts a color lookup table, such as the edge strength maps, to bitmap format once per
+     * frame so that the per-pixel loop is still a single lookup.
+     */
+    inline void toBitmapPixels(const int32_t* argb, uint32_t* result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = toBitmapPixel(static_cast<uint32_t>(argb[i]));
+        }
+    }
+
+    /**
+     * Locks the pixels of a Bitmap for the lifetime of this object. `ok()` is false if the bitmap
+     * isn't ARGB_8888, isn't the expected size, or couldn't be locked; callers should then fall
+     * back to the Kotlin implementation. Rows can be padded, so index rows using `stride`.
+     */
+    class LockedBitmap {
+    public:
+        LockedBitmap(JNIEnv* env, jobject bitmap, int width, int height)
+            : env_(env), bitmap_(bitmap), pixels_(nullptr), stride_(0) {
+            AndroidBitmapInfo info;
+            if (AndroidBitmap_getInfo(env, bitmap, &info) != ANDROID_BITMAP_RESULT_SUCCESS) {
+                __android_log_print(ANDROID_LOG_ERROR, "BitmapOutput", "Failed to get bitmap info");
+                return;
+            }
+            if (info.format != ANDROID_BITMAP_FORMAT_RGBA_8888 ||
+                    static_cast<int>(info.width) != width || static_cast<int>(info.height) != height) {
+                __android_log_print(ANDROID_LOG_ERROR, "BitmapOutput",
+                                    "Unexpected bitmap: format=%d size=%dx%d, expected %dx%d",
+                                    info.format, info.width, info.height, width, height);
+                return;
+            }
+            void* addr = nullptr;
+            if (AndroidBitmap_lockPixels(env, bitmap, &addr) != ANDROID_BITMAP_RESULT_SUCCESS) {
+                __android_log_print(ANDROID_LOG_ERROR, "BitmapOutput", "Failed to lock bitmap pixels");
+                return;
+            }
+            pixels_ = static_cast<uint32_t*>(addr);
+            stride_ = static_cast<int>(info.stride / sizeof(uint32_t));
+        }
+
+        ~LockedBitmap() {
+            if (pixels_) {
+                AndroidBitmap_unlockPixels(env_, bitmap_);
+            }
+        }
+
+        LockedBitmap(const LockedBitmap&) = delete;
+        LockedBitmap& operator=(const LockedBitmap&) = delete;
+
+        bool ok() const { return pixels_ != nullptr; }
+
+        uint32_t* pixels() const { return pixels_; }
+
+        // Row stride in pixels, not bytes.
+        int stride() const { return stride_; }
+
+    private:
+        JNIEnv* env_;
+        jobject bitmap_;
+        uint32_t* pixels_;
+        int stride_;
+    };
+}
+
+#endif // BITMAP_OUTPUT_H
@@ -1,10 +1,11 @@
 #include <jni.h>
 #include <android/log.h>
-#include <thread>
 #include <vector>
 #include <algorithm>
 #include <cmath>
 #include "yuv.h"
+#include "bitmap_output.h"
+#include "thread_pool.h"
 
 #define LOG_TAG "CartoonEffectNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
@@ -18,20 +19,20 @@ inline void createColorLUT(int* lut) {
     }
 }
 
-// Process rows function for multi-threading
+// Process rows function for multi-threading. Pixels are written in bitmap format, and
+// outputStride is in pixels.
 void processRows(
     int startY, 
     int endY, 
     int width, 
-    int height, 
     const unsigned char* yData, 
-    const unsigned char* uData, 
-    const unsigned char* vData, 
-    int uvWidth, 
-    int* pixels,
+    const YuvUtils::ChromaPlanes& chroma,
+    uint32_t* pixels,
+    int outputStride,
     const int* colorLUT
 ) {
     for (int y = startY; y < endY; y++) {
+        uint32_t* outputRow = pixels + y * outputStride;
         for (int x = 0; x < width; x++) {
             int pixelIndex = y * width + x;
 
@@ -39,11 +40,8 @@ void processRows(
             int yy = yData[pixelIndex] & 0xFF;
 
             // Get U and V values (subsampled)
-            int uvX = x / 2;
-            int uvY = y / 2;
-            int uvIndex = uvY * uvWidth + uvX;
-            int u = uData[uvIndex] & 0xFF;
-            int v = vData[uvIndex] & 0xFF;
+            int u = chroma.uAt(x / 2, y / 2);
+            int v = chroma.vAt(x / 2, y / 2);
 
             // Convert YUV to RGB
             int rgb = YuvUtils::yuvToRgb(yy, u, v, false);
@@ -56,14 +54,18 @@ void processRows(
             int quantizedG = colorLUT[g];
             int quantizedB = colorLUT[b];
 
-            // Create final ARGB pixel
-            pixels[pixelIndex] = (255 << 24) | (quantizedR << 16) | (quantizedG << 8) | quantizedB;
+            // Create final pixel, which is opaque so it only needs R and B swapped for the bitmap
+            outputRow[x] = (255u << 24) | (quantizedB << 16) | (quantizedG << 8) | quantizedR;
         }
     }
 }
 
+// The blurs average each channel separately, so they work the same on ARGB and bitmap pixels.
+// Strides are in pixels.
+
 // Apply horizontal blur using sliding window for efficiency
-void applyHorizontalBlur(const int* input, int* output, int width, int height, int radius) {
+void applyHorizontalBlur(const uint32_t* input, int inputStride, uint32_t* output, int outputStride,
+                         int width, int height, int radius) {
     const int kernelSize = radius * 2 + 1;
     
     for (int y = 0; y < height; y++) {
@@ -72,8 +74,8 @@ void applyHorizontalBlur(const int* input, int* output, int width, int height, i
         // Initialize sliding window for first pixel
         for (int kx = -radius; kx <= radius; kx++) {
             int sampleX = std::max(0, std::min(width - 1, kx));
-            int sampleIndex = y * width + sampleX;
-            int samplePixel = input[sampleIndex];
+            int sampleIndex = y * inputStride + sampleX;
+            uint32_t samplePixel = input[sampleIndex];
             
             totalR += (samplePixel >> 16) & 0xFF;
             totalG += (samplePixel >> 8) & 0xFF;
@@ -86,23 +88,22 @@ void applyHorizontalBlur(const int* input, int* output, int width, int height, i
             int avgG = totalG / kernelSize;
             int avgB = totalB / kernelSize;
             
-            int pixelIndex = y * width + x;
-            output[pixelIndex] = (255 << 24) | (avgR << 16) | (avgG << 8) | avgB;
+            output[y * outputStride + x] = (255u << 24) | (avgR << 16) | (avgG << 8) | avgB;
             
             // Update sliding window for next pixel
             if (x < width - 1) {
                 // Remove leftmost pixel from window
                 int leftX = std::max(0, std::min(width - 1, x - radius));
-                int leftIndex = y * width + leftX;
-                int leftPixel = input[leftIndex];
+                int leftIndex = y * inputStride + leftX;
+                uint32_t leftPixel = input[leftIndex];
                 totalR -= (leftPixel >> 16) & 0xFF;
                 totalG -= (leftPixel >> 8) & 0xFF;
                 totalB -= leftPixel & 0xFF;
                 
                 // Add rightmost pixel to window
                 int rightX = std::max(0, std::min(width - 1, x + radius + 1));
-                int rightIndex = y * width + rightX;
-                int rightPixel = input[rightIndex];
+                int rightIndex = y * inputStride + rightX;
+                uint32_t rightPixel = input[rightIndex];
                 totalR += (rightPixel >> 16) & 0xFF;
                 totalG += (rightPixel >> 8) & 0xFF;
                 totalB += rightPixel & 0xFF;
@@ -112,7 +113,8 @@ void applyHorizontalBlur(const int* input, int* output, int width, int height, i
 }
 
 // Apply vertical blur using sliding window for efficiency
-void applyVerticalBlur(const int* input, int* output, int width, int height, int radius) {
+void applyVerticalBlur(const uint32_t* input, int inputStride, uint32_t* output, int outputStride,
+                       int width, int height, int radius) {
     const int kernelSize = radius * 2 + 1;
     
     for (int x = 0; x < width; x++) {
@@ -121,8 +123,8 @@ void applyVerticalBlur(const int* input, int* output, int width, int height, int
         // Initialize sliding window for first pixel
         for (int ky = -radius; ky <= radius; ky++) {
             int sampleY = std::max(0, std::min(height - 1, ky));
-            int sampleIndex = sampleY * width + x;
-            int samplePixel = input[sampleIndex];
+            int sampleIndex = sampleY * inputStride + x;
+            uint32_t samplePixel = input[sampleIndex];
             
             totalR += (samplePixel >> 16) & 0xFF;
             totalG += (samplePixel >> 8) & 0xFF;
@@ -135,23 +137,22 @@ void applyVerticalBlur(const int* input, int* output, int width, int height, int
             int avgG = totalG / kernelSize;
             int avgB = totalB / kernelSize;
             
-            int pixelIndex = y * width + x;
-            output[pixelIndex] = (255 << 24) | (avgR << 16) | (avgG << 8) | avgB;
+            output[y * outputStride + x] = (255u << 24) | (avgR << 16) | (avgG << 8) | avgB;
             
             // Update sliding window for next pixel
             if (y < height - 1) {
                 // Remove topmost pixel from window
                 int topY = std::max(0, std::min(height - 1, y - radius));
-                int topIndex = topY * width + x;
-                int topPixel = input[topIndex];
+                int topIndex = topY * inputStride + x;
+                uint32_t topPixel = input[topIndex];
                 totalR -= (topPixel >> 16) & 0xFF;
                 totalG -= (topPixel >> 8) & 0xFF;
                 totalB -= topPixel & 0xFF;
                 
                 // Add bottommost pixel to window
                 int bottomY = std::max(0, std::min(height - 1, y + radius + 1));
-                int bottomIndex = bottomY * width + x;
-                int bottomPixel = input[bottomIndex];
+                int bottomIndex = bottomY * inputStride + x;
+                uint32_t bottomPixel = input[bottomIndex];
                 totalR += (bottomPixel >> 16) & 0xFF;
                 totalG += (bottomPixel >> 8) & 0xFF;
                 totalB += bottomPixel & 0xFF;
@@ -160,97 +161,75 @@ void applyVerticalBlur(const int* input, int* output, int width, int height, int
     }
 }
 
-extern "C" JNIEXPORT jintArray JNICALL
+// Writes directly into the pixels of outputBitmap. The U and V planes can be dense or
+// interleaved, as described by uvPixelStride and uvRowStride. Returns false if the bitmap
+// couldn't be locked or the planes couldn't be accessed, in which case the caller should use the
+// Kotlin implementation.
+extern "C" JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_CartoonEffect_00024Companion_processImageNativeFromPlanes(
     JNIEnv* env, 
     jobject /* this */, 
     jbyteArray yData_, 
     jbyteArray uData_, 
     jbyteArray vData_, 
+    jint uvPixelStride,
+    jint uvRowStride,
     jint width, 
     jint height,
     jint blurRadius,
+    jobject outputBitmap,
     jint numThreads
 ) {
+    BitmapOutput::LockedBitmap output(env, outputBitmap, width, height);
+    if (!output.ok()) {
+        return JNI_FALSE;
+    }
+
     // Get individual plane data
     jbyte* yBytes = env->GetByteArrayElements(yData_, NULL);
     jbyte* uBytes = env->GetByteArrayElements(uData_, NULL);
     jbyte* vBytes = env->GetByteArrayElements(vData_, NULL);
     
     if (yBytes == NULL || uBytes == NULL || vBytes == NULL) {
-        if (yBytes) env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        if (uBytes) env->ReleaseByteArrayElements(uData_, uBytes, 0);
-        if (vBytes) env->ReleaseByteArrayElements(vData_, vBytes, 0);
-        return NULL;
+        if (yBytes) env->ReleaseByteArrayElements(yData_, yBytes, JNI_ABORT);
+        if (uBytes) env->ReleaseByteArrayElements(uData_, uBytes, JNI_ABORT);
+        if (vBytes) env->ReleaseByteArrayElements(vData_, vBytes, JNI_ABORT);
+        return JNI_FALSE;
     }
 
     const unsigned char* yData = reinterpret_cast<const unsigned char*>(yBytes);
-    const unsigned char* uData = reinterpret_cast<const unsigned char*>(uBytes);
-    const unsigned char* vData = reinterpret_cast<const unsigned char*>(vBytes);
-    
-    // Calculate UV dimensions
-    int uvWidth = (width + 1) / 2;
+    const YuvUtils::ChromaPlanes chroma{reinterpret_cast<const uint8_t*>(uBytes),
+                                        reinterpret_cast<const uint8_t*>(vBytes),
+                                        uvPixelStride, uvRowStride};
 
     // Create color quantization LUT
     int colorLUT[256];
     createColorLUT(colorLUT);
 
-    // Create output arrays
-    jintArray result = env->NewIntArray(width * height);
-    if (result == NULL) {
-        env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        env->ReleaseByteArrayElements(uData_, uBytes, 0);
-        env->ReleaseByteArrayElements(vData_, vBytes, 0);
-        return NULL;
-    }
+    uint32_t* pixels = output.pixels();
+    int outputStride = output.stride();
 
-    jint* pixels = env->GetIntArrayElements(result, NULL);
-    if (pixels == NULL) {
-        env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        env->ReleaseByteArrayElements(uData_, uBytes, 0);
-        env->ReleaseByteArrayElements(vData_, vBytes, 0);
-        return NULL;
-    }
-
-    // Process image with color quantization using multi-threading
-    if (numThreads == 1) {
-        processRows(0, height, width, height, yData, uData, vData, uvWidth, pixels, colorLUT);
-    } else {
-        std::vector<std::thread> threads;
-        int rowsPerThread = height / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            int startY = threadIndex * rowsPerThread;
-            int endY = (threadIndex == numThreads - 1) ? height : (threadIndex + 1) * rowsPerThread;
-            
-            threads.emplace_back(processRows, startY, endY, width, height, yData, uData, vData, uvWidth, pixels, colorLUT);
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+    // Process image with color quantization on the shared worker threads
+    parallelFor(height, numThreads, [&](int startY, int endY) {
+        processRows(startY, endY, width, yData, chroma, pixels, outputStride, colorLUT);
+    });
 
     // Apply blur if radius > 0
     if (blurRadius > 0) {
-        // Allocate temporary array for horizontal blur
-        int* tempPixels = new int[width * height];
+        // Temporary array for horizontal blur
+        std::vector<uint32_t> tempPixels(width * height);
         
         // Apply horizontal blur
-        applyHorizontalBlur(pixels, tempPixels, width, height, blurRadius);
+        applyHorizontalBlur(pixels, outputStride, tempPixels.data(), width, width, height, blurRadius);
         
-        // Apply vertical blur (back to original array)
-        applyVerticalBlur(tempPixels, pixels, width, height, blurRadius);
-        
-        delete[] tempPixels;
+        // Apply vertical blur (back to the bitmap)
+        applyVerticalBlur(tempPixels.data(), width, pixels, outputStride, width, height, blurRadius);
     }
 
-    // Release arrays
-    env->ReleaseIntArrayElements(result, pixels, 0);
-    env->ReleaseByteArrayElements(yData_, yBytes, 0);
-    env->ReleaseByteArrayElements(uData_, uBytes, 0);
-    env->ReleaseByteArrayElements(vData_, vBytes, 0);
+    // Release arrays. The planes weren't modified, so there's nothing to copy back.
+    env->ReleaseByteArrayElements(yData_, yBytes, JNI_ABORT);
+    env->ReleaseByteArrayElements(uData_, uBytes, JNI_ABORT);
+    env->ReleaseByteArrayElements(vData_, vBytes, JNI_ABORT);
 
-    return result;
-} 
\ No newline at end of file
+    return JNI_TRUE;
+}
@@ -1,9 +1,10 @@
 #include <jni.h>
 #include <android/log.h>
-#include <thread>
 #include <vector>
 #include <algorithm>
 #include <cmath>
+#include "bitmap_output.h"
+#include "thread_pool.h"
 
 #ifdef __ARM_NEON
 #include <arm_neon.h>
@@ -87,22 +88,49 @@ FORCE_INLINE void processConvolutionRows(
     }
 }
 
-// Map convolved brightness values to colors using color map
+// Map convolved brightness values to colors using color map, which is in bitmap pixel format.
+// outputStride is in pixels.
 FORCE_INLINE void processColorMappingRows(
-    int startIndex,
-    int endIndex,
+    int startY,
+    int endY,
+    int width,
     const unsigned char* __restrict__ convolvedData,
-    int* __restrict__ pixels,
-    const int* __restrict__ colorMap
+    uint32_t* __restrict__ pixels,
+    int outputStride,
+    const uint32_t* __restrict__ colorMap
 ) {
-    // Process in chunks for better cache performance
-    for (int i = startIndex; i < endIndex; i++) {
-        // Direct lookup without masking since convolvedData is already in range 0-255
-        pixels[i] = colorMap[convolvedData[i]];
+    for (int y = startY; y < endY; y++) {
+        const unsigned char* convolvedRow = convolvedData + y * width;
+        uint32_t* outputRow = pixels + y * outputStride;
+        for (int x = 0; x < width; x++) {
+            // Direct lookup without masking since convolvedData is already in range 0-255
+            outputRow[x] = colorMap[convolvedRow[x]];
+        }
     }
 }
 
-extern "C" JNIEXPORT jintArray JNICALL
+// Convolves and color maps a band of rows. Each output row only depends on its own convolved
+// row, so one pass over the threads does both.
+void processRows(
+    int startY,
+    int endY,
+    int width,
+    int height,
+    const unsigned char* yData,
+    unsigned char* convolvedData,
+    const float* coefficients,
+    uint32_t* pixels,
+    int outputStride,
+    const uint32_t* colorMap
+) {
+    processConvolutionRows(startY, endY, width, height, yData, convolvedData, coefficients);
+    processColorMappingRows(startY, endY, width, convolvedData, pixels, outputStride, colorMap);
+}
+
+// Writes directly into the pixels of outputBitmap. Returns false if the bitmap couldn't be
+// locked or the arrays couldn't be accessed, in which case the caller should use the Kotlin
+// implementation.
+extern "C" JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_Convolve3x3Effect_00024Companion_processImageNativeFromYData(
     JNIEnv* env, 
     jobject /* this */, 
@@ -111,102 +139,54 @@ Java_com_dozingcatsoftware_vectorcamera_effect_Convolve3x3Effect_00024Companion_
     jint height,
     jfloatArray coefficients_,
     jintArray colorMap_,
+    jobject outputBitmap,
     jint numThreads
 ) {
+    BitmapOutput::LockedBitmap output(env, outputBitmap, width, height);
+    if (!output.ok()) {
+        return JNI_FALSE;
+    }
+
     // Get Y plane data only (convolution only uses luminance)
     jbyte* yBytes = env->GetByteArrayElements(yData_, NULL);
     if (yBytes == NULL) {
-        return NULL;
+        return JNI_FALSE;
     }
 
     // Get coefficients
     jfloat* coefficients = env->GetFloatArrayElements(coefficients_, NULL);
     if (coefficients == NULL) {
-        env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        return NULL;
+        env->ReleaseByteArrayElements(yData_, yBytes, JNI_ABORT);
+        return JNI_FALSE;
     }
 
-    // Get color map
+    // Get color map, and convert it to bitmap pixel format
     jint* colorMap = env->GetIntArrayElements(colorMap_, NULL);
     if (colorMap == NULL) {
-        env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        env->ReleaseFloatArrayElements(coefficients_, coefficients, 0);
-        return NULL;
+        env->ReleaseByteArrayElements(yData_, yBytes, JNI_ABORT);
+        env->ReleaseFloatArrayElements(coefficients_, coefficients, JNI_ABORT);
+        return JNI_FALSE;
     }
+    uint32_t bitmapColorMap[256];
+    BitmapOutput::toBitmapPixels(colorMap, bitmapColorMap, 256);
+    env->ReleaseIntArrayElements(colorMap_, colorMap, JNI_ABORT);
 
     const unsigned char* yData = reinterpret_cast<const unsigned char*>(yBytes);
-    
-    // Calculate Y plane size
-    int ySize = width * height;
-
-    // Create intermediate array for convolved data
-    unsigned char* convolvedData = new unsigned char[ySize];
-
-    // Apply 3x3 convolution with multi-threading
-    if (numThreads == 1) {
-        processConvolutionRows(0, height, width, height, yData, convolvedData, coefficients);
-    } else {
-        std::vector<std::thread> threads;
-        int rowsPerThread = height / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            int startY = threadIndex * rowsPerThread;
-            int endY = (threadIndex == numThreads - 1) ? height : (threadIndex + 1) * rowsPerThread;
-            
-            threads.emplace_back(processConvolutionRows, startY, endY, width, height, yData, convolvedData, coefficients);
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
-
-    // Create output array
-    jintArray result = env->NewIntArray(width * height);
-    if (result == NULL) {
-        delete[] convolvedData;
-        env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        env->ReleaseFloatArrayElements(coefficients_, coefficients, 0);
-        env->ReleaseIntArrayElements(colorMap_, colorMap, 0);
-        return NULL;
-    }
+    uint32_t* pixels = output.pixels();
+    int outputStride = output.stride();
 
-    jint* pixels = env->GetIntArrayElements(result, NULL);
-    if (pixels == NULL) {
-        delete[] convolvedData;
-        env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        env->ReleaseFloatArrayElements(coefficients_, coefficients, 0);
-        env->ReleaseIntArrayElements(colorMap_, colorMap, 0);
-        return NULL;
-    }
+    // Intermediate array for convolved data
+    std::vector<unsigned char> convolvedData(width * height);
 
-    // Map convolved values to colors with multi-threading
-    if (numThreads == 1) {
-        processColorMappingRows(0, ySize, convolvedData, pixels, colorMap);
-    } else {
-        std::vector<std::thread> threads;
-        int pixelsPerThread = ySize / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            int startIndex = threadIndex * pixelsPerThread;
-            int endIndex = (threadIndex == numThreads - 1) ? ySize : (threadIndex + 1) * pixelsPerThread;
-            
-            threads.emplace_back(processColorMappingRows, startIndex, endIndex, convolvedData, pixels, colorMap);
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+    // Apply 3x3 convolution and color mapping on the shared worker threads
+    parallelFor(height, numThreads, [&](int startY, int endY) {
+        processRows(startY, endY, width, height, yData, convolvedData.data(), coefficients,
+                    pixels, outputStride, bitmapColorMap);
+    });
 
-    // Clean up
-    delete[] convolvedData;
-    env->ReleaseIntArrayElements(result, pixels, 0);
-    env->ReleaseByteArrayElements(yData_, yBytes, 0);
-    env->ReleaseFloatArrayElements(coefficients_, coefficients, 0);
-    env->ReleaseIntArrayElements(colorMap_, colorMap, 0);
+    // Clean up. The inputs weren't modified, so there's nothing to copy back.
+    env->ReleaseByteArrayElements(yData_, yBytes, JNI_ABORT);
+    env->ReleaseFloatArrayElements(coefficients_, coefficients, JNI_ABORT);
 
-    return result;
-} 
\ No newline at end of file
+    return JNI_TRUE;
+}
@@ -2,141 +2,85 @@
 #include <android/log.h>
 #include <algorithm>
 #include <cstdint>
-#include <cmath>
-#include <thread>
 #include <vector>
+#include "bitmap_output.h"
+#include "edge_kernel.h"
+#include "thread_pool.h"
 
 #define LOG_TAG "EdgeEffectNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
 
-// Clamp function for keeping values in bounds
-inline int clamp(int value, int min_val, int max_val) {
-    return std::max(min_val, std::min(value, max_val));
-}
-
-// Calculate edge strength using Laplacian operator
-inline int calculateEdgeStrength(
-    const uint8_t* yData, 
-    int x, 
-    int y, 
-    int width, 
-    int height, 
-    int yRowStride, 
-    int multiplier
-) {
-    if (x <= 0 || x >= width - 1 || y <= 0 || y >= height - 1) {
-        return 0;
-    }
-    
-    // Get center pixel
-    int center = yData[y * yRowStride + x];
-    
-    // Calculate sum of 8 surrounding pixels
-    int surrounding = 
-        yData[(y - 1) * yRowStride + (x - 1)] +
-        yData[(y - 1) * yRowStride + x] +
-        yData[(y - 1) * yRowStride + (x + 1)] +
-        yData[y * yRowStride + (x - 1)] +
-        yData[y * yRowStride + (x + 1)] +
-        yData[(y + 1) * yRowStride + (x - 1)] +
-        yData[(y + 1) * yRowStride + x] +
-        yData[(y + 1) * yRowStride + (x + 1)];
-    
-    // Apply Laplacian operator
-    int edge = 8 * center - surrounding;
-    return clamp(multiplier * edge, 0, 255);
-}
-
-// Process a range of rows
+// Process a range of rows. colorMap is in bitmap pixel format, and outputStride is in pixels.
 void processRows(
     const uint8_t* yData,
     int yRowStride,
     int width,
     int height,
     int multiplier,
-    const int* colorMap,
-    int* outputPixels,
+    const uint32_t* colorMap,
+    uint32_t* outputPixels,
+    int outputStride,
     int startRow,
     int endRow
 ) {
+    std::vector<uint8_t> edgeStrengths(width);
     for (int y = startRow; y < endRow; y++) {
+        EdgeKernel::edgeStrengthRow(yData, yRowStride, width, height, y, multiplier, edgeStrengths.data());
+        uint32_t* outputRow = outputPixels + y * outputStride;
         for (int x = 0; x < width; x++) {
-            int edgeStrength = calculateEdgeStrength(yData, x, y, width, height, yRowStride, multiplier);
-            outputPixels[y * width + x] = colorMap[edgeStrength];
+            outputRow[x] = colorMap[edgeStrengths[x]];
         }
     }
 }
 
-extern "C" JNIEXPORT void JNICALL
+// Writes directly into the pixels of outputBitmap. Returns false if the bitmap couldn't be
+// locked, in which case the caller should use the Kotlin implementation.
+extern "C" JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_EdgeEffect_00024Companion_processImageNativeFromYuvBytes(
     JNIEnv* env,
-    jobject thiz,
+    jobject /* this */,
     jbyteArray yData,
     jint width,
     jint height,
     jint multiplier,
     jintArray colorMap,
-    jintArray outputPixels,
+    jobject outputBitmap,
     jint numThreads
 ) {
+    BitmapOutput::LockedBitmap output(env, outputBitmap, width, height);
+    if (!output.ok()) {
+        return JNI_FALSE;
+    }
+
     // Get native arrays
     jbyte* yDataPtr = env->GetByteArrayElements(yData, nullptr);
     jint* colorMapData = env->GetIntArrayElements(colorMap, nullptr);
-    jint* outputPixelsData = env->GetIntArrayElements(outputPixels, nullptr);
     
-    if (!yDataPtr || !colorMapData || !outputPixelsData) {
+    if (!yDataPtr || !colorMapData) {
         LOGE("Failed to get native arrays");
-        return;
+        if (yDataPtr) env->ReleaseByteArrayElements(yData, yDataPtr, JNI_ABORT);
+        if (colorMapData) env->ReleaseIntArrayElements(colorMap, colorMapData, JNI_ABORT);
+        return JNI_FALSE;
     }
+
+    uint32_t bitmapColorMap[256];
+    BitmapOutput::toBitmapPixels(colorMapData, bitmapColorMap, 256);
+    uint32_t* outputPixels = output.pixels();
+    int outputStride = output.stride();
     
     // For YUV bytes, row stride equals width (no padding)
     int yRowStride = width;
     
-    if (numThreads == 1) {
-        // Single-threaded processing
-        processRows(
-            reinterpret_cast<const uint8_t*>(yDataPtr),
-            yRowStride,
-            width,
-            height,
-            multiplier,
-            colorMapData,
-            outputPixelsData,
-            0,
-            height
-        );
-    } else {
-        // Multi-threaded processing
-        std::vector<std::thread> threads;
-        int rowsPerThread = height / numThreads;
-        
-        for (int i = 0; i < numThreads; i++) {
-            int startRow = i * rowsPerThread;
-            int endRow = (i == numThreads - 1) ? height : (i + 1) * rowsPerThread;
-            
-            threads.emplace_back(
-                processRows,
-                reinterpret_cast<const uint8_t*>(yDataPtr),
-                yRowStride,
-                width,
-                height,
-                multiplier,
-                colorMapData,
-                outputPixelsData,
-                startRow,
-                endRow
-            );
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+    // Process bands of rows on the shared worker threads
+    const uint8_t* yBytes = reinterpret_cast<const uint8_t*>(yDataPtr);
+    parallelFor(height, numThreads, [&](int startRow, int endRow) {
+        processRows(yBytes, yRowStride, width, height, multiplier, bitmapColorMap,
+                    outputPixels, outputStride, startRow, endRow);
+    });
     
     // Release native arrays
     env->ReleaseByteArrayElements(yData, yDataPtr, JNI_ABORT);
     env->ReleaseIntArrayElements(colorMap, colorMapData, JNI_ABORT);
-    env->ReleaseIntArrayElements(outputPixels, outputPixelsData, 0);
+    return JNI_TRUE;
 } 
\ No newline at end of file
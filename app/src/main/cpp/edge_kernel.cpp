@@ -0,0 +1,204 @@
+#include "edge_kernel.h"
+
+#include <cstring>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define EDGE_KERNEL_NEON 1
+#elif defined(__x86_64__) || defined(__i386__)
+#include <immintrin.h>
+#define EDGE_KERNEL_X86 1
+#endif
+
+namespace EdgeKernel {
+
+    // The vector code multiplies in 16 bits: |8 * center - neighbours| is at most 2040, so the
+    // product can't overflow as long as |multiplier| <= 16. Larger multipliers use scalar code.
+    static const int MAX_VECTOR_MULTIPLIER = 16;
+    static const int VECTOR_WIDTH = 16;
+
+    static inline uint8_t edgeAt(const uint8_t* prev, const uint8_t* curr, const uint8_t* next,
+                                 int x, int multiplier) {
+        const int surroundingSum =
+                prev[x - 1] + prev[x] + prev[x + 1] +
+                curr[x - 1] + curr[x + 1] +
+                next[x - 1] + next[x] + next[x + 1];
+        const int result = multiplier * (8 * curr[x] - surroundingSum);
+        return static_cast<uint8_t>((result < 0) ? 0 : (result > 255) ? 255 : result);
+    }
+
+    // Scalar pixels [x, end) of an interior row.
+    static inline void edgeSpan(const uint8_t* prev, const uint8_t* curr, const uint8_t* next,
+                                int x, int end, int multiplier, uint8_t* out) {
+        for (; x < end; x++) {
+            out[x] = edgeAt(prev, curr, next, x, multiplier);
+        }
+    }
+
+    void edgeStrengthRowScalar(const uint8_t* plane, int rowStride, int width, int height, int y,
+                               int multiplier, uint8_t* out) {
+        if (y <= 0 || y >= height - 1 || width < 3) {
+            std::memset(out, 0, width);
+            return;
+        }
+        const uint8_t* curr = plane + y * rowStride;
+        out[0] = 0;
+        edgeSpan(curr - rowStride, curr, curr + rowStride, 1, width - 1, multiplier, out);
+        out[width - 1] = 0;
+    }
+
+    // Each vector function computes as many groups of 16 interior pixels starting at x = 1 as
+    // fit before the last column, and returns the first x that it didn't compute.
+
+#if EDGE_KERNEL_NEON
+    static int edgeInteriorNeon(const uint8_t* prev, const uint8_t* curr, const uint8_t* next,
+                                int width, int multiplier, uint8_t* out) {
+        const int16_t mult = static_cast<int16_t>(multiplier);
+        int x = 1;
+        for (; x + VECTOR_WIDTH <= width - 1; x += VECTOR_WIDTH) {
+            const uint8x16_t p0 = vld1q_u8(prev + x - 1);
+            const uint8x16_t p1 = vld1q_u8(prev + x);
+            const uint8x16_t p2 = vld1q_u8(prev + x + 1);
+            const uint8x16_t c0 = vld1q_u8(curr + x - 1);
+            const uint8x16_t c1 = vld1q_u8(curr + x);
+            const uint8x16_t c2 = vld1q_u8(curr + x + 1);
+            const uint8x16_t n0 = vld1q_u8(next + x - 1);
+            const uint8x16_t n1 = vld1q_u8(next + x);
+            const uint8x16_t n2 = vld1q_u8(next + x + 1);
+
+            uint16x8_t sumLo = vaddl_u8(vget_low_u8(p0), vget_low_u8(p1));
+            sumLo = vaddw_u8(sumLo, vget_low_u8(p2));
+            sumLo = vaddw_u8(sumLo, vget_low_u8(c0));
+            sumLo = vaddw_u8(sumLo, vget_low_u8(c2));
+            sumLo = vaddw_u8(sumLo, vget_low_u8(n0));
+            sumLo = vaddw_u8(sumLo, vget_low_u8(n1));
+            sumLo = vaddw_u8(sumLo, vget_low_u8(n2));
+            uint16x8_t sumHi = vaddl_u8(vget_high_u8(p0), vget_high_u8(p1));
+            sumHi = vaddw_u8(sumHi, vget_high_u8(p2));
+            sumHi = vaddw_u8(sumHi, vget_high_u8(c0));
+            sumHi = vaddw_u8(sumHi, vget_high_u8(c2));
+            sumHi = vaddw_u8(sumHi, vget_high_u8(n0));
+            sumHi = vaddw_u8(sumHi, vget_high_u8(n1));
+            sumHi = vaddw_u8(sumHi, vget_high_u8(n2));
+
+            // 8 * center - sum wraps around in unsigned arithmetic, which gives the right signed
+            // value since it's within 16 bits.
+            int16x8_t edgeLo = vreinterpretq_s16_u16(vsubq_u16(vshll_n_u8(vget_low_u8(c1), 3), sumLo));
+            int16x8_t edgeHi = vreinterpretq_s16_u16(vsubq_u16(vshll_n_u8(vget_high_u8(c1), 3), sumHi));
+            edgeLo = vmulq_n_s16(edgeLo, mult);
+            edgeHi = vmulq_n_s16(edgeHi, mult);
+            // Saturating narrow clamps to [0, 255].
+            vst1q_u8(out + x, vcombine_u8(vqmovun_s16(edgeLo), vqmovun_s16(edgeHi)));
+        }
+        return x;
+    }
+#endif
+
+#if EDGE_KERNEL_X86
+    static int edgeInteriorSse2(const uint8_t* prev, const uint8_t* curr, const uint8_t* next,
+                                int width, int multiplier, uint8_t* out) {
+        const __m128i zero = _mm_setzero_si128();
+        const __m128i mult = _mm_set1_epi16(static_cast<int16_t>(multiplier));
+        int x = 1;
+        for (; x + VECTOR_WIDTH <= width - 1; x += VECTOR_WIDTH) {
+            const __m128i neighbours[8] = {
+                _mm_loadu_si128(reinterpret_cast<const __m128i*>(prev + x - 1)),
+                _mm_loadu_si128(reinterpret_cast<const __m128i*>(prev + x)),
+                _mm_loadu_si128(reinterpret_cast<const __m128i*>(prev + x + 1)),
+                _mm_loadu_si128(reinterpret_cast<const __m128i*>(curr + x - 1)),
+                _mm_loadu_si128(reinterpret_cast<const __m128i*>(curr + x + 1)),
+                _mm_loadu_si128(reinterpret_cast<const __m128i*>(next + x - 1)),
+                _mm_loadu_si128(reinterpret_cast<const __m128i*>(next + x)),
+                _mm_loadu_si128(reinterpret_cast<const __m128i*>(next + x + 1)),
+            };
+            const __m128i center = _mm_loadu_si128(reinterpret_cast<const __m128i*>(curr + x));
+            __m128i sumLo = zero;
+            __m128i sumHi = zero;
+            for (const __m128i& n : neighbours) {
+                sumLo = _mm_add_epi16(sumLo, _mm_unpacklo_epi8(n, zero));
+                sumHi = _mm_add_epi16(sumHi, _mm_unpackhi_epi8(n, zero));
+            }
+            __m128i edgeLo = _mm_sub_epi16(_mm_slli_epi16(_mm_unpacklo_epi8(center, zero), 3), sumLo);
+            __m128i edgeHi = _mm_sub_epi16(_mm_slli_epi16(_mm_unpackhi_epi8(center, zero), 3), sumHi);
+            edgeLo = _mm_mullo_epi16(edgeLo, mult);
+            edgeHi = _mm_mullo_epi16(edgeHi, mult);
+            // Saturating pack clamps to [0, 255].
+            _mm_storeu_si128(reinterpret_cast<__m128i*>(out + x), _mm_packus_epi16(edgeLo, edgeHi));
+        }
+        return x;
+    }
+
+    // The AVX2 functions are compiled for AVX2 regardless of the target flags and only called if
+    // the CPU supports it, since the Android x86 ABIs don't guarantee it.
+    __attribute__((target("avx2")))
+    static inline __m256i load16(const uint8_t* p) {
+        return _mm256_cvtepu8_epi16(_mm_loadu_si128(reinterpret_cast<const __m128i*>(p)));
+    }
+
+    __attribute__((target("avx2")))
+    static int edgeInteriorAvx2(const uint8_t* prev, const uint8_t* curr, const uint8_t* next,
+                                int width, int multiplier, uint8_t* out) {
+        const __m256i mult = _mm256_set1_epi16(static_cast<int16_t>(multiplier));
+        int x = 1;
+        for (; x + VECTOR_WIDTH <= width - 1; x += VECTOR_WIDTH) {
+            __m256i sum = _mm256_add_epi16(load16(prev + x - 1), load16(prev + x));
+            sum = _mm256_add_epi16(sum, load16(prev + x + 1));
+            sum = _mm256_add_epi16(sum, load16(curr + x - 1));
+            sum = _mm256_add_epi16(sum, load16(curr + x + 1));
+            sum = _mm256_add_epi16(sum, load16(next + x - 1));
+            sum = _mm256_add_epi16(sum, load16(next + x));
+            sum = _mm256_add_epi16(sum, load16(next + x + 1));
+            __m256i edge = _mm256_sub_epi16(_mm256_slli_epi16(load16(curr + x), 3), sum);
+            edge = _mm256_mullo_epi16(edge, mult);
+            const __m128i packed = _mm_packus_epi16(
+                    _mm256_castsi256_si128(edge), _mm256_extracti128_si256(edge, 1));
+            _mm_storeu_si128(reinterpret_cast<__m128i*>(out + x), packed);
+        }
+        return x;
+    }
+
+    // Defining EDGE_KERNEL_NO_AVX2 forces the SSE2 version, to test it on CPUs that have AVX2.
+    static bool cpuHasAvx2() {
+#ifdef EDGE_KERNEL_NO_AVX2
+        return false;
+#else
+        static const bool hasAvx2 = __builtin_cpu_supports("avx2");
+        return hasAvx2;
+#endif
+    }
+#endif
+
+    void edgeStrengthRow(const uint8_t* plane, int rowStride, int width, int height, int y,
+                         int multiplier, uint8_t* out) {
+        if (y <= 0 || y >= height - 1 || width < 3) {
+            std::memset(out, 0, width);
+            return;
+        }
+        const uint8_t* curr = plane + y * rowStride;
+        const uint8_t* prev = curr - rowStride;
+        const uint8_t* next = curr + rowStride;
+        int x = 1;
+        if (multiplier >= -MAX_VECTOR_MULTIPLIER && multiplier <= MAX_VECTOR_MULTIPLIER) {
+#if EDGE_KERNEL_NEON
+            x = edgeInteriorNeon(prev, curr, next, width, multiplier, out);
+#elif EDGE_KERNEL_X86
+            x = cpuHasAvx2() ?
+                    edgeInteriorAvx2(prev, curr, next, width, multiplier, out) :
+                    edgeInteriorSse2(prev, curr, next, width, multiplier, out);
+#endif
+        }
+        out[0] = 0;
+        edgeSpan(prev, curr, next, x, width - 1, multiplier, out);
+        out[width - 1] = 0;
+    }
+
+    const char* backendName() {
+#if EDGE_KERNEL_NEON
+        return "NEON";
+#elif EDGE_KERNEL_X86
+        return cpuHasAvx2() ? "AVX2" : "SSE2";
+#else
+        return "scalar";
+#endif
+    }
+}
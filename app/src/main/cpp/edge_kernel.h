@@ -0,0 +1,32 @@
+#ifndef EDGE_KERNEL_H
+#define EDGE_KERNEL_H
+
+#include <cstdint>
+
+/**
+ * Laplacian edge detection shared by the edge effects. For each pixel not on the image border
+ * the edge strength is clamp(multiplier * (8 * center - sum of the 8 neighbours), 0, 255), and
+ * border pixels are 0.
+ *
+ * `edgeStrengthRow` computes interior pixels 16 at a time with NEON on ARM and SSE2 or AVX2 on
+ * x86, and falls back to `edgeStrengthRowScalar` elsewhere. Its output is identical to the scalar
+ * version; benchmark/edge_kernel_benchmark.cpp checks that.
+ */
+namespace EdgeKernel {
+
+    /**
+     * Writes the edge strengths of row y of an 8-bit plane to out[0..width). `rowStride` is the
+     * distance between rows in bytes.
+     */
+    void edgeStrengthRow(const uint8_t* plane, int rowStride, int width, int height, int y,
+                         int multiplier, uint8_t* out);
+
+    /** Reference implementation of edgeStrengthRow, one pixel at a time. */
+    void edgeStrengthRowScalar(const uint8_t* plane, int rowStride, int width, int height, int y,
+                               int multiplier, uint8_t* out);
+
+    /** Name of the vector instruction set that edgeStrengthRow was compiled for. */
+    const char* backendName();
+}
+
+#endif // EDGE_KERNEL_H
@@ -2,9 +2,11 @@
 #include <android/log.h>
 #include <algorithm>
 #include <cstdint>
-#include <thread>
 #include <vector>
 #include "yuv.h"
+#include "bitmap_output.h"
+#include "edge_kernel.h"
+#include "thread_pool.h"
 
 #define LOG_TAG "EdgeLuminanceNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
@@ -90,7 +92,7 @@ Java_com_dozingcatsoftware_vectorcamera_effect_EdgeLuminanceEffect_processRowsNa
             const int v = vPtr[uvIndex];
 
             // Convert YUV to RGB using edge strength as Y value
-            pixelArray[pixelIndex] = static_cast<jint>(YuvUtils::yuvToRgbFixed(edgeStrength, u, v, true));
+            pixelArray[pixelIndex] = static_cast<jint>(YuvUtils::yuvToRgb(edgeStrength, u, v, true));
         }
     }
 
@@ -101,8 +103,36 @@ Java_com_dozingcatsoftware_vectorcamera_effect_EdgeLuminanceEffect_processRowsNa
     env->ReleasePrimitiveArrayCritical(pixels, pixelArray, 0);
 }
 
-// Optimized version that handles all threading internally in C++
-extern "C" JNIEXPORT void JNICALL
+// Writes rows [startY, endY) in bitmap pixel format. outputStride is in pixels.
+static void processRowsToBitmap(
+    int startY, int endY,
+    int width, int height,
+    int multiplier,
+    const uint8_t* yPtr,
+    const YuvUtils::ChromaPlanes& chroma,
+    uint32_t* outputPixels,
+    int outputStride
+) {
+    std::vector<uint8_t> edgeStrengths(width);
+    for (int y = startY; y < endY; y++) {
+        EdgeKernel::edgeStrengthRow(yPtr, width, width, height, y, multiplier, edgeStrengths.data());
+        uint32_t* outputRow = outputPixels + y * outputStride;
+        const uint8_t* uRow = chroma.u + chroma.offset(0, y / 2);
+        const uint8_t* vRow = chroma.v + chroma.offset(0, y / 2);
+        for (int x = 0; x < width; x++) {
+            const int edgeStrength = edgeStrengths[x];
+            const int uvOffset = (x / 2) * chroma.pixelStride;
+            const int u = uRow[uvOffset];
+            const int v = vRow[uvOffset];
+            outputRow[x] = BitmapOutput::toBitmapPixel(YuvUtils::yuvToRgb(edgeStrength, u, v, true));
+        }
+    }
+}
+
+// Optimized version that handles all threading internally in C++, and writes directly into the
+// pixels of outputBitmap. The U and V planes can be dense or interleaved, as described by
+// uvPixelStride and uvRowStride. Returns false if the bitmap couldn't be locked.
+extern "C" JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_EdgeLuminanceEffect_processImageNative(
     JNIEnv* env,
     jobject /* this */,
@@ -112,82 +142,55 @@ Java_com_dozingcatsoftware_vectorcamera_effect_EdgeLuminanceEffect_processImageN
     jbyteArray yData,
     jbyteArray uData,
     jbyteArray vData,
-    jint uvWidth,
-    jintArray pixels,
+    jint uvPixelStride,
+    jint uvRowStride,
+    jobject outputBitmap,
     jint numThreads
 ) {
+    // Lock the bitmap before entering the critical regions, since no JNI calls are allowed there.
+    BitmapOutput::LockedBitmap output(env, outputBitmap, width, height);
+    if (!output.ok()) {
+        return JNI_FALSE;
+    }
+
     // Use GetPrimitiveArrayCritical for better performance
     jbyte* yBytes = static_cast<jbyte*>(env->GetPrimitiveArrayCritical(yData, nullptr));
     jbyte* uBytes = static_cast<jbyte*>(env->GetPrimitiveArrayCritical(uData, nullptr));
     jbyte* vBytes = static_cast<jbyte*>(env->GetPrimitiveArrayCritical(vData, nullptr));
-    jint* pixelArray = static_cast<jint*>(env->GetPrimitiveArrayCritical(pixels, nullptr));
 
-    if (!yBytes || !uBytes || !vBytes || !pixelArray) {
+    if (!yBytes || !uBytes || !vBytes) {
+        if (vBytes) env->ReleasePrimitiveArrayCritical(vData, vBytes, JNI_ABORT);
+        if (uBytes) env->ReleasePrimitiveArrayCritical(uData, uBytes, JNI_ABORT);
+        if (yBytes) env->ReleasePrimitiveArrayCritical(yData, yBytes, JNI_ABORT);
         LOGI("Failed to get array elements");
-        return;
+        return JNI_FALSE;
     }
 
     // Cast to unsigned for easier arithmetic
     const uint8_t* yPtr = reinterpret_cast<const uint8_t*>(yBytes);
-    const uint8_t* uPtr = reinterpret_cast<const uint8_t*>(uBytes);
-    const uint8_t* vPtr = reinterpret_cast<const uint8_t*>(vBytes);
-
-    if (numThreads <= 1) {
-        // Single-threaded processing
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                const int pixelIndex = y * width + x;
-                const int edgeStrength = calculateEdgeStrength(yPtr, x, y, width, height, multiplier);
-                const int uvX = x / 2;
-                const int uvY = y / 2;
-                const int uvIndex = uvY * uvWidth + uvX;
-                const int u = uPtr[uvIndex];
-                const int v = vPtr[uvIndex];
-                pixelArray[pixelIndex] = static_cast<jint>(YuvUtils::yuvToRgbFixed(edgeStrength, u, v, true));
-            }
-        }
-    } else {
-        // Multi-threaded processing in C++
-        std::vector<std::thread> threads;
-        const int rowsPerThread = height / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            const int startY = threadIndex * rowsPerThread;
-            const int endY = (threadIndex == numThreads - 1) ? height : (threadIndex + 1) * rowsPerThread;
-            
-            threads.emplace_back([=]() {
-                for (int y = startY; y < endY; y++) {
-                    for (int x = 0; x < width; x++) {
-                        const int pixelIndex = y * width + x;
-                        const int edgeStrength = calculateEdgeStrength(yPtr, x, y, width, height, multiplier);
-                        const int uvX = x / 2;
-                        const int uvY = y / 2;
-                        const int uvIndex = uvY * uvWidth + uvX;
-                        const int u = uPtr[uvIndex];
-                        const int v = vPtr[uvIndex];
-                        pixelArray[pixelIndex] = static_cast<jint>(YuvUtils::yuvToRgbFixed(edgeStrength, u, v, true));
-                    }
-                }
-            });
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+    const YuvUtils::ChromaPlanes chroma{reinterpret_cast<const uint8_t*>(uBytes),
+                                        reinterpret_cast<const uint8_t*>(vBytes),
+                                        uvPixelStride, uvRowStride};
+    uint32_t* outputPixels = output.pixels();
+    const int outputStride = output.stride();
+
+    // Process bands of rows on the shared worker threads
+    parallelFor(height, numThreads, [&](int startY, int endY) {
+        processRowsToBitmap(startY, endY, width, height, multiplier, yPtr, chroma,
+                            outputPixels, outputStride);
+    });
 
     // Release array elements
-    env->ReleasePrimitiveArrayCritical(yData, yBytes, JNI_ABORT);
-    env->ReleasePrimitiveArrayCritical(uData, uBytes, JNI_ABORT);
     env->ReleasePrimitiveArrayCritical(vData, vBytes, JNI_ABORT);
-    env->ReleasePrimitiveArrayCritical(pixels, pixelArray, 0);
+    env->ReleasePrimitiveArrayCritical(uData, uBytes, JNI_ABORT);
+    env->ReleasePrimitiveArrayCritical(yData, yBytes, JNI_ABORT);
+    return JNI_TRUE;
 }
 
 // Function to check if native implementation is available
 extern "C" JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_EdgeLuminanceEffect_isNativeAvailable(
-    JNIEnv* env,
+    JNIEnv* /* env */,
     jobject /* this */
 ) {
     return JNI_TRUE;
@@ -0,0 +1,143 @@
+#include "host_jni.h"
+
+#include <android/bitmap.h>
+#include <atomic>
+#include <cstdarg>
+#include <cstdio>
+#include <cstdlib>
+#include <type_traits>
+#include <utility>
+
+namespace HostJni {
+
+    // The JDK and the NDK name the function table struct differently.
+    using FunctionTable = std::remove_const_t<std::remove_pointer_t<decltype(JNIEnv::functions)>>;
+    static const size_t NUM_FUNCTIONS = sizeof(FunctionTable) / sizeof(void*);
+
+    static std::atomic<int> minLogPriority{ANDROID_LOG_WARN};
+
+    template <size_t Index>
+    static void unimplemented() {
+        std::fprintf(stderr, "HostJni: JNI function %zu is not implemented\n", Index);
+        std::abort();
+    }
+
+    template <size_t... Indices>
+    static void fillWithTraps(void** slots, std::index_sequence<Indices...>) {
+        ((slots[Indices] = reinterpret_cast<void*>(&unimplemented<Indices>)), ...);
+    }
+
+    template <typename T>
+    static T* elements(JNIEnv*, jarray array, jboolean* isCopy) {
+        if (isCopy) {
+            *isCopy = JNI_FALSE;
+        }
+        return static_cast<T*>(fromJava(array)->data);
+    }
+
+    // Arrays are never copied, so there's nothing to write back.
+    template <typename T>
+    static void releaseElements(JNIEnv*, jarray, T*, jint) {}
+
+    template <typename JType, typename T>
+    static JType newArray(JNIEnv*, jsize length) {
+        auto* a = new Array{nullptr, length, std::vector<uint8_t>(length * sizeof(T))};
+        a->data = a->storage.data();
+        return reinterpret_cast<JType>(a);
+    }
+
+    static jsize arrayLength(JNIEnv*, jarray array) {
+        return fromJava(array)->length;
+    }
+
+    static void* primitiveArrayCritical(JNIEnv* env, jarray array, jboolean* isCopy) {
+        return elements<void>(env, array, isCopy);
+    }
+
+    static void releasePrimitiveArrayCritical(JNIEnv*, jarray, void*, jint) {}
+
+    static FunctionTable createFunctionTable() {
+        FunctionTable table;
+        fillWithTraps(reinterpret_cast<void**>(&table), std::make_index_sequence<NUM_FUNCTIONS>());
+        table.GetArrayLength = arrayLength;
+        table.NewByteArray = newArray<jbyteArray, jbyte>;
+        table.NewIntArray = newArray<jintArray, jint>;
+        table.GetByteArrayElements = [](JNIEnv* env, jbyteArray a, jboolean* isCopy) {
+            return elements<jbyte>(env, a, isCopy);
+        };
+        table.GetIntArrayElements = [](JNIEnv* env, jintArray a, jboolean* isCopy) {
+            return elements<jint>(env, a, isCopy);
+        };
+        table.GetFloatArrayElements = [](JNIEnv* env, jfloatArray a, jboolean* isCopy) {
+            return elements<jfloat>(env, a, isCopy);
+        };
+        table.ReleaseByteArrayElements = [](JNIEnv* env, jbyteArray a, jbyte* e, jint mode) {
+            releaseElements(env, a, e, mode);
+        };
+        table.ReleaseIntArrayElements = [](JNIEnv* env, jintArray a, jint* e, jint mode) {
+            releaseElements(env, a, e, mode);
+        };
+        table.ReleaseFloatArrayElements = [](JNIEnv* env, jfloatArray a, jfloat* e, jint mode) {
+            releaseElements(env, a, e, mode);
+        };
+        table.GetPrimitiveArrayCritical = primitiveArrayCritical;
+        table.ReleasePrimitiveArrayCritical = releasePrimitiveArrayCritical;
+        return table;
+    }
+
+    JNIEnv* env() {
+        static const FunctionTable table = createFunctionTable();
+        static JNIEnv hostEnv{&table};
+        return &hostEnv;
+    }
+
+    Bitmap::Bitmap(int width, int height, int paddingPixels)
+        : width(width), height(height), strideBytes((width + paddingPixels) * 4),
+          pixels(static_cast<size_t>(width + paddingPixels) * height) {}
+
+    void deleteArray(jarray a) {
+        delete fromJava(a);
+    }
+
+    void setMinLogPriority(int priority) {
+        minLogPriority = priority;
+    }
+}
+
+extern "C" int __android_log_print(int prio, const char* tag, const char* fmt, ...) {
+    if (prio < HostJni::minLogPriority) {
+        return 0;
+    }
+    std::fprintf(stderr, "%s: ", tag);
+    va_list args;
+    va_start(args, fmt);
+    int result = std::vfprintf(stderr, fmt, args);
+    va_end(args);
+    std::fputc('\n', stderr);
+    return result;
+}
+
+extern "C" int AndroidBitmap_getInfo(JNIEnv*, jobject jbitmap, AndroidBitmapInfo* info) {
+    if (!jbitmap || !info) {
+        return ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+    }
+    auto* bitmap = reinterpret_cast<HostJni::Bitmap*>(jbitmap);
+    info->width = static_cast<uint32_t>(bitmap->width);
+    info->height = static_cast<uint32_t>(bitmap->height);
+    info->stride = static_cast<uint32_t>(bitmap->strideBytes);
+    info->format = ANDROID_BITMAP_FORMAT_RGBA_8888;
+    info->flags = 0;
+    return ANDROID_BITMAP_RESULT_SUCCESS;
+}
+
+extern "C" int AndroidBitmap_lockPixels(JNIEnv*, jobject jbitmap, void** addrPtr) {
+    if (!jbitmap || !addrPtr) {
+        return ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+    }
+    *addrPtr = reinterpret_cast<HostJni::Bitmap*>(jbitmap)->pixels.data();
+    return ANDROID_BITMAP_RESULT_SUCCESS;
+}
+
+extern "C" int AndroidBitmap_unlockPixels(JNIEnv*, jobject jbitmap) {
+    return jbitmap ? ANDROID_BITMAP_RESULT_SUCCESS : ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+}
@@ -0,0 +1,60 @@
+#ifndef HOST_JNI_H
+#define HOST_JNI_H
+
+#include <jni.h>
+#include <android/log.h>
+#include <cstdint>
+#include <vector>
+
+/**
+ * Just enough of JNI and the NDK to call the effects' native entry points from a host program,
+ * without a JVM. Java arrays are HostJni::Array objects that wrap memory owned by the caller,
+ * bitmaps are HostJni::Bitmap objects, and the JNIEnv implements only the array functions that
+ * the effects use. Calling any other JNI function prints its index in the function table and
+ * aborts, so a kernel that starts using a new function fails loudly rather than misbehaving.
+ *
+ * Everything here is safe to use from several threads at once.
+ */
+namespace HostJni {
+
+    // A Java primitive array. The wrapped memory must outlive any native call that uses it.
+    struct Array {
+        void* data;
+        jsize length;
+        // Only used for arrays that native code creates with New<Type>Array.
+        std::vector<uint8_t> storage;
+    };
+
+    // An ARGB_8888 Bitmap. `strideBytes` can be larger than width * 4 to test padded rows.
+    struct Bitmap {
+        int width;
+        int height;
+        int strideBytes;
+        std::vector<uint32_t> pixels;
+
+        Bitmap(int width, int height, int paddingPixels = 0);
+    };
+
+    JNIEnv* env();
+
+    template <typename T>
+    Array wrap(std::vector<T>& v) {
+        return Array{v.data(), static_cast<jsize>(v.size()), {}};
+    }
+
+    inline jbyteArray byteArray(Array& a) { return reinterpret_cast<jbyteArray>(&a); }
+    inline jintArray intArray(Array& a) { return reinterpret_cast<jintArray>(&a); }
+    inline jfloatArray floatArray(Array& a) { return reinterpret_cast<jfloatArray>(&a); }
+    inline jobject bitmap(Bitmap& b) { return reinterpret_cast<jobject>(&b); }
+
+    // Returns the Array behind an array returned by a native function.
+    inline Array* fromJava(jarray a) { return reinterpret_cast<Array*>(a); }
+
+    // Frees an array that native code created with New<Type>Array.
+    void deleteArray(jarray a);
+
+    // Messages below this priority are dropped. Defaults to ANDROID_LOG_WARN.
+    void setMinLogPriority(int priority);
+}
+
+#endif // HOST_JNI_H
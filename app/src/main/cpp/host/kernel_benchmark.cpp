@@ -0,0 +1,617 @@
+// Runs the native effect kernels on the host, through their JNI entry points and the HostJni
+// shim, and prints timings as JSON. Frames are either synthetic or read from a video recorded by
+// the app (a *_video.dat file of consecutive I420 frames; the size is in the video's metadata).
+//
+//   kernel_benchmark [--sizes 640x480,1280x720,1920x1080] [--threads 1,2,4]
+//                    [--kernels edge,cartoon,...] [--iterations 20] [--max-seconds 2]
+//                    [--video path_video.dat --video-size 1280x720] [--chroma i420,nv12,nv21]
+//                    [--output results.json]
+//   kernel_benchmark --check-chroma [--sizes 640x480,641x361] [--threads 1,4] [--kernels ...]
+//
+// Each case runs one untimed call and then up to --iterations timed calls, stopping early after
+// --max-seconds, cycling through the available frames. --chroma selects how the U and V planes
+// are passed to the kernels that read them: as separate planes (i420), or interleaved with a
+// pixel stride of 2 as camera frames usually are, U first (nv12) or V first (nv21).
+//
+// --check-chroma doesn't time anything. It renders the same synthetic frame with each chroma
+// layout for every kernel that reads chroma, and exits with status 1 if the interleaved layouts
+// don't give exactly the same output as the planar one.
+#include <jni.h>
+#include <algorithm>
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <fstream>
+#include <functional>
+#include <sstream>
+#include <string>
+#include <thread>
+#include <vector>
+#include "edge_kernel.h"
+#include "host_jni.h"
+
+using HostJni::Array;
+
+extern "C" {
+jboolean Java_com_dozingcatsoftware_vectorcamera_effect_EdgeEffect_00024Companion_processImageNativeFromYuvBytes(
+        JNIEnv*, jobject, jbyteArray, jint, jint, jint, jintArray, jobject, jint);
+jboolean Java_com_dozingcatsoftware_vectorcamera_effect_EdgeLuminanceEffect_processImageNative(
+        JNIEnv*, jobject, jint, jint, jint, jbyteArray, jbyteArray, jbyteArray, jint, jint, jobject,
+        jint);
+jboolean Java_com_dozingcatsoftware_vectorcamera_effect_PermuteColorEffect_00024Companion_processImageNativeFromPlanes(
+        JNIEnv*, jobject, jbyteArray, jbyteArray, jbyteArray, jint, jint, jint, jint, jint, jint, jint,
+        jboolean, jobject, jint);
+jboolean Java_com_dozingcatsoftware_vectorcamera_effect_CartoonEffect_00024Companion_processImageNativeFromPlanes(
+        JNIEnv*, jobject, jbyteArray, jbyteArray, jbyteArray, jint, jint, jint, jint, jint, jobject,
+        jint);
+jboolean Java_com_dozingcatsoftware_vectorcamera_effect_Convolve3x3Effect_00024Companion_processImageNativeFromYData(
+        JNIEnv*, jobject, jbyteArray, jint, jint, jfloatArray, jintArray, jobject, jint);
+jboolean Java_com_dozingcatsoftware_vectorcamera_effect_OilPaintingEffect_00024Companion_processImageNativeFromPlanes(
+        JNIEnv*, jobject, jbyteArray, jbyteArray, jbyteArray, jint, jint, jint, jint, jint, jint,
+        jfloat, jobject, jint);
+jboolean Java_com_dozingcatsoftware_vectorcamera_effect_StainedGlassEffect_00024Companion_processStainedGlassNative(
+        JNIEnv*, jobject, jbyteArray, jbyteArray, jbyteArray, jint, jint, jint, jint, jint, jint, jint,
+        jfloat, jobject, jint);
+jboolean Java_com_dozingcatsoftware_vectorcamera_PlaneResizer_resizePlaneNative(
+        JNIEnv*, jobject, jbyteArray, jint, jint, jbyteArray, jint, jint, jintArray, jintArray, jint,
+        jintArray, jintArray, jint, jint);
+void Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_computeBlockBrightnessNative(
+        JNIEnv*, jobject, jbyteArray, jint, jint, jint, jint, jboolean, jbyteArray, jint);
+void Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_applyEdgeDetectionNative(
+        JNIEnv*, jobject, jbyteArray, jbyteArray, jint, jint, jint, jint);
+jintArray Java_com_dozingcatsoftware_vectorcamera_effect_AsciiEffect_computeAsciiDataNativeFromPlanes(
+        JNIEnv*, jobject, jbyteArray, jbyteArray, jbyteArray, jint, jint, jint, jint, jint, jint,
+        jboolean, jint, jint, jint);
+}
+
+struct Frame {
+    int width;
+    int height;
+    std::vector<uint8_t> y;
+    std::vector<uint8_t> u;
+    std::vector<uint8_t> v;
+    // If not empty, U and V interleaved as in NV12, or NV21 if `vFirst` is true, which the
+    // kernels read instead of u and v.
+    std::vector<uint8_t> uv;
+    bool vFirst = false;
+
+    Frame(int width, int height)
+        : width(width), height(height), y(width * height),
+          u(((width + 1) / 2) * ((height + 1) / 2)), v(u.size()) {}
+
+    void interleaveChroma(bool vFirst) {
+        this->vFirst = vFirst;
+        uv.resize(u.size() * 2);
+        for (size_t i = 0; i < u.size(); i++) {
+            uv[2 * i] = vFirst ? v[i] : u[i];
+            uv[2 * i + 1] = vFirst ? u[i] : v[i];
+        }
+    }
+};
+
+// The U and V arguments of a kernel's entry point, either separate planes or two views of the
+// interleaved buffer.
+struct ChromaArgs {
+    Array u;
+    Array v;
+    int pixelStride;
+    int rowStride;
+
+    explicit ChromaArgs(Frame& f) {
+        const int uvWidth = (f.width + 1) / 2;
+        if (f.uv.empty()) {
+            u = HostJni::wrap(f.u);
+            v = HostJni::wrap(f.v);
+            pixelStride = 1;
+            rowStride = uvWidth;
+        }
+        else {
+            const jsize length = static_cast<jsize>(f.uv.size()) - 1;
+            u = Array{f.uv.data() + (f.vFirst ? 1 : 0), length, {}};
+            v = Array{f.uv.data() + (f.vFirst ? 0 : 1), length, {}};
+            pixelStride = 2;
+            rowStride = 2 * uvWidth;
+        }
+    }
+};
+
+// Per-size buffers that the kernels share, so the timed loop doesn't allocate.
+struct Buffers {
+    int width;
+    int height;
+    HostJni::Bitmap bitmap;
+    std::vector<int32_t> colorMap;
+    std::vector<float> coefficients;
+    std::vector<uint8_t> scratch;
+    std::vector<uint8_t> scratch2;
+    // Output of kernels that return an array rather than drawing into `bitmap`.
+    std::vector<int32_t> result;
+    std::vector<int32_t> xStarts, xWeights, yStarts, yWeights;
+
+    Buffers(int width, int height) : width(width), height(height), bitmap(width, height) {
+        for (int i = 0; i < 256; i++) {
+            colorMap.push_back(static_cast<int32_t>(0xFF000000u | (i << 16) | ((255 - i) << 8) | (i / 2)));
+        }
+        coefficients = {-1, -1, -1, -1, 8, -1, -1, -1, -1};
+        scratch.resize(width * height);
+        scratch2.resize(width * height);
+        // 2:1 box filter tables for the plane resizer, in the format PlaneResizer.kt builds.
+        const int weightHalf = 1 << 13;
+        for (int x = 0; x < width / 2; x++) {
+            xStarts.push_back(2 * x);
+            xWeights.insert(xWeights.end(), {weightHalf, weightHalf});
+        }
+        for (int y = 0; y < height / 2; y++) {
+            yStarts.push_back(2 * y);
+            yWeights.insert(yWeights.end(), {weightHalf, weightHalf});
+        }
+    }
+};
+
+// Returns false if the kernel reported failure.
+using KernelFn = std::function<bool(Frame&, Buffers&, int numThreads)>;
+
+struct Kernel {
+    const char* name;
+    KernelFn run;
+    // True if the kernel reads the U and V planes, so its output is checked by --check-chroma.
+    bool readsChroma;
+};
+
+static std::vector<Kernel> allKernels() {
+    JNIEnv* env = HostJni::env();
+    return {
+        {"edge", [env](Frame& f, Buffers& b, int threads) {
+            Array y = HostJni::wrap(f.y), colorMap = HostJni::wrap(b.colorMap);
+            return Java_com_dozingcatsoftware_vectorcamera_effect_EdgeEffect_00024Companion_processImageNativeFromYuvBytes(
+                    env, nullptr, HostJni::byteArray(y), f.width, f.height, 4,
+                    HostJni::intArray(colorMap), HostJni::bitmap(b.bitmap), threads);
+        }, false},
+        {"edge_luminance", [env](Frame& f, Buffers& b, int threads) {
+            Array y = HostJni::wrap(f.y);
+            ChromaArgs c(f);
+            return Java_com_dozingcatsoftware_vectorcamera_effect_EdgeLuminanceEffect_processImageNative(
+                    env, nullptr, f.width, f.height, 4, HostJni::byteArray(y), HostJni::byteArray(c.u),
+                    HostJni::byteArray(c.v), c.pixelStride, c.rowStride, HostJni::bitmap(b.bitmap),
+                    threads);
+        }, true},
+        {"permute", [env](Frame& f, Buffers& b, int threads) {
+            Array y = HostJni::wrap(f.y);
+            ChromaArgs c(f);
+            return Java_com_dozingcatsoftware_vectorcamera_effect_PermuteColorEffect_00024Companion_processImageNativeFromPlanes(
+                    env, nullptr, HostJni::byteArray(y), HostJni::byteArray(c.u), HostJni::byteArray(c.v),
+                    c.pixelStride, c.rowStride, f.width, f.height, 3, 1, 2, JNI_TRUE,
+                    HostJni::bitmap(b.bitmap), threads);
+        }, true},
+        {"cartoon", [env](Frame& f, Buffers& b, int threads) {
+            Array y = HostJni::wrap(f.y);
+            ChromaArgs c(f);
+            return Java_com_dozingcatsoftware_vectorcamera_effect_CartoonEffect_00024Companion_processImageNativeFromPlanes(
+                    env, nullptr, HostJni::byteArray(y), HostJni::byteArray(c.u), HostJni::byteArray(c.v),
+                    c.pixelStride, c.rowStride, f.width, f.height, 4, HostJni::bitmap(b.bitmap),
+                    threads);
+        }, true},
+        {"convolve", [env](Frame& f, Buffers& b, int threads) {
+            Array y = HostJni::wrap(f.y), coefficients = HostJni::wrap(b.coefficients),
+                    colorMap = HostJni::wrap(b.colorMap);
+            return Java_com_dozingcatsoftware_vectorcamera_effect_Convolve3x3Effect_00024Companion_processImageNativeFromYData(
+                    env, nullptr, HostJni::byteArray(y), f.width, f.height,
+                    HostJni::floatArray(coefficients), HostJni::intArray(colorMap),
+                    HostJni::bitmap(b.bitmap), threads);
+        }, false},
+        {"oil_painting", [env](Frame& f, Buffers& b, int threads) {
+            Array y = HostJni::wrap(f.y);
+            ChromaArgs c(f);
+            return Java_com_dozingcatsoftware_vectorcamera_effect_OilPaintingEffect_00024Companion_processImageNativeFromPlanes(
+                    env, nullptr, HostJni::byteArray(y), HostJni::byteArray(c.u), HostJni::byteArray(c.v),
+                    c.pixelStride, c.rowStride, f.width, f.height, 8, 32, 2.0f,
+                    HostJni::bitmap(b.bitmap), threads);
+        }, true},
+        {"stained_glass", [env](Frame& f, Buffers& b, int threads) {
+            Array y = HostJni::wrap(f.y);
+            ChromaArgs c(f);
+            const int segmentSize = std::max(16, f.width / 64);
+            const int edgeThickness = std::max(1, static_cast<int>(std::lround(0.002 * f.width)));
+            return Java_com_dozingcatsoftware_vectorcamera_effect_StainedGlassEffect_00024Companion_processStainedGlassNative(
+                    env, nullptr, HostJni::byteArray(y), HostJni::byteArray(c.u), HostJni::byteArray(c.v),
+                    c.pixelStride, c.rowStride, f.width, f.height, segmentSize, edgeThickness,
+                    static_cast<jint>(0xFF000000), 0.1f, HostJni::bitmap(b.bitmap), threads);
+        }, true},
+        {"plane_resize_half", [env](Frame& f, Buffers& b, int threads) {
+            Array src = HostJni::wrap(f.y), dst = HostJni::wrap(b.scratch);
+            Array xStarts = HostJni::wrap(b.xStarts), xWeights = HostJni::wrap(b.xWeights);
+            Array yStarts = HostJni::wrap(b.yStarts), yWeights = HostJni::wrap(b.yWeights);
+            return Java_com_dozingcatsoftware_vectorcamera_PlaneResizer_resizePlaneNative(
+                    env, nullptr, HostJni::byteArray(src), 1, f.width, HostJni::byteArray(dst),
+                    f.width / 2, f.height / 2, HostJni::intArray(xStarts), HostJni::intArray(xWeights),
+                    2, HostJni::intArray(yStarts), HostJni::intArray(yWeights), 2, threads);
+        }, false},
+        {"matrix_blocks", [env](Frame& f, Buffers& b, int threads) {
+            Array y = HostJni::wrap(f.y), blocks = HostJni::wrap(b.scratch),
+                    edges = HostJni::wrap(b.scratch2);
+            const int cols = f.width / 10;
+            const int rows = f.height / 16;
+            Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_computeBlockBrightnessNative(
+                    env, nullptr, HostJni::byteArray(y), f.width, f.height, cols, rows, JNI_FALSE,
+                    HostJni::byteArray(blocks), threads);
+            Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_applyEdgeDetectionNative(
+                    env, nullptr, HostJni::byteArray(blocks), HostJni::byteArray(edges), cols, rows,
+                    4, threads);
+            return true;
+        }, false},
+        {"ascii_cells", [env](Frame& f, Buffers& b, int) {
+            Array y = HostJni::wrap(f.y);
+            ChromaArgs c(f);
+            jintArray result = Java_com_dozingcatsoftware_vectorcamera_effect_AsciiEffect_computeAsciiDataNativeFromPlanes(
+                    env, nullptr, HostJni::byteArray(y), HostJni::byteArray(c.u), HostJni::byteArray(c.v),
+                    c.pixelStride, c.rowStride, f.width, f.height, f.width / 10, f.height / 16,
+                    JNI_FALSE, 1, 10, static_cast<jint>(0xFFFFFFFF));
+            if (!result) {
+                return false;
+            }
+            const HostJni::Array* cells = HostJni::fromJava(result);
+            const int32_t* cellData = static_cast<const int32_t*>(cells->data);
+            b.result.assign(cellData, cellData + cells->length);
+            HostJni::deleteArray(result);
+            return true;
+        }, true},
+    };
+}
+
+// Smooth gradients with noise and some hard-edged blocks, so edge and segmentation kernels have
+// both flat regions and detail. `seed` varies the content between frames.
+static Frame syntheticFrame(int width, int height, uint32_t seed) {
+    Frame f(width, height);
+    uint32_t state = seed * 2654435761u + 1;
+    auto noise = [&state]() {
+        state = state * 1664525u + 1013904223u;
+        return static_cast<int>(state >> 28);
+    };
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            int value = (x * 255 / std::max(1, width - 1) + y * 128 / std::max(1, height - 1)) / 2;
+            if (((x + seed * 7) / 64 + y / 64) % 5 == 0) {
+                value = 255 - value;
+            }
+            f.y[y * width + x] = static_cast<uint8_t>(std::min(255, value + noise()));
+        }
+    }
+    const int uvWidth = (width + 1) / 2;
+    const int uvHeight = (height + 1) / 2;
+    for (int y = 0; y < uvHeight; y++) {
+        for (int x = 0; x < uvWidth; x++) {
+            f.u[y * uvWidth + x] = static_cast<uint8_t>(64 + (x * 128) / uvWidth);
+            f.v[y * uvWidth + x] = static_cast<uint8_t>(192 - (y * 128) / uvHeight);
+        }
+    }
+    return f;
+}
+
+// Reads up to maxFrames I420 frames from a video recorded by the app.
+static std::vector<Frame> readVideoFrames(const std::string& path, int width, int height,
+                                          int maxFrames) {
+    std::vector<Frame> frames;
+    std::ifstream in(path, std::ios::binary);
+    if (!in) {
+        std::fprintf(stderr, "Can't open %s\n", path.c_str());
+        std::exit(2);
+    }
+    while (static_cast<int>(frames.size()) < maxFrames) {
+        Frame f(width, height);
+        in.read(reinterpret_cast<char*>(f.y.data()), f.y.size());
+        in.read(reinterpret_cast<char*>(f.u.data()), f.u.size());
+        in.read(reinterpret_cast<char*>(f.v.data()), f.v.size());
+        if (!in) {
+            break;
+        }
+        frames.push_back(std::move(f));
+    }
+    if (frames.empty()) {
+        std::fprintf(stderr, "No complete %dx%d frames in %s\n", width, height, path.c_str());
+        std::exit(2);
+    }
+    return frames;
+}
+
+static std::vector<std::string> splitList(const std::string& s) {
+    std::vector<std::string> parts;
+    std::stringstream ss(s);
+    std::string part;
+    while (std::getline(ss, part, ',')) {
+        if (!part.empty()) {
+            parts.push_back(part);
+        }
+    }
+    return parts;
+}
+
+static bool parseSize(const std::string& s, int* width, int* height) {
+    return std::sscanf(s.c_str(), "%dx%d", width, height) == 2 && *width > 0 && *height > 0;
+}
+
+struct Source {
+    std::string name;
+    std::vector<Frame> frames;
+    std::string chroma = "i420";
+};
+
+struct Options {
+    std::vector<std::pair<int, int>> sizes = {{640, 480}, {1280, 720}, {1920, 1080}};
+    std::vector<int> threads = {1, 2, 4};
+    std::vector<std::string> kernels;
+    int iterations = 20;
+    double maxSeconds = 2.0;
+    std::vector<std::string> chromaLayouts = {"i420"};
+    std::string videoPath;
+    int videoWidth = 0;
+    int videoHeight = 0;
+    int videoFrames = 30;
+    std::string outputPath;
+    bool checkChroma = false;
+};
+
+[[noreturn]] static void usage(const char* message) {
+    std::fprintf(stderr, "%s\nSee the comment at the top of kernel_benchmark.cpp for options.\n",
+                 message);
+    std::exit(2);
+}
+
+static Options parseOptions(int argc, char** argv) {
+    Options options;
+    for (int i = 1; i < argc; i++) {
+        const std::string arg = argv[i];
+        if (arg == "--check-chroma") {
+            options.checkChroma = true;
+            continue;
+        }
+        if (i + 1 >= argc) {
+            usage(("Missing value for " + arg).c_str());
+        }
+        const std::string value = argv[++i];
+        if (arg == "--sizes") {
+            options.sizes.clear();
+            for (const auto& s : splitList(value)) {
+                int w, h;
+                if (!parseSize(s, &w, &h)) {
+                    usage(("Bad size: " + s).c_str());
+                }
+                options.sizes.emplace_back(w, h);
+            }
+        }
+        else if (arg == "--threads") {
+            options.threads.clear();
+            for (const auto& s : splitList(value)) {
+                options.threads.push_back(std::max(1, std::atoi(s.c_str())));
+            }
+        }
+        else if (arg == "--kernels") {
+            options.kernels = splitList(value);
+        }
+        else if (arg == "--iterations") {
+            options.iterations = std::max(1, std::atoi(value.c_str()));
+        }
+        else if (arg == "--max-seconds") {
+            options.maxSeconds = std::atof(value.c_str());
+        }
+        else if (arg == "--chroma") {
+            options.chromaLayouts = splitList(value);
+            for (const auto& layout : options.chromaLayouts) {
+                if (layout != "i420" && layout != "nv12" && layout != "nv21") {
+                    usage(("Bad chroma layout: " + layout).c_str());
+                }
+            }
+        }
+        else if (arg == "--video") {
+            options.videoPath = value;
+        }
+        else if (arg == "--video-size") {
+            if (!parseSize(value, &options.videoWidth, &options.videoHeight)) {
+                usage(("Bad size: " + value).c_str());
+            }
+        }
+        else if (arg == "--video-frames") {
+            options.videoFrames = std::max(1, std::atoi(value.c_str()));
+        }
+        else if (arg == "--output") {
+            options.outputPath = value;
+        }
+        else {
+            usage(("Unknown option: " + arg).c_str());
+        }
+    }
+    if (!options.videoPath.empty() && options.videoWidth == 0) {
+        usage("--video requires --video-size");
+    }
+    return options;
+}
+
+struct Timings {
+    int calls = 0;
+    bool ok = true;
+    double minMs = 0, medianMs = 0, meanMs = 0, p90Ms = 0, maxMs = 0;
+};
+
+static Timings timeKernel(const Kernel& kernel, std::vector<Frame>& frames, Buffers& buffers,
+                          int numThreads, const Options& options) {
+    using Clock = std::chrono::steady_clock;
+    Timings t;
+    t.ok = kernel.run(frames[0], buffers, numThreads);
+    std::vector<double> millis;
+    const auto deadline = Clock::now() + std::chrono::duration<double>(options.maxSeconds);
+    for (int i = 0; i < options.iterations && t.ok; i++) {
+        Frame& frame = frames[(i + 1) % frames.size()];
+        const auto start = Clock::now();
+        t.ok = kernel.run(frame, buffers, numThreads);
+        const auto end = Clock::now();
+        millis.push_back(std::chrono::duration<double, std::milli>(end - start).count());
+        if (end > deadline) {
+            break;
+        }
+    }
+    if (millis.empty()) {
+        return t;
+    }
+    std::sort(millis.begin(), millis.end());
+    t.calls = static_cast<int>(millis.size());
+    t.minMs = millis.front();
+    t.maxMs = millis.back();
+    t.medianMs = millis[millis.size() / 2];
+    t.p90Ms = millis[std::min(millis.size() - 1, millis.size() * 9 / 10)];
+    double sum = 0;
+    for (double m : millis) {
+        sum += m;
+    }
+    t.meanMs = sum / millis.size();
+    return t;
+}
+
+// Renders `planar` with each kernel that reads chroma, and again with its chroma interleaved in
+// both orders, and reports any difference in the output. Returns the number of mismatches.
+static int checkChromaLayouts(const std::vector<Kernel>& kernels, const Frame& planar,
+                              const std::vector<int>& threadCounts) {
+    int mismatches = 0;
+    for (const auto& kernel : kernels) {
+        if (!kernel.readsChroma) {
+            continue;
+        }
+        for (int numThreads : threadCounts) {
+            std::vector<uint32_t> expectedPixels;
+            std::vector<int32_t> expectedResult;
+            for (const char* layout : {"i420", "nv12", "nv21"}) {
+                Frame frame = planar;
+                if (std::strcmp(layout, "i420") != 0) {
+                    frame.interleaveChroma(std::strcmp(layout, "nv21") == 0);
+                }
+                Buffers buffers(frame.width, frame.height);
+                // Different for each layout, so a kernel that skips pixels can't match by accident.
+                // Kernels that return `result` don't draw, so only their result is compared.
+                std::fill(buffers.bitmap.pixels.begin(), buffers.bitmap.pixels.end(),
+                          0x12345600u + static_cast<uint32_t>(expectedPixels.empty()));
+                const bool ok = kernel.run(frame, buffers, numThreads);
+                const char* error = nullptr;
+                if (!ok) {
+                    error = "kernel failed";
+                }
+                else if (expectedPixels.empty()) {
+                    expectedPixels = buffers.bitmap.pixels;
+                    expectedResult = buffers.result;
+                    continue;
+                }
+                else if (buffers.result != expectedResult ||
+                        (buffers.result.empty() && buffers.bitmap.pixels != expectedPixels)) {
+                    error = "output differs from i420";
+                }
+                const bool failed = error != nullptr;
+                mismatches += failed ? 1 : 0;
+                std::fprintf(stderr, "%-18s %-4s %4dx%-4d %dT  %s\n", kernel.name, layout,
+                             frame.width, frame.height, numThreads, failed ? error : "ok");
+                if (!ok) {
+                    break;
+                }
+            }
+        }
+    }
+    return mismatches;
+}
+
+int main(int argc, char** argv) {
+    const Options options = parseOptions(argc, argv);
+
+    std::vector<Kernel> kernels;
+    for (const auto& k : allKernels()) {
+        if (options.kernels.empty() ||
+                std::find(options.kernels.begin(), options.kernels.end(), k.name) != options.kernels.end()) {
+            kernels.push_back(k);
+        }
+    }
+    if (kernels.empty()) {
+        usage("No matching kernels");
+    }
+
+    if (options.checkChroma) {
+        int mismatches = 0;
+        for (const auto& size : options.sizes) {
+            mismatches += checkChromaLayouts(
+                    kernels, syntheticFrame(size.first, size.second, 1), options.threads);
+        }
+        if (mismatches > 0) {
+            std::fprintf(stderr, "%d chroma layout mismatches\n", mismatches);
+            return 1;
+        }
+        return 0;
+    }
+
+    std::vector<Source> planarSources;
+    for (const auto& size : options.sizes) {
+        Source s{"synthetic", {}};
+        for (uint32_t seed = 0; seed < 4; seed++) {
+            s.frames.push_back(syntheticFrame(size.first, size.second, seed));
+        }
+        planarSources.push_back(std::move(s));
+    }
+    if (!options.videoPath.empty()) {
+        planarSources.push_back({"video", readVideoFrames(options.videoPath, options.videoWidth,
+                                                          options.videoHeight, options.videoFrames)});
+    }
+    std::vector<Source> sources;
+    for (const auto& layout : options.chromaLayouts) {
+        for (const auto& planar : planarSources) {
+            Source s = planar;
+            s.chroma = layout;
+            if (layout != "i420") {
+                for (auto& f : s.frames) {
+                    f.interleaveChroma(layout == "nv21");
+                }
+            }
+            sources.push_back(std::move(s));
+        }
+    }
+
+    std::ostringstream json;
+    json << "{\n  \"host\": {\"hardwareConcurrency\": " << std::thread::hardware_concurrency()
+         << ", \"edgeKernelBackend\": \"" << EdgeKernel::backendName() << "\"},\n"
+         << "  \"iterations\": " << options.iterations << ",\n  \"results\": [";
+    bool first = true;
+    char line[512];
+    for (auto& source : sources) {
+        const int width = source.frames[0].width;
+        const int height = source.frames[0].height;
+        Buffers buffers(width, height);
+        for (const auto& kernel : kernels) {
+            for (int numThreads : options.threads) {
+                const Timings t = timeKernel(kernel, source.frames, buffers, numThreads, options);
+                const double megapixelsPerSecond =
+                        t.medianMs > 0 ? width * height / (t.medianMs * 1000) : 0;
+                std::snprintf(line, sizeof(line),
+                        "%s\n    {\"kernel\": \"%s\", \"source\": \"%s\", \"chroma\": \"%s\", "
+                        "\"width\": %d, \"height\": %d, \"threads\": %d, \"ok\": %s, \"calls\": %d, "
+                        "\"minMs\": %.3f, \"medianMs\": %.3f, \"meanMs\": %.3f, \"p90Ms\": %.3f, "
+                        "\"maxMs\": %.3f, \"megapixelsPerSecond\": %.1f}",
+                        first ? "" : ",", kernel.name, source.name.c_str(), source.chroma.c_str(),
+                        width, height, numThreads, t.ok ? "true" : "false", t.calls, t.minMs,
+                        t.medianMs, t.meanMs, t.p90Ms, t.maxMs, megapixelsPerSecond);
+                json << line;
+                first = false;
+                std::fprintf(stderr, "%-18s %-9s %-4s %4dx%-4d %dT  median %8.3f ms\n",
+                             kernel.name, source.name.c_str(), source.chroma.c_str(), width,
+                             height, numThreads, t.medianMs);
+            }
+        }
+    }
+    json << "\n  ]\n}\n";
+
+    if (options.outputPath.empty()) {
+        std::fputs(json.str().c_str(), stdout);
+    }
+    else {
+        std::ofstream out(options.outputPath);
+        out << json.str();
+        if (!out) {
+            std::fprintf(stderr, "Failed to write %s\n", options.outputPath.c_str());
+            return 1;
+        }
+    }
+    return 0;
+}
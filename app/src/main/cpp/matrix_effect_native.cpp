@@ -3,8 +3,8 @@
 #include <algorithm>
 #include <cstdint>
 #include <cmath>
-#include <thread>
 #include <vector>
+#include "thread_pool.h"
 
 #define LOG_TAG "MatrixEffectNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
@@ -147,28 +147,12 @@ Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_computeBlockBrightne
     const uint8_t* yDataPtr = reinterpret_cast<const uint8_t*>(yBytes);
     uint8_t* blockPtr = reinterpret_cast<uint8_t*>(blockBytes);
     
-    if (numThreads == 1) {
-        computeBlockBrightness(yDataPtr, imageWidth, imageHeight, 
+    // Process bands of character rows on the shared worker threads
+    parallelFor(numCharRows, numThreads, [&](int startRow, int endRow) {
+        computeBlockBrightness(yDataPtr, imageWidth, imageHeight,
                               numCharColumns, numCharRows, isPortrait,
-                              blockPtr, 0, numCharRows);
-    } else {
-        std::vector<std::thread> threads;
-        const int rowsPerThread = numCharRows / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            const int startRow = threadIndex * rowsPerThread;
-            const int endRow = (threadIndex == numThreads - 1) ? 
-                numCharRows : (threadIndex + 1) * rowsPerThread;
-            
-            threads.emplace_back(computeBlockBrightness, yDataPtr, imageWidth, imageHeight,
-                               numCharColumns, numCharRows, isPortrait, blockPtr, startRow, endRow);
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+                              blockPtr, startRow, endRow);
+    });
     
     // Release arrays
     env->ReleaseByteArrayElements(yData, yBytes, JNI_ABORT);
@@ -200,25 +184,9 @@ Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_applyEdgeDetectionNa
     const uint8_t* inputPtr = reinterpret_cast<const uint8_t*>(inputBytes);
     uint8_t* outputPtr = reinterpret_cast<uint8_t*>(outputBytes);
     
-    if (numThreads == 1) {
-        applyEdgeDetection(inputPtr, outputPtr, width, height, multiplier, 0, height);
-    } else {
-        std::vector<std::thread> threads;
-        const int rowsPerThread = height / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            const int startRow = threadIndex * rowsPerThread;
-            const int endRow = (threadIndex == numThreads - 1) ? 
-                height : (threadIndex + 1) * rowsPerThread;
-            
-            threads.emplace_back(applyEdgeDetection, inputPtr, outputPtr, width, height, 
-                               multiplier, startRow, endRow);
-        }
-        
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+    parallelFor(height, numThreads, [&](int startRow, int endRow) {
+        applyEdgeDetection(inputPtr, outputPtr, width, height, multiplier, startRow, endRow);
+    });
     
     env->ReleaseByteArrayElements(input, inputBytes, JNI_ABORT);
     env->ReleaseByteArrayElements(output, outputBytes, 0);
@@ -231,7 +199,7 @@ Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_applyEdgeDetectionNa
  */
 JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_isNativeAvailable(
-    JNIEnv *env,
+    JNIEnv* /* env */,
     jobject /* this */
 ) {
     return JNI_TRUE;
@@ -250,7 +218,6 @@ void renderCharacterGrid(
     const int* __restrict__ characterIndices,
     const uint32_t* __restrict__ characterColors,
     int numCharColumns,
-    int numCharRows,
     bool isPortrait,
     bool xFlipped,
     bool yFlipped,
@@ -372,31 +339,13 @@ Java_com_dozingcatsoftware_vectorcamera_effect_MatrixEffect_renderCharacterGridN
     const int totalPixels = outputWidth * outputHeight;
     std::fill(outputPtr, outputPtr + totalPixels, 0xFF000000);
     
-    if (numThreads == 1) {
+    // Process bands of character rows on the shared worker threads
+    parallelFor(numCharRows, numThreads, [&](int startRow, int endRow) {
         renderCharacterGrid(templatePtr, templateWidth, templateHeight, charWidth, charHeight,
-                           indicesPtr, colorsPtr, numCharColumns, numCharRows,
+                           indicesPtr, colorsPtr, numCharColumns,
                            isPortrait, xFlipped, yFlipped, outputWidth, outputHeight,
-                           outputPtr, 0, numCharRows);
-    } else {
-        std::vector<std::thread> threads;
-        const int rowsPerThread = numCharRows / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            const int startRow = threadIndex * rowsPerThread;
-            const int endRow = (threadIndex == numThreads - 1) ? 
-                numCharRows : (threadIndex + 1) * rowsPerThread;
-            
-            threads.emplace_back(renderCharacterGrid, templatePtr, templateWidth, templateHeight,
-                               charWidth, charHeight, indicesPtr, colorsPtr, numCharColumns, numCharRows,
-                               isPortrait, xFlipped, yFlipped, outputWidth, outputHeight,
-                               outputPtr, startRow, endRow);
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+                           outputPtr, startRow, endRow);
+    });
     
     // Release arrays
     env->ReleaseIntArrayElements(templatePixels, templateInts, JNI_ABORT);
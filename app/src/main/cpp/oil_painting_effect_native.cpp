@@ -2,10 +2,13 @@
 #include <android/log.h>
 #include <cmath>
 #include <algorithm>
+#include <atomic>
 #include <cstring>
-#include <thread>
+#include <mutex>
 #include <vector>
 #include "yuv.h"
+#include "bitmap_output.h"
+#include "thread_pool.h"
 
 #define LOG_TAG "OilPaintingEffectNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
@@ -26,17 +29,21 @@ struct BrushPattern {
     std::vector<std::pair<int16_t, int16_t>> rightEdgeToAdd;  // Pixels to add when moving right
 };
 
-// Global brush pattern cache (thread-safe since read-only after initialization)
+// Global brush pattern cache (thread-safe since read-only after initialization). Several frames
+// can be processed concurrently, so initialization is guarded by a mutex.
 static std::vector<BrushPattern> brushPatterns;
-static bool brushPatternsInitialized = false;
+static std::atomic<bool> brushPatternsInitialized(false);
+static std::mutex brushPatternsMutex;
 
 /**
  * Initialize pre-computed brush patterns for all possible radii.
  * Called once at startup to avoid runtime overhead.
  */
 void initializeBrushPatterns() {
-    if (brushPatternsInitialized) return;
-    
+    if (brushPatternsInitialized.load(std::memory_order_acquire)) return;
+    std::lock_guard<std::mutex> lock(brushPatternsMutex);
+    if (brushPatternsInitialized.load(std::memory_order_relaxed)) return;
+
     const int maxRadius = 20; // Support up to radius 20
     brushPatterns.resize(maxRadius + 1);
     
@@ -86,7 +93,7 @@ void initializeBrushPatterns() {
         }
     }
     
-    brushPatternsInitialized = true;
+    brushPatternsInitialized.store(true, std::memory_order_release);
     LOGI("Initialized brush patterns for radii 0-%d with incremental updates", maxRadius);
 }
 
@@ -94,7 +101,7 @@ void initializeBrushPatterns() {
  * Fast YUV to RGB conversion optimized for oil painting effect.
  */
 FORCE_INLINE uint32_t yuvToRgbQuantized(int y, int u, int v, int quantizationStep) {
-    uint32_t rgb = YuvUtils::yuvToRgbFixed(y, u, v);
+    uint32_t rgb = YuvUtils::yuvToRgb(y, u, v);
     uint32_t r = rgb >> 16;
     uint32_t g = (rgb >> 8) & 0xFF;
     uint32_t b = rgb & 0xFF;
@@ -195,7 +202,7 @@ void updateColorCounts(
     std::vector<uint32_t>& colorSamples,
     ColorCountUpdateType updateType
 ) {
-    if (!brushPatternsInitialized) {
+    if (!brushPatternsInitialized.load(std::memory_order_acquire)) {
         initializeBrushPatterns();
     }
     
@@ -279,22 +286,22 @@ uint32_t findDominantColorFromCounts(
 }
 
 /**
- * Process a range of rows for the oil painting effect.
+ * Process a range of rows for the oil painting effect. Pixels are written in bitmap format, and
+ * outputStride is in pixels.
  */
 void processOilPaintingRows(
     const uint8_t* yData,
-    const uint8_t* uData,
-    const uint8_t* vData,
+    const YuvUtils::ChromaPlanes& chroma,
     int width,
     int height,
     int brushSize,
     int levels,
     float contrastSensitivity,
     uint32_t* outputPixels,
+    int outputStride,
     int startRow,
     int endRow
 ) {
-    const int uvWidth = (width + 1) / 2;
     const int quantizationStep = 256 / levels;
     
     // First pass: Convert YUV to quantized RGB
@@ -308,11 +315,8 @@ void processOilPaintingRows(
             int yy = yData[pixelIndex];
             
             // Get U and V values (subsampled)
-            int uvX = x / 2;
-            int uvY = y / 2;
-            int uvIndex = uvY * uvWidth + uvX;
-            int u = uData[uvIndex];
-            int v = vData[uvIndex];
+            int u = chroma.uAt(x / 2, y / 2);
+            int v = chroma.vAt(x / 2, y / 2);
             
             rgbPixels[pixelIndex] = yuvToRgbQuantized(yy, u, v, quantizationStep);
         }
@@ -371,26 +375,38 @@ void processOilPaintingRows(
                 colorCounts, usedColors, colorSamples, rgbPixels[pixelIndex]
             );
             
-            outputPixels[pixelIndex] = dominantColor;
+            outputPixels[y * outputStride + x] = BitmapOutput::toBitmapPixel(dominantColor);
             previousBrushSize = localBrushSize;
         }
     }
 }
 
-extern "C" JNIEXPORT jintArray JNICALL
+// Writes directly into the pixels of outputBitmap. The U and V planes can be dense or
+// interleaved, as described by uvPixelStride and uvRowStride. Returns false if the bitmap
+// couldn't be locked or the planes couldn't be accessed, in which case the caller should use the
+// Kotlin implementation.
+extern "C" JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_OilPaintingEffect_00024Companion_processImageNativeFromPlanes(
     JNIEnv* env,
-    jobject thiz,
+    jobject /* this */,
     jbyteArray yData,
     jbyteArray uData,
     jbyteArray vData,
+    jint uvPixelStride,
+    jint uvRowStride,
     jint width,
     jint height,
     jint brushSize,
     jint levels,
     jfloat contrastSensitivity,
+    jobject outputBitmap,
     jint numThreads
 ) {
+    BitmapOutput::LockedBitmap output(env, outputBitmap, width, height);
+    if (!output.ok()) {
+        return JNI_FALSE;
+    }
+
     // Get native arrays
     jbyte* yDataPtr = env->GetByteArrayElements(yData, nullptr);
     jbyte* uDataPtr = env->GetByteArrayElements(uData, nullptr);
@@ -398,91 +414,51 @@ Java_com_dozingcatsoftware_vectorcamera_effect_OilPaintingEffect_00024Companion_
     
     if (!yDataPtr || !uDataPtr || !vDataPtr) {
         LOGE("Failed to get native arrays");
-        return nullptr;
-    }
-    
-    // Create output array
-    jintArray outputArray = env->NewIntArray(width * height);
-    if (!outputArray) {
-        LOGE("Failed to create output array");
-        return nullptr;
-    }
-    
-    jint* outputPixels = env->GetIntArrayElements(outputArray, nullptr);
-    if (!outputPixels) {
-        LOGE("Failed to get output array elements");
-        return nullptr;
+        if (yDataPtr) env->ReleaseByteArrayElements(yData, yDataPtr, JNI_ABORT);
+        if (uDataPtr) env->ReleaseByteArrayElements(uData, uDataPtr, JNI_ABORT);
+        if (vDataPtr) env->ReleaseByteArrayElements(vData, vDataPtr, JNI_ABORT);
+        return JNI_FALSE;
     }
+
+    const YuvUtils::ChromaPlanes chroma{reinterpret_cast<const uint8_t*>(uDataPtr),
+                                        reinterpret_cast<const uint8_t*>(vDataPtr),
+                                        uvPixelStride, uvRowStride};
+    uint32_t* outputPixels = output.pixels();
+    const int outputStride = output.stride();
+    bool success = true;
     
     try {
         // Initialize brush patterns on first use
         initializeBrushPatterns();
         
-        if (numThreads == 1) {
-            // Single-threaded processing
+        // Process bands of rows on the shared worker threads
+        parallelFor(height, numThreads, [&](int startRow, int endRow) {
             processOilPaintingRows(
                 reinterpret_cast<const uint8_t*>(yDataPtr),
-                reinterpret_cast<const uint8_t*>(uDataPtr),
-                reinterpret_cast<const uint8_t*>(vDataPtr),
+                chroma,
                 width,
                 height,
                 brushSize,
                 levels,
                 contrastSensitivity,
-                reinterpret_cast<uint32_t*>(outputPixels),
-                0,
-                height
+                outputPixels,
+                outputStride,
+                startRow,
+                endRow
             );
-        } else {
-            // Multi-threaded processing
-            std::vector<std::thread> threads;
-            threads.reserve(numThreads);
-            
-            int rowsPerThread = height / numThreads;
-            
-            for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-                int startRow = threadIndex * rowsPerThread;
-                int endRow = (threadIndex == numThreads - 1) ? height : (threadIndex + 1) * rowsPerThread;
-                
-                threads.emplace_back([=]() {
-                    processOilPaintingRows(
-                        reinterpret_cast<const uint8_t*>(yDataPtr),
-                        reinterpret_cast<const uint8_t*>(uDataPtr),
-                        reinterpret_cast<const uint8_t*>(vDataPtr),
-                        width,
-                        height,
-                        brushSize,
-                        levels,
-                        contrastSensitivity,
-                        reinterpret_cast<uint32_t*>(outputPixels),
-                        startRow,
-                        endRow
-                    );
-                });
-            }
-            
-            // Wait for all threads to complete
-            for (auto& thread : threads) {
-                thread.join();
-            }
-        }
+        });
 //        LOGI("Oil painting effect processed successfully: %dx%d, brush=%d, levels=%d, threads=%d",
 //             width, height, brushSize, levels, numThreads);
         
     } catch (const std::exception& e) {
         LOGE("Exception during oil painting processing: %s", e.what());
-        env->ReleaseIntArrayElements(outputArray, outputPixels, JNI_ABORT);
-        env->ReleaseByteArrayElements(yData, yDataPtr, JNI_ABORT);
-        env->ReleaseByteArrayElements(uData, uDataPtr, JNI_ABORT);
-        env->ReleaseByteArrayElements(vData, vDataPtr, JNI_ABORT);
-        return nullptr;
+        success = false;
     }
     
     // Release arrays
-    env->ReleaseIntArrayElements(outputArray, outputPixels, 0);
     env->ReleaseByteArrayElements(yData, yDataPtr, JNI_ABORT);
     env->ReleaseByteArrayElements(uData, uDataPtr, JNI_ABORT);
     env->ReleaseByteArrayElements(vData, vDataPtr, JNI_ABORT);
     
-    return outputArray;
+    return success ? JNI_TRUE : JNI_FALSE;
 }
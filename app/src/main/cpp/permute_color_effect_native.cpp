@@ -1,10 +1,11 @@
 #include <jni.h>
 #include <android/log.h>
-#include <thread>
 #include <vector>
 #include <algorithm>
 #include <cmath>
 #include "yuv.h"
+#include "bitmap_output.h"
+#include "thread_pool.h"
 
 #define LOG_TAG "PermuteColorEffectNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
@@ -21,23 +22,23 @@ inline int extractComponent(int r, int g, int b, int source) {
     }
 }
 
-// Process rows function for multi-threading
+// Process rows function for multi-threading. Pixels are written in bitmap format, and
+// outputStride is in pixels.
 void processRows(
     int startY, 
     int endY, 
     int width, 
-    int height, 
     const unsigned char* yData, 
-    const unsigned char* uData, 
-    const unsigned char* vData, 
-    int uvWidth, 
-    int* pixels,
+    const YuvUtils::ChromaPlanes& chroma,
+    uint32_t* outputPixels,
+    int outputStride,
     int redSource,
     int greenSource,
     int blueSource,
     bool flipUV
 ) {
     for (int y = startY; y < endY; y++) {
+        uint32_t* outputRow = outputPixels + y * outputStride;
         for (int x = 0; x < width; x++) {
             int pixelIndex = y * width + x;
 
@@ -45,11 +46,8 @@ void processRows(
             int yy = yData[pixelIndex] & 0xFF;
 
             // Get U and V values (subsampled)
-            int uvX = x / 2;
-            int uvY = y / 2;
-            int uvIndex = uvY * uvWidth + uvX;
-            int u = uData[uvIndex] & 0xFF;
-            int v = vData[uvIndex] & 0xFF;
+            int u = chroma.uAt(x / 2, y / 2);
+            int v = chroma.vAt(x / 2, y / 2);
 
             // flipUV rotates the color 180 degrees in UV space.
             int uu = flipUV ? (-u & 0xFF) : u;
@@ -66,90 +64,69 @@ void processRows(
             int outputG = extractComponent(r, g, b, greenSource);
             int outputB = extractComponent(r, g, b, blueSource);
 
-            // Create final ARGB pixel
-            pixels[pixelIndex] = (255 << 24) | (outputR << 16) | (outputG << 8) | outputB;
+            // Create final pixel, which is opaque so it only needs R and B swapped for the bitmap
+            outputRow[x] = (255u << 24) | (outputB << 16) | (outputG << 8) | outputR;
         }
     }
 }
 
-extern "C" JNIEXPORT jintArray JNICALL
+// Writes directly into the pixels of outputBitmap. The U and V planes can be dense or
+// interleaved, as described by uvPixelStride and uvRowStride. Returns false if the bitmap
+// couldn't be locked or the planes couldn't be accessed, in which case the caller should use the
+// Kotlin implementation.
+extern "C" JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_PermuteColorEffect_00024Companion_processImageNativeFromPlanes(
     JNIEnv* env, 
     jobject /* this */, 
     jbyteArray yData_, 
     jbyteArray uData_, 
     jbyteArray vData_, 
+    jint uvPixelStride,
+    jint uvRowStride,
     jint width, 
     jint height,
     jint redSource,
     jint greenSource,
     jint blueSource,
     jboolean flipUV,
+    jobject outputBitmap,
     jint numThreads
 ) {
+    BitmapOutput::LockedBitmap output(env, outputBitmap, width, height);
+    if (!output.ok()) {
+        return JNI_FALSE;
+    }
+
     // Get individual plane data
     jbyte* yBytes = env->GetByteArrayElements(yData_, NULL);
     jbyte* uBytes = env->GetByteArrayElements(uData_, NULL);
     jbyte* vBytes = env->GetByteArrayElements(vData_, NULL);
     
     if (yBytes == NULL || uBytes == NULL || vBytes == NULL) {
-        if (yBytes) env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        if (uBytes) env->ReleaseByteArrayElements(uData_, uBytes, 0);
-        if (vBytes) env->ReleaseByteArrayElements(vData_, vBytes, 0);
-        return NULL;
+        if (yBytes) env->ReleaseByteArrayElements(yData_, yBytes, JNI_ABORT);
+        if (uBytes) env->ReleaseByteArrayElements(uData_, uBytes, JNI_ABORT);
+        if (vBytes) env->ReleaseByteArrayElements(vData_, vBytes, JNI_ABORT);
+        return JNI_FALSE;
     }
 
     const unsigned char* yData = reinterpret_cast<const unsigned char*>(yBytes);
-    const unsigned char* uData = reinterpret_cast<const unsigned char*>(uBytes);
-    const unsigned char* vData = reinterpret_cast<const unsigned char*>(vBytes);
-    
-    // Calculate UV dimensions
-    int uvWidth = (width + 1) / 2;
-
-    // Create output array
-    jintArray result = env->NewIntArray(width * height);
-    if (result == NULL) {
-        env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        env->ReleaseByteArrayElements(uData_, uBytes, 0);
-        env->ReleaseByteArrayElements(vData_, vBytes, 0);
-        return NULL;
-    }
+    const YuvUtils::ChromaPlanes chroma{reinterpret_cast<const uint8_t*>(uBytes),
+                                        reinterpret_cast<const uint8_t*>(vBytes),
+                                        uvPixelStride, uvRowStride};
 
-    jint* pixels = env->GetIntArrayElements(result, NULL);
-    if (pixels == NULL) {
-        env->ReleaseByteArrayElements(yData_, yBytes, 0);
-        env->ReleaseByteArrayElements(uData_, uBytes, 0);
-        env->ReleaseByteArrayElements(vData_, vBytes, 0);
-        return NULL;
-    }
+    uint32_t* pixels = output.pixels();
+    int outputStride = output.stride();
 
-    // Multi-threaded processing
-    if (numThreads == 1) {
-        processRows(0, height, width, height, yData, uData, vData, uvWidth, pixels, 
-                   redSource, greenSource, blueSource, flipUV);
-    } else {
-        std::vector<std::thread> threads;
-        int rowsPerThread = height / numThreads;
-        
-        for (int threadIndex = 0; threadIndex < numThreads; threadIndex++) {
-            int startY = threadIndex * rowsPerThread;
-            int endY = (threadIndex == numThreads - 1) ? height : (threadIndex + 1) * rowsPerThread;
-            
-            threads.emplace_back(processRows, startY, endY, width, height, yData, uData, vData, uvWidth, pixels,
-                               redSource, greenSource, blueSource, flipUV);
-        }
-        
-        // Wait for all threads to complete
-        for (auto& thread : threads) {
-            thread.join();
-        }
-    }
+    // Process bands of rows on the shared worker threads
+    parallelFor(height, numThreads, [&](int startY, int endY) {
+        processRows(startY, endY, width, yData, chroma, pixels, outputStride,
+                    redSource, greenSource, blueSource, flipUV);
+    });
 
-    // Release arrays
-    env->ReleaseIntArrayElements(result, pixels, 0);
-    env->ReleaseByteArrayElements(yData_, yBytes, 0);
-    env->ReleaseByteArrayElements(uData_, uBytes, 0);
-    env->ReleaseByteArrayElements(vData_, vBytes, 0);
+    // Release arrays. The planes weren't modified, so there's nothing to copy back.
+    env->ReleaseByteArrayElements(yData_, yBytes, JNI_ABORT);
+    env->ReleaseByteArrayElements(uData_, uBytes, JNI_ABORT);
+    env->ReleaseByteArrayElements(vData_, vBytes, JNI_ABORT);
 
-    return result;
-} 
\ No newline at end of file
+    return JNI_TRUE;
+}
@@ -0,0 +1,132 @@
+#include <jni.h>
+#include <android/log.h>
+#include <vector>
+#include <algorithm>
+#include <cstdint>
+#include "thread_pool.h"
+
+#define LOG_TAG "PlaneResizerNative"
+#define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+
+// Must match PlaneResizer.kt.
+static const int WEIGHT_BITS = 14;
+static const int INTERMEDIATE_BITS = 7;
+
+struct FilterTable {
+    const int32_t* starts;
+    const int32_t* weights;
+    int taps;
+};
+
+// Horizontally filters one source row into `out`, which has dstWidth entries with
+// INTERMEDIATE_BITS fractional bits.
+static inline void filterRow(
+    const uint8_t* srcRow, int srcPixelStride, int dstWidth, const FilterTable& xTable,
+    int32_t* out
+) {
+    const int hShift = WEIGHT_BITS - INTERMEDIATE_BITS;
+    const int hRound = 1 << (hShift - 1);
+    const int taps = xTable.taps;
+    for (int x = 0; x < dstWidth; x++) {
+        const uint8_t* p = srcRow + xTable.starts[x] * srcPixelStride;
+        const int32_t* w = xTable.weights + x * taps;
+        int32_t sum = 0;
+        for (int k = 0; k < taps; k++) {
+            sum += p[k * srcPixelStride] * w[k];
+        }
+        out[x] = (sum + hRound) >> hShift;
+    }
+}
+
+// Same algorithm as PlaneResizer.resizeRows: filtered source rows are kept in a ring so each is
+// computed once per band. The vertical pass runs over contiguous arrays one tap at a time, so
+// the compiler can vectorize it.
+static void resizeRows(
+    int startY, int endY,
+    const uint8_t* src, int srcPixelStride, int srcRowStride,
+    uint8_t* dst, int dstWidth,
+    FilterTable xTable, FilterTable yTable
+) {
+    const int yTaps = yTable.taps;
+    std::vector<int32_t> rowRing(yTaps * dstWidth);
+    std::vector<int> ringRows(yTaps, -1);
+    std::vector<int32_t> acc(dstWidth);
+    const int vShift = WEIGHT_BITS + INTERMEDIATE_BITS;
+    const int32_t vRound = 1 << (vShift - 1);
+
+    for (int y = startY; y < endY; y++) {
+        const int yStart = yTable.starts[y];
+        for (int t = 0; t < yTaps; t++) {
+            int srcRow = yStart + t;
+            int slot = srcRow % yTaps;
+            if (ringRows[slot] != srcRow) {
+                ringRows[slot] = srcRow;
+                filterRow(src + srcRow * srcRowStride, srcPixelStride, dstWidth, xTable,
+                          rowRing.data() + slot * dstWidth);
+            }
+        }
+        int32_t* accData = acc.data();
+        std::fill(acc.begin(), acc.end(), vRound);
+        for (int t = 0; t < yTaps; t++) {
+            const int32_t* row = rowRing.data() + ((yStart + t) % yTaps) * dstWidth;
+            const int32_t w = yTable.weights[y * yTaps + t];
+            for (int x = 0; x < dstWidth; x++) {
+                accData[x] += row[x] * w;
+            }
+        }
+        uint8_t* dstRow = dst + y * dstWidth;
+        for (int x = 0; x < dstWidth; x++) {
+            dstRow[x] = (uint8_t) std::min(255, std::max(0, accData[x] >> vShift));
+        }
+    }
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_dozingcatsoftware_vectorcamera_PlaneResizer_resizePlaneNative(
+    JNIEnv* env,
+    jobject /* this */,
+    jbyteArray src_,
+    jint srcPixelStride,
+    jint srcRowStride,
+    jbyteArray dst_,
+    jint dstWidth,
+    jint dstHeight,
+    jintArray xStarts_,
+    jintArray xWeights_,
+    jint xTaps,
+    jintArray yStarts_,
+    jintArray yWeights_,
+    jint yTaps,
+    jint numThreads
+) {
+    jbyte* srcBytes = env->GetByteArrayElements(src_, NULL);
+    jbyte* dstBytes = env->GetByteArrayElements(dst_, NULL);
+    jint* xStarts = env->GetIntArrayElements(xStarts_, NULL);
+    jint* xWeights = env->GetIntArrayElements(xWeights_, NULL);
+    jint* yStarts = env->GetIntArrayElements(yStarts_, NULL);
+    jint* yWeights = env->GetIntArrayElements(yWeights_, NULL);
+
+    bool ok = srcBytes && dstBytes && xStarts && xWeights && yStarts && yWeights;
+    if (ok) {
+        const uint8_t* src = reinterpret_cast<const uint8_t*>(srcBytes);
+        uint8_t* dst = reinterpret_cast<uint8_t*>(dstBytes);
+        FilterTable xTable = {xStarts, xWeights, xTaps};
+        FilterTable yTable = {yStarts, yWeights, yTaps};
+
+        parallelFor(dstHeight, numThreads, [&](int startY, int endY) {
+            resizeRows(startY, endY, src, srcPixelStride, srcRowStride, dst, dstWidth,
+                       xTable, yTable);
+        });
+    } else {
+        LOGE("Failed to access arrays");
+    }
+
+    // The source and filter tables weren't modified, so there's nothing to copy back.
+    if (yWeights) env->ReleaseIntArrayElements(yWeights_, yWeights, JNI_ABORT);
+    if (yStarts) env->ReleaseIntArrayElements(yStarts_, yStarts, JNI_ABORT);
+    if (xWeights) env->ReleaseIntArrayElements(xWeights_, xWeights, JNI_ABORT);
+    if (xStarts) env->ReleaseIntArrayElements(xStarts_, xStarts, JNI_ABORT);
+    if (dstBytes) env->ReleaseByteArrayElements(dst_, dstBytes, 0);
+    if (srcBytes) env->ReleaseByteArrayElements(src_, srcBytes, JNI_ABORT);
+    return ok;
+}
@@ -1,13 +1,16 @@
 #include <jni.h>
 #include <android/log.h>
 #include <algorithm>
+#include <climits>
 #include <cstdint>
 #include <cmath>
 #include <thread>
 #include <vector>
 #include <random>
 #include <atomic>
+#include <stdexcept>
 #include "yuv.h"
+#include "bitmap_output.h"
 
 #define LOG_TAG "StainedGlassNative"
 #define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
@@ -125,7 +128,7 @@ std::vector<std::vector<SeedPoint>> generateSeedPoints(
  */
 void createSegmentMap(
     int width,
-    int height,
+    int /* height */,
     const std::vector<std::vector<SeedPoint>>& seedGrid,
     int gridSpacing,
     std::vector<int>& segmentMap,
@@ -172,8 +175,7 @@ void createSegmentMap(
  */
 void calculateSegmentColors(
     const uint8_t* yData,
-    const uint8_t* uData,
-    const uint8_t* vData,
+    const YuvUtils::ChromaPlanes& chroma,
     int width,
     int height,
     const std::vector<int>& segmentMap,
@@ -190,14 +192,14 @@ void calculateSegmentColors(
             
             // Get YUV values
             const int yVal = yData[pixelIndex];
-            const int uVal = uData[(y / 2) * (width / 2) + (x / 2)];
-            const int vVal = vData[(y / 2) * (width / 2) + (x / 2)];
+            const int uVal = chroma.uAt(x / 2, y / 2);
+            const int vVal = chroma.vAt(x / 2, y / 2);
             
             // Convert YUV to RGB using optimized fixed-point conversion
-            const uint32_t rgb = yuvToRgbFixed(yVal, uVal, vVal, false);
+            const uint32_t rgb = yuvToRgb(yVal, uVal, vVal, false);
             
             // Add to parallel arrays
-            if (segmentId < totalSegments) {
+            if (segmentId >= 0 && static_cast<size_t>(segmentId) < totalSegments) {
                 redTotals[segmentId] += (rgb >> 16) & 0xFF;
                 greenTotals[segmentId] += (rgb >> 8) & 0xFF;
                 blueTotals[segmentId] += rgb & 0xFF;
@@ -208,7 +210,8 @@ void calculateSegmentColors(
 }
 
 /**
- * Render final bitmap with segments and edges
+ * Render final bitmap with segments and edges. Pixels are written in bitmap format, and
+ * outputStride is in pixels.
  */
 void renderStainedGlass(
     int width,
@@ -216,21 +219,26 @@ void renderStainedGlass(
     const std::vector<int>& segmentMap,
     const std::vector<uint32_t>& segmentColors,
     uint32_t* outputPixels,
+    int outputStride,
     int edgeThickness,
     uint32_t edgeColor,
     int startY,
     int endY
 ) {
+    const uint32_t black = BitmapOutput::toBitmapPixel(0xFF000000);
+    const uint32_t edgePixel = BitmapOutput::toBitmapPixel(edgeColor | 0xFF000000);
+
     // Fill segments with their average colors
     for (int y = startY; y < endY; y++) {
+        uint32_t* outputRow = outputPixels + y * outputStride;
         for (int x = 0; x < width; x++) {
             const int pixelIndex = y * width + x;
             const int segmentId = segmentMap[pixelIndex];
             
-            if (segmentId < segmentColors.size()) {
-                outputPixels[pixelIndex] = segmentColors[segmentId] | 0xFF000000; // Add alpha
+            if (segmentId >= 0 && static_cast<size_t>(segmentId) < segmentColors.size()) {
+                outputRow[x] = BitmapOutput::toBitmapPixel(segmentColors[segmentId] | 0xFF000000); // Add alpha
             } else {
-                outputPixels[pixelIndex] = 0xFF000000; // Black fallback
+                outputRow[x] = black; // Black fallback
             }
         }
     }
@@ -244,14 +252,14 @@ void renderStainedGlass(
                 // Check right neighbor
                 if (segmentMap[y * width + (x + 1)] != currentSegment) {
                     for (int t = 0; t < edgeThickness && (x + t) < width; t++) {
-                        outputPixels[y * width + (x + t)] = edgeColor | 0xFF000000;
+                        outputPixels[y * outputStride + (x + t)] = edgePixel;
                     }
                 }
                 
                 // Check bottom neighbor
                 if (segmentMap[(y + 1) * width + x] != currentSegment) {
                     for (int t = 0; t < edgeThickness && (y + t) < height; t++) {
-                        outputPixels[(y + t) * width + x] = edgeColor | 0xFF000000;
+                        outputPixels[(y + t) * outputStride + x] = edgePixel;
                     }
                 }
             }
@@ -260,39 +268,51 @@ void renderStainedGlass(
 }
 
 /**
- * Main JNI function for stained glass effect processing
+ * Main JNI function for stained glass effect processing. Writes directly into the pixels of
+ * outputBitmap, and returns false if that or the processing failed. The U and V planes can be
+ * dense or interleaved, as described by uvPixelStride and uvRowStride.
  */
 extern "C" JNIEXPORT jboolean JNICALL
 Java_com_dozingcatsoftware_vectorcamera_effect_StainedGlassEffect_00024Companion_processStainedGlassNative(
     JNIEnv* env,
-    jobject thiz,
+    jobject /* this */,
     jbyteArray yData,
     jbyteArray uData,
     jbyteArray vData,
+    jint uvPixelStride,
+    jint uvRowStride,
     jint width,
     jint height,
     jint segmentSize,
     jint edgeThickness,
     jint edgeColor,
     jfloat colorVariation,
-    jintArray outputPixels,
-    jint numThreads
+    jobject outputBitmap,
+    jint /* numThreads: the segment map is built on one thread */
 ) {
+    BitmapOutput::LockedBitmap output(env, outputBitmap, width, height);
+    if (!output.ok()) {
+        return JNI_FALSE;
+    }
+
     // Get native arrays
     jbyte* yDataPtr = env->GetByteArrayElements(yData, nullptr);
     jbyte* uDataPtr = env->GetByteArrayElements(uData, nullptr);
     jbyte* vDataPtr = env->GetByteArrayElements(vData, nullptr);
-    jint* outputPixelsPtr = env->GetIntArrayElements(outputPixels, nullptr);
     
-    if (!yDataPtr || !uDataPtr || !vDataPtr || !outputPixelsPtr) {
+    if (!yDataPtr || !uDataPtr || !vDataPtr) {
         LOGE("Failed to get native arrays");
+        if (yDataPtr) env->ReleaseByteArrayElements(yData, yDataPtr, JNI_ABORT);
+        if (uDataPtr) env->ReleaseByteArrayElements(uData, uDataPtr, JNI_ABORT);
+        if (vDataPtr) env->ReleaseByteArrayElements(vData, vDataPtr, JNI_ABORT);
         return JNI_FALSE;
     }
     
     const uint8_t* yBytes = reinterpret_cast<const uint8_t*>(yDataPtr);
-    const uint8_t* uBytes = reinterpret_cast<const uint8_t*>(uDataPtr);
-    const uint8_t* vBytes = reinterpret_cast<const uint8_t*>(vDataPtr);
-    uint32_t* outputBuffer = reinterpret_cast<uint32_t*>(outputPixelsPtr);
+    const YuvUtils::ChromaPlanes chroma{reinterpret_cast<const uint8_t*>(uDataPtr),
+                                        reinterpret_cast<const uint8_t*>(vDataPtr),
+                                        uvPixelStride, uvRowStride};
+    bool success = true;
     
     try {
         // Get cached segment map or create new one
@@ -301,8 +321,8 @@ Java_com_dozingcatsoftware_vectorcamera_effect_StainedGlassEffect_00024Companion
         std::vector<std::vector<SeedPoint>> seedGrid = segmentMapPair.second;
         
         if (seedGrid.empty()) {
-            LOGE("Failed to get segment map");
-            return JNI_FALSE;
+            // Handled below, so that the arrays are released.
+            throw std::runtime_error("Failed to get segment map");
         }
         
         // Calculate total number of segments
@@ -318,7 +338,7 @@ Java_com_dozingcatsoftware_vectorcamera_effect_StainedGlassEffect_00024Companion
         std::vector<uint32_t> pixelCounts(totalSegments, 0);
         
         // Single-threaded color calculation for simplicity
-        calculateSegmentColors(yBytes, uBytes, vBytes, width, height, segmentMap,
+        calculateSegmentColors(yBytes, chroma, width, height, segmentMap,
                              redTotals, greenTotals, blueTotals, pixelCounts, totalSegments);
         
         // Convert totals to final colors with variation
@@ -327,7 +347,7 @@ Java_com_dozingcatsoftware_vectorcamera_effect_StainedGlassEffect_00024Companion
         std::uniform_int_distribution<int> variationDist(-static_cast<int>(colorVariation * 128), 
                                                         static_cast<int>(colorVariation * 128));
         
-        for (int i = 0; i < totalSegments; i++) {
+        for (size_t i = 0; i < totalSegments; i++) {
             uint32_t baseColor = 0x000000; // Black fallback
             
             if (pixelCounts[i] > 0) {
@@ -348,18 +368,17 @@ Java_com_dozingcatsoftware_vectorcamera_effect_StainedGlassEffect_00024Companion
         }
         
         // Render final bitmap (single-threaded for simplicity)
-        renderStainedGlass(width, height, segmentMap, segmentColors, outputBuffer,
+        renderStainedGlass(width, height, segmentMap, segmentColors, output.pixels(), output.stride(),
                          edgeThickness, static_cast<uint32_t>(edgeColor), 0, height);
     } catch (const std::exception& e) {
         LOGE("Exception in stained glass processing: %s", e.what());
-        return JNI_FALSE;
+        success = false;
     }
     
     // Release arrays
     env->ReleaseByteArrayElements(yData, yDataPtr, JNI_ABORT);
     env->ReleaseByteArrayElements(uData, uDataPtr, JNI_ABORT);
     env->ReleaseByteArrayElements(vData, vDataPtr, JNI_ABORT);
-    env->ReleaseIntArrayElements(outputPixels, outputPixelsPtr, 0);
     
-    return JNI_TRUE;
+    return success ? JNI_TRUE : JNI_FALSE;
 }
@@ -0,0 +1,121 @@
+#include "thread_pool.h"
+
+#include <algorithm>
+
+// The calling thread runs bands too, so this many workers is enough to use every core.
+static int defaultWorkerCount() {
+    const int numCores = static_cast<int>(std::thread::hardware_concurrency());
+    return std::max(1, std::min(numCores - 1, 7));
+}
+
+ThreadPool& ThreadPool::shared() {
+    // Intentionally never destroyed: effects can still be running on other threads when the
+    // process exits, and joining the workers from a static destructor could hang.
+    static ThreadPool* pool = new ThreadPool(defaultWorkerCount());
+    return *pool;
+}
+
+ThreadPool::ThreadPool(int numWorkers) {
+    workers_.reserve(numWorkers);
+    for (int i = 0; i < numWorkers; i++) {
+        workers_.emplace_back(&ThreadPool::workerLoop, this);
+    }
+}
+
+ThreadPool::~ThreadPool() {
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        stopping_ = true;
+    }
+    workAvailable_.notify_all();
+    for (auto& worker : workers_) {
+        worker.join();
+    }
+}
+
+// Claims and runs one band of `job`. Returns false if every band has already been claimed.
+bool ThreadPool::runNextTask(Job& job) {
+    const int task = job.nextTask.fetch_add(1, std::memory_order_relaxed);
+    if (task >= job.numTasks) {
+        return false;
+    }
+    const int perTask = job.count / job.numTasks;
+    const int start = task * perTask;
+    const int end = (task == job.numTasks - 1) ? job.count : start + perTask;
+    try {
+        (*job.fn)(start, end);
+    } catch (...) {
+        std::lock_guard<std::mutex> lock(job.doneMutex);
+        if (!job.error) {
+            job.error = std::current_exception();
+        }
+    }
+    if (job.finishedTasks.fetch_add(1, std::memory_order_acq_rel) + 1 == job.numTasks) {
+        std::lock_guard<std::mutex> lock(job.doneMutex);
+        job.doneCondition.notify_all();
+    }
+    return true;
+}
+
+void ThreadPool::workerLoop() {
+    while (true) {
+        std::shared_ptr<Job> job;
+        {
+            std::unique_lock<std::mutex> lock(mutex_);
+            workAvailable_.wait(lock, [this] { return stopping_ || !jobs_.empty(); });
+            if (stopping_) {
+                return;
+            }
+            job = jobs_.front();
+            if (job->nextTask.load(std::memory_order_relaxed) >= job->numTasks) {
+                // Every band is claimed; whoever is running them will finish the job.
+                jobs_.pop_front();
+                continue;
+            }
+        }
+        while (runNextTask(*job)) {}
+    }
+}
+
+void ThreadPool::parallelFor(int count, int numTasks, const RangeFunction& fn) {
+    if (numTasks <= 1 || workers_.empty()) {
+        fn(0, count);
+        return;
+    }
+    auto job = std::make_shared<Job>();
+    job->fn = &fn;
+    job->count = count;
+    job->numTasks = numTasks;
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        jobs_.push_back(job);
+    }
+    // The calling thread takes a band itself, so only wake as many workers as can help.
+    if (numTasks - 1 >= workerCount()) {
+        workAvailable_.notify_all();
+    } else {
+        for (int i = 0; i < numTasks - 1; i++) {
+            workAvailable_.notify_one();
+        }
+    }
+
+    while (runNextTask(*job)) {}
+
+    {
+        std::unique_lock<std::mutex> lock(job->doneMutex);
+        job->doneCondition.wait(lock, [&job] {
+            return job->finishedTasks.load(std::memory_order_acquire) == job->numTasks;
+        });
+    }
+    {
+        // Usually a worker has already removed it.
+        std::lock_guard<std::mutex> lock(mutex_);
+        auto it = std::find(jobs_.begin(), jobs_.end(), job);
+        if (it != jobs_.end()) {
+            jobs_.erase(it);
+        }
+    }
+    if (job->error) {
+        std::rethrow_exception(job->error);
+    }
+}
@@ -0,0 +1,81 @@
+#ifndef THREAD_POOL_H
+#define THREAD_POOL_H
+
+#include <atomic>
+#include <condition_variable>
+#include <deque>
+#include <exception>
+#include <functional>
+#include <memory>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+/**
+ * Worker threads shared by all the native effects, created on first use and kept for the
+ * lifetime of the library. Effects used to start and join new std::threads for every frame, and
+ * some did that several times per frame, which costs far more than handing bands of rows to
+ * threads that are already running.
+ *
+ * Several frames can be rendered concurrently, so any number of threads can call parallelFor at
+ * the same time. The calling thread always works on its own job, so a call makes progress even
+ * when every worker is busy, and calls can be nested.
+ */
+class ThreadPool {
+public:
+    // Runs fn(start, end) for consecutive ranges covering [0, count).
+    using RangeFunction = std::function<void(int, int)>;
+
+    static ThreadPool& shared();
+
+    explicit ThreadPool(int numWorkers);
+    ~ThreadPool();
+
+    ThreadPool(const ThreadPool&) = delete;
+    ThreadPool& operator=(const ThreadPool&) = delete;
+
+    int workerCount() const { return static_cast<int>(workers_.size()); }
+
+    /**
+     * Splits [0, count) into numTasks bands and runs fn on each, returning when all are done.
+     * The bands are the same as the per-thread split the effects used before: each has
+     * count / numTasks rows and the last one also gets the remainder. If fn throws, the first
+     * exception is rethrown here after the other bands finish.
+     */
+    void parallelFor(int count, int numTasks, const RangeFunction& fn);
+
+private:
+    struct Job {
+        const RangeFunction* fn;
+        int count;
+        int numTasks;
+        std::atomic<int> nextTask{0};
+        std::atomic<int> finishedTasks{0};
+        std::mutex doneMutex;
+        std::condition_variable doneCondition;
+        std::exception_ptr error;
+    };
+
+    bool runNextTask(Job& job);
+    void workerLoop();
+
+    std::vector<std::thread> workers_;
+    std::mutex mutex_;
+    std::condition_variable workAvailable_;
+    std::deque<std::shared_ptr<Job>> jobs_;
+    bool stopping_ = false;
+};
+
+/**
+ * Convenience wrapper for ThreadPool::shared().parallelFor, which runs fn directly on the
+ * calling thread if numTasks is 1.
+ */
+inline void parallelFor(int count, int numTasks, const ThreadPool::RangeFunction& fn) {
+    if (numTasks <= 1 || count <= 1) {
+        fn(0, count);
+        return;
+    }
+    ThreadPool::shared().parallelFor(count, numTasks, fn);
+}
+
+#endif // THREAD_POOL_H
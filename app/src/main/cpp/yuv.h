@@ -8,67 +8,85 @@
  * Shared YUV to RGB conversion utilities using ITU-R BT.601 conversion equations.
  */
 namespace YuvUtils {
-    
+
+    // The BT.601 coefficients scaled by 2^16. YuvUtils in core/.../util/yuv.kt builds its tables
+    // from the same constants, so the native and Kotlin conversions give bit-identical results.
+    constexpr int32_t V_TO_R = 89831;    // 1.370705
+    constexpr int32_t V_TO_G = -45744;   // -0.698001
+    constexpr int32_t U_TO_G = -22127;   // -0.337633
+    constexpr int32_t U_TO_B = 113538;   // 1.732446
+    constexpr int32_t ROUNDING = 1 << 15;
+
     /**
-     * Convert YUV values to RGB using floating-point arithmetic.
-     * @param y Y (luminance) component (0-255)
-     * @param u U (chrominance) component (0-255)
-     * @param v V (chrominance) component (0-255)
-     * @param includeAlpha Whether to include alpha channel (0xFF) in the result
-     * @return RGB(A) value as packed integer
+     * Per-channel contributions of each U and V value. Red and blue get one term each, so their
+     * tables hold the already-rounded offset from Y. Green's two terms stay in 16.16 fixed point
+     * and are rounded after they're added; the rounding bias is folded into vToG.
      */
-    inline uint32_t yuvToRgbFloat(int y, int u, int v, bool includeAlpha = false) {
-        float yValue = static_cast<float>(y);
-        float uValue = static_cast<float>(u - 128);
-        float vValue = static_cast<float>(v - 128);
+    struct RgbContributionTables {
+        int32_t vToR[256];
+        int32_t uToB[256];
+        int32_t uToG[256];
+        int32_t vToG[256];
+    };
 
-        int red = static_cast<int>(yValue + 1.370705f * vValue);
-        int green = static_cast<int>(yValue - 0.698001f * vValue - 0.337633f * uValue);
-        int blue = static_cast<int>(yValue + 1.732446f * uValue);
+    constexpr RgbContributionTables makeRgbContributionTables() {
+        RgbContributionTables tables{};
+        for (int i = 0; i < 256; i++) {
+            tables.vToR[i] = (V_TO_R * (i - 128) + ROUNDING) >> 16;
+            tables.uToB[i] = (U_TO_B * (i - 128) + ROUNDING) >> 16;
+            tables.uToG[i] = U_TO_G * (i - 128);
+            tables.vToG[i] = V_TO_G * (i - 128) + ROUNDING;
+        }
+        return tables;
+    }
 
-        red = std::max(0, std::min(255, red));
-        green = std::max(0, std::min(255, green));
-        blue = std::max(0, std::min(255, blue));
+    inline constexpr RgbContributionTables RGB_TABLES = makeRgbContributionTables();
 
-        return includeAlpha ? 
-            (0xFF000000 | (red << 16) | (green << 8) | blue) :
-            ((red << 16) | (green << 8) | blue);
+    // Written as plain comparisons: GCC optimizes this form of the clamp much better than
+    // std::min/std::max or a test of the high bits (about 4x over a 1080p frame with -O2).
+    inline int clampToByte(int c) {
+        return c < 0 ? 0 : c > 255 ? 255 : c;
     }
-    
+
     /**
-     * Convert YUV values to RGB using fixed-point arithmetic for better performance.
+     * The U and V planes of a 4:2:0 image, which are either separate dense arrays (pixelStride 1)
+     * or semi-planar NV12/NV21 data (pixelStride 2) in which U and V samples alternate, as the
+     * camera usually delivers them. The chroma sample for (uvX, uvY) is at the same offset from
+     * both `u` and `v`, so kernels can read camera frames without deinterleaving them first.
+     */
+    struct ChromaPlanes {
+        const uint8_t* u;
+        const uint8_t* v;
+        int pixelStride;
+        int rowStride;
+
+        int offset(int uvX, int uvY) const {
+            return uvY * rowStride + uvX * pixelStride;
+        }
+        int uAt(int uvX, int uvY) const {
+            return u[offset(uvX, uvY)];
+        }
+        int vAt(int uvX, int uvY) const {
+            return v[offset(uvX, uvY)];
+        }
+    };
+
+    /**
+     * Convert YUV values to RGB using standard ITU-R BT.601 conversion, with integer arithmetic
+     * and lookup tables. The result is within 1 of the floating-point formula in each channel.
      * @param y Y (luminance) component (0-255)
      * @param u U (chrominance) component (0-255)
      * @param v V (chrominance) component (0-255)
      * @param includeAlpha Whether to include alpha channel (0xFF) in the result
      * @return RGB(A) value as packed integer
      */
-    inline uint32_t yuvToRgbFixed(int y, int u, int v, bool includeAlpha = false) {
-        const int yValue = y;
-        const int uValue = u - 128;
-        const int vValue = v - 128;
-
-        // Fixed-point coefficients (multiplied by 256)
-        int red = yValue + ((351 * vValue) >> 8);           // 1.370705 * 256 ≈ 351
-        int green = yValue - ((179 * vValue + 86 * uValue) >> 8); // -0.698001 * 256 ≈ -179, -0.337633 * 256 ≈ -86
-        int blue = yValue + ((443 * uValue) >> 8);          // 1.732446 * 256 ≈ 443
-
-        // Fast clamp using bitwise operations
-        red = (red & ~255) ? (red < 0 ? 0 : 255) : red;
-        green = (green & ~255) ? (green < 0 ? 0 : 255) : green;
-        blue = (blue & ~255) ? (blue < 0 ? 0 : 255) : blue;
-
-        return includeAlpha ? 
-            (0xFF000000 | (red << 16) | (green << 8) | blue) :
-            ((red << 16) | (green << 8) | blue);
-    }
-    
-    /**
-     * Alias for the default YUV to RGB conversion (using floating-point).
-     */
     inline uint32_t yuvToRgb(int y, int u, int v, bool includeAlpha = false) {
-        return yuvToRgbFloat(y, u, v, includeAlpha);
+        const int red = clampToByte(y + RGB_TABLES.vToR[v]);
+        const int green = clampToByte(y + ((RGB_TABLES.uToG[u] + RGB_TABLES.vToG[v]) >> 16));
+        const int blue = clampToByte(y + RGB_TABLES.uToB[u]);
+        const uint32_t rgb = (red << 16) | (green << 8) | blue;
+        return includeAlpha ? (0xFF000000 | rgb) : rgb;
     }
 }
 
-#endif // YUV_H 
\ No newline at end of file
+#endif // YUV_H
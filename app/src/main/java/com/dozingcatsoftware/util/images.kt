@@ -8,8 +8,6 @@ import android.net.Uri
 import android.util.DisplayMetrics
 import android.util.Size
 import android.view.WindowManager
-import com.dozingcatsoftware.util.YuvUtils.rgbToY
-import com.dozingcatsoftware.util.YuvUtils.rgbToYuv
 import kotlin.math.roundToInt
 
 
@@ -109,98 +107,17 @@ fun scaleToTargetSize(size: Size, target: Size): Size {
     return Size((size.width * ratio).roundToInt(), (size.height * ratio).roundToInt())
 }
 
-/**
- * Resizes a single plane using bilinear interpolation.
- */
-fun resizeImageBytes(data: ByteArray, oldWidth: Int, oldHeight: Int,
-                             newWidth: Int, newHeight: Int): ByteArray {
-    val result = ByteArray(newWidth * newHeight)
-    val xRatio = oldWidth.toFloat() / newWidth
-    val yRatio = oldHeight.toFloat() / newHeight
-
-    for (y in 0 until newHeight) {
-        for (x in 0 until newWidth) {
-            val px = x * xRatio
-            val py = y * yRatio
-
-            val x1 = px.toInt()
-            val y1 = py.toInt()
-            val x2 = kotlin.math.min(x1 + 1, oldWidth - 1)
-            val y2 = kotlin.math.min(y1 + 1, oldHeight - 1)
-
-            val fx = px - x1
-            val fy = py - y1
-
-            val p1 = data[y1 * oldWidth + x1].toInt() and 0xFF
-            val p2 = data[y1 * oldWidth + x2].toInt() and 0xFF
-            val p3 = data[y2 * oldWidth + x1].toInt() and 0xFF
-            val p4 = data[y2 * oldWidth + x2].toInt() and 0xFF
-
-            val interpolated = (p1 * (1 - fx) * (1 - fy) +
-                    p2 * fx * (1 - fy) +
-                    p3 * (1 - fx) * fy +
-                    p4 * fx * fy).toInt()
-
-            result[y * newWidth + x] = interpolated.toByte()
-        }
-    }
+/** An ArgbPixelSource that reads from a Bitmap. */
+class BitmapPixelSource(private val bitmap: Bitmap) : ArgbPixelSource {
+    override val width get() = bitmap.width
+    override val height get() = bitmap.height
 
-    return result
+    override fun getPixels(dst: IntArray, y: Int, numPixels: Int, numRows: Int) {
+        bitmap.getPixels(dst, 0, numPixels, 0, y, numPixels, numRows)
+    }
 }
 
-// Y/U/V planes for an image.
-class YuvImageBuffers(
-        val width: Int, val height: Int, val y: ByteArray, val u: ByteArray, val v: ByteArray) {
-
-    companion object {
-        fun fromBitmap(bitmap: Bitmap, fixedWidth: Int = 0, fixedHeight: Int = 0): YuvImageBuffers {
-            if (fixedWidth > bitmap.width || fixedHeight > bitmap.height) {
-                throw IllegalArgumentException(
-                        "Specified dimensions (${fixedWidth}x${fixedHeight}) exceed bitmap size " +
-                        "(${bitmap.width}x${bitmap.height}")
-            }
-            // Force width and height to be even.
-            val baseWidth = if (fixedWidth > 0) fixedWidth else bitmap.width
-            val baseHeight = if (fixedHeight > 0) fixedHeight else bitmap.height
-            val width = baseWidth - (baseWidth and 1)
-            val height = baseHeight - (baseHeight and 1)
-
-            val yBuffer = ByteArray(width * height)
-            val uBuffer = ByteArray(width * height / 4)
-            val vBuffer = ByteArray(width * height / 4)
-
-            // Read two rows at a time and convert to YUV.
-            // https://www.fourcc.org/fccyvrgb.php.
-            val pixBuffer = IntArray(2 * width)
-            val rb = IntArray(2 * width)
-            val gb = IntArray(2 * width)
-            val bb = IntArray(2 * width)
-
-            var yIndex = 0
-            var uvIndex = 0
-
-            for (r2 in 0 until height / 2) {
-                bitmap.getPixels(pixBuffer, 0, width, 0, 2 * r2, width, 2)
-                for (i in pixBuffer.indices) {
-                    rb[i] = (pixBuffer[i] shr 16) and 0xFF
-                    gb[i] = (pixBuffer[i] shr 8) and 0xFF
-                    bb[i] = pixBuffer[i] and 0xFF
-                    yBuffer[yIndex++] = rgbToY(rb[i], gb[i], bb[i]).toByte()
-                }
-                // For U and V planes, average the pixels in 2x2 blocks.
-                for (i in 0 until width / 2) {
-                    val x = 2 * i
-                    val ra = (2 + rb[x] + rb[x + 1] + rb[x + width] + rb[x + width + 1]) / 4
-                    val ga = (2 + gb[x] + gb[x + 1] + gb[x + width] + gb[x + width + 1]) / 4
-                    val ba = (2 + bb[x] + rb[x + 1] + bb[x + width] + bb[x + width + 1]) / 4
-                    val yuv = rgbToYuv(ra, ga, ba)
-                    uBuffer[uvIndex] = (yuv shr 8).toByte()
-                    vBuffer[uvIndex] = yuv.toByte()
-                    uvIndex += 1
-                }
-            }
-
-            return YuvImageBuffers(width, height, yBuffer, uBuffer, vBuffer)
-        }
-    }
+fun YuvImageBuffers.Companion.fromBitmap(
+        bitmap: Bitmap, fixedWidth: Int = 0, fixedHeight: Int = 0): YuvImageBuffers {
+    return YuvImageBuffers.fromPixels(BitmapPixelSource(bitmap), fixedWidth, fixedHeight)
 }
@@ -0,0 +1,152 @@
+package com.dozingcatsoftware.vectorcamera
+
+import android.util.Log
+import android.util.Size
+import kotlin.math.abs
+
+/**
+ * Chooses the preview capture size based on how long the current effect takes to render frames.
+ * `setCandidates` gives the sizes it can choose from, and `addFrameTiming` is called with the
+ * generation time of each frame. After a window of frames, if the effect can't keep up with
+ * `targetFps` at the current size, it steps down to the largest size that it estimates will,
+ * assuming render time scales with the number of pixels. If there's plenty of headroom it steps
+ * up one size at a time.
+ *
+ * Restarting the camera is disruptive, so changes are limited: the frame window has to fill up
+ * after every change, stepping up requires more headroom than stepping down, and if stepping up
+ * quickly leads to stepping back down, the wait before the next step up is doubled.
+ */
+class AdaptiveResolutionController(
+        val targetFps: Double,
+        private val windowSize: Int = DEFAULT_WINDOW_SIZE) {
+
+    private var candidates: List<Size> = listOf()
+    private var index = 0
+    private val durations = LongArray(windowSize)
+    private var numDurations = 0
+    private var durationsSum = 0L
+    private var nextDurationIndex = 0
+    private var lastChangeNanos = 0L
+    private var lastChangeWasUp = false
+    private var upgradeHoldNanos = MIN_UPGRADE_HOLD_NANOS
+
+    /**
+     * Sets the sizes to choose from. If `keepCurrentSize` is true and the current size is still a
+     * candidate, keeps using it; otherwise starts at the largest size.
+     */
+    fun setCandidates(sizes: List<Size>, nowNanos: Long, keepCurrentSize: Boolean = true) {
+        val current = currentSize()
+        candidates = sizes.sortedBy({it.width * it.height})
+        val sameIndex = if (keepCurrentSize && current != null) candidates.indexOf(current) else -1
+        index = if (sameIndex >= 0) sameIndex else maxOf(0, candidates.size - 1)
+        if (currentSize() != current) {
+            changedSize(nowNanos, false)
+        }
+    }
+
+    /** The size that the camera should capture at, or null if there are no candidates. */
+    fun currentSize(): Size? = if (candidates.isEmpty()) null else candidates[index]
+
+    /**
+     * Records the time taken to generate a frame captured at `frameSize`, where `parallelism` is
+     * the number of frames that can be generated at once. Frames of other sizes are ignored,
+     * since they were captured before the last change. Returns the new capture size if it should
+     * change, or null if it should stay the same.
+     */
+    fun addFrameTiming(
+            frameSize: Size, durationNanos: Long, parallelism: Int, nowNanos: Long): Size? {
+        val current = currentSize() ?: return null
+        if (frameSize != current) {
+            return null
+        }
+        if (numDurations == windowSize) {
+            durationsSum -= durations[nextDurationIndex]
+        }
+        else {
+            numDurations += 1
+        }
+        durations[nextDurationIndex] = durationNanos
+        durationsSum += durationNanos
+        nextDurationIndex = (nextDurationIndex + 1) % windowSize
+        if (numDurations < windowSize || nowNanos - lastChangeNanos < MIN_HOLD_NANOS) {
+            return null
+        }
+
+        val averageNanos = durationsSum.toDouble() / numDurations
+        val budgetNanos = 1e9 / targetFps * maxOf(1, parallelism)
+        val currentArea = area(current)
+        if (averageNanos > budgetNanos * STEP_DOWN_THRESHOLD && index > 0) {
+            var newIndex = index - 1
+            while (newIndex > 0 &&
+                    averageNanos * area(candidates[newIndex]) / currentArea > budgetNanos) {
+                newIndex -= 1
+            }
+            // Backing off right after stepping up means the larger size was too much; wait
+            // longer before trying it again.
+            upgradeHoldNanos =
+                    if (lastChangeWasUp && nowNanos - lastChangeNanos < OSCILLATION_WINDOW_NANOS)
+                        minOf(upgradeHoldNanos * 2, MAX_UPGRADE_HOLD_NANOS)
+                    else MIN_UPGRADE_HOLD_NANOS
+            logChange(current, candidates[newIndex], averageNanos)
+            index = newIndex
+            changedSize(nowNanos, false)
+            return candidates[index]
+        }
+        if (index < candidates.size - 1 && nowNanos - lastChangeNanos >= upgradeHoldNanos) {
+            val predictedNanos = averageNanos * area(candidates[index + 1]) / currentArea
+            if (predictedNanos < budgetNanos * STEP_UP_THRESHOLD) {
+                logChange(current, candidates[index + 1], averageNanos)
+                index += 1
+                changedSize(nowNanos, true)
+                return candidates[index]
+            }
+        }
+        return null
+    }
+
+    private fun changedSize(nowNanos: Long, isUp: Boolean) {
+        numDurations = 0
+        durationsSum = 0
+        nextDurationIndex = 0
+        lastChangeNanos = nowNanos
+        lastChangeWasUp = isUp
+    }
+
+    private fun area(size: Size) = size.width.toDouble() * size.height
+
+    private fun logChange(from: Size, to: Size, averageNanos: Double) {
+        Log.i(TAG, "Changing capture size from $from to $to, " +
+                "average render time ${"%.1f".format(averageNanos / 1e6)}ms")
+    }
+
+    companion object {
+        const val TAG = "AdaptiveResolution"
+        const val DEFAULT_WINDOW_SIZE = 15
+        const val STEP_DOWN_THRESHOLD = 1.1
+        const val STEP_UP_THRESHOLD = 0.7
+        const val MIN_HOLD_NANOS = 1_000_000_000L
+        const val MIN_UPGRADE_HOLD_NANOS = 3_000_000_000L
+        const val MAX_UPGRADE_HOLD_NANOS = 60_000_000_000L
+        const val OSCILLATION_WINDOW_NANOS = 10_000_000_000L
+
+        /**
+         * Returns the sizes from `available` that have about the same aspect ratio as `maxSize`,
+         * are no larger than it, and are at least `minWidth` wide. `maxSize` itself is included
+         * so that the controller can always return to the size the user selected.
+         */
+        fun candidateSizes(available: Array<Size>, maxSize: Size, minWidth: Int): List<Size> {
+            val aspect = maxSize.width.toDouble() / maxSize.height
+            val result = available.filter({
+                it.width >= minWidth && it.width <= maxSize.width &&
+                        it.height <= maxSize.height &&
+                        abs(it.width.toDouble() / it.height - aspect) < ASPECT_RATIO_TOLERANCE
+            }).toMutableList()
+            if (!result.contains(maxSize)) {
+                result.add(maxSize)
+            }
+            return result.distinct()
+        }
+
+        private const val ASPECT_RATIO_TOLERANCE = 0.05
+    }
+}
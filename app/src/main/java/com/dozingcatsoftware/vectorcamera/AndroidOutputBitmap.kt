@@ -0,0 +1,19 @@
+package com.dozingcatsoftware.vectorcamera
+
+import android.graphics.Bitmap
+
+/** An OutputBitmap backed by an ARGB_8888 Bitmap. */
+class AndroidOutputBitmap(override val width: Int, override val height: Int) : OutputBitmap {
+    val bitmap: Bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+
+    override fun setPixels(pixels: IntArray) {
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height)
+    }
+}
+
+/**
+ * The Bitmap that `uploadPixels` copies into, for effects that draw into it or pass it to native
+ * code. Requires that VectorCameraApplication has installed AndroidOutputBitmap as the factory.
+ */
+val EffectOutput.bitmap: Bitmap
+    get() = (outputBitmap as AndroidOutputBitmap).bitmap
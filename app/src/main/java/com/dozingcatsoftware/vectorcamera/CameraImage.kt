@@ -2,95 +2,51 @@ package com.dozingcatsoftware.vectorcamera
 
 import android.media.Image
 import android.util.Size
-import kotlin.math.ceil
-
-import com.dozingcatsoftware.util.resizeImageBytes
+import java.nio.ByteBuffer
 
 /**
- * Data structure that holds YUV image data extracted from Android's Image class.
+ * Copies the planes of `image` into arrays acquired from `pool`. The image can be closed
+ * as soon as this returns.
  */
-data class ImageData(
-    val width: Int,
-    val height: Int,
-    val yData: ByteArray,
-    val uData: ByteArray,
-    val vData: ByteArray,
-    val yPixelStride: Int,
-    val yRowStride: Int,
-    val uvPixelStride: Int,
-    val uvRowStride: Int
-) {
-    companion object {
-        fun fromImage(image: Image): ImageData {
-            val planes = image.planes
-            if (planes.size != 3) {
-                throw IllegalStateException("Expected 3 planes for YUV_420_888, got ${planes.size}")
-            }
-
-            // Extract Y plane
-            val yPlane = planes[0]
-            val yBuffer = yPlane.buffer
-            val ySize = yBuffer.remaining()
-            val yData = ByteArray(ySize)
-            yBuffer.get(yData)
-
-            // Extract U plane  
-            val uPlane = planes[1]
-            val uBuffer = uPlane.buffer
-            val uSize = uBuffer.remaining()
-            val uData = ByteArray(uSize)
-            uBuffer.get(uData)
-
-            // Extract V plane
-            val vPlane = planes[2]
-            val vBuffer = vPlane.buffer
-            val vSize = vBuffer.remaining()
-            val vData = ByteArray(vSize)
-            vBuffer.get(vData)
-
-            return ImageData(
-                width = image.width,
-                height = image.height,
-                yData = yData,
-                uData = uData,
-                vData = vData,
-                yPixelStride = yPlane.pixelStride,
-                yRowStride = yPlane.rowStride,
-                uvPixelStride = uPlane.pixelStride,
-                uvRowStride = uPlane.rowStride
-            )
-        }
-
-        fun fromYuvBytes(yuvBytes: ByteArray, width: Int, height: Int): ImageData {
-            val uvWidth = ceil(width / 2.0).toInt()
-            val uvHeight = ceil(height / 2.0).toInt()
-            val uStart = width * height
-            val vStart = uStart + (uvWidth * uvHeight)
-
-            return ImageData(
-                width = width,
-                height = height,
-                yData = yuvBytes.copyOfRange(0, uStart),
-                uData = yuvBytes.copyOfRange(uStart, vStart),
-                vData = yuvBytes.copyOfRange(vStart, yuvBytes.size),
-                yPixelStride = 1,
-                yRowStride = width,
-                uvPixelStride = 1,
-                uvRowStride = uvWidth
-            )
-        }
+fun imageDataFromImage(image: Image, pool: PlaneBufferPool = PlaneBufferPool.shared): ImageData {
+    val planes = image.planes
+    if (planes.size != 3) {
+        throw IllegalStateException("Expected 3 planes for YUV_420_888, got ${planes.size}")
     }
+    val yPlane = planes[0]
+    val uPlane = planes[1]
+    return ImageData(
+        width = image.width,
+        height = image.height,
+        yData = copyPlaneToPooledArray(yPlane.buffer, pool),
+        uData = copyPlaneToPooledArray(uPlane.buffer, pool),
+        vData = copyPlaneToPooledArray(planes[2].buffer, pool),
+        yPixelStride = yPlane.pixelStride,
+        yRowStride = yPlane.rowStride,
+        uvPixelStride = uPlane.pixelStride,
+        uvRowStride = uPlane.rowStride,
+        pool = pool
+    )
+}
+
+private fun copyPlaneToPooledArray(buffer: ByteBuffer, pool: PlaneBufferPool): ByteArray {
+    val data = pool.acquire(buffer.remaining())
+    buffer.get(data)
+    return data
 }
 
 /**
  * An image to be processed, which comes directly from camera input or from an existing image.
+ * `sensorTimestampNanos` is the capture time in the SystemClock.elapsedRealtimeNanos() time base,
+ * used to measure end-to-end latency; it's zero for images that didn't come from the camera.
  */
 data class CameraImage(
     private val imageData: ImageData,
     val orientation: ImageOrientation, 
     val status: CameraStatus,
     val timestamp: Long, 
-    val displaySize: Size = zeroSize
+    val displaySize: Size = zeroSize,
+    val sensorTimestampNanos: Long = 0
 ) {
 
     // width() and height() return the dimensions of the actual camera input, which is always
@@ -99,6 +55,27 @@ data class CameraImage(
     fun height(): Int = imageData.height
     fun size() = Size(width(), height())
 
+    // Time spent copying the camera's planes, plus any time CameraImageProcessor's ingest stage
+    // spent extracting dense planes. Not part of the data class, so copies start at 0.
+    var planeCopyNanos = 0L
+
+    /**
+     * Adds a reference to the underlying plane data. Copies made with `copy()` share the same
+     * data and reference count. Returns this image for convenience.
+     */
+    fun retain(): CameraImage {
+        imageData.retain()
+        return this
+    }
+
+    /**
+     * Removes a reference to the underlying plane data. Once all references are released, pooled
+     * planes are recycled and any arrays previously returned by `getYBytes` etc. may be reused.
+     */
+    fun release() {
+        imageData.release()
+    }
+
     /**
      * Returns a flattened array with concatenated Y/U/V planes. (Note U and V are not interleaved)
      * This method needs to make additional data copies, and should be avoided in favor of getting
@@ -117,130 +94,70 @@ data class CameraImage(
     }
 
     /**
-     * Extracts Y plane bytes, handling pixel stride and row stride.
+     * Views of the planes with their original pixel and row strides. For camera frames the U and
+     * V planes are usually interleaved (NV12 or NV21), so effects that read them through these
+     * views, or pass `data` and the strides to native code, avoid extracting them.
      */
-    fun getYBytes(): ByteArray {
-        val width = imageData.width
-        val height = imageData.height
-        val yData = imageData.yData
-        val pixelStride = imageData.yPixelStride
-        val rowStride = imageData.yRowStride
-
-        // The Y plane is usually dense so we don't need to copy.
-        if (pixelStride == 1 && rowStride == width) {
-            // Densely packed, can use directly.
-            // android.util.Log.i("CameraImage", "Dense Y")
-            return yData
-        }
-        
-        // Need to extract with stride
-        val outputBytes = ByteArray(width * height)
-        var outputIndex = 0
-        
-        for (row in 0 until height) {
-            var inputIndex = row * rowStride
-            for (col in 0 until width) {
-                outputBytes[outputIndex++] = yData[inputIndex]
-                inputIndex += pixelStride
-            }
-        }
-        
-        return outputBytes
-    }
-
-    fun getUBytes(): ByteArray = extractUvPlaneBytes(imageData.uData)
-    fun getVBytes(): ByteArray = extractUvPlaneBytes(imageData.vData)
+    fun yPlane(): PlaneView = imageData.plane(ImageData.Plane.Y)
+    fun uPlane(): PlaneView = imageData.plane(ImageData.Plane.U)
+    fun vPlane(): PlaneView = imageData.plane(ImageData.Plane.V)
 
     /**
-     * Extracts U or V plane bytes, handling pixel stride and row stride.
+     * Returns densely packed Y, U, and V planes. Planes that aren't dense are extracted on the
+     * first call and cached, so later calls for the same frame (from the effect, the video
+     * recorder, and so on) don't copy again. The returned arrays must not be modified.
      */
-    private fun extractUvPlaneBytes(uOrVData: ByteArray): ByteArray {
-        val width = imageData.width
-        val height = imageData.height
-        val uvWidth = (width + 1) / 2  // Round up for odd dimensions
-        val uvHeight = (height + 1) / 2
-        val uvPixelStride = imageData.uvPixelStride
-        val uvRowStride = imageData.uvRowStride
+    fun getYBytes(): ByteArray = imageData.denseBytes(ImageData.Plane.Y)
+    fun getUBytes(): ByteArray = imageData.denseBytes(ImageData.Plane.U)
+    fun getVBytes(): ByteArray = imageData.denseBytes(ImageData.Plane.V)
 
-        // Typically the U and V planes are interleaved so we can't just return the array directly.
-        // It might be possible to have a single "uvData" array and access the U and V values with
-        // appropriate offsets, but that would be much more complex.
-        if (imageData.uvPixelStride == 1 && imageData.uvRowStride == uvWidth) {
-            // Densely packed, can use directly.
-            // android.util.Log.i("CameraImage", "Dense U/V")
-            return uOrVData
-        }
-        // android.util.Log.i("CameraImage", "pixel stride: ${imageData.uvPixelStride} width: $uvWidth row stride: ${imageData.uvRowStride}")
-        // Need to extract with stride
-        val outputBytes = ByteArray(uvWidth * uvHeight)
-        var outputIndex = 0
-        
-        for (row in 0 until uvHeight) {
-            var inputIndex = row * uvRowStride
-            for (col in 0 until uvWidth) {
-                outputBytes[outputIndex++] = uOrVData[inputIndex]
-                inputIndex += uvPixelStride
-            }
-        }
-        
-        return outputBytes
+    /**
+     * Extracts and caches any planes that aren't dense, so that later calls to getYBytes etc.
+     * don't copy. CameraImageProcessor calls this in its ingest stage for effects that need
+     * dense planes, so that the copy overlaps with rendering the previous frame.
+     */
+    fun extractDensePlanes() {
+        getYBytes()
+        getUBytes()
+        getVBytes()
     }
 
     /**
-     * Creates a resized copy of this CameraImage using pure Kotlin bilinear interpolation.
+     * Creates a resized copy of this CameraImage using PlaneResizer. The
+     * resized planes come from the plane buffer pool, and the caller owns a reference to the
+     * returned image which should be released when no longer needed. If no resizing is needed,
+     * returns this image with an added reference.
      */
     fun resizedTo(size: Size): CameraImage {
-        // If no resizing needed, return copy
         if (size.width == width() && size.height == height()) {
-            return this
+            return retain()
         }
-        
-        // Resize the ImageData using direct YUV byte manipulation
-        val resizedImageData = resizeImageData(imageData, size.width, size.height)
-        
+        val resizedImageData = resizeImageData(size.width, size.height)
         return copy(imageData = resizedImageData)
     }
 
     /**
-     * Resizes ImageData using bilinear interpolation on YUV byte arrays.
-     */
-    private fun resizeImageData(imageData: ImageData, newWidth: Int, newHeight: Int): ImageData {
-        val resizedYuvBytes = resizeYuvBytes(
-            getYBytes(), getUBytes(), getVBytes(),
-            imageData.width, imageData.height,
-            newWidth, newHeight)
-        return ImageData.fromYuvBytes(resizedYuvBytes, newWidth, newHeight)
-    }
-
-    /**
-     * Resizes YUV byte array using bilinear interpolation.
+     * Resizes each plane directly into pooled planar buffers. The planes are read with their
+     * original strides, so interleaved U/V planes don't need to be extracted first.
      */
-    private fun resizeYuvBytes(
-            yData: ByteArray, uData: ByteArray, vData: ByteArray,
-            oldWidth: Int, oldHeight: Int,
-            newWidth: Int, newHeight: Int): ByteArray {
+    private fun resizeImageData(newWidth: Int, newHeight: Int): ImageData {
+        val oldWidth = imageData.width
+        val oldHeight = imageData.height
         val oldUvWidth = (oldWidth + 1) / 2
         val oldUvHeight = (oldHeight + 1) / 2
-
-        val newYSize = newWidth * newHeight
         val newUvWidth = (newWidth + 1) / 2
         val newUvHeight = (newHeight + 1) / 2
-        val newUvSize = newUvWidth * newUvHeight
-        
-        val result = ByteArray(newYSize + 2 * newUvSize)
-        
-        // Resize Y plane
-        val newYData = resizeImageBytes(yData, oldWidth, oldHeight, newWidth, newHeight)
-        System.arraycopy(newYData, 0, result, 0, newYSize)
-        
-        // Resize U plane
-        val newUData = resizeImageBytes(uData, oldUvWidth, oldUvHeight, newUvWidth, newUvHeight)
-        System.arraycopy(newUData, 0, result, newYSize, newUvSize)
-        
-        // Resize V plane
-        val newVData = resizeImageBytes(vData, oldUvWidth, oldUvHeight, newUvWidth, newUvHeight)
-        System.arraycopy(newVData, 0, result, newYSize + newUvSize, newUvSize)
-        
+
+        val pool = imageData.pool ?: PlaneBufferPool.shared
+        val result = ImageData.createPlanar(newWidth, newHeight, pool)
+        PlaneResizer.resize(imageData.yData, oldWidth, oldHeight,
+                imageData.yPixelStride, imageData.yRowStride, result.yData, newWidth, newHeight)
+        PlaneResizer.resize(imageData.uData, oldUvWidth, oldUvHeight,
+                imageData.uvPixelStride, imageData.uvRowStride,
+                result.uData, newUvWidth, newUvHeight)
+        PlaneResizer.resize(imageData.vData, oldUvWidth, oldUvHeight,
+                imageData.uvPixelStride, imageData.uvRowStride,
+                result.vData, newUvWidth, newUvHeight)
         return result
     }
 
@@ -251,9 +168,14 @@ data class CameraImage(
          * Creates a CameraImage from an Android Image (from ImageReader).
          */
         fun fromImage(image: Image, orientation: ImageOrientation, status: CameraStatus, 
-                     timestamp: Long, displaySize: Size = zeroSize): CameraImage {
-            val imageData = ImageData.fromImage(image)
-            return CameraImage(imageData, orientation, status, timestamp, displaySize)
+                     timestamp: Long, displaySize: Size = zeroSize,
+                     sensorTimestampNanos: Long = 0): CameraImage {
+            val copyStart = System.nanoTime()
+            val imageData = FrameTracer.trace(TraceSpan.PLANE_COPY, {imageDataFromImage(image)})
+            val cameraImage = CameraImage(
+                    imageData, orientation, status, timestamp, displaySize, sensorTimestampNanos)
+            cameraImage.planeCopyNanos = System.nanoTime() - copyStart
+            return cameraImage
         }
 
         /**
@@ -7,6 +7,8 @@ import android.hardware.camera2.*
 import android.media.Image
 import android.media.ImageReader
 import android.os.Handler
+import android.os.HandlerThread
+import android.os.SystemClock
 
 import android.util.Log
 import android.util.Size
@@ -17,17 +19,27 @@ class CameraImageGenerator(val context: Context,
 
 
     private var camera: CameraDevice? = null
-    private var captureSession: CameraCaptureSession? = null
+    // Read from the image reader thread.
+    @Volatile private var captureSession: CameraCaptureSession? = null
     private var captureSize: Size? = null
     private var zoomRatio = 0.0
-    var status = CameraStatus.CLOSED
+    @Volatile var status = CameraStatus.CLOSED
     private var targetStatus = CameraStatus.CLOSED
-    private var imageAllocationCallback: ((CameraImage) -> Unit)? = null
+    @Volatile private var imageAllocationCallback: ((CameraImage) -> Unit)? = null
     private var cameraClosedCallback: (() -> Unit)? = null
     private var handler = Handler()
+    // Images are acquired and copied on a dedicated thread so that frames aren't delayed by
+    // whatever the main thread is doing. Camera state callbacks still run on the main thread.
+    private var imageThread: HandlerThread? = null
 
     private val cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraId)
 
+    // If the sensor timestamps use the elapsedRealtime clock, we can measure latency from the
+    // actual exposure. Otherwise we fall back to the time the image became available.
+    private val hasRealtimeSensorTimestamps =
+            cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE) ==
+                    CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME
+
     private var imageReader: ImageReader? = null
 
     // https://stackoverflow.com/questions/33902832/upside-down-camera-preview-byte-array
@@ -46,10 +58,7 @@ class CameraImageGenerator(val context: Context,
     fun start(targetStatus: CameraStatus, targetSize: Size,
               imageAllocationCallback: ((CameraImage) -> Unit)? = null) {
         Log.i(TAG, "start(), status=${status}")
-        this.captureSize = pickBestSize(
-                cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)!!
-                        .getOutputSizes(ImageFormat.YUV_420_888),
-                targetSize)
+        this.captureSize = pickBestSize(availableCaptureSizes(), targetSize)
         this.targetStatus = targetStatus
         this.imageAllocationCallback = imageAllocationCallback
 
@@ -64,6 +73,12 @@ class CameraImageGenerator(val context: Context,
         }
     }
 
+    /** Returns the YUV output sizes supported by the camera, in no particular order. */
+    fun availableCaptureSizes(): Array<Size> {
+        return cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)!!
+                .getOutputSizes(ImageFormat.YUV_420_888)
+    }
+
     /**
      * Stops the camera and invokes the callback after the camera is completely closed. This avoids
      * errors that can occur when trying to open the camera while it's in the process of closing.
@@ -141,6 +156,40 @@ class CameraImageGenerator(val context: Context,
         }
     }
 
+    /**
+     * Copies the latest image from the reader into a CameraImage and closes the image, so the
+     * reader's buffer is free for the next frame. Returns null if there's no image or the capture
+     * session has been closed.
+     */
+    private fun acquireImage(reader: ImageReader): CameraImage? {
+        try {
+            val image = reader.acquireLatestImage() ?: return null
+            if (captureSession == null) {
+                Log.i(TAG, "captureSession is null, closing image")
+                image.close()
+                return null
+            }
+            val sensorTimestamp =
+                    if (hasRealtimeSensorTimestamps) image.timestamp
+                    else SystemClock.elapsedRealtimeNanos()
+            val cameraImage = CameraImage.fromImage(
+                    image, imageOrientation, status, timestampFn(),
+                    sensorTimestampNanos = sensorTimestamp)
+            image.close()
+            return cameraImage
+        } catch (e: IllegalStateException) {
+            Log.w(TAG, "Failed to acquire image: ${e.message}")
+            // Try to close any remaining images to free up the buffer
+            try {
+                val image = reader.acquireNextImage()
+                image?.close()
+            } catch (cleanupException: Exception) {
+                Log.d(TAG, "No images to clean up")
+            }
+            return null
+        }
+    }
+
     private fun setupCameraPreview() {
         try {
             val size = this.captureSize!!
@@ -148,32 +197,11 @@ class CameraImageGenerator(val context: Context,
 
             imageReader = ImageReader.newInstance(size.width, size.height, ImageFormat.YUV_420_888, 4)
             imageReader!!.setOnImageAvailableListener({
-                try {
-                    val image = it.acquireLatestImage()
-                    if (image != null) {
-                        if (captureSession != null) {
-                            // Extract image data immediately and close the image to free the buffer
-                            val cameraImage = CameraImage.fromImage(image, imageOrientation, status, timestampFn())
-                            image.close()
-                            
-                            this.imageAllocationCallback?.invoke(cameraImage)
-                        }
-                        else {
-                            Log.i(TAG, "captureSession is null, closing image")
-                            image.close()
-                        }
-                    }
-                } catch (e: IllegalStateException) {
-                    Log.w(TAG, "Failed to acquire image: ${e.message}")
-                    // Try to close any remaining images to free up the buffer
-                    try {
-                        val image = it.acquireNextImage()
-                        image?.close()
-                    } catch (cleanupException: Exception) {
-                        Log.d(TAG, "No images to clean up")
-                    }
+                val cameraImage = FrameTracer.trace(TraceSpan.CAMERA_ACQUIRE, {acquireImage(it)})
+                if (cameraImage != null) {
+                    this.imageAllocationCallback?.invoke(cameraImage)
                 }
-            }, null)
+            }, imageReaderHandler())
 
             this.status = CameraStatus.CAPTURE_STARTING
             camera!!.createCaptureSession(
@@ -273,6 +301,18 @@ class CameraImageGenerator(val context: Context,
         imageReader = null
         camera?.close()
         camera = null
+        imageThread?.quitSafely()
+        imageThread = null
+    }
+
+    private fun imageReaderHandler(): Handler {
+        var thread = imageThread
+        if (thread == null) {
+            thread = HandlerThread("CameraImageReader")
+            thread.start()
+            imageThread = thread
+        }
+        return Handler(thread.looper)
     }
 
     companion object {
@@ -1,83 +1,357 @@
 package com.dozingcatsoftware.vectorcamera
 
 
+import android.os.SystemClock
 import android.util.Log
 import com.dozingcatsoftware.vectorcamera.effect.Effect
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
 
-class CameraImageProcessor() {
-    private var consumerThread: Thread? = null
-    private var receivedCameraImage: CameraImage? = null
-    private val threadLock = ReentrantLock()
-    private val allocationLock = ReentrantLock()
-    private val allocationAvailable = allocationLock.newCondition()
-    private lateinit var effect: Effect
+/**
+ * Per-stage queue statistics, for debugging and tuning the pipeline depth.
+ */
+data class StageOccupancy(
+    val name: String,
+    val queued: Int,
+    val peakQueued: Int,
+    val capacity: Int,
+    val busyWorkers: Int,
+    val workers: Int,
+)
 
-    fun start(effect: Effect, callback: (ProcessedBitmap) -> Unit) {
-        this.pause()
-        this.effect = effect
-        threadLock.withLock({
-            if (consumerThread == null) {
-                consumerThread = Thread({this.threadEntry(callback)})
-                consumerThread!!.start()
+/**
+ * Applies an effect to camera images using a pipeline of stages, each with its own thread:
+ * "ingest" extracts dense planes if the effect needs them, "effect" renders the frame, "upload"
+ * copies the rendered pixels into the bitmap, and "publish" calls the result callback. Each stage
+ * reads from a bounded queue holding up to `queueDepth` frames, so converting frame N+1 overlaps
+ * with running the effect on frame N. Downstream queues block when full. The ingest queue never
+ * blocks the camera; its size and which frames it drops are determined by the FrameDropPolicy
+ * passed to `start`.
+ *
+ * If `maxParallelFrames` is greater than 1 and the effect is stateless, the effect stage uses
+ * that many threads to work on several frames at once. Results are put back in timestamp order
+ * before publishing, and a result older than the last published frame is dropped.
+ *
+ * Effects that implement Effect.renderInto render into outputs from `outputPool`, so the preview
+ * doesn't allocate a pixel array and Bitmap per frame. Photo frames get their own bitmaps, since
+ * they're saved in the background after the preview has moved on.
+ *
+ * Every frame that's published or dropped gets a row in `flightRecorder`.
+ */
+class CameraImageProcessor(
+        private val queueDepth: Int = DEFAULT_QUEUE_DEPTH,
+        private val maxParallelFrames: Int = 1) {
+
+    val outputPool = EffectOutputPool()
+    val flightRecorder = FlightRecorder()
+
+    private class Stage<T : Any>(
+            val name: String,
+            val input: FrameQueue<T>,
+            val numWorkers: Int,
+            val work: (T) -> Unit,
+            val releaseItem: (T) -> Unit) {
+        private val busyWorkers = AtomicInteger(0)
+        // Time spent in `work` for each frame, including frames that the stage dropped.
+        val latency = LatencyHistogram()
+
+        fun run() {
+            while (true) {
+                val item = input.take() ?: return
+                busyWorkers.incrementAndGet()
+                val startNanos = System.nanoTime()
+                try {
+                    work(item)
+                    latency.record(System.nanoTime() - startNanos)
+                }
+                catch (ex: Exception) {
+                    Log.w(TAG, "Error in $name stage", ex)
+                    releaseItem(item)
+                }
+                finally {
+                    busyWorkers.decrementAndGet()
+                }
             }
-        })
+        }
+
+        fun occupancy() = StageOccupancy(
+                name, input.size(), input.peakSize(), input.capacity,
+                busyWorkers.get(), numWorkers)
     }
 
-    fun pause() {
-        threadLock.withLock({
-            consumerThread = null
+    /**
+     * The queues and stages for one call to `start`. `pause` closes the queues, which causes the
+     * stage threads to exit; frames still in the queues are released.
+     */
+    private inner class Pipeline(
+            val effect: Effect,
+            val callback: (ProcessedBitmap) -> Unit,
+            val dropPolicy: FrameDropPolicy) {
+        val ingestQueue = FrameQueue<CameraImage>(dropPolicy.queueCapacity)
+        val effectQueue = FrameQueue<CameraImage>(queueDepth)
+        val uploadQueue = FrameQueue<ProcessedBitmap>(queueDepth)
+        val publishQueue = FrameQueue<ProcessedBitmap>(queueDepth)
+
+        val effectName = effect.effectName()
+        private val extractDensePlanes = !effect.acceptsStridedPlanes()
+        val numEffectWorkers = if (effect.isStateless()) maxOf(1, maxParallelFrames) else 1
+        // Only needed when frames can complete out of order.
+        private val reorderBuffer = if (numEffectWorkers > 1)
+            FrameReorderBuffer(
+                    queueDepth + numEffectWorkers + 1, this::enqueueForUpload, this::dropResult)
+            else null
+
+        val stages = listOf(
+                Stage("ingest", ingestQueue, 1, this::ingest, CameraImage::release),
+                Stage("effect", effectQueue, numEffectWorkers,
+                        this::applyEffect, CameraImage::release),
+                Stage("upload", uploadQueue, 1, this::upload, ProcessedBitmap::release),
+                Stage("publish", publishQueue, 1, this::publish, ProcessedBitmap::release))
+        private val threads = stages.flatMap({stage ->
+            (0 until stage.numWorkers).map({i -> Thread(stage::run, "VC-${stage.name}-$i")})
         })
-        allocationLock.withLock({
-            if (receivedCameraImage != null) {
-                receivedCameraImage = null
+
+        fun start() {
+            threads.forEach({it.start()})
+        }
+
+        fun stop() {
+            ingestQueue.close().forEach({it.release()})
+            effectQueue.close().forEach({it.release()})
+            uploadQueue.close().forEach({it.release()})
+            publishQueue.close().forEach({it.release()})
+            reorderBuffer?.clear()
+        }
+
+        /**
+         * Called from `queueCameraImage`, takes over the caller's reference to the image.
+         */
+        fun receive(cameraImage: CameraImage) {
+            dropPolicy.recordReceived()
+            if (!dropPolicy.shouldAccept(cameraImage, System.currentTimeMillis())) {
+                dropFrame(cameraImage, DropReason.REJECTED)
+                return
             }
-        })
+            if (dropPolicy.dropOldestWhenFull) {
+                val dropped = ingestQueue.addDroppingOldest(cameraImage)
+                if (dropped != null) {
+                    dropFrame(dropped, DropReason.QUEUE_FULL)
+                }
+            }
+            else if (!ingestQueue.offer(cameraImage)) {
+                dropFrame(cameraImage, DropReason.QUEUE_FULL)
+            }
+        }
+
+        private fun dropFrame(cameraImage: CameraImage, reason: DropReason) {
+            dropPolicy.recordDropped()
+            recordFrame(cameraImage, null, reason)
+            cameraImage.release()
+        }
+
+        private fun dropResult(processedBitmap: ProcessedBitmap) {
+            dropPolicy.recordDropped()
+            recordFrame(processedBitmap.sourceImage, processedBitmap.metadata,
+                    DropReason.OUT_OF_ORDER)
+            processedBitmap.release()
+        }
+
+        private fun recordFrame(cameraImage: CameraImage, metadata: ProcessedBitmapMetadata?,
+                                reason: DropReason) {
+            flightRecorder.record(
+                    frameTimestamp = cameraImage.timestamp,
+                    sensorNanos = cameraImage.sensorTimestampNanos,
+                    recordedNanos = SystemClock.elapsedRealtimeNanos(),
+                    effectName = effectName,
+                    width = cameraImage.width(),
+                    height = cameraImage.height(),
+                    architecture = metadata?.codeArchitecture?.name,
+                    numThreads = metadata?.numThreads ?: 0,
+                    planeCopyNanos = metadata?.planeCopyNanos ?: cameraImage.planeCopyNanos,
+                    effectNanos = metadata?.generationDurationNanos ?: 0,
+                    uploadNanos = metadata?.uploadNanos ?: 0,
+                    ingestQueued = ingestQueue.size(),
+                    effectQueued = effectQueue.size(),
+                    uploadQueued = uploadQueue.size(),
+                    publishQueued = publishQueue.size(),
+                    dropReason = reason)
+        }
+
+        private fun ingest(cameraImage: CameraImage) {
+            if (!dropPolicy.shouldProcess(cameraImage, System.currentTimeMillis())) {
+                dropFrame(cameraImage, DropReason.STALE)
+                return
+            }
+            if (extractDensePlanes) {
+                val copyStart = System.nanoTime()
+                FrameTracer.trace(TraceSpan.PLANE_EXTRACT, {cameraImage.extractDensePlanes()})
+                cameraImage.planeCopyNanos += System.nanoTime() - copyStart
+            }
+            val timestamp = cameraImage.timestamp
+            if (reorderBuffer != null && !reorderBuffer.dispatched(timestamp)) {
+                dropFrame(cameraImage, DropReason.IN_FLIGHT_LIMIT)
+                return
+            }
+            if (!effectQueue.put(cameraImage)) {
+                reorderBuffer?.abandoned(timestamp)
+                cameraImage.release()
+            }
+        }
+
+        private fun applyEffect(cameraImage: CameraImage) {
+            debugLog("Processing camera image")
+            if (reorderBuffer == null) {
+                // The bitmap takes over the reference to its source image.
+                enqueueForUpload(render(cameraImage))
+                return
+            }
+            val timestamp = cameraImage.timestamp
+            try {
+                reorderBuffer.completed(render(cameraImage))
+            }
+            catch (ex: Exception) {
+                reorderBuffer.abandoned(timestamp)
+                throw ex
+            }
+        }
+
+        private fun render(cameraImage: CameraImage): ProcessedBitmap {
+            RowBandExecutor.resetFrameStats()
+            val width = cameraImage.width()
+            val height = cameraImage.height()
+            if (cameraImage.status == CameraStatus.CAPTURING_PREVIEW) {
+                // Starts new latency windows if the adaptive resolution changed the size.
+                FrameTracer.setCurrentSize(width, height)
+            }
+            // Only preview frames are used to try out configurations for the autotuner.
+            val tuning = EffectTuner.beginFrame(effect, width, height,
+                    cameraImage.status == CameraStatus.CAPTURING_PREVIEW)
+            val pb = try {
+                // Trial configurations can be much slower, so they don't go in the histograms.
+                if (EffectTuner.isTrialFrame()) renderFrame(cameraImage)
+                else FrameTracer.trace(TraceSpan.EFFECT, {renderFrame(cameraImage)})
+            }
+            catch (ex: Exception) {
+                EffectTuner.abandonFrame()
+                throw ex
+            }
+            EffectTuner.endFrame(effect, width, height, tuning, pb.metadata)
+            pb.metadata.loadImbalance = RowBandExecutor.frameLoadImbalance()
+            pb.metadata.planeCopyNanos = cameraImage.planeCopyNanos
+            return pb
+        }
+
+        private fun renderFrame(cameraImage: CameraImage): ProcessedBitmap =
+                if (cameraImage.status == CameraStatus.CAPTURING_PHOTO)
+                    effect.createBitmap(cameraImage)
+                else
+                    Effect.renderWithPool(effect, cameraImage, outputPool)
+
+        private fun enqueueForUpload(processedBitmap: ProcessedBitmap) {
+            if (!uploadQueue.put(processedBitmap)) {
+                processedBitmap.release()
+            }
+        }
+
+        private fun upload(processedBitmap: ProcessedBitmap) {
+            val uploadStart = System.nanoTime()
+            FrameTracer.trace(TraceSpan.UPLOAD, {processedBitmap.output?.uploadPixels()})
+            processedBitmap.metadata.uploadNanos = System.nanoTime() - uploadStart
+            if (!publishQueue.put(processedBitmap)) {
+                processedBitmap.release()
+            }
+        }
+
+        private fun publish(processedBitmap: ProcessedBitmap) {
+            if (TIMING) {
+                timingLog(stages.joinToString(" ", transform={
+                    "${it.name}=${it.input.size()}/${it.input.capacity}"
+                }))
+            }
+            dropPolicy.recordProcessed(System.nanoTime())
+            recordFrame(processedBitmap.sourceImage, processedBitmap.metadata, DropReason.NONE)
+            callback(processedBitmap)
+        }
     }
 
-    fun queueCameraImage(cameraImage: CameraImage) {
-        allocationLock.withLock({
-            this.receivedCameraImage = cameraImage
-            allocationAvailable.signal()
-            debugLog("queueCameraImage")
+    private var pipeline: Pipeline? = null
+    private val pipelineLock = ReentrantLock()
+
+    fun start(effect: Effect, callback: (ProcessedBitmap) -> Unit,
+              dropPolicy: FrameDropPolicy = LatestWinsPolicy(queueDepth)) {
+        this.pause()
+        FrameTracer.setCurrentEffect(effect.effectName())
+        pipelineLock.withLock({
+            val p = Pipeline(effect, callback, dropPolicy)
+            pipeline = p
+            p.start()
         })
     }
 
-    private fun shouldCurrentThreadContinue(): Boolean {
-        return threadLock.withLock({
-            Thread.currentThread() == consumerThread
+    fun pause() {
+        pipelineLock.withLock({
+            pipeline?.stop()
+            pipeline = null
         })
     }
 
-    private fun threadEntry(callback: (ProcessedBitmap) -> Unit) {
-        var currentCamAllocation: CameraImage? = null
-        while (true) {
-            while (currentCamAllocation == null) {
-                if (!shouldCurrentThreadContinue()) {
-                    return
-                }
-                allocationLock.withLock({
-                    currentCamAllocation = receivedCameraImage
-                    if (currentCamAllocation == null) {
-                        allocationAvailable.awaitNanos(250000000)
-                    }
-                    else {
-                        debugLog("Processing camera image")
-                        receivedCameraImage = null
-                    }
-                })
-            }
-
-            val processedBitmap = effect.createBitmap(currentCamAllocation)
-            
-            callback(processedBitmap)
-            currentCamAllocation = null
+    /**
+     * Queues an image to be processed, taking over the caller's reference to it. The current
+     * drop policy decides whether this or another queued image is dropped.
+     */
+    fun queueCameraImage(cameraImage: CameraImage) {
+        val p = pipelineLock.withLock({pipeline})
+        if (p == null) {
+            cameraImage.release()
+            return
         }
+        p.receive(cameraImage)
+        debugLog("queueCameraImage")
+    }
+
+    /**
+     * Number of frames the effect stage of the running pipeline can work on at once, or 1 if the
+     * processor isn't running.
+     */
+    fun effectWorkerCount(): Int =
+            pipelineLock.withLock({pipeline?.numEffectWorkers}) ?: 1
+
+    /** Returns the drop policy of the running pipeline, which holds the frame counters. */
+    fun currentDropPolicy(): FrameDropPolicy? = pipelineLock.withLock({pipeline?.dropPolicy})
+
+    /**
+     * Returns the current queue occupancy of each stage, in pipeline order. Returns an empty list
+     * if the processor isn't running.
+     */
+    fun stageOccupancy(): List<StageOccupancy> {
+        val p = pipelineLock.withLock({pipeline}) ?: return emptyList()
+        return p.stages.map({it.occupancy()})
+    }
+
+    /**
+     * Returns the histogram of per-frame work time for each stage of the running pipeline, in
+     * pipeline order. The histograms keep accumulating until the next call to `start`. Returns an
+     * empty list if the processor isn't running.
+     */
+    fun stageLatencies(): List<Pair<String, LatencyHistogram>> {
+        val p = pipelineLock.withLock({pipeline}) ?: return emptyList()
+        return p.stages.map({Pair(it.name, it.latency)})
     }
 
     companion object {
         const val TAG = "CameraAllocProcessor"
+        const val DEFAULT_QUEUE_DEPTH = 1
+        const val MAX_PARALLEL_FRAMES = 3
+
+        /**
+         * Number of frames to process concurrently for stateless effects. Each frame already uses
+         * up to MAX_NATIVE_THREADS threads, so this fills the remaining cores.
+         */
+        fun defaultParallelFrames(): Int {
+            val numCores = Runtime.getRuntime().availableProcessors()
+            return maxOf(1, minOf(MAX_PARALLEL_FRAMES, numCores / Effect.MAX_NATIVE_THREADS))
+        }
         var DEBUG = false
         var TIMING = false
 
@@ -93,4 +367,4 @@ class CameraImageProcessor() {
             }
         }
     }
-}
\ No newline at end of file
+}
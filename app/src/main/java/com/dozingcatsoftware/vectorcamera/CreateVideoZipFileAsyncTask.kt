@@ -45,6 +45,7 @@ class CreateVideoZipFileAsyncTask(
                 val pb = videoReader.bitmapForFrame(frameIndex)
                 pb.renderBitmap(videoWidth, videoHeight)
                         .compress(Bitmap.CompressFormat.JPEG, 90, out)
+                pb.release()
 
                 out.closeEntry()
                 if (this.isCancelled()) {
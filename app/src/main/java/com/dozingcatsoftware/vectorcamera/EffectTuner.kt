@@ -0,0 +1,320 @@
+package com.dozingcatsoftware.vectorcamera
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.os.Build
+import android.util.Log
+import com.dozingcatsoftware.vectorcamera.effect.Effect
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+import java.util.zip.CRC32
+import kotlin.concurrent.withLock
+
+/** Which implementation of an effect to run, and with how many threads. */
+data class EffectTuning(val architecture: CodeArchitecture, val numThreads: Int) {
+    fun toPrefsString() = "${architecture.name}:$numThreads"
+
+    companion object {
+        fun fromPrefsString(s: String): EffectTuning? {
+            val parts = s.split(":")
+            if (parts.size != 2) {
+                return null
+            }
+            val arch = CodeArchitecture.values().firstOrNull({it.name == parts[0]}) ?: return null
+            val threads = parts[1].toIntOrNull() ?: return null
+            return if (threads > 0) EffectTuning(arch, threads) else null
+        }
+    }
+}
+
+/**
+ * Finds the fastest implementation and thread count for each effect and image size on this
+ * device, replacing the fixed MAX_NATIVE_THREADS and MAX_KOTLIN_THREADS limits and always
+ * preferring native code when the library loads.
+ *
+ * The first time an effect renders preview frames at a size, the tuner runs a few frames with
+ * each candidate configuration and keeps the one with the lowest median render time. Results
+ * are saved in shared preferences along with the build fingerprint, so they're discarded after
+ * a system update. Effects are tuned separately for each set of parameters, since parameters
+ * such as the oil painting brush size change the cost by much more than the size does.
+ *
+ * Trial frames are still displayed, so `endFrame` sets `tuningTrial` in their metadata. Callers
+ * leave them out of the latency histograms and resolution adjustments, which would otherwise
+ * react to the deliberately slow configurations.
+ *
+ * CameraImageProcessor calls `beginFrame` and `endFrame` around each render; effects read the
+ * configuration for the current frame through `allowsNative`, `nativeThreads`, and
+ * `kotlinThreads`, which return the effect's own defaults when there is nothing tuned. Once an
+ * effect is tuned, neither call allocates or takes the lock: each thread keeps the key of the
+ * last effect and size it rendered, and saved tunings are read from a concurrent map.
+ */
+object EffectTuner {
+    const val TAG = "EffectTuner"
+    const val PREFS_NAME = "effect_tuning"
+    const val FINGERPRINT_KEY = "deviceFingerprint"
+    // Frames rendered with each candidate before timing, to let caches and the JIT settle.
+    const val WARMUP_FRAMES = 2
+    const val SAMPLE_FRAMES = 5
+    // A candidate is abandoned as soon as one frame, including warmup frames, is this much slower
+    // than the best median so far, so a bad configuration is shown for only one frame.
+    const val ABANDON_RATIO = 2.0
+    private val THREAD_COUNTS = intArrayOf(1, 2, 3, 4, 6, 8)
+
+    private class Session(val candidates: List<EffectTuning>) {
+        var index = 0
+        var framesStarted = 0
+        val samples = LongArray(SAMPLE_FRAMES)
+        var numSamples = 0
+        val medians = LongArray(candidates.size, {Long.MAX_VALUE})
+        var done = false
+
+        fun candidate() = candidates[index]
+
+        fun bestMedian() = medians.minOrNull() ?: Long.MAX_VALUE
+
+        fun finishCandidate(median: Long) {
+            medians[index] = median
+            index += 1
+            framesStarted = 0
+            numSamples = 0
+            if (index >= candidates.size) {
+                done = true
+            }
+        }
+    }
+
+    // The frame being rendered on a thread, and the key of the last effect and size it rendered.
+    // The key is a hash of the effect's parameters, which is too slow to compute every frame.
+    private class FrameState {
+        var tuning: EffectTuning? = null
+        var isTrial = false
+        var keyEffect: Effect? = null
+        var keyWidth = 0
+        var keyHeight = 0
+        var key = ""
+    }
+
+    // Guards `sessions` and writes to `prefs`. `tuned` is read without it.
+    private val lock = ReentrantLock()
+    @Volatile private var prefs: SharedPreferences? = null
+    private val tuned = ConcurrentHashMap<String, EffectTuning>()
+    private val sessions = HashMap<String, Session>()
+    private val frameState = ThreadLocal.withInitial({FrameState()})
+
+    /** Loads saved tunings. Until this is called, nothing is tuned and effects use defaults. */
+    fun init(context: Context) {
+        lock.withLock({
+            if (prefs != null) {
+                return
+            }
+            val p = context.applicationContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            if (p.getString(FINGERPRINT_KEY, "") != Build.FINGERPRINT) {
+                p.edit().clear().putString(FINGERPRINT_KEY, Build.FINGERPRINT).apply()
+            }
+            for ((key, value) in p.all) {
+                if (key != FINGERPRINT_KEY && value is String) {
+                    EffectTuning.fromPrefsString(value)?.let({tuned[key] = it})
+                }
+            }
+            prefs = p
+        })
+    }
+
+    private fun key(effect: Effect, width: Int, height: Int) =
+            "${effect.effectName()}#${parametersHash(effect.effectParameters())}@${width}x${height}"
+
+    private fun cachedKey(state: FrameState, effect: Effect, width: Int, height: Int): String {
+        if (state.keyEffect !== effect || state.keyWidth != width || state.keyHeight != height) {
+            state.key = key(effect, width, height)
+            state.keyEffect = effect
+            state.keyWidth = width
+            state.keyHeight = height
+        }
+        return state.key
+    }
+
+    /**
+     * Returns a hash of effect parameters that's the same across runs, unlike the hash codes of
+     * arbitrary objects. Map entries are sorted so that their order doesn't matter.
+     */
+    private fun parametersHash(params: Map<String, Any>): String {
+        val canonical = StringBuilder()
+        fun append(value: Any?) {
+            when (value) {
+                is Map<*, *> -> {
+                    canonical.append('{')
+                    value.entries.sortedBy({it.key.toString()}).forEach({
+                        canonical.append(it.key).append('=')
+                        append(it.value)
+                        canonical.append(',')
+                    })
+                    canonical.append('}')
+                }
+                is Iterable<*> -> {
+                    canonical.append('[')
+                    value.forEach({append(it); canonical.append(',')})
+                    canonical.append(']')
+                }
+                is IntArray -> append(value.asList())
+                else -> canonical.append(value)
+            }
+        }
+        append(params)
+        val crc = CRC32()
+        crc.update(canonical.toString().toByteArray())
+        return "%08x".format(crc.value)
+    }
+
+    private fun candidates(): List<EffectTuning> {
+        val numCores = Runtime.getRuntime().availableProcessors()
+        val threadCounts = THREAD_COUNTS.filter({it <= numCores})
+        val result = ArrayList<EffectTuning>()
+        if (Effect.nativeLibraryLoaded) {
+            threadCounts.forEach({result.add(EffectTuning(CodeArchitecture.Native, it))})
+        }
+        threadCounts.forEach({result.add(EffectTuning(CodeArchitecture.Kotlin, it))})
+        return result
+    }
+
+    /**
+     * Chooses the configuration for rendering a frame of the given size on the calling thread: the
+     * saved tuning, the next candidate to time if `allowTrials` is true and the size hasn't been
+     * tuned yet, or null to use the effect's defaults. Must be followed by `endFrame` on the same
+     * thread.
+     */
+    fun beginFrame(effect: Effect, width: Int, height: Int, allowTrials: Boolean): EffectTuning? {
+        val state = frameState.get()!!
+        state.tuning = null
+        state.isTrial = false
+        if (prefs == null) {
+            return null
+        }
+        val key = cachedKey(state, effect, width, height)
+        val saved = tuned[key]
+        if (saved != null || !allowTrials) {
+            state.tuning = saved
+            return saved
+        }
+        val tuning = lock.withLock({
+            // Another thread may have finished tuning since `tuned` was checked.
+            tuned[key]?.let({return@withLock it})
+            var session = sessions[key]
+            if (session == null) {
+                session = Session(candidates())
+                sessions[key] = session
+            }
+            if (session.done) {
+                return@withLock null
+            }
+            session.framesStarted += 1
+            state.isTrial = true
+            session.candidate()
+        })
+        state.tuning = tuning
+        return tuning
+    }
+
+    /**
+     * Returns true if the frame started by `beginFrame` on this thread is trying out a candidate
+     * configuration rather than using a saved tuning or the effect's defaults.
+     */
+    fun isTrialFrame() = frameState.get()!!.isTrial
+
+    /**
+     * Records how long the frame started by `beginFrame` took. `tuning` is the value that
+     * beginFrame returned. Frames that didn't run the requested configuration, for example because
+     * the effect has no native implementation or doesn't use threads, disqualify that candidate.
+     * Sets `tuningTrial` in `metadata` if the frame was a trial.
+     */
+    fun endFrame(effect: Effect, width: Int, height: Int, tuning: EffectTuning?,
+                 metadata: ProcessedBitmapMetadata) {
+        val state = frameState.get()!!
+        val wasTrial = state.isTrial
+        state.tuning = null
+        state.isTrial = false
+        if (!wasTrial || tuning == null) {
+            // Defaults or a saved tuning, so there's nothing to record.
+            return
+        }
+        metadata.tuningTrial = true
+        val key = cachedKey(state, effect, width, height)
+        lock.withLock({
+            val session = sessions[key]
+            if (session == null || session.done || session.candidate() != tuning) {
+                // A frame that started before the previous candidate finished.
+                return
+            }
+            val nanos = metadata.generationDurationNanos
+            if (metadata.codeArchitecture != tuning.architecture ||
+                    metadata.numThreads != tuning.numThreads) {
+                session.finishCandidate(Long.MAX_VALUE)
+            }
+            else if (nanos > session.bestMedian() * ABANDON_RATIO) {
+                session.finishCandidate(nanos)
+            }
+            else if (session.framesStarted > WARMUP_FRAMES) {
+                session.samples[session.numSamples] = nanos
+                session.numSamples += 1
+                if (session.numSamples == SAMPLE_FRAMES) {
+                    session.samples.sort()
+                    session.finishCandidate(session.samples[SAMPLE_FRAMES / 2])
+                }
+            }
+            if (session.done) {
+                finishSession(key, session)
+            }
+        })
+    }
+
+    private fun finishSession(key: String, session: Session) {
+        var bestIndex = -1
+        for (i in session.candidates.indices) {
+            if (session.medians[i] != Long.MAX_VALUE &&
+                    (bestIndex < 0 || session.medians[i] < session.medians[bestIndex])) {
+                bestIndex = i
+            }
+        }
+        if (bestIndex < 0) {
+            Log.i(TAG, "$key: no candidate ran as requested, using defaults")
+            return
+        }
+        val best = session.candidates[bestIndex]
+        Log.i(TAG, "$key: using $best, median ${session.medians[bestIndex] / 1000}us")
+        tuned[key] = best
+        sessions.remove(key)
+        prefs?.edit()?.putString(key, best.toPrefsString())?.apply()
+    }
+
+    /** Called instead of `endFrame` if rendering the frame failed. */
+    fun abandonFrame() {
+        val state = frameState.get()!!
+        state.tuning = null
+        state.isTrial = false
+    }
+
+    /** Discards all saved and in-progress tunings, so effects are tuned again on next use. */
+    fun clear() {
+        lock.withLock({
+            tuned.clear()
+            sessions.clear()
+            prefs?.edit()?.clear()?.putString(FINGERPRINT_KEY, Build.FINGERPRINT)?.apply()
+        })
+    }
+
+    /** Returns false if the current frame should use the Kotlin implementation. */
+    fun allowsNative() = frameState.get()!!.tuning?.architecture != CodeArchitecture.Kotlin
+
+    /** Thread count for the native implementation in the current frame. */
+    fun nativeThreads(defaultThreads: Int): Int {
+        val tuning = frameState.get()!!.tuning
+        return if (tuning != null && tuning.architecture == CodeArchitecture.Native)
+            tuning.numThreads else defaultThreads
+    }
+
+    /** Thread count for the Kotlin implementation in the current frame. */
+    fun kotlinThreads(defaultThreads: Int): Int {
+        val tuning = frameState.get()!!.tuning
+        return if (tuning != null && tuning.architecture == CodeArchitecture.Kotlin)
+            tuning.numThreads else defaultThreads
+    }
+}
@@ -0,0 +1,124 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
+
+/**
+ * Decides which camera frames CameraImageProcessor accepts, keeps, and processes when frames
+ * arrive faster than they can be handled. Also keeps counters of received, processed, and dropped
+ * frames, and the jitter between processed frames, so the policies can be tuned.
+ */
+abstract class FrameDropPolicy(val queueCapacity: Int) {
+    private val received = AtomicLong()
+    private val processed = AtomicLong()
+    private val dropped = AtomicLong()
+    // Only updated from the publishing thread.
+    private var lastProcessedNanos = 0L
+    private var lastIntervalNanos = 0L
+    @Volatile private var jitterNanos = 0.0
+
+    /**
+     * If true, adding a frame to a full queue drops the oldest queued frame. If false, the new
+     * frame is dropped instead.
+     */
+    abstract val dropOldestWhenFull: Boolean
+
+    /**
+     * Called when a frame arrives. Returning false drops it immediately. `nowMillis`, here and in
+     * `shouldProcess`, is System.currentTimeMillis(), the same time base as CameraImage.timestamp.
+     */
+    open fun shouldAccept(cameraImage: CameraImage, nowMillis: Long): Boolean = true
+
+    /** Called when a queued frame is about to be processed. Returning false drops it. */
+    open fun shouldProcess(cameraImage: CameraImage, nowMillis: Long): Boolean = true
+
+    fun receivedCount() = received.get()
+    fun processedCount() = processed.get()
+    fun droppedCount() = dropped.get()
+
+    /**
+     * Smoothed variation in the interval between processed frames, in nanoseconds. Uses the
+     * same running estimator as RTP interarrival jitter (RFC 3550).
+     */
+    fun jitterNanos() = jitterNanos
+
+    fun recordReceived() {
+        received.incrementAndGet()
+    }
+
+    fun recordDropped() {
+        dropped.incrementAndGet()
+    }
+
+    fun recordProcessed(nowNanos: Long) {
+        processed.incrementAndGet()
+        if (lastProcessedNanos != 0L) {
+            val interval = nowNanos - lastProcessedNanos
+            if (lastIntervalNanos != 0L) {
+                val d = abs(interval - lastIntervalNanos).toDouble()
+                jitterNanos += (d - jitterNanos) / 16
+            }
+            lastIntervalNanos = interval
+        }
+        lastProcessedNanos = nowNanos
+    }
+
+    fun statsString(): String {
+        val jitterMs = jitterNanos / 1e6
+        return "received=${receivedCount()} processed=${processedCount()} " +
+                "dropped=${droppedCount()} jitter=${"%.1f".format(jitterMs)}ms"
+    }
+}
+
+/**
+ * Keeps only the most recent `depth` frames, dropping older ones. Minimizes latency, which is
+ * what we want for the live preview.
+ */
+class LatestWinsPolicy(depth: Int = 1) : FrameDropPolicy(depth) {
+    override val dropOldestWhenFull = true
+}
+
+/**
+ * Queues up to `capacity` frames in arrival order and drops new frames when full. Favors keeping
+ * consecutive frames over latency, e.g. for video recording.
+ */
+class BoundedFifoPolicy(capacity: Int = 3) : FrameDropPolicy(capacity) {
+    override val dropOldestWhenFull = false
+}
+
+/**
+ * Accepts frames no more often than `targetFps`, dropping the rest on arrival. Useful for
+ * expensive outputs like the effect grid, where processing every camera frame isn't worthwhile.
+ */
+class TargetFpsPolicy(targetFps: Double, depth: Int = 1) : FrameDropPolicy(depth) {
+    // Fractional so that e.g. 30 fps doesn't round to 33 ms and drift.
+    private val minIntervalMillis = 1000.0 / targetFps
+    private var nextAcceptMillis = 0.0
+
+    override val dropOldestWhenFull = true
+
+    override fun shouldAccept(cameraImage: CameraImage, nowMillis: Long): Boolean {
+        if (nowMillis < nextAcceptMillis) {
+            return false
+        }
+        // Schedule from the ideal time rather than `now` so the average rate stays on target,
+        // but don't let a long gap cause a burst of catch-up frames.
+        nextAcceptMillis =
+                if (nowMillis - nextAcceptMillis > minIntervalMillis) nowMillis + minIntervalMillis
+                else nextAcceptMillis + minIntervalMillis
+        return true
+    }
+}
+
+/**
+ * Drops queued frames that are more than `maxAgeMillis` old by the time they would be processed,
+ * since showing them would only add visible lag. Age is measured from CameraImage.timestamp,
+ * which is in System.currentTimeMillis() units.
+ */
+class DeadlinePolicy(private val maxAgeMillis: Long, depth: Int = 2) : FrameDropPolicy(depth) {
+    override val dropOldestWhenFull = true
+
+    override fun shouldProcess(cameraImage: CameraImage, nowMillis: Long): Boolean {
+        return nowMillis - cameraImage.timestamp <= maxAgeMillis
+    }
+}
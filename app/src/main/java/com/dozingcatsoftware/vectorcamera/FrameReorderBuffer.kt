@@ -0,0 +1,103 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Restores timestamp order for frames that are processed concurrently. `dispatched` must be
+ * called before a frame is handed to a worker, and exactly one of `completed` or `abandoned`
+ * must be called for it afterwards. Completed frames are held until every earlier frame has
+ * finished, and then passed to `emit` in order. A frame whose timestamp is older than the last
+ * emitted frame is passed to `drop` instead, which by default releases it.
+ */
+class FrameReorderBuffer(
+        maxInFlight: Int,
+        private val emit: (ProcessedBitmap) -> Unit,
+        private val drop: (ProcessedBitmap) -> Unit = ProcessedBitmap::release) {
+    // Timestamps of dispatched frames that haven't finished.
+    private val inFlight = LongArray(maxInFlight)
+    private var inFlightCount = 0
+    // Finished frames waiting for earlier frames, sorted by timestamp.
+    private val completedFrames = ArrayList<ProcessedBitmap>(maxInFlight)
+    private var lastEmittedTimestamp = Long.MIN_VALUE
+    private val lock = ReentrantLock()
+
+    var droppedFrameCount = 0L
+        private set
+
+    /**
+     * Records that a frame with the given timestamp is about to be processed. Returns false if
+     * too many frames are already in flight, in which case the caller should not dispatch it.
+     */
+    fun dispatched(timestamp: Long): Boolean {
+        lock.withLock({
+            if (inFlightCount >= inFlight.size) {
+                return false
+            }
+            inFlight[inFlightCount++] = timestamp
+            return true
+        })
+    }
+
+    fun completed(processedBitmap: ProcessedBitmap) {
+        lock.withLock({
+            removeInFlight(processedBitmap.sourceImage.timestamp)
+            val timestamp = processedBitmap.sourceImage.timestamp
+            var index = completedFrames.size
+            while (index > 0 && completedFrames[index - 1].sourceImage.timestamp > timestamp) {
+                index -= 1
+            }
+            completedFrames.add(index, processedBitmap)
+            emitReadyFramesLocked()
+        })
+    }
+
+    /** Called when a dispatched frame failed or was dropped before completing. */
+    fun abandoned(timestamp: Long) {
+        lock.withLock({
+            removeInFlight(timestamp)
+            emitReadyFramesLocked()
+        })
+    }
+
+    /** Releases any frames that are still waiting to be emitted. */
+    fun clear() {
+        lock.withLock({
+            completedFrames.forEach({it.release()})
+            completedFrames.clear()
+            inFlightCount = 0
+        })
+    }
+
+    private fun removeInFlight(timestamp: Long) {
+        for (i in 0 until inFlightCount) {
+            if (inFlight[i] == timestamp) {
+                System.arraycopy(inFlight, i + 1, inFlight, i, inFlightCount - i - 1)
+                inFlightCount -= 1
+                return
+            }
+        }
+    }
+
+    private fun emitReadyFramesLocked() {
+        while (completedFrames.isNotEmpty()) {
+            val next = completedFrames[0]
+            val timestamp = next.sourceImage.timestamp
+            // Wait if an earlier frame is still being processed.
+            for (i in 0 until inFlightCount) {
+                if (inFlight[i] < timestamp) {
+                    return
+                }
+            }
+            completedFrames.removeAt(0)
+            if (timestamp < lastEmittedTimestamp) {
+                droppedFrameCount += 1
+                drop(next)
+            }
+            else {
+                lastEmittedTimestamp = timestamp
+                emit(next)
+            }
+        }
+    }
+}
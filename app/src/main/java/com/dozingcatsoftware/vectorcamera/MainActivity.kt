@@ -1,6 +1,5 @@
 package com.dozingcatsoftware.vectorcamera
 
-import RunningStats
 import android.app.ProgressDialog
 import androidx.appcompat.app.AlertDialog
 import android.content.Intent
@@ -36,6 +35,7 @@ class MainActivity : AppCompatActivity() {
 
     private lateinit var imageProcessor: CameraImageProcessor
     private var preferredImageSize = ImageSize.HALF_SCREEN
+    private val resolutionController = AdaptiveResolutionController(PREVIEW_TARGET_FPS)
 
     private lateinit var photoLibrary: PhotoLibrary
 
@@ -63,11 +63,16 @@ class MainActivity : AppCompatActivity() {
     private var libraryMigrationDone = false
 
     private var showDebugInfo = false
+    private val performanceMonitor = PerformanceMonitor()
+
+    // Cached on the main thread for use by handleAllocationFromCamera, which runs on the camera
+    // thread and shouldn't touch views.
+    @Volatile private var landscapeDisplaySize = Size(0, 0)
+    @Volatile private var overlayIsPortrait = false
 
     private lateinit var binding: ActivityMainBinding
     private lateinit var onBackPressedCallback: OnBackPressedCallback
 
-    val renderTimeStats = RunningStats()
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -80,8 +85,10 @@ class MainActivity : AppCompatActivity() {
         photoLibrary = PhotoLibrary.defaultLibrary(this)
 
         PreferenceManager.setDefaultValues(this.baseContext, R.xml.preferences, false)
+        EffectTuner.init(this)
 
-        imageProcessor = CameraImageProcessor()
+        imageProcessor = CameraImageProcessor(
+                maxParallelFrames = CameraImageProcessor.defaultParallelFrames())
 
         currentEffect = effectFromPreferences()
         preferredImageSize =
@@ -100,6 +107,10 @@ class MainActivity : AppCompatActivity() {
         binding.settingsButton.setOnClickListener(this::gotoPreferences)
         binding.convertPictureButton.setOnClickListener(this::convertExistingPicture)
         binding.overlayView.touchEventHandler = this::handleOverlayViewTouchEvent
+        binding.overlayView.addOnLayoutChangeListener({_, _, _, _, _, _, _, _, _ ->
+            updateCachedLayoutInfo()
+        })
+        updateCachedLayoutInfo()
         binding.cameraActionButton.onShutterButtonClick = this::handleShutterClick
         binding.cameraActionButton.onShutterButtonFocus = this::handleShutterFocus
         binding.editSchemeView.activity = this
@@ -141,11 +152,23 @@ class MainActivity : AppCompatActivity() {
         }
         binding.overlayView.viewTreeObserver.addOnGlobalLayoutListener(listener)
         showDebugInfo = preferences.showDebugInfo()
+        binding.overlayView.performanceMonitor =
+                if (preferences.showPerformanceHud()) performanceMonitor else null
     }
 
     override fun onPause() {
+        imageProcessor.currentDropPolicy()?.let({
+            Log.i(TAG, "Frame stats: ${it.statsString()}")
+        })
+        Log.i(TAG, "Frame timings for ${FrameTracer.currentEffectName}: " +
+                FrameTracer.summaryMillis())
         imageProcessor.pause()
         cameraImageGenerator.stop()
+        val pool = PlaneBufferPool.shared
+        Log.i(TAG, "Plane buffer pool hits: ${pool.hitCount()}, misses: ${pool.missCount()}")
+        val outputPool = imageProcessor.outputPool
+        Log.i(TAG, "Effect output pool hits: ${outputPool.hitCount()}, " +
+                "misses: ${outputPool.missCount()}")
         if (videoRecorder != null) {
             toggleVideoRecording()
             // HACK: Don't clear the temp directory in this case because it holds the recorded data.
@@ -154,9 +177,29 @@ class MainActivity : AppCompatActivity() {
             Log.i(TAG, "Clearing temp dir")
             photoLibrary.clearTempDirectories()
         }
+        // Written after clearing the temp directory so it survives until the next pause.
+        if (showDebugInfo || preferences.showPerformanceHud()) {
+            writeFlightRecording()
+        }
         super.onPause()
     }
 
+    private fun writeFlightRecording() {
+        val recorder = imageProcessor.flightRecorder
+        if (recorder.size() == 0) {
+            return
+        }
+        Thread({
+            try {
+                val file = photoLibrary.writeFlightRecording(recorder)
+                Log.i(TAG, "Wrote ${recorder.size()} frames to ${file}")
+            }
+            catch (ex: Exception) {
+                Log.w(TAG, "Error writing flight recording", ex)
+            }
+        }).start()
+    }
+
     override fun onConfigurationChanged(newConfig: Configuration) {
         Log.i(TAG, "configurationChanged: ${newConfig.orientation}")
         super.onConfigurationChanged(newConfig)
@@ -348,7 +391,30 @@ class MainActivity : AppCompatActivity() {
         return binding.overlayView.height > binding.overlayView.width
     }
 
+    /**
+     * The preview capture size is adjusted by resolutionController, using the size chosen with
+     * the resolution button as the upper limit.
+     */
+    private fun usesAdaptiveResolution() =
+            preferredImageSize == ImageSize.FULL_SCREEN ||
+                    preferredImageSize == ImageSize.HALF_SCREEN
+
+    private fun updateResolutionCandidates(keepCurrentSize: Boolean) {
+        val available = cameraImageGenerator.availableCaptureSizes()
+        val maxSize = CameraImageGenerator.pickBestSize(available, requestedCameraImageSize())
+        val candidates = AdaptiveResolutionController.candidateSizes(
+                available, maxSize, MIN_ADAPTIVE_PREVIEW_WIDTH)
+        resolutionController.setCandidates(candidates, System.nanoTime(), keepCurrentSize)
+    }
+
     private fun targetCameraImageSize(): Size {
+        if (usesAdaptiveResolution()) {
+            resolutionController.currentSize()?.let({return it})
+        }
+        return requestedCameraImageSize()
+    }
+
+    private fun requestedCameraImageSize(): Size {
         val ds = getLandscapeDisplaySize(this)
         return when (preferredImageSize) {
             ImageSize.FULL_SCREEN -> ds
@@ -393,12 +459,14 @@ class MainActivity : AppCompatActivity() {
     private fun handleGeneratedBitmap(pb: ProcessedBitmap) {
         handler.post(fun() {
             if (lastBitmapTimestamp > pb.sourceImage.timestamp) {
+                pb.release()
                 return
             }
-            renderTimeStats.addValue(pb.metadata.generationDurationNanos)
             lastBitmapTimestamp = pb.sourceImage.timestamp
-            binding.overlayView.generationTimeAverageNanos = renderTimeStats.getAverage()
             binding.overlayView.updateBitmap(pb, showDebugInfo)
+            if (binding.overlayView.performanceMonitor != null) {
+                updatePerformanceMonitor(pb)
+            }
             // Save image or video frame if necessary.
             if (pb.sourceImage.status == CameraStatus.CAPTURING_PHOTO) {
                 saveImage(pb)
@@ -406,9 +474,36 @@ class MainActivity : AppCompatActivity() {
             if (pb.sourceImage.status == CameraStatus.CAPTURING_VIDEO) {
                 recordVideoFrame(pb)
             }
+            if (pb.sourceImage.status == CameraStatus.CAPTURING_PREVIEW) {
+                updateAdaptiveResolution(pb)
+            }
         })
     }
 
+    private fun updatePerformanceMonitor(pb: ProcessedBitmap) {
+        val now = System.nanoTime()
+        if (performanceMonitor.frameDisplayed(now)) {
+            performanceMonitor.update(now,
+                    imageProcessor.currentDropPolicy()?.droppedCount() ?: 0L,
+                    videoRecorder?.droppedFrameCount()?.toLong() ?: 0L,
+                    pb.sourceImage.width(), pb.sourceImage.height())
+        }
+    }
+
+    private fun updateAdaptiveResolution(pb: ProcessedBitmap) {
+        // Autotuner trials are deliberately run with slow configurations.
+        if (pb.metadata.tuningTrial || !usesAdaptiveResolution() ||
+                cameraImageGenerator.status != CameraStatus.CAPTURING_PREVIEW) {
+            return
+        }
+        val newSize = resolutionController.addFrameTiming(
+                pb.sourceImage.size(), pb.metadata.generationDurationNanos,
+                imageProcessor.effectWorkerCount(), System.nanoTime())
+        if (newSize != null) {
+            restartCameraImageGenerator()
+        }
+    }
+
     private fun saveImage(pb: ProcessedBitmap) {
         Log.i(TAG, "Saving picture")
         // This can take a while, so show a spinner. Should it allow the user to cancel?
@@ -417,6 +512,8 @@ class MainActivity : AppCompatActivity() {
         saveIndicator.setMessage(getString(R.string.savingImageMessage))
         saveIndicator.setCancelable(false)
         saveIndicator.show()
+        // Keep the source image planes alive until the background thread is done with them.
+        pb.sourceImage.retain()
         (Thread {
             try {
                 val photoId = photoLibrary.savePhoto(this, pb)
@@ -431,6 +528,9 @@ class MainActivity : AppCompatActivity() {
                 Log.w(TAG, "Error saving photo: ${ex}")
                 saveIndicator.dismiss()
             }
+            finally {
+                pb.sourceImage.release()
+            }
         }).start()
     }
 
@@ -447,9 +547,14 @@ class MainActivity : AppCompatActivity() {
                         source.orientation,
                         source.timestamp)
             }
-            vr.recordFrame(source.timestamp, listOf(
-                source.getYBytes(), source.getUBytes(), source.getVBytes()
-            ))
+            // The recorder writes the planes on its own thread, so hold a reference until it's
+            // done.
+            source.retain()
+            FrameTracer.trace(TraceSpan.RECORDER_ENQUEUE, {
+                vr.recordFrame(source.timestamp, listOf(
+                    source.getYBytes(), source.getUBytes(), source.getVBytes()
+                ), source::release)
+            })
         }
     }
 
@@ -458,23 +563,39 @@ class MainActivity : AppCompatActivity() {
                 {effectRegistry.defaultEffectAtIndex(0, preferences.lookupFunction)})
     }
 
+    /**
+     * Called on the camera image thread for every frame. Preview and video frames go directly to
+     * the image processor without a trip through the main thread.
+     */
     private fun handleAllocationFromCamera(imageFromCamera: CameraImage) {
-        handler.post(fun() {
-            // Add fields that the image generator doesn't have. Might be better to have a separate
-            // class that holds a CameraImage, display size, and portrait flag.
-            val ds = getLandscapeDisplaySize(this)
-            val orientation = imageFromCamera.orientation.withPortrait(isPortraitOrientation())
-            val cameraImage = imageFromCamera.copy(displaySize=ds, orientation=orientation)
-            if (cameraImage.status == CameraStatus.CAPTURING_PHOTO) {
+        // Add fields that the image generator doesn't have. Might be better to have a separate
+        // class that holds a CameraImage, display size, and portrait flag.
+        val orientation = imageFromCamera.orientation.withPortrait(overlayIsPortrait)
+        val cameraImage = imageFromCamera.copy(
+                displaySize=landscapeDisplaySize, orientation=orientation)
+        if (cameraImage.status == CameraStatus.CAPTURING_PHOTO) {
+            // Restarting the preview restarts the processor, so it has to happen before the photo
+            // frame is queued.
+            handler.post {
                 Log.i(TAG, "Restarting preview capture")
                 restartCameraImageGenerator()
+                this.imageProcessor.queueCameraImage(cameraImage)
             }
-            this.imageProcessor.queueCameraImage(cameraImage)
-        })
+            return
+        }
+        this.imageProcessor.queueCameraImage(cameraImage)
+    }
+
+    private fun updateCachedLayoutInfo() {
+        landscapeDisplaySize = getLandscapeDisplaySize(this)
+        overlayIsPortrait = isPortraitOrientation()
     }
 
     private fun restartCameraImageGenerator(
             cameraStatus: CameraStatus = CameraStatus.CAPTURING_PREVIEW) {
+        if (cameraStatus == CameraStatus.CAPTURING_PREVIEW && usesAdaptiveResolution()) {
+            updateResolutionCandidates(true)
+        }
         Log.i(TAG, "recreateCameraImageGenerator: " + this.targetCameraImageSize())
         if (!inEffectSelectionMode) {
             currentEffect = effectFromPreferences()
@@ -483,7 +604,20 @@ class MainActivity : AppCompatActivity() {
                 cameraStatus,
                 this.targetCameraImageSize(),
                 this::handleAllocationFromCamera)
-        this.imageProcessor.start(currentEffect!!, this::handleGeneratedBitmap)
+        this.imageProcessor.start(
+                currentEffect!!, this::handleGeneratedBitmap, frameDropPolicy(cameraStatus))
+    }
+
+    /**
+     * The preview favors low latency, video recording favors keeping consecutive frames, and the
+     * effect grid is expensive enough that it's not worth rendering every camera frame.
+     */
+    private fun frameDropPolicy(cameraStatus: CameraStatus): FrameDropPolicy {
+        return when {
+            cameraStatus == CameraStatus.CAPTURING_VIDEO -> BoundedFifoPolicy()
+            inEffectSelectionMode -> TargetFpsPolicy(EFFECT_GRID_TARGET_FPS)
+            else -> LatestWinsPolicy()
+        }
     }
 
     private fun toggleVideoMode(view: View) {
@@ -518,6 +652,8 @@ class MainActivity : AppCompatActivity() {
                 if (preferredImageSize == ImageSize.FULL_SCREEN) ImageSize.HALF_SCREEN
                 else ImageSize.FULL_SCREEN
         preferences.setUseHighQualityPreview(preferredImageSize == ImageSize.FULL_SCREEN)
+        // Start at the newly selected size rather than wherever the controller was.
+        updateResolutionCandidates(false)
         restartCameraImageGenerator()
         updateControls()
     }
@@ -553,7 +689,6 @@ class MainActivity : AppCompatActivity() {
             Log.i(TAG, "Exiting combo grid")
         }
         restartCameraImageGenerator()
-        imageProcessor.start(currentEffect!!, this::handleGeneratedBitmap)
         binding.controlLayout.visibility = if (inEffectSelectionMode) View.GONE else View.VISIBLE
         binding.editSchemeView.visibility = View.GONE
     }
@@ -848,5 +983,8 @@ class MainActivity : AppCompatActivity() {
         const val TAG = "MainActivity"
 
         const val ACTIVITY_CHOOSE_PICTURE = 1
+        const val EFFECT_GRID_TARGET_FPS = 10.0
+        const val PREVIEW_TARGET_FPS = 20.0
+        const val MIN_ADAPTIVE_PREVIEW_WIDTH = 320
     }
 }
@@ -6,6 +6,7 @@ import android.graphics.Color
 import android.graphics.Matrix
 import android.graphics.Paint
 import android.graphics.RectF
+import android.os.SystemClock
 import android.util.AttributeSet
 import android.view.MotionEvent
 import android.view.View
@@ -15,36 +16,90 @@ class OverlayView(context: Context, attrs: AttributeSet) : View(context, attrs)
 
     var processedBitmap: ProcessedBitmap? = null
     var touchEventHandler: ((OverlayView, MotionEvent) -> Unit)? = null
-    var generationTimeAverageNanos: Double = 0.0
     var showDebugInfo = true
+    // Set to show the performance HUD, which draws the monitor's latest snapshot.
+    var performanceMonitor: PerformanceMonitor? = null
+    private var lastDrawnBitmap: ProcessedBitmap? = null
 
     private val flipMatrix = Matrix()
     private val imageRect = RectF()
     private val blackPaint = Paint().apply {color = Color.BLACK}
     private val statsPaint = Paint().apply {color = Color.WHITE}
+    private val hudPaint = Paint().apply {
+        color = Color.WHITE
+        setShadowLayer(2f, 1f, 1f, Color.BLACK)
+    }
 
+    /**
+     * Displays a new bitmap. The view takes over the caller's reference to `pb`, and releases the
+     * previously displayed bitmap so that its source image planes can be recycled.
+     */
     fun updateBitmap(pb: ProcessedBitmap, showDebug: Boolean = false) {
+        val previous = processedBitmap
         processedBitmap = pb
+        if (previous != null && previous !== pb) {
+            previous.release()
+        }
         showDebugInfo = showDebug
         invalidate()
     }
 
     override fun onDraw(canvas: Canvas) {
         val pb = this.processedBitmap
-        pb?.renderToCanvas(canvas, this.width, this.height, blackPaint, imageRect, flipMatrix)
+        if (pb != null) {
+            FrameTracer.trace(TraceSpan.DRAW, {
+                pb.renderToCanvas(canvas, this.width, this.height, blackPaint, imageRect, flipMatrix)
+            })
+        }
+        if (pb != null && pb !== lastDrawnBitmap) {
+            lastDrawnBitmap = pb
+            // Time from camera exposure to the first draw of each frame.
+            val sensorTimestamp = pb.sourceImage.sensorTimestampNanos
+            if (sensorTimestamp > 0 && !pb.metadata.tuningTrial) {
+                FrameTracer.record(TraceSpan.SENSOR_TO_SCREEN,
+                        SystemClock.elapsedRealtimeNanos() - sensorTimestamp)
+            }
+        }
         if (showDebugInfo && pb != null) {
             val density = resources.displayMetrics.density
             statsPaint.textSize = 20 * density
             val x = 16 * density
             val y = 16 * density
-            val ms = (generationTimeAverageNanos / 1e6).roundToInt()
+            val effectTimes = FrameTracer.histogram(TraceSpan.EFFECT)
+            val effectStr = "${millis(effectTimes.percentileNanos(50.0))}/" +
+                    "${millis(effectTimes.percentileNanos(99.0))}ms"
             val archStr = if (pb.metadata.codeArchitecture != null) pb.metadata.codeArchitecture.name else " "
             val threadStr = if (pb.metadata.numThreads != null) "${pb.metadata.numThreads}T" else " "
-            val msg = "${pb.effect.effectName()} ${pb.bitmap.width}x${pb.bitmap.height} $archStr $threadStr ${ms}ms"
+            val trialStr = if (pb.metadata.tuningTrial) " tuning" else ""
+            val latency = FrameTracer.histogram(TraceSpan.SENSOR_TO_SCREEN)
+            val latencyStr = if (latency.count() == 0L) "" else
+                " lat ${millis(latency.percentileNanos(50.0))}/${millis(latency.percentileNanos(99.0))}ms"
+            val imbalance = pb.metadata.loadImbalance
+            val imbalanceStr = if (imbalance.isNaN()) "" else " imb ${(imbalance * 100).roundToInt()}%"
+            val msg = "${pb.effect.effectName()} ${pb.bitmap.width}x${pb.bitmap.height} $archStr $threadStr $effectStr$latencyStr$imbalanceStr$trialStr"
             canvas.drawText(msg, x, y, statsPaint)
         }
+        val snapshot = performanceMonitor?.snapshot
+        if (snapshot != null) {
+            drawPerformanceHud(canvas, snapshot)
+        }
     }
 
+    private fun drawPerformanceHud(canvas: Canvas, snapshot: PerformanceSnapshot) {
+        val density = resources.displayMetrics.density
+        hudPaint.textSize = 14 * density
+        val lineHeight = 18 * density
+        val x = 16 * density
+        // Below the debug info line, if it's shown.
+        var y = 44 * density
+        for (line in snapshot.lines) {
+            canvas.drawText(line, x, y, hudPaint)
+            y += lineHeight
+        }
+    }
+
+    private fun millis(nanos: Long) = (nanos / 1e6).roundToInt()
+
     override fun onTouchEvent(event: MotionEvent?): Boolean {
         val handler = touchEventHandler
         if (handler != null) {
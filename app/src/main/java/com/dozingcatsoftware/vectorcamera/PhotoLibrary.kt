@@ -201,6 +201,18 @@ class PhotoLibrary(val rootDirectory: File) {
         return createTempFileOutputStream(tempRawAudioFileForItemId(itemId))
     }
 
+    /**
+     * Writes the flight recorder's rows to flight_<timestamp>.csv and .json in the temp directory,
+     * and returns the CSV file.
+     */
+    fun writeFlightRecording(recorder: FlightRecorder): File {
+        val baseName = "flight_" + itemIdForTimestamp(System.currentTimeMillis())
+        val csvFile = File(getTempDirectory(), "$baseName.csv")
+        csvFile.bufferedWriter().use({recorder.writeCsv(it)})
+        File(getTempDirectory(), "$baseName.json").bufferedWriter().use({recorder.writeJson(it)})
+        return csvFile
+    }
+
     fun clearTempDirectories() {
         tempDirectory.deleteRecursively()
     }
@@ -238,7 +250,9 @@ class PhotoLibrary(val rootDirectory: File) {
         // Create thumbnail by rendering the first frame.
         // Circular dependency, ick.
         val videoReader = VideoReader(this, itemId, getDisplaySize(context))
-        writeThumbnail(videoReader.bitmapForFrame(0), itemId)
+        val firstFrame = videoReader.bitmapForFrame(0)
+        writeThumbnail(firstFrame, itemId)
+        firstFrame.release()
     }
 
     fun rawVideoRandomAccessFileForItemId(itemId: String): RandomAccessFile? {
@@ -0,0 +1,89 @@
+package com.dozingcatsoftware.vectorcamera
+
+import android.os.SystemClock
+import android.util.Log
+import android.util.Size
+import com.dozingcatsoftware.util.mapToJsonString
+import com.dozingcatsoftware.vectorcamera.effect.Effect
+import com.dozingcatsoftware.vectorcamera.effect.EffectRegistry
+import java.io.File
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Replays a recorded video through CameraImageProcessor with each effect in turn and reports the
+ * achieved frame rate, frame and per-stage latency percentiles, and dropped frames, so that
+ * pipeline throughput can be compared across builds and devices without pointing a camera at
+ * anything. Effects get their default preferences.
+ *
+ * With Pacing.MAX_SPEED the replay waits while the pipeline has `effectWorkerCount() + 1` frames
+ * in flight, so that the effect stage always has a frame ready without frames piling up and
+ * being dropped; the frame rate is then the pipeline's throughput. With Pacing.REAL_TIME frames
+ * arrive at the recorded rate and the drop counts show whether the pipeline keeps up.
+ */
+class PipelineReplay(private val photoLibrary: PhotoLibrary,
+                     private val videoId: String,
+                     private val pacing: FrameReplayer.Pacing,
+                     private val loops: Int = 1,
+                     private val displaySize: Size? = null,
+                     private val maxParallelFrames: Int =
+                             CameraImageProcessor.defaultParallelFrames()) {
+
+    fun replayEffect(effect: Effect): ReplayReport {
+        val processor = CameraImageProcessor(maxParallelFrames = maxParallelFrames)
+        val generator = RecordedVideoImageGenerator(
+                photoLibrary, videoId, pacing, loops, displaySize)
+        val frameLatency = LatencyHistogram()
+        processor.start(effect, {pb ->
+            frameLatency.record(
+                    SystemClock.elapsedRealtimeNanos() - pb.sourceImage.sensorTimestampNanos)
+            pb.release()
+        })
+        val dropPolicy = processor.currentDropPolicy()!!
+        val maxInFlight = processor.effectWorkerCount() + 1
+        fun inFlight() =
+                dropPolicy.receivedCount() - dropPolicy.processedCount() - dropPolicy.droppedCount()
+        try {
+            val startNanos = System.nanoTime()
+            generator.start(processor::queueCameraImage, {
+                while (inFlight() >= maxInFlight) {
+                    LockSupport.parkNanos(POLL_INTERVAL_NANOS)
+                }
+            })
+            generator.awaitFinished()
+            val deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS
+            while (inFlight() > 0 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(POLL_INTERVAL_NANOS)
+            }
+            val elapsedNanos = System.nanoTime() - startNanos
+            return ReplayReport(effect.effectName(), generator.width(), generator.height(),
+                    elapsedNanos, dropPolicy.receivedCount(), dropPolicy.processedCount(),
+                    dropPolicy.droppedCount(), frameLatency, processor.stageLatencies())
+        }
+        finally {
+            generator.stop()
+            processor.pause()
+        }
+    }
+
+    fun replayDefaultEffects(effectRegistry: EffectRegistry = EffectRegistry()): List<ReplayReport> {
+        val reports = mutableListOf<ReplayReport>()
+        for (i in 0 until effectRegistry.defaultEffectCount()) {
+            val effect = effectRegistry.defaultEffectAtIndex(i, {_, default -> default})
+            val report = replayEffect(effect)
+            Log.i(TAG, report.toString())
+            reports.add(report)
+        }
+        return reports
+    }
+
+    companion object {
+        const val TAG = "PipelineReplay"
+        private const val POLL_INTERVAL_NANOS = 200_000L
+        private const val DRAIN_TIMEOUT_NANOS = 10_000_000_000L
+
+        /** Writes the reports as JSON to the given file, for comparing runs. */
+        fun writeReports(reports: List<ReplayReport>, file: File) {
+            file.writeText(mapToJsonString(mapOf("reports" to reports.map({it.toMap()}))))
+        }
+    }
+}
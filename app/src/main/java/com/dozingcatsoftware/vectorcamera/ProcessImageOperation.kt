@@ -5,6 +5,7 @@ import android.net.Uri
 import android.util.Log
 import com.dozingcatsoftware.util.scaledBitmapFromURIWithMaximumSize
 import com.dozingcatsoftware.util.YuvImageBuffers
+import com.dozingcatsoftware.util.fromBitmap
 import com.dozingcatsoftware.vectorcamera.effect.EffectRegistry
 
 class ProcessImageOperation(val timeFn: (() -> Long) = System::currentTimeMillis) {
@@ -13,17 +13,36 @@ data class ProcessedBitmapMetadata(
     val codeArchitecture: CodeArchitecture?,
     val numThreads: Int?,
     val generationDurationNanos: Long,
-)
+) {
+    /**
+     * How unevenly the Kotlin row bands were spread across threads, as reported by
+     * RowBandExecutor.frameLoadImbalance. NaN if the effect didn't run Kotlin code in parallel.
+     */
+    var loadImbalance = Float.NaN
+
+    // Set by CameraImageProcessor as the frame goes through the pipeline, for its FlightRecorder.
+    // The effect's own time is generationDurationNanos.
+    var planeCopyNanos = 0L
+    var uploadNanos = 0L
+
+    /**
+     * True if EffectTuner rendered this frame with a candidate configuration it was timing, which
+     * may be much slower than usual. Such frames are kept out of latency statistics.
+     */
+    var tuningTrial = false
+}
 
 /**
  * The result of applying an Effect to a CameraImage. Contains references to the effect and
- * input image, and the bitmap created by applying the effect.
+ * input image, and the bitmap created by applying the effect. If the effect rendered into an
+ * EffectOutput, `output` holds it and `bitmap` is its bitmap.
  */
 data class ProcessedBitmap(
         val effect: Effect,
         val sourceImage: CameraImage,
         val bitmap: Bitmap,
         val metadata: ProcessedBitmapMetadata,
+        val output: EffectOutput? = null,
     ) {
 
     /**
@@ -90,6 +109,16 @@ data class ProcessedBitmap(
         return bitmap
     }
 
+    /**
+     * Releases the reference to the source image's plane data and to the output, allowing pooled
+     * planes and bitmaps to be reused. Call this when the bitmap is no longer displayed or
+     * otherwise needed.
+     */
+    fun release() {
+        sourceImage.release()
+        output?.release()
+    }
+
     fun resizedTo(size: Size): ProcessedBitmap {
         val resizedSource = this.sourceImage.resizedTo(size)
         return effect.createBitmap(resizedSource)
@@ -0,0 +1,49 @@
+package com.dozingcatsoftware.vectorcamera
+
+import android.os.SystemClock
+import android.util.Size
+
+/**
+ * Produces preview CameraImages from a raw video in the PhotoLibrary instead of the camera, so
+ * the processing pipeline can be driven without one. Frames keep their recorded timestamps;
+ * `sensorTimestampNanos` is set to when each frame is delivered, so latency is measured from
+ * there as it is from the sensor for camera images.
+ */
+class RecordedVideoImageGenerator(photoLibrary: PhotoLibrary, videoId: String,
+                                  pacing: FrameReplayer.Pacing,
+                                  loops: Int = 1,
+                                  displaySize: Size? = null) {
+    private val metadata = photoLibrary.metadataForItemId(videoId)
+    private val video = RecordedVideo(photoLibrary.rawVideoFileForItemId(videoId),
+            metadata.width, metadata.height, metadata.frameTimestamps)
+    private val replayer = FrameReplayer(video, pacing, loops)
+    private val displaySize = displaySize ?: Size(metadata.width, metadata.height)
+
+    fun width() = metadata.width
+    fun height() = metadata.height
+    fun framesDelivered() = replayer.framesDelivered
+
+    /**
+     * Starts delivering images to `imageCallback`, which takes over the reference to each one.
+     * `readyForFrame` is only called with Pacing.MAX_SPEED; see FrameReplayer.
+     */
+    fun start(imageCallback: (CameraImage) -> Unit, readyForFrame: () -> Unit = {}) {
+        replayer.start({imageData, timestamp ->
+            imageCallback(CameraImage(imageData, metadata.orientation,
+                    CameraStatus.CAPTURING_PREVIEW, timestamp, displaySize,
+                    sensorTimestampNanos = SystemClock.elapsedRealtimeNanos()))
+        }, readyForFrame)
+    }
+
+    fun stop() {
+        replayer.stop()
+        replayer.awaitFinished()
+        video.close()
+    }
+
+    /** Waits until all frames have been delivered, and closes the video file. */
+    fun awaitFinished() {
+        replayer.awaitFinished()
+        video.close()
+    }
+}
@@ -30,6 +30,8 @@ class VCPreferences(val context: Context) {
 
     fun showDebugInfo() = sharedPrefs().getBoolean(context.getString(R.string.showDebugInfoPrefsKey), false)
 
+    fun showPerformanceHud() = sharedPrefs().getBoolean(context.getString(R.string.showPerformanceHudPrefsKey), false)
+
     val lookupFunction = fun(key: String, defaultValue: Any): Any {
         if (defaultValue is String) {
             return sharedPrefs().getString(key, defaultValue)!!
@@ -0,0 +1,32 @@
+package com.dozingcatsoftware.vectorcamera
+
+import android.app.Application
+import android.os.Debug
+import android.os.Trace
+import android.util.Log
+
+/**
+ * Installs the Android implementations of the Platform hooks that the core module uses, before
+ * any activity or receiver runs.
+ */
+class VectorCameraApplication : Application() {
+    override fun onCreate() {
+        super.onCreate()
+        Platform.logger = Platform.Logger({ tag, message -> Log.w(tag, message) })
+        Platform.bitmapFactory = OutputBitmap.Factory({ width, height ->
+            AndroidOutputBitmap(width, height)
+        })
+        Platform.traceSections = object : Platform.TraceSections {
+            override fun begin(name: String) = Trace.beginSection(name)
+            override fun end() = Trace.endSection()
+        }
+        // ART doesn't report pause times for concurrent collections, so the time spent in GCs
+        // that blocked the app is the closest measure.
+        Platform.gcStats = object : Platform.GcStats {
+            override fun collectionCount() = runtimeStat("art.gc.gc-count")
+            override fun pauseMillis() = runtimeStat("art.gc.blocking-gc-time")
+        }
+    }
+
+    private fun runtimeStat(name: String) = Debug.getRuntimeStat(name)?.toLongOrNull() ?: 0L
+}
@@ -4,15 +4,13 @@ package com.dozingcatsoftware.vectorcamera
 import android.util.Size
 import com.dozingcatsoftware.vectorcamera.effect.Effect
 import com.dozingcatsoftware.vectorcamera.effect.EffectRegistry
-import java.io.ByteArrayInputStream
-import java.nio.ByteBuffer
 
 // Maybe get rid of PhotoLibrary parameter and pass files/metadata as individual arguments.
 class VideoReader(photoLibrary: PhotoLibrary, videoId: String,
                   private val displaySize: Size) {
-    private val videoFile = photoLibrary.rawVideoRandomAccessFileForItemId(videoId)!!
     private val metadata = photoLibrary.metadataForItemId(videoId)
-    private val frameBuffer: ByteArray
+    private val video = RecordedVideo(photoLibrary.rawVideoFileForItemId(videoId),
+            metadata.width, metadata.height, metadata.frameTimestamps)
     // effect and displaySize can be changed after creation.
     // forcePortrait is for when we're showing the effect selection grid and always want to fill
     // the screen, so we enable portrait when the device is vertical regardless of the metadata.
@@ -22,7 +20,6 @@ class VideoReader(photoLibrary: PhotoLibrary, videoId: String,
     init {
         // It would be better to pass in the EffectRegistry.
         effect = EffectRegistry().effectForMetadata(metadata.effectMetadata)
-        frameBuffer = ByteArray(bytesPerFrame())
     }
 
     fun isPortrait() = metadata.orientation.portrait
@@ -32,16 +29,13 @@ class VideoReader(photoLibrary: PhotoLibrary, videoId: String,
     fun outputVideoHeight() = if (isPortrait()) metadata.width else metadata.height
     fun numberOfFrames() = metadata.frameTimestamps.size
 
-    private fun bytesPerFrame() = metadata.width * metadata.height * 3 / 2
-
+    /**
+     * Reads the given frame and applies the current effect. The frame's planes are read directly
+     * into pooled buffers; callers should call `release` on the result when they're done with it
+     * (OverlayView does this automatically when it's given a new bitmap).
+     */
     fun bitmapForFrame(frameIndex: Int): ProcessedBitmap {
-        if (frameIndex < 0 || frameIndex >= numberOfFrames()) {
-            throw IllegalArgumentException("Invalid frame index: ${frameIndex}")
-        }
-        val bpf = bytesPerFrame().toLong()
-        videoFile.seek(frameIndex * bpf)
-        videoFile.readFully(frameBuffer)
-        val imageData = ImageData.fromYuvBytes(frameBuffer, metadata.width, metadata.height)
+        val imageData = video.readFrame(frameIndex)
         var cameraImage = CameraImage(
                 imageData, metadata.orientation, CameraStatus.CAPTURING_VIDEO,
                 metadata.frameTimestamps[frameIndex], displaySize)
@@ -2,10 +2,12 @@ package com.dozingcatsoftware.vectorcamera
 
 import android.util.Log
 import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.ReentrantLock
 import kotlin.concurrent.withLock
 
-private data class Frame(val timestamp: Long, val data: List<ByteArray>)
+private data class Frame(
+        val timestamp: Long, val data: List<ByteArray>, val onWritten: (() -> Unit)?)
 
 class VideoRecorder(val videoId: String, val videoOutput: OutputStream,
                     val frameCallback: ((VideoRecorder, Status) -> Unit)?) {
@@ -20,6 +22,7 @@ class VideoRecorder(val videoId: String, val videoOutput: OutputStream,
     private val frameQueue = mutableListOf<Frame>()
     private val frameQueueLock = ReentrantLock()
     private val frameAvailable = frameQueueLock.newCondition()
+    private val droppedFrames = AtomicInteger(0)
 
     fun start() {
         status = Status.STARTING
@@ -30,19 +33,32 @@ class VideoRecorder(val videoId: String, val videoOutput: OutputStream,
         writerThread!!.start()
     }
 
-    fun recordFrame(timestamp: Long, frameBytes: List<ByteArray>) {
+    /**
+     * Queues frame data to be written. `onWritten` is called once the bytes are no longer needed,
+     * either after they're written or immediately if the frame is dropped.
+     */
+    fun recordFrame(timestamp: Long, frameBytes: List<ByteArray>, onWritten: (() -> Unit)? = null) {
         Log.i("VideoRecorder", "recordFrame: ${timestamp}, ${frameBytes.size} bytes")
-        frameQueueLock.withLock({
+        val queued = frameQueueLock.withLock({
             if (frameQueue.size < MAX_QUEUED_FRAMES) {
-                frameQueue.add(Frame(timestamp, frameBytes))
+                frameQueue.add(Frame(timestamp, frameBytes, onWritten))
                 frameAvailable.signal()
+                true
             }
             else {
                 Log.w("VideoRecorder", "Dropping frame")
+                false
             }
         })
+        if (!queued) {
+            droppedFrames.incrementAndGet()
+            onWritten?.invoke()
+        }
     }
 
+    /** Number of frames dropped because the writer thread fell behind. */
+    fun droppedFrameCount() = droppedFrames.get()
+
     fun stop() {
         writerThreadLock.withLock({
             status = Status.STOPPING
@@ -90,8 +106,13 @@ class VideoRecorder(val videoId: String, val videoOutput: OutputStream,
                 Log.i(TAG, "Got frame ${framesRead}")
                 frameTimestamps.add(currentFrame.timestamp)
                 // We could gzip the frames, but compression is very slow.
-                for (bytes in currentFrame.data) {
-                    videoOutput.write(bytes)
+                try {
+                    for (bytes in currentFrame.data) {
+                        videoOutput.write(bytes)
+                    }
+                }
+                finally {
+                    currentFrame.onWritten?.invoke()
                 }
                 frameCallback?.invoke(this, this.status)
                 currentFrame = null
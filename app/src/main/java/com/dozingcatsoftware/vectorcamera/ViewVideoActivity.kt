@@ -228,6 +228,9 @@ class ViewVideoActivity: AppCompatActivity() {
             binding.overlayView.updateBitmap(pb)
             updateControls()
         }
+        else {
+            pb.release()
+        }
     }
 
     private fun handleOverlayViewTouch(view: OverlayView, event: MotionEvent) {
@@ -255,6 +258,7 @@ class ViewVideoActivity: AppCompatActivity() {
                 val firstFrame = videoReader.bitmapForFrame(0)
                 photoLibrary.writeMetadata(newMetadata, videoId)
                 photoLibrary.writeThumbnail(firstFrame, videoId)
+                firstFrame.release()
 
                 if (!isPlaying) {
                     loadFrame(frameIndex)
@@ -375,6 +379,7 @@ class ViewVideoActivity: AppCompatActivity() {
     private fun shareCurrentFrame() {
         val pb = videoReader.bitmapForFrame(frameIndex)
         val bitmap = pb.renderBitmap(pb.sourceImage.width(), pb.sourceImage.height())
+        pb.release()
         val frameFile = photoLibrary.tempFileWithName(videoId + "_frame.png")
         photoLibrary.createTempFileOutputStream(frameFile).use {
             bitmap.compress(Bitmap.CompressFormat.PNG, 100, it)
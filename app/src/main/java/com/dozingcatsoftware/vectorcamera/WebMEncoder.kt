@@ -10,6 +10,7 @@ import android.util.Log
 import java.io.File
 
 import com.dozingcatsoftware.util.YuvImageBuffers
+import com.dozingcatsoftware.util.fromBitmap
 
 /**
  * Encodes a series of video frames to a WebM file using the MedicCodec and MediaMuxer APIs.
@@ -69,8 +70,10 @@ class WebMEncoder(private val videoReader: VideoReader, private val outputPath:
         }
 
         // Render a bitmap with the selected effect, extract the pixels, and send to the encoder.
-        val bitmap = videoReader.bitmapForFrame(frameIndex).renderBitmap(
+        val pb = videoReader.bitmapForFrame(frameIndex)
+        val bitmap = pb.renderBitmap(
                 videoReader.landscapeVideoWidth(), videoReader.landscapeVideoHeight())
+        pb.release()
 
         val yuvBuffers = YuvImageBuffers.fromBitmap(bitmap, outputWidth, outputHeight)
         fillEncoderImageFromYuvBuffers(inputImage, yuvBuffers)
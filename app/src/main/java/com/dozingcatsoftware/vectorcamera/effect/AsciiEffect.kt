@@ -7,6 +7,7 @@ import android.graphics.Paint
 import android.graphics.RectF
 import android.util.Log
 import android.util.Size
+import com.dozingcatsoftware.util.YuvUtils
 import com.dozingcatsoftware.util.scaleToTargetSize
 import com.dozingcatsoftware.util.intFromArgbList
 import com.dozingcatsoftware.vectorcamera.*
@@ -47,7 +48,7 @@ class AsciiEffect(
     private val textParams = TextParamsKotlin(numPreferredCharColumns, 10, 1.8)
     
     // Character template caching
-    private var characterTemplate: Bitmap? = null
+    @Volatile private var characterTemplate: Bitmap? = null
     private var lastCharPixelSize: Size? = null
     private var lastPixelChars: String? = null
 
@@ -55,8 +56,13 @@ class AsciiEffect(
     private val backgroundPaint = Paint().apply { color = backgroundColor }
 
     override fun effectName() = EFFECT_NAME
+
+    override fun isStateless() = true
     override fun effectParameters() = effectParams
 
+    // The native code reads the camera's interleaved U and V planes directly.
+    override fun acceptsStridedPlanes() = true
+
     override fun drawBackground(cameraImage: CameraImage, canvas: Canvas, rect: RectF) {
         canvas.drawRect(rect, backgroundPaint)
     }
@@ -68,7 +74,8 @@ class AsciiEffect(
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsForThreading = 8
         return if (numCharacterRows >= minRowsForThreading) {
-            minOf(numCores, numCharacterRows / 4, Effect.MAX_NATIVE_THREADS).coerceAtLeast(1)
+            EffectTuner.nativeThreads(
+                    minOf(numCores, numCharacterRows / 4, Effect.MAX_NATIVE_THREADS).coerceAtLeast(1))
         } else {
             1 // Single thread for small grids
         }
@@ -87,14 +94,14 @@ class AsciiEffect(
 
         val metrics = textParams.getTextMetrics(cameraImage, cameraImage.displaySize)
         
-        // Use native C++ implementation for intensive computations
-        // Get individual planes directly
+        // Use native C++ implementation for intensive computations. It reads the U and V planes
+        // with their original strides.
         val yData = cameraImage.getYBytes()
-        val uData = cameraImage.getUBytes()
-        val vData = cameraImage.getVBytes()
+        val u = cameraImage.uPlane()
+        val v = cameraImage.vPlane()
         
         val nativeResult = if (nativeLibraryLoaded) Companion.computeAsciiDataNativeFromPlanes(
-            yData, uData, vData,
+            yData, u.data, v.data, u.pixelStride, u.rowStride,
             cameraImage.width(),
             cameraImage.height(),
             metrics.numCharacterColumns,
@@ -303,17 +310,13 @@ class AsciiEffect(
                     for (xx in xmin until xmax) {
                         if (xx in 0 until width && yy in 0 until height) {
                             val y = (yData[yy * width + xx].toInt() and 0xFF)
-                            val u = (uData[(yy / 2) * (width / 2) + (xx / 2)].toInt() and 0xFF) - 128
-                            val v = (vData[(yy / 2) * (width / 2) + (xx / 2)].toInt() and 0xFF) - 128
-                            
-                            // YUV to RGB conversion (ITU-R BT.601)
-                            val r = (y + 1.402 * v).roundToInt().coerceIn(0, 255)
-                            val g = (y - 0.344136 * u - 0.714136 * v).roundToInt().coerceIn(0, 255)
-                            val b = (y + 1.772 * u).roundToInt().coerceIn(0, 255)
+                            val u = (uData[(yy / 2) * (width / 2) + (xx / 2)].toInt() and 0xFF)
+                            val v = (vData[(yy / 2) * (width / 2) + (xx / 2)].toInt() and 0xFF)
+                            val rgb = YuvUtils.yuvToRgb(y, u, v)
                             
-                            redTotal += r
-                            greenTotal += g
-                            blueTotal += b
+                            redTotal += (rgb shr 16) and 0xFF
+                            greenTotal += (rgb shr 8) and 0xFF
+                            blueTotal += rgb and 0xFF
                             pixelCount++
                         }
                     }
@@ -352,8 +355,11 @@ class AsciiEffect(
     }
 
     /**
-     * Create or update the character template bitmap with ASCII characters.
+     * Create or update the character template bitmap with ASCII characters. Synchronized because
+     * multiple frames may be processed concurrently; the cache fields are only updated after the
+     * new template is fully drawn.
      */
+    @Synchronized
     private fun updateCharTemplateBitmap(charPixelSize: Size) {
         // Only recreate if size or characters changed
         if (characterTemplate != null && 
@@ -362,8 +368,6 @@ class AsciiEffect(
             return
         }
         
-        lastCharPixelSize = charPixelSize
-        lastPixelChars = pixelChars
         val charBitmapWidth = charPixelSize.width * pixelChars.length
         
         val paint = Paint().apply {
@@ -372,8 +376,8 @@ class AsciiEffect(
             isAntiAlias = false
         }
         
-        characterTemplate = Bitmap.createBitmap(charBitmapWidth, charPixelSize.height, Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(characterTemplate!!)
+        val template = Bitmap.createBitmap(charBitmapWidth, charPixelSize.height, Bitmap.Config.ARGB_8888)
+        val canvas = Canvas(template)
         canvas.drawColor(backgroundColor)
         
         // Draw ASCII characters
@@ -385,6 +389,9 @@ class AsciiEffect(
                 paint
             )
         }
+        characterTemplate = template
+        lastCharPixelSize = charPixelSize
+        lastPixelChars = pixelChars
     }
 
     /**
@@ -704,6 +711,8 @@ class AsciiEffect(
             yData: ByteArray,
             uData: ByteArray,
             vData: ByteArray,
+            uvPixelStride: Int,
+            uvRowStride: Int,
             width: Int,
             height: Int,
             numCharCols: Int,
@@ -24,6 +24,8 @@ class CombinationEffect(
 
     override fun effectName() = "combination"
 
+    override fun acceptsStridedPlanes() = true
+
     private var effectIndex = 0
     private var resultBitmap: Bitmap? = null
     private val blackPaint = Paint().apply {color = Color.BLACK}
@@ -102,6 +104,8 @@ class CombinationEffect(
             }
         }
         Log.i(TAG, "Combo time: ${System.currentTimeMillis() - t0}, updated: $numUpdated")
+        // The resized tile image is only used within this method.
+        cameraImage.release()
         
         val endTime = System.nanoTime()
         val metadata = ProcessedBitmapMetadata(
@@ -3,7 +3,6 @@ package com.dozingcatsoftware.vectorcamera.effect
 import android.graphics.*
 import android.util.Log
 import com.dozingcatsoftware.vectorcamera.*
-import kotlinx.coroutines.*
 import kotlin.math.*
 
 /**
@@ -19,13 +18,22 @@ class Convolve3x3Effect(
 
     override fun effectName() = EFFECT_NAME
 
+    override fun isStateless() = true
+
+    override fun acceptsStridedPlanes() = true
+
     override fun effectParameters() = effectParams
 
     override fun drawBackground(cameraImage: CameraImage, canvas: Canvas, rect: RectF) {
         backgroundFn.invoke(cameraImage, canvas, rect)
     }
 
-    override fun createBitmap(cameraImage: CameraImage): ProcessedBitmap {
+    override fun rendersIntoOutput() = true
+
+    override fun createBitmap(cameraImage: CameraImage) =
+        Effect.createBitmapUsingOutput(this, cameraImage)
+
+    override fun renderInto(cameraImage: CameraImage, output: EffectOutput): ProcessedBitmapMetadata {
         val startTime = System.nanoTime()
         
         val width = cameraImage.width()
@@ -34,16 +42,14 @@ class Convolve3x3Effect(
         // Get YUV data directly from CameraImage
         // Get Y plane directly (convolution only uses luminance)
         val yData = cameraImage.getYBytes()
-        val (bitmap, threadsUsed, architectureUsed) = createBitmapFromYData(yData, width, height)
+        val (threadsUsed, architectureUsed) = renderFromYData(yData, width, height, output)
         
         val endTime = System.nanoTime()
-        val metadata = ProcessedBitmapMetadata(
+        return ProcessedBitmapMetadata(
             codeArchitecture = architectureUsed,
             numThreads = threadsUsed,
             generationDurationNanos = endTime - startTime
         )
-        
-        return ProcessedBitmap(this, cameraImage, bitmap, metadata)
     }
 
     /**
@@ -53,7 +59,7 @@ class Convolve3x3Effect(
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsPerThread = 32 // Minimum rows per thread to avoid overhead
         val maxThreads = minOf(numCores, height / minRowsPerThread, Effect.MAX_NATIVE_THREADS)
-        return maxOf(1, maxThreads)
+        return EffectTuner.nativeThreads(maxOf(1, maxThreads))
     }
 
     /**
@@ -63,23 +69,22 @@ class Convolve3x3Effect(
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsPerThread = 32 // Minimum rows per thread to avoid overhead
         val maxThreads = minOf(numCores, height / minRowsPerThread, Effect.MAX_KOTLIN_THREADS)
-        return maxOf(1, maxThreads)
+        return EffectTuner.kotlinThreads(maxOf(1, maxThreads))
     }
 
-    private fun createBitmapFromYData(yData: ByteArray, width: Int, height: Int): Triple<Bitmap, Int, CodeArchitecture> {
+    private fun renderFromYData(yData: ByteArray, width: Int, height: Int, output: EffectOutput): Pair<Int, CodeArchitecture> {
         val nativeThreads = calculateOptimalNativeThreads(height)
         val kotlinThreads = calculateOptimalKotlinThreads(height)
 
-        // Try native implementation first
-        if (nativeLibraryLoaded) {
+        // Try native implementation first, which writes directly into the output bitmap
+        if (nativeLibraryLoaded && EffectTuner.allowsNative()) {
             try {
-                val nativePixels = processImageNativeFromYData(
-                    yData, width, height, coefficients, colorMap, nativeThreads
+                val nativeSuccess = processImageNativeFromYData(
+                    yData, width, height, coefficients, colorMap, output.bitmap, nativeThreads
                 )
-                if (nativePixels != null) {
-                    val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-                    bitmap.setPixels(nativePixels, 0, width, 0, 0, width, height)
-                    return Triple(bitmap, nativeThreads, CodeArchitecture.Native)
+                if (nativeSuccess) {
+                    output.markBitmapWritten()
+                    return Pair(nativeThreads, CodeArchitecture.Native)
                 }
             } catch (e: Exception) {
                 Log.w(EFFECT_NAME, "Native processing failed, falling back to Kotlin: ${e.message}")
@@ -87,138 +92,11 @@ class Convolve3x3Effect(
         }
         
         // Fall back to Kotlin implementation using Y plane directly
-        val kotlinBitmap = createBitmapFromYDataKotlin(yData, width, height, kotlinThreads)
-        return Triple(kotlinBitmap, kotlinThreads, CodeArchitecture.Kotlin)
+        Convolve3x3Kernel.render(
+                yData, width, height, coefficients, colorMap, output.pixels, kotlinThreads)
+        return Pair(kotlinThreads, CodeArchitecture.Kotlin)
     }
     
-    private fun createBitmapFromYDataKotlin(yData: ByteArray, width: Int, height: Int, numThreads: Int): Bitmap {
-
-        // First apply convolution to get brightness values
-        val convolvedData = applyConvolution(yData, width, height, numThreads)
-        
-        // Then map convolved values to colors
-        val pixels = IntArray(width * height)
-        mapToColors(convolvedData, pixels, numThreads)
-
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        bitmap.setPixels(pixels, 0, width, 0, 0, width, height)
-        return bitmap
-    }
-
-    /**
-     * Apply 3x3 convolution to the Y (brightness) data.
-     * Each pixel is replaced by the weighted sum of itself and its 8 neighbors.
-     */
-    private fun applyConvolution(yData: ByteArray, width: Int, height: Int, numThreads: Int): ByteArray {
-        val convolvedData = ByteArray(width * height)
-
-        // Multi-threaded convolution processing
-        if (numThreads == 1) {
-            processConvolutionRows(0, height, width, height, yData, convolvedData, coefficients)
-        } else {
-            runBlocking {
-                val jobs = mutableListOf<Job>()
-                val rowsPerThread = height / numThreads
-                
-                for (threadIndex in 0 until numThreads) {
-                    val startY = threadIndex * rowsPerThread
-                    val endY = if (threadIndex == numThreads - 1) height else (threadIndex + 1) * rowsPerThread
-                    
-                    val job = launch(Dispatchers.Default) {
-                        processConvolutionRows(startY, endY, width, height, yData, convolvedData, coefficients)
-                    }
-                    jobs.add(job)
-                }
-                
-                // Wait for all threads to complete
-                jobs.forEach { it.join() }
-            }
-        }
-
-        return convolvedData
-    }
-
-    private fun processConvolutionRows(
-        startY: Int, 
-        endY: Int, 
-        width: Int, 
-        height: Int, 
-        yData: ByteArray, 
-        convolvedData: ByteArray, 
-        coeffs: FloatArray
-    ) {
-        for (y in startY until endY) {
-            for (x in 0 until width) {
-                val pixelIndex = y * width + x
-                
-                // Apply 3x3 convolution
-                var sum = 0f
-                var coeffIndex = 0
-                
-                // Process 3x3 neighborhood
-                for (dy in -1..1) {
-                    for (dx in -1..1) {
-                        val nx = x + dx
-                        val ny = y + dy
-                        
-                        // Handle boundary conditions by clamping coordinates
-                        val clampedX = nx.coerceIn(0, width - 1)
-                        val clampedY = ny.coerceIn(0, height - 1)
-                        val neighborIndex = clampedY * width + clampedX
-                        
-                        val pixelValue = yData[neighborIndex].toInt() and 0xFF
-                        sum += coeffs[coeffIndex] * pixelValue
-                        coeffIndex++
-                    }
-                }
-                
-                // Clamp result to valid byte range and store
-                val result = sum.roundToInt().coerceIn(0, 255)
-                convolvedData[pixelIndex] = result.toByte()
-            }
-        }
-    }
-
-    /**
-     * Map convolved brightness values to colors using the color map.
-     */
-    private fun mapToColors(convolvedData: ByteArray, pixels: IntArray, numThreads: Int) {
-        if (numThreads == 1) {
-            processColorMappingRows(0, convolvedData.size, convolvedData, pixels, colorMap)
-        } else {
-            runBlocking {
-                val jobs = mutableListOf<Job>()
-                val pixelsPerThread = convolvedData.size / numThreads
-                
-                for (threadIndex in 0 until numThreads) {
-                    val startIndex = threadIndex * pixelsPerThread
-                    val endIndex = if (threadIndex == numThreads - 1) convolvedData.size else (threadIndex + 1) * pixelsPerThread
-                    
-                    val job = launch(Dispatchers.Default) {
-                        processColorMappingRows(startIndex, endIndex, convolvedData, pixels, colorMap)
-                    }
-                    jobs.add(job)
-                }
-                
-                // Wait for all threads to complete
-                jobs.forEach { it.join() }
-            }
-        }
-    }
-
-    private fun processColorMappingRows(
-        startIndex: Int,
-        endIndex: Int,
-        convolvedData: ByteArray,
-        pixels: IntArray,
-        colorMap: IntArray
-    ) {
-        for (i in startIndex until endIndex) {
-            val brightness = convolvedData[i].toInt() and 0xFF
-            pixels[i] = colorMap[brightness]
-        }
-    }
-
     companion object {
         const val EFFECT_NAME = "convolve3x3"
         
@@ -235,8 +113,9 @@ class Convolve3x3Effect(
             height: Int,
             coefficients: FloatArray,
             colorMap: IntArray,
+            outputBitmap: Bitmap,
             numThreads: Int
-        ): IntArray?
+        ): Boolean
         
         fun fromParameters(effectParams: Map<String, Any>): Convolve3x3Effect {
             // Parse coefficients
@@ -3,6 +3,7 @@ package com.dozingcatsoftware.vectorcamera.effect
 import android.graphics.*
 import com.dozingcatsoftware.vectorcamera.CameraImage
 import com.dozingcatsoftware.vectorcamera.CustomColorScheme
+import com.dozingcatsoftware.vectorcamera.EffectOutput
 import com.dozingcatsoftware.vectorcamera.ProcessedBitmap
 import com.dozingcatsoftware.vectorcamera.ProcessedBitmapMetadata
 import com.dozingcatsoftware.vectorcamera.CodeArchitecture
@@ -15,12 +16,25 @@ class CustomEffect(
 
     override fun effectName() = baseEffect.effectName()
 
+    override fun isStateless() = baseEffect.isStateless()
+
+    override fun acceptsStridedPlanes() = baseEffect.acceptsStridedPlanes()
+
     override fun effectParameters() = baseEffect.effectParameters()
 
     override fun drawBackground(cameraImage: CameraImage, canvas: Canvas, rect: RectF) {
         baseEffect.drawBackground(cameraImage, canvas, rect)
     }
 
+    // The combo grid label is drawn onto the finished bitmap, so only delegate renderInto when
+    // there's no label. Otherwise the default renderInto copies from createBitmap.
+    override fun rendersIntoOutput() =
+            context != EffectContext.COMBO_GRID && baseEffect.rendersIntoOutput()
+
+    override fun renderInto(cameraImage: CameraImage, output: EffectOutput) =
+            if (rendersIntoOutput()) baseEffect.renderInto(cameraImage, output)
+            else super.renderInto(cameraImage, output)
+
     override fun createBitmap(cameraImage: CameraImage): ProcessedBitmap {
         val startTime = System.nanoTime()
         val baseProcessedBitmap = baseEffect.createBitmap(cameraImage)
@@ -95,6 +109,6 @@ class CustomEffect(
             generationDurationNanos = endTime - startTime
         )
         
-        return ProcessedBitmap(this, cameraImage, bitmap, metadata)
+        return ProcessedBitmap(this, cameraImage, bitmap, metadata, baseProcessedBitmap.output)
     }
 }
\ No newline at end of file
@@ -3,7 +3,6 @@ package com.dozingcatsoftware.vectorcamera.effect
 import android.graphics.*
 import android.util.Log
 import com.dozingcatsoftware.vectorcamera.*
-import kotlinx.coroutines.*
 import kotlin.math.*
 
 /**
@@ -19,13 +18,22 @@ class EdgeEffect private constructor(
 
     override fun effectName() = EFFECT_NAME
 
+    override fun isStateless() = true
+
+    override fun acceptsStridedPlanes() = true
+
     override fun effectParameters() = effectParams
 
     override fun drawBackground(cameraImage: CameraImage, canvas: Canvas, rect: RectF) {
         backgroundFn?.invoke(cameraImage, canvas, rect)
     }
 
-    override fun createBitmap(cameraImage: CameraImage): ProcessedBitmap {
+    override fun rendersIntoOutput() = true
+
+    override fun createBitmap(cameraImage: CameraImage) =
+        Effect.createBitmapUsingOutput(this, cameraImage)
+
+    override fun renderInto(cameraImage: CameraImage, output: EffectOutput): ProcessedBitmapMetadata {
         val startTime = System.nanoTime()
         
         val width = cameraImage.width()
@@ -34,16 +42,15 @@ class EdgeEffect private constructor(
 
         // Get YUV data directly from CameraImage
         val yBytes = cameraImage.getYBytes()
-        val (bitmap, threadsUsed, architectureUsed) = createBitmapFromYBytes(yBytes, width, height, multiplier)
+        val (threadsUsed, architectureUsed) =
+            renderFromYBytes(yBytes, width, height, multiplier, output)
         
         val endTime = System.nanoTime()
-        val metadata = ProcessedBitmapMetadata(
+        return ProcessedBitmapMetadata(
             codeArchitecture = architectureUsed,
             numThreads = threadsUsed,
             generationDurationNanos = endTime - startTime
         )
-        
-        return ProcessedBitmap(this, cameraImage, bitmap, metadata)
     }
 
     /**
@@ -53,7 +60,7 @@ class EdgeEffect private constructor(
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsPerThread = 32 // Minimum rows per thread to avoid overhead
         val maxThreads = minOf(numCores, height / minRowsPerThread, Effect.MAX_NATIVE_THREADS)
-        return maxOf(1, maxThreads)
+        return EffectTuner.nativeThreads(maxOf(1, maxThreads))
     }
 
     /**
@@ -63,11 +70,10 @@ class EdgeEffect private constructor(
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsPerThread = 32 // Minimum rows per thread to avoid overhead
         val maxThreads = minOf(numCores, height / minRowsPerThread, Effect.MAX_KOTLIN_THREADS)
-        return maxOf(1, maxThreads)
+        return EffectTuner.kotlinThreads(maxOf(1, maxThreads))
     }
 
-    private fun createBitmapFromYBytes(yData: ByteArray, width: Int, height: Int, multiplier: Int): Triple<Bitmap, Int, CodeArchitecture> {
-        val pixels = IntArray(width * height)
+    private fun renderFromYBytes(yData: ByteArray, width: Int, height: Int, multiplier: Int, output: EffectOutput): Pair<Int, CodeArchitecture> {
         val nativeThreads = calculateOptimalNativeThreads(height)
         val kotlinThreads = calculateOptimalKotlinThreads(height)
 
@@ -75,82 +81,21 @@ class EdgeEffect private constructor(
         val architecture: CodeArchitecture
 
         val lookupMap = colorMap ?: alphaMap!!
-        if (nativeLibraryLoaded) {
-            // Use optimized native implementation for fixed color maps only
+        // The native implementation writes directly into the output bitmap.
+        if (nativeLibraryLoaded && EffectTuner.allowsNative() &&
+                processImageNativeFromYuvBytes(yData, width, height, multiplier, lookupMap, output.bitmap, nativeThreads)) {
             actualThreads = nativeThreads
             architecture = CodeArchitecture.Native
-            processImageNativeFromYuvBytes(yData, width, height, multiplier, lookupMap, pixels, actualThreads)
+            output.markBitmapWritten()
         } else {
-            // Fallback to Kotlin implementation with coroutines
+            // Fallback to Kotlin implementation
             actualThreads = kotlinThreads
             architecture = CodeArchitecture.Kotlin
-            if (actualThreads == 1) {
-                processRows(0, height, width, height, multiplier, yData, pixels, lookupMap)
-            } else {
-                runBlocking {
-                    val jobs = mutableListOf<Job>()
-                    val rowsPerThread = height / actualThreads
-                    
-                    for (threadIndex in 0 until actualThreads) {
-                        val startY = threadIndex * rowsPerThread
-                        val endY = if (threadIndex == actualThreads - 1) height else (threadIndex + 1) * rowsPerThread
-                        
-                        val job = launch(Dispatchers.Default) {
-                            processRows(startY, endY, width, height, multiplier, yData, pixels, lookupMap)
-                        }
-                        jobs.add(job)
-                    }
-                    
-                    // Wait for all threads to complete
-                    jobs.forEach { it.join() }
-                }
-            }
+            EdgeKernel.render(
+                    yData, width, height, multiplier, lookupMap, output.pixels, actualThreads)
         }
 
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        bitmap.setPixels(pixels, 0, width, 0, 0, width, height)
-
-        return Triple(bitmap, actualThreads, architecture)
-    }
-
-    private fun processRows(
-        startY: Int, 
-        endY: Int, 
-        width: Int, 
-        height: Int, 
-        multiplier: Int,
-        yData: ByteArray,
-        pixels: IntArray,
-        lookupMap: IntArray
-    ) {
-        for (y in startY until endY) {
-            for (x in 0 until width) {
-                val pixelIndex = y * width + x
-
-                // Calculate edge strength using Laplacian operator
-                val edgeStrength = if (x > 0 && x < width - 1 && y > 0 && y < height - 1) {
-                    val center = yData[pixelIndex].toInt() and 0xFF
-                    val surroundingSum =
-                        (yData[(y - 1) * width + (x - 1)].toInt() and 0xFF) +
-                        (yData[(y - 1) * width + x].toInt() and 0xFF) +
-                        (yData[(y - 1) * width + (x + 1)].toInt() and 0xFF) +
-                        (yData[y * width + (x - 1)].toInt() and 0xFF) +
-                        (yData[y * width + (x + 1)].toInt() and 0xFF) +
-                        (yData[(y + 1) * width + (x - 1)].toInt() and 0xFF) +
-                        (yData[(y + 1) * width + x].toInt() and 0xFF) +
-                        (yData[(y + 1) * width + (x + 1)].toInt() and 0xFF)
-
-                    val edge = 8 * center - surroundingSum
-                    (multiplier * edge).coerceIn(0, 255)
-                } else {
-                    0
-                }
-
-                // Map edge strength to color using lookup table
-                val color = lookupMap[edgeStrength]
-                pixels[pixelIndex] = color
-            }
-        }
+        return Pair(actualThreads, architecture)
     }
 
     companion object {
@@ -163,9 +108,9 @@ class EdgeEffect private constructor(
             height: Int,
             multiplier: Int,
             colorMap: IntArray,
-            outputPixels: IntArray,
+            outputBitmap: Bitmap,
             numThreads: Int
-        )
+        ): Boolean
         
         // Load native library
         private var nativeLibraryLoaded = false
@@ -2,13 +2,13 @@ package com.dozingcatsoftware.vectorcamera.effect
 
 import android.graphics.Bitmap
 import android.util.Log
-import com.dozingcatsoftware.util.YuvUtils
 import com.dozingcatsoftware.vectorcamera.CameraImage
-import com.dozingcatsoftware.vectorcamera.ProcessedBitmap
+import com.dozingcatsoftware.vectorcamera.EffectOutput
 import com.dozingcatsoftware.vectorcamera.ProcessedBitmapMetadata
 import com.dozingcatsoftware.vectorcamera.CodeArchitecture
+import com.dozingcatsoftware.vectorcamera.EffectTuner
+import com.dozingcatsoftware.vectorcamera.bitmap
 import kotlin.math.roundToInt
-import kotlinx.coroutines.*
 import java.util.concurrent.Executors
 import kotlin.math.min
 
@@ -33,7 +33,8 @@ class EdgeLuminanceEffect : Effect {
         pixels: IntArray
     )
     
-    // Optimized native method that handles threading internally
+    // Optimized native method that handles threading internally and writes directly into the
+    // bitmap. Returns false if the bitmap couldn't be written.
     private external fun processImageNative(
         width: Int,
         height: Int,
@@ -41,10 +42,11 @@ class EdgeLuminanceEffect : Effect {
         yData: ByteArray,
         uData: ByteArray,
         vData: ByteArray,
-        uvWidth: Int,
-        pixels: IntArray,
+        uvPixelStride: Int,
+        uvRowStride: Int,
+        outputBitmap: Bitmap,
         numThreads: Int
-    )
+    ): Boolean
     
     private external fun isNativeAvailable(): Boolean
 
@@ -65,6 +67,11 @@ class EdgeLuminanceEffect : Effect {
 
     override fun effectName() = EFFECT_NAME
 
+    override fun isStateless() = true
+
+    // The native code reads the camera's interleaved U and V planes directly.
+    override fun acceptsStridedPlanes() = true
+
     /**
      * Calculate the optimal number of threads for native processing based on image dimensions.
      */
@@ -72,7 +79,7 @@ class EdgeLuminanceEffect : Effect {
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsPerThread = 32 // Minimum rows per thread to avoid overhead
         val maxThreads = minOf(numCores, height / minRowsPerThread, Effect.MAX_NATIVE_THREADS)
-        return maxOf(1, maxThreads)
+        return EffectTuner.nativeThreads(maxOf(1, maxThreads))
     }
 
     /**
@@ -82,123 +89,52 @@ class EdgeLuminanceEffect : Effect {
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsPerThread = 32 // Minimum rows per thread to avoid overhead
         val maxThreads = minOf(numCores, height / minRowsPerThread, Effect.MAX_KOTLIN_THREADS)
-        return maxOf(1, maxThreads)
+        return EffectTuner.kotlinThreads(maxOf(1, maxThreads))
     }
 
-    override fun createBitmap(cameraImage: CameraImage): ProcessedBitmap {
+    override fun rendersIntoOutput() = true
+
+    override fun createBitmap(cameraImage: CameraImage) =
+        Effect.createBitmapUsingOutput(this, cameraImage)
+
+    override fun renderInto(cameraImage: CameraImage, output: EffectOutput): ProcessedBitmapMetadata {
         val startTime = System.nanoTime()
         
         val width = cameraImage.width()
         val height = cameraImage.height()
         val multiplier = minOf(4, maxOf(2, Math.round(width / 480f)))
 
-        val nativeThreads = calculateOptimalNativeThreads(height)
-        val kotlinThreads = calculateOptimalKotlinThreads(height)
-        val actualThreads = if (nativeLibraryLoaded) nativeThreads else kotlinThreads
-
-        // Get individual plane data directly
-        val yData = cameraImage.getYBytes()
-        val uData = cameraImage.getUBytes()
-        val vData = cameraImage.getVBytes()
-        val bitmap = createBitmapFromPlanes(yData, uData, vData, width, height, multiplier, actualThreads)
+        val (threadsUsed, architectureUsed) =
+            renderFromPlanes(cameraImage, width, height, multiplier, output)
         
         val endTime = System.nanoTime()
-        val metadata = ProcessedBitmapMetadata(
-            codeArchitecture = if (nativeLibraryLoaded) CodeArchitecture.Native else CodeArchitecture.Kotlin,
-            numThreads = actualThreads,
+        return ProcessedBitmapMetadata(
+            codeArchitecture = architectureUsed,
+            numThreads = threadsUsed,
             generationDurationNanos = endTime - startTime
         )
-        
-        return ProcessedBitmap(this, cameraImage, bitmap, metadata)
     }
 
-    private fun createBitmapFromPlanes(yData: ByteArray, uData: ByteArray, vData: ByteArray, width: Int, height: Int, multiplier: Int, numThreads: Int): Bitmap {
-        val uvWidth = (width + 1) / 2
-
-        val pixels = IntArray(width * height)
-
-        val t1 = System.currentTimeMillis()
-        
-        if (nativeLibraryLoaded) {
-            // Use optimized native implementation that handles threading internally
-            processImageNative(width, height, multiplier, yData, uData, vData, uvWidth, pixels, numThreads)
-        } else {
-            // Fallback to Kotlin implementation with coroutines
-            if (numThreads == 1) {
-                processRows(0, height, width, height, multiplier, yData, uData, vData, uvWidth, pixels)
-            } else {
-                runBlocking {
-                    val jobs = mutableListOf<Job>()
-                    val rowsPerThread = height / numThreads
-                    
-                    for (threadIndex in 0 until numThreads) {
-                        val startY = threadIndex * rowsPerThread
-                        val endY = if (threadIndex == numThreads - 1) height else (threadIndex + 1) * rowsPerThread
-                        
-                        val job = launch(Dispatchers.Default) {
-                            processRows(startY, endY, width, height, multiplier, yData, uData, vData, uvWidth, pixels)
-                        }
-                        jobs.add(job)
-                    }
-                    
-                    // Wait for all threads to complete
-                    jobs.forEach { it.join() }
-                }
+    private fun renderFromPlanes(cameraImage: CameraImage, width: Int, height: Int, multiplier: Int, output: EffectOutput): Pair<Int, CodeArchitecture> {
+        val yData = cameraImage.getYBytes()
+        if (nativeLibraryLoaded && EffectTuner.allowsNative()) {
+            val nativeThreads = calculateOptimalNativeThreads(height)
+            val u = cameraImage.uPlane()
+            val v = cameraImage.vPlane()
+            if (processImageNative(width, height, multiplier, yData, u.data, v.data,
+                    u.pixelStride, u.rowStride, output.bitmap, nativeThreads)) {
+                output.markBitmapWritten()
+                return Pair(nativeThreads, CodeArchitecture.Native)
             }
         }
 
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        bitmap.setPixels(pixels, 0, width, 0, 0, width, height)
-        return bitmap
+        // Fallback to Kotlin implementation, which needs dense planes
+        val uData = cameraImage.getUBytes()
+        val vData = cameraImage.getVBytes()
+        val numThreads = calculateOptimalKotlinThreads(height)
+        EdgeLuminanceKernel.render(
+                yData, uData, vData, width, height, multiplier, output.pixels, numThreads)
+        return Pair(numThreads, CodeArchitecture.Kotlin)
     }
 
-    private fun processRows(
-        startY: Int, 
-        endY: Int, 
-        width: Int, 
-        height: Int, 
-        multiplier: Int,
-        yData: ByteArray, 
-        uData: ByteArray, 
-        vData: ByteArray, 
-        uvWidth: Int, 
-        pixels: IntArray
-    ) {
-        for (y in startY until endY) {
-            for (x in 0 until width) {
-                val pixelIndex = y * width + x
-
-                // Calculate edge strength using Laplacian operator
-                val edgeStrength = if (x > 0 && x < width - 1 && y > 0 && y < height - 1) {
-                    val center = yData[pixelIndex].toInt() and 0xFF
-                    // Trying to optimize this by reducing multiplications doesn't help.
-                    val surroundingSum =
-                        (yData[(y - 1) * width + (x - 1)].toInt() and 0xFF) +
-                        (yData[(y - 1) * width + x].toInt() and 0xFF) +
-                        (yData[(y - 1) * width + (x + 1)].toInt() and 0xFF) +
-                        (yData[y * width + (x - 1)].toInt() and 0xFF) +
-                        (yData[y * width + (x + 1)].toInt() and 0xFF) +
-                        (yData[(y + 1) * width + (x - 1)].toInt() and 0xFF) +
-                        (yData[(y + 1) * width + x].toInt() and 0xFF) +
-                        (yData[(y + 1) * width + (x + 1)].toInt() and 0xFF)
-
-                    val edge = 8 * center - surroundingSum
-                    (multiplier * edge).coerceIn(0, 255)
-                } else {
-                    0
-                }
-
-                // Get U and V values (subsampled)
-                val uvX = x / 2
-                val uvY = y / 2
-                val uvIndex = uvY * uvWidth + uvX
-                val u = uData[uvIndex].toInt() and 0xFF
-                val v = vData[uvIndex].toInt() and 0xFF
-
-                // Convert YUV to RGB using edge strength as Y value
-                val rgb = YuvUtils.yuvToRgb(edgeStrength, u, v, includeAlpha = true)
-                pixels[pixelIndex] = rgb
-            }
-        }
-    }
 } 
\ No newline at end of file
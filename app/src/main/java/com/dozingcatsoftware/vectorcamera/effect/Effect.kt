@@ -2,10 +2,18 @@ package com.dozingcatsoftware.vectorcamera.effect
 
 import android.graphics.Bitmap
 import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.PorterDuff
+import android.graphics.PorterDuffXfermode
+import android.graphics.Rect
 import android.graphics.RectF
-import android.util.Log
 import com.dozingcatsoftware.vectorcamera.CameraImage
+import com.dozingcatsoftware.vectorcamera.EffectOutput
+import com.dozingcatsoftware.vectorcamera.EffectOutputPool
+import com.dozingcatsoftware.vectorcamera.NativeLibrary
 import com.dozingcatsoftware.vectorcamera.ProcessedBitmap
+import com.dozingcatsoftware.vectorcamera.ProcessedBitmapMetadata
+import com.dozingcatsoftware.vectorcamera.bitmap
 
 data class EffectMetadata(val name: String, val parameters: Map<String, Any>) {
     fun toJson() = mapOf("name" to name, "params" to parameters)
@@ -32,6 +40,46 @@ interface Effect {
 
     fun effectMetadata(): EffectMetadata = EffectMetadata(effectName(), effectParameters())
 
+    /**
+     * Returns true if createBitmap neither reads nor updates state carried over from previous
+     * frames, so that CameraImageProcessor can run it on several frames concurrently.
+     */
+    fun isStateless(): Boolean = false
+
+    /**
+     * Returns true if the effect implements `renderInto` itself, so that callers can supply a
+     * reusable output instead of having createBitmap allocate a new pixel array and Bitmap. The
+     * default `renderInto` still works for other effects, but it allocates and then copies.
+     */
+    fun rendersIntoOutput(): Boolean = false
+
+    /**
+     * Returns true if the effect doesn't need CameraImage to extract dense U and V planes before
+     * it runs, because it reads them through the stride-aware plane views or doesn't read them
+     * at all. Otherwise CameraImageProcessor extracts them ahead of time in its ingest stage.
+     */
+    fun acceptsStridedPlanes(): Boolean = false
+
+    /**
+     * Renders `cameraImage` into `output`, which is the same size as the image, and returns the
+     * metadata for the result. The caller keeps its reference to `cameraImage`. The default
+     * implementation calls createBitmap and draws its result into the output's bitmap, scaling it
+     * if createBitmap produced a different size.
+     */
+    fun renderInto(cameraImage: CameraImage, output: EffectOutput): ProcessedBitmapMetadata {
+        // createBitmap takes over a reference to the image, so give it one of its own.
+        val result = createBitmap(cameraImage.retain())
+        try {
+            Canvas(output.bitmap).drawBitmap(
+                    result.bitmap, null, Rect(0, 0, output.width, output.height), adapterPaint)
+            output.markBitmapWritten()
+            return result.metadata
+        }
+        finally {
+            result.release()
+        }
+    }
+
     companion object {
         // Maximum thread counts based on performance characteristics
         // Native code hits memory bandwidth limits quickly
@@ -42,6 +90,45 @@ interface Effect {
         const val DISABLE_NATIVE_CODE = false
         var nativeLibraryLoaded = false
 
+        // Replaces whatever a recycled output held, rather than blending over it.
+        private val adapterPaint = Paint(Paint.FILTER_BITMAP_FLAG).apply({
+            xfermode = PorterDuffXfermode(PorterDuff.Mode.SRC)
+        })
+
+        /**
+         * Applies `effect` to `cameraImage`, using an output from `pool` if the effect supports
+         * `renderInto` and calling createBitmap otherwise. Either way the returned bitmap takes
+         * over the reference to `cameraImage`, and releasing it returns the output to the pool.
+         * The bitmap's pixels may not have been uploaded yet; call `uploadPixels` on its output
+         * before drawing it.
+         */
+        fun renderWithPool(
+                effect: Effect, cameraImage: CameraImage, pool: EffectOutputPool): ProcessedBitmap {
+            if (!effect.rendersIntoOutput()) {
+                return effect.createBitmap(cameraImage)
+            }
+            val output = pool.acquire(cameraImage.width(), cameraImage.height())
+            try {
+                val metadata = effect.renderInto(cameraImage, output)
+                return ProcessedBitmap(effect, cameraImage, output.bitmap, metadata, output)
+            }
+            catch (ex: Exception) {
+                output.release()
+                throw ex
+            }
+        }
+
+        /**
+         * Implements createBitmap for effects that implement `renderInto`, by rendering into a
+         * new output that isn't pooled.
+         */
+        fun createBitmapUsingOutput(effect: Effect, cameraImage: CameraImage): ProcessedBitmap {
+            val output = EffectOutput(cameraImage.width(), cameraImage.height())
+            val metadata = effect.renderInto(cameraImage, output)
+            output.uploadPixels()
+            return ProcessedBitmap(effect, cameraImage, output.bitmap, metadata, output)
+        }
+
         fun loadNativeLibrary(): Boolean {
             if (DISABLE_NATIVE_CODE) {
                 return false
@@ -49,14 +136,8 @@ interface Effect {
             if (nativeLibraryLoaded) {
                 return true
             }
-            try {
-                System.loadLibrary("vectorcamera_native")
-                nativeLibraryLoaded = true
-                return true
-            } catch (e: UnsatisfiedLinkError) {
-                Log.w("Effect", "Failed to load native library, using Kotlin implementation: ${e.message}")
-                return false
-            }
+            nativeLibraryLoaded = NativeLibrary.load()
+            return nativeLibraryLoaded
         }
     }
 }
\ No newline at end of file
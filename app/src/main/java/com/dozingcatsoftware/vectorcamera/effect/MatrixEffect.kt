@@ -162,6 +162,8 @@ class MatrixEffect(
     override fun effectName() = EFFECT_NAME
     override fun effectParameters() = effectParams
 
+    override fun acceptsStridedPlanes() = true
+
     /**
      * Calculate the optimal number of threads for native Matrix processing based on character grid dimensions.
      */
@@ -169,7 +171,8 @@ class MatrixEffect(
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsForThreading = 8
         return if (numCharacterRows >= minRowsForThreading) {
-            minOf(numCores, numCharacterRows / 4, Effect.MAX_NATIVE_THREADS).coerceAtLeast(1)
+            EffectTuner.nativeThreads(
+                    minOf(numCores, numCharacterRows / 4, Effect.MAX_NATIVE_THREADS).coerceAtLeast(1))
         } else {
             1 // Single thread for small grids
         }
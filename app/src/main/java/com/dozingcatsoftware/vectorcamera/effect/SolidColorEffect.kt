@@ -3,7 +3,6 @@ package com.dozingcatsoftware.vectorcamera.effect
 import android.graphics.*
 import android.util.Log
 import com.dozingcatsoftware.vectorcamera.*
-import kotlinx.coroutines.*
 import kotlin.math.*
 
 /**
@@ -17,13 +16,22 @@ class SolidColorEffect(
 
     override fun effectName() = EFFECT_NAME
 
+    override fun isStateless() = true
+
+    override fun acceptsStridedPlanes() = true
+
     override fun effectParameters() = effectParams
 
     override fun drawBackground(cameraImage: CameraImage, canvas: Canvas, rect: RectF) {
         backgroundFn.invoke(cameraImage, canvas, rect)
     }
 
-    override fun createBitmap(cameraImage: CameraImage): ProcessedBitmap {
+    override fun rendersIntoOutput() = true
+
+    override fun createBitmap(cameraImage: CameraImage) =
+        Effect.createBitmapUsingOutput(this, cameraImage)
+
+    override fun renderInto(cameraImage: CameraImage, output: EffectOutput): ProcessedBitmapMetadata {
         val startTime = System.nanoTime()
         
         val width = cameraImage.width()
@@ -31,16 +39,15 @@ class SolidColorEffect(
 
         // Get Y plane data directly (solid color effect only needs luminance)
         val yData = cameraImage.getYBytes()
-        val (bitmap, threadsUsed) = createBitmapFromYData(yData, width, height)
+        val numThreads = calculateOptimalThreads(height)
+        SolidColorKernel.render(yData, width, height, colorMap, output.pixels, numThreads)
         
         val endTime = System.nanoTime()
-        val metadata = ProcessedBitmapMetadata(
+        return ProcessedBitmapMetadata(
             codeArchitecture = CodeArchitecture.Kotlin,
-            numThreads = threadsUsed,
+            numThreads = numThreads,
             generationDurationNanos = endTime - startTime
         )
-        
-        return ProcessedBitmap(this, cameraImage, bitmap, metadata)
     }
 
     /**
@@ -50,63 +57,7 @@ class SolidColorEffect(
         val numCores = Runtime.getRuntime().availableProcessors()
         val minRowsPerThread = 32 // Minimum rows per thread to avoid overhead
         val maxThreads = minOf(numCores, height / minRowsPerThread, Effect.MAX_KOTLIN_THREADS)
-        return maxOf(1, maxThreads)
-    }
-
-    private fun createBitmapFromYData(yData: ByteArray, width: Int, height: Int): Pair<Bitmap, Int> {
-        val numThreads = calculateOptimalThreads(height)
-
-        val t1 = System.currentTimeMillis()
-
-        val pixels = IntArray(width * height)
-
-        // Multi-threaded processing
-        if (numThreads == 1) {
-            processRows(0, height, width, yData, pixels, colorMap)
-        } else {
-            runBlocking {
-                val jobs = mutableListOf<Job>()
-                val rowsPerThread = height / numThreads
-                
-                for (threadIndex in 0 until numThreads) {
-                    val startY = threadIndex * rowsPerThread
-                    val endY = if (threadIndex == numThreads - 1) height else (threadIndex + 1) * rowsPerThread
-                    
-                    val job = launch(Dispatchers.Default) {
-                        processRows(startY, endY, width, yData, pixels, colorMap)
-                    }
-                    jobs.add(job)
-                }
-                
-                // Wait for all threads to complete
-                jobs.forEach { it.join() }
-            }
-        }
-
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        bitmap.setPixels(pixels, 0, width, 0, 0, width, height)
-        return Pair(bitmap, numThreads)
-    }
-
-    private fun processRows(
-        startY: Int, 
-        endY: Int, 
-        width: Int, 
-        yData: ByteArray,
-        pixels: IntArray,
-        colorMap: IntArray
-    ) {
-        for (y in startY until endY) {
-            for (x in 0 until width) {
-                val pixelIndex = y * width + x
-
-                // Get Y (luminance) value and use it as index into color map
-                val yValue = yData[pixelIndex].toInt() and 0xFF
-                
-                // Map brightness to color using lookup table
-                pixels[pixelIndex] = colorMap[yValue]
-            }
-        }
+        return EffectTuner.kotlinThreads(maxOf(1, maxThreads))
     }
 
     companion object {
@@ -2,12 +2,10 @@ package com.dozingcatsoftware.vectorcamera.effect
 
 import android.graphics.*
 import android.util.Log
-import com.dozingcatsoftware.util.YuvUtils.yuvToRgb
 import com.dozingcatsoftware.util.intFromArgbList
 import com.dozingcatsoftware.vectorcamera.*
 import kotlinx.coroutines.*
 import kotlin.math.*
-import kotlin.random.Random
 
 /**
  * StainedGlassEffect creates a mosaic-like appearance by segmenting the image into 
@@ -28,7 +26,7 @@ class StainedGlassEffect private constructor(
         val height: Int,
         val segmentSize: Int,
         val segmentMap: Array<IntArray>,
-        val seedPoints: List<List<SeedPoint>>
+        val seedPoints: List<List<StainedGlassKernel.SeedPoint>>
     )
     
     @Volatile
@@ -37,7 +35,15 @@ class StainedGlassEffect private constructor(
     override fun effectName() = EFFECT_NAME
     override fun effectParameters() = effectParams
 
-    override fun createBitmap(cameraImage: CameraImage): ProcessedBitmap {
+    // The native code reads the camera's interleaved U and V planes directly.
+    override fun acceptsStridedPlanes() = true
+
+    override fun rendersIntoOutput() = true
+
+    override fun createBitmap(cameraImage: CameraImage) =
+        Effect.createBitmapUsingOutput(this, cameraImage)
+
+    override fun renderInto(cameraImage: CameraImage, output: EffectOutput): ProcessedBitmapMetadata {
         val startTime = System.nanoTime()
 
         // Enforce minimum segment size, and if we're scaling down for display the minimum size
@@ -46,44 +52,40 @@ class StainedGlassEffect private constructor(
         val minSegmentSize = (16 * segmentScale).roundToInt()
         val segmentSize = (cameraImage.width() / sectionsPerRow).coerceAtLeast(minSegmentSize)
 
-        // Create bitmap using region-based segmentation (hybrid native/Kotlin)
-        val bitmap = createStainedGlassBitmap(cameraImage, segmentSize)
+        // Render using region-based segmentation (hybrid native/Kotlin)
+        val architecture = renderStainedGlassInto(cameraImage, segmentSize, output)
 
         val endTime = System.nanoTime()
         
-        // Determine which implementation was used for metadata
-        val architecture = if (nativeLibraryLoaded) CodeArchitecture.Native else CodeArchitecture.Kotlin
-        
-        val metadata = ProcessedBitmapMetadata(
+        return ProcessedBitmapMetadata(
             codeArchitecture = architecture,
             numThreads = 1, // Single-threaded for simplicity
             generationDurationNanos = endTime - startTime
         )
-        
-        return ProcessedBitmap(this, cameraImage, bitmap, metadata)
     }
 
     /**
      * Create the stained glass effect using region-based segmentation.
      */
-    private fun createStainedGlassBitmap(
+    private fun renderStainedGlassInto(
         cameraImage: CameraImage,
         segmentSize: Int,
-    ): Bitmap {
+        output: EffectOutput,
+    ): CodeArchitecture {
         val width = cameraImage.width()
         val height = cameraImage.height()
         val yData = cameraImage.getYBytes()
-        val uData = cameraImage.getUBytes()
-        val vData = cameraImage.getVBytes()
+        val u = cameraImage.uPlane()
+        val v = cameraImage.vPlane()
         
-        // Try native implementation first for better performance
-        val outputPixels = IntArray(width * height)
+        // Try native implementation first for better performance. It writes directly into the
+        // output bitmap.
         val thicknessPixels = (edgeThickness * width).roundToInt().coerceAtLeast(1)
         
         val nativeSuccess = if (nativeLibraryLoaded) {
             processStainedGlassNative(
-                yData, uData, vData, width, height, segmentSize,
-                thicknessPixels, edgeColor, colorVariation, outputPixels, 1
+                yData, u.data, v.data, u.pixelStride, u.rowStride, width, height, segmentSize,
+                thicknessPixels, edgeColor, colorVariation, output.bitmap, 1
             )
         } else {
             false
@@ -91,25 +93,26 @@ class StainedGlassEffect private constructor(
         
         if (nativeSuccess) {
             // Native processing succeeded
-            val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-            bitmap.setPixels(outputPixels, 0, width, 0, 0, width, height)
-            return bitmap
+            output.markBitmapWritten()
+            return CodeArchitecture.Native
         } else {
             // Fall back to Kotlin implementation
             Log.i(EFFECT_NAME, "Native failed, using Kotlin fallback")
-            return createStainedGlassBitmapKotlin(cameraImage, width, height, segmentSize)
+            renderStainedGlassKotlin(cameraImage, width, height, segmentSize, output)
+            return CodeArchitecture.Kotlin
         }
     }
 
     /**
      * Kotlin fallback implementation.
      */
-    private fun createStainedGlassBitmapKotlin(
+    private fun renderStainedGlassKotlin(
         cameraImage: CameraImage, 
         width: Int, 
         height: Int,
         segmentSize: Int,
-    ): Bitmap {
+        output: EffectOutput,
+    ) {
         // Extract YUV data for processing
         val yData = cameraImage.getYBytes()
         val uData = cameraImage.getUBytes()
@@ -122,20 +125,18 @@ class StainedGlassEffect private constructor(
         val totalSegments = seedPoints.sumOf { it.size }
         
         // Calculate average color for each segment
-        val segmentColors = calculateSegmentColors(
-            yData, uData, vData, width, height, segmentMap, totalSegments
+        val segmentColors = StainedGlassKernel.calculateSegmentColors(
+            yData, uData, vData, width, height, segmentMap, totalSegments, colorVariation
         )
         
         // Render final bitmap with segments and edges
-        return renderStainedGlass(width, height, segmentMap, segmentColors)
+        renderStainedGlass(width, height, segmentMap, segmentColors, output)
     }
 
-    class SeedPoint(val x: Int, val y: Int, val segmentId: Int)
-
     /**
      * Get cached segment map or create new one if cache is invalid.
      */
-    private fun getCachedSegmentMap(width: Int, height: Int, segmentSize: Int): Pair<Array<IntArray>, List<List<SeedPoint>>> {
+    private fun getCachedSegmentMap(width: Int, height: Int, segmentSize: Int): Pair<Array<IntArray>, List<List<StainedGlassKernel.SeedPoint>>> {
         val cache = cachedSegmentMap
         
         // Check if cache is valid
@@ -145,8 +146,9 @@ class StainedGlassEffect private constructor(
         
         // Cache is invalid, create new segment map
         Log.i(EFFECT_NAME, "Creating new segment map for ${width}x${height}, sectionsPerRow=$sectionsPerRow")
-        val seedPoints = createSeedPoints(width, height, segmentSize)
-        val segmentMap = createSegmentMapFromSeeds(width, height, segmentSize, seedPoints)
+        val seedPoints = StainedGlassKernel.createSeedPoints(width, height, segmentSize)
+        val segmentMap = StainedGlassKernel.createSegmentMapFromSeeds(
+                width, height, segmentSize, seedPoints)
         
         // Update cache
         cachedSegmentMap = SegmentMapCache(width, height, sectionsPerRow, segmentMap, seedPoints)
@@ -154,153 +156,6 @@ class StainedGlassEffect private constructor(
         return Pair(segmentMap, seedPoints)
     }
 
-    /**
-     * Create seed points in a grid pattern with random variation.
-     */
-    private fun createSeedPoints(width: Int, height: Int, segmentSize: Int): List<List<SeedPoint>> {
-        val seedPoints = mutableListOf<MutableList<SeedPoint>>()
-        val gridSpacing = segmentSize
-        val variation = segmentSize / 3
-
-        var segmentId = 0
-        for (y in gridSpacing/2 until height step gridSpacing) {
-            seedPoints.add(mutableListOf<SeedPoint>())
-            val currentRow = seedPoints.last()
-            for (x in gridSpacing/2 until width step gridSpacing) {
-                // Add random variation to seed point positions
-                val randomX = (x + Random.nextInt(-variation, variation)).coerceIn(0, width - 1)
-                val randomY = (y + Random.nextInt(-variation, variation)).coerceIn(0, height - 1)
-                currentRow.add(SeedPoint(randomX, randomY, segmentId))
-                segmentId++
-            }
-        }
-
-        return seedPoints
-    }
-
-    /**
-     * Create segment map from seed points using optimized Voronoi-like algorithm.
-     */
-    private fun createSegmentMapFromSeeds(width: Int, height: Int, segmentSize: Int, seedPoints: List<List<SeedPoint>>): Array<IntArray> {
-        val segmentMap = Array(height) { IntArray(width) }
-        val gridSpacing = segmentSize
-        
-        // Use a simplified Voronoi-like algorithm to assign pixels to nearest seed
-        for (y in 0 until height) {
-            val cellY = y / gridSpacing
-            // Only need to check 3x3 neighborhood - mathematically sufficient
-            val minCellY = (cellY - 1).coerceAtLeast(0)
-            val maxCellY = (cellY + 1).coerceAtMost(seedPoints.size - 1)
-            for (x in 0 until width) {
-                val cellX = x / gridSpacing
-                val minCellX = (cellX - 1).coerceAtLeast(0)
-                val maxCellX = (cellX + 1).coerceAtMost(seedPoints[0].size - 1)
-                var minDistance = Int.MAX_VALUE
-                var nearestSegment = 0
-
-                // Find nearest seed point
-                for (cy in minCellY..maxCellY) {
-                    for (cx in minCellX..maxCellX) {
-                        val point = seedPoints[cy][cx]
-                        val distanceSquared = (x - point.x) * (x - point.x) +
-                                (y - point.y) * (y - point.y)
-                        if (distanceSquared < minDistance) {
-                            minDistance = distanceSquared
-                            nearestSegment = point.segmentId
-                        }
-                    }
-                }
-                segmentMap[y][x] = nearestSegment
-            }
-        }
-        
-        return segmentMap
-    }
-
-
-
-    /**
-     * Calculate the average color for each segment using YUV to RGB conversion with parallel arrays.
-     */
-    private fun calculateSegmentColors(
-        yData: ByteArray,
-        uData: ByteArray, 
-        vData: ByteArray,
-        width: Int,
-        height: Int,
-        segmentMap: Array<IntArray>,
-        totalSegments: Int
-    ): Map<Int, Int> {
-        
-        // Use parallel arrays for better cache locality and performance
-        val redTotals = LongArray(totalSegments)
-        val greenTotals = LongArray(totalSegments)
-        val blueTotals = LongArray(totalSegments)
-        val pixelCounts = IntArray(totalSegments)
-        
-        // Single-threaded processing for simplicity
-        processColorRowsWithArrays(yData, uData, vData, width, height, segmentMap, 
-                                 redTotals, greenTotals, blueTotals, pixelCounts)
-        
-        // Calculate average color for each segment
-        val segmentColors = mutableMapOf<Int, Int>()
-        for (segmentId in 0 until totalSegments) {
-            if (pixelCounts[segmentId] > 0) {
-                val avgR = (redTotals[segmentId] / pixelCounts[segmentId]).toInt()
-                val avgG = (greenTotals[segmentId] / pixelCounts[segmentId]).toInt()
-                val avgB = (blueTotals[segmentId] / pixelCounts[segmentId]).toInt()
-                
-                // Add slight color variation for more interesting appearance
-                val variation = (colorVariation * 128).toInt()
-                val finalR = (avgR + Random.nextInt(-variation, variation)).coerceIn(0, 255)
-                val finalG = (avgG + Random.nextInt(-variation, variation)).coerceIn(0, 255)
-                val finalB = (avgB + Random.nextInt(-variation, variation)).coerceIn(0, 255)
-                
-                segmentColors[segmentId] = Color.rgb(finalR, finalG, finalB)
-            }
-        }
-        
-        return segmentColors
-    }
-
-    /**
-     * Process color calculation using parallel arrays for better performance.
-     */
-    private fun processColorRowsWithArrays(
-        yData: ByteArray,
-        uData: ByteArray,
-        vData: ByteArray,
-        width: Int,
-        height: Int,
-        segmentMap: Array<IntArray>,
-        redTotals: LongArray,
-        greenTotals: LongArray,
-        blueTotals: LongArray,
-        pixelCounts: IntArray
-    ) {
-        for (y in 0 until height) {
-            for (x in 0 until width) {
-                val segmentId = segmentMap[y][x]
-                
-                // Get YUV values
-                val yVal = yData[y * width + x].toInt() and 0xFF
-                val uVal = uData[(y / 2) * (width / 2) + (x / 2)].toInt() and 0xFF
-                val vVal = vData[(y / 2) * (width / 2) + (x / 2)].toInt() and 0xFF
-                
-                // Convert YUV to RGB
-                val rgb = yuvToRgb(yVal, uVal, vVal)
-                
-                // Add to parallel arrays (bounds check for safety)
-                if (segmentId < redTotals.size) {
-                    redTotals[segmentId] += (rgb shr 16) and 0xFF
-                    greenTotals[segmentId] += (rgb shr 8) and 0xFF
-                    blueTotals[segmentId] += rgb and 0xFF
-                    pixelCounts[segmentId]++
-                }
-            }
-        }
-    }
-
     /**
      * Render the final stained glass bitmap with segments and edge outlines.
      */
@@ -308,20 +163,14 @@ class StainedGlassEffect private constructor(
         width: Int, 
         height: Int, 
         segmentMap: Array<IntArray>, 
-        segmentColors: Map<Int, Int>
-    ): Bitmap {
-        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
-        val canvas = Canvas(bitmap)
-        
+        segmentColors: Map<Int, Int>,
+        output: EffectOutput
+    ) {
         // Fill segments with their average colors
-        val pixels = IntArray(width * height)
-        for (y in 0 until height) {
-            for (x in 0 until width) {
-                val segmentId = segmentMap[y][x]
-                pixels[y * width + x] = segmentColors[segmentId] ?: Color.BLACK
-            }
-        }
-        bitmap.setPixels(pixels, 0, width, 0, 0, width, height)
+        StainedGlassKernel.fillSegments(width, height, segmentMap, segmentColors, output.pixels)
+        // The edges are drawn on top with a Canvas, so the pixels have to be in the bitmap first.
+        output.uploadPixels()
+        val canvas = Canvas(output.bitmap)
 
         val thicknessPixels = (edgeThickness * width).roundToInt().coerceAtLeast(1)
         
@@ -358,8 +207,6 @@ class StainedGlassEffect private constructor(
                 }
             }
         }
-
-        return bitmap
     }
 
     companion object {
@@ -372,19 +219,22 @@ class StainedGlassEffect private constructor(
         }
         
         /**
-         * Native method for stained glass effect processing.
+         * Native method for stained glass effect processing, which writes directly into the
+         * pixels of outputBitmap.
          */
         private external fun processStainedGlassNative(
             yData: ByteArray,
             uData: ByteArray,
             vData: ByteArray,
+            uvPixelStride: Int,
+            uvRowStride: Int,
             width: Int,
             height: Int,
             segmentSize: Int,
             edgeThickness: Int,
             edgeColor: Int,
             colorVariation: Float,
-            outputPixels: IntArray,
+            outputBitmap: Bitmap,
             numThreads: Int
         ): Boolean
         
@@ -0,0 +1,202 @@
+package com.dozingcatsoftware.vectorcamera.benchmark
+
+import com.dozingcatsoftware.util.YuvImageBuffers
+import com.dozingcatsoftware.util.YuvUtils
+import com.dozingcatsoftware.vectorcamera.IntArrayBitmap
+import com.dozingcatsoftware.vectorcamera.PlaneResizer
+import com.dozingcatsoftware.vectorcamera.effect.CartoonKernel
+import com.dozingcatsoftware.vectorcamera.effect.Convolve3x3Kernel
+import com.dozingcatsoftware.vectorcamera.effect.EdgeKernel
+import com.dozingcatsoftware.vectorcamera.effect.OilPaintingKernel
+import com.dozingcatsoftware.vectorcamera.effect.StainedGlassKernel
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Times the Kotlin effect kernels and YUV conversions on one thread, at the common camera
+ * sizes. These are the code paths the effects fall back to when the native library isn't used,
+ * and the ones the autotuner picks on some devices. Run with `./gradlew :core:jmh`; the gc
+ * profiler reports bytes allocated per operation as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class EffectKernelBenchmark {
+    @Param("640x480", "1280x720", "1920x1080")
+    @JvmField var size = ""
+
+    private lateinit var frame: SyntheticFrame
+    private lateinit var pixels: IntArray
+    private lateinit var rgbPixels: IntArray
+    private lateinit var quantizedPixels: IntArray
+    private lateinit var argbSource: IntArrayBitmap
+    private lateinit var segmentMap: Array<IntArray>
+    private lateinit var seedPoints: List<List<StainedGlassKernel.SeedPoint>>
+    private var totalSegments = 0
+    private lateinit var resizedPlane: ByteArray
+
+    private val edgeColorMap = IntArray(256, { (0xFF shl 24) or (it * 0x010101) })
+    private val sharpenCoefficients = floatArrayOf(0f, -1f, 0f, -1f, 5f, -1f, 0f, -1f, 0f)
+    private val oilPainting = OilPaintingKernel(8, 32, 2.0f)
+
+    @Setup
+    fun setUp() {
+        frame = SyntheticFrame.forSize(size)
+        val w = frame.width
+        val h = frame.height
+        pixels = IntArray(w * h)
+        rgbPixels = CartoonKernel.processImageFromPlanes(
+                frame.yData, frame.uData, frame.vData, w, h, 1, CartoonKernel.createColorLUT())
+        quantizedPixels = oilPainting.convertYuvToRgbQuantized(
+                frame.yData, frame.uData, frame.vData, w, h)
+        argbSource = IntArrayBitmap(w, h)
+        argbSource.setPixels(rgbPixels)
+        val segmentSize = maxOf(16, w / 64)
+        seedPoints = StainedGlassKernel.createSeedPoints(w, h, segmentSize, Random(1))
+        segmentMap = StainedGlassKernel.createSegmentMapFromSeeds(w, h, segmentSize, seedPoints)
+        totalSegments = seedPoints.sumOf({ it.size })
+        resizedPlane = ByteArray((w / 2) * (h / 2))
+    }
+
+    @Benchmark
+    fun edgeProcessRows(): IntArray {
+        EdgeKernel.processRows(0, frame.height, frame.width, frame.height, 4,
+                frame.yData, pixels, edgeColorMap)
+        return pixels
+    }
+
+    @Benchmark
+    fun convolve3x3ApplyConvolution(): ByteArray {
+        return Convolve3x3Kernel.applyConvolution(
+                frame.yData, frame.width, frame.height, sharpenCoefficients, 1)
+    }
+
+    @Benchmark
+    fun cartoonApplyBlur(): IntArray {
+        return CartoonKernel.applyBlur(rgbPixels, frame.width, frame.height, 4)
+    }
+
+    @Benchmark
+    fun oilPaintingProcessRows(): IntArray {
+        oilPainting.processOilPaintingRows(
+                0, frame.height, frame.width, frame.height, quantizedPixels, pixels)
+        return pixels
+    }
+
+    @Benchmark
+    fun stainedGlassSegmentMap(): Array<IntArray> {
+        return StainedGlassKernel.createSegmentMapFromSeeds(
+                frame.width, frame.height, maxOf(16, frame.width / 64), seedPoints)
+    }
+
+    @Benchmark
+    fun stainedGlassSegmentColors(): IntArray {
+        val colors = StainedGlassKernel.calculateSegmentColors(
+                frame.yData, frame.uData, frame.vData, frame.width, frame.height,
+                segmentMap, totalSegments, 0.1f, Random(2))
+        StainedGlassKernel.fillSegments(frame.width, frame.height, segmentMap, colors, pixels)
+        return pixels
+    }
+
+    @Benchmark
+    fun yuvImageBuffersFromPixels(): YuvImageBuffers {
+        return YuvImageBuffers.fromPixels(argbSource)
+    }
+
+    @Benchmark
+    fun yuvToRgb(): IntArray {
+        val w = frame.width
+        val uvWidth = frame.uvWidth
+        for (y in 0 until frame.height) {
+            for (x in 0 until w) {
+                val uvIndex = (y / 2) * uvWidth + x / 2
+                pixels[y * w + x] = YuvUtils.yuvToRgb(
+                        frame.yData[y * w + x].toInt() and 0xFF,
+                        frame.uData[uvIndex].toInt() and 0xFF,
+                        frame.vData[uvIndex].toInt() and 0xFF,
+                        includeAlpha = true)
+            }
+        }
+        return pixels
+    }
+
+    // The float conversion that the lookup tables in yuvToRgb replaced, for comparison.
+    @Benchmark
+    fun yuvToRgbFloat(): IntArray {
+        val w = frame.width
+        val uvWidth = frame.uvWidth
+        for (y in 0 until frame.height) {
+            for (x in 0 until w) {
+                val uvIndex = (y / 2) * uvWidth + x / 2
+                pixels[y * w + x] = YuvUtils.yuvToRgbFloat(
+                        frame.yData[y * w + x].toInt() and 0xFF,
+                        frame.uData[uvIndex].toInt() and 0xFF,
+                        frame.vData[uvIndex].toInt() and 0xFF,
+                        includeAlpha = true)
+            }
+        }
+        return pixels
+    }
+
+    @Benchmark
+    fun planeResizeHalf(): ByteArray {
+        val w = frame.width
+        val h = frame.height
+        PlaneResizer.resize(frame.yData, w, h, 1, w, resizedPlane, w / 2, h / 2, 1)
+        return resizedPlane
+    }
+
+    // The float bilinear resizeImageBytes that PlaneResizer replaced, for comparison.
+    @Benchmark
+    fun legacyResizeHalf(): ByteArray {
+        val w = frame.width
+        val h = frame.height
+        return legacyResizeImageBytes(frame.yData, w, h, w / 2, h / 2)
+    }
+}
+
+// Copy of resizeImageBytes from util/images.kt before PlaneResizer replaced it. It samples the
+// source without area averaging and allocates the result for every call.
+private fun legacyResizeImageBytes(data: ByteArray, oldWidth: Int, oldHeight: Int,
+                                   newWidth: Int, newHeight: Int): ByteArray {
+    val result = ByteArray(newWidth * newHeight)
+    val xRatio = oldWidth.toFloat() / newWidth
+    val yRatio = oldHeight.toFloat() / newHeight
+
+    for (y in 0 until newHeight) {
+        for (x in 0 until newWidth) {
+            val px = x * xRatio
+            val py = y * yRatio
+
+            val x1 = px.toInt()
+            val y1 = py.toInt()
+            val x2 = kotlin.math.min(x1 + 1, oldWidth - 1)
+            val y2 = kotlin.math.min(y1 + 1, oldHeight - 1)
+
+            val fx = px - x1
+            val fy = py - y1
+
+            val p1 = data[y1 * oldWidth + x1].toInt() and 0xFF
+            val p2 = data[y1 * oldWidth + x2].toInt() and 0xFF
+            val p3 = data[y2 * oldWidth + x1].toInt() and 0xFF
+            val p4 = data[y2 * oldWidth + x2].toInt() and 0xFF
+
+            val interpolated = (p1 * (1 - fx) * (1 - fy) +
+                    p2 * fx * (1 - fy) +
+                    p3 * (1 - fx) * fy +
+                    p4 * fx * fy).toInt()
+
+            result[y * newWidth + x] = interpolated.toByte()
+        }
+    }
+
+    return result
+}
@@ -0,0 +1,57 @@
+package com.dozingcatsoftware.vectorcamera.benchmark
+
+import java.util.Random
+
+/**
+ * Deterministic YUV 4:2:0 planes that look enough like a camera frame for the effects to do
+ * realistic work: smooth gradients, a few sharp-edged shapes, and sensor noise. Pure noise would
+ * make edge detection saturate and give the oil painting effect far more distinct colors than a
+ * real scene.
+ */
+class SyntheticFrame(val width: Int, val height: Int, seed: Long = 42) {
+    val uvWidth = (width + 1) / 2
+    val uvHeight = (height + 1) / 2
+    val yData = ByteArray(width * height)
+    val uData = ByteArray(uvWidth * uvHeight)
+    val vData = ByteArray(uvWidth * uvHeight)
+
+    init {
+        val random = Random(seed)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                var luma = 40 + 150 * x / width + 40 * y / height
+                if (isInShape(x, y)) {
+                    luma = 255 - luma
+                }
+                luma += random.nextInt(9) - 4
+                yData[y * width + x] = luma.coerceIn(0, 255).toByte()
+            }
+        }
+        for (y in 0 until uvHeight) {
+            for (x in 0 until uvWidth) {
+                val inShape = isInShape(2 * x, 2 * y)
+                uData[y * uvWidth + x] = (if (inShape) 90 else 128 + 60 * x / uvWidth).toByte()
+                vData[y * uvWidth + x] = (if (inShape) 180 else 160 - 60 * y / uvHeight).toByte()
+            }
+        }
+    }
+
+    // A circle and a rectangle, scaled with the frame.
+    private fun isInShape(x: Int, y: Int): Boolean {
+        val dx = x - width / 3
+        val dy = y - height / 2
+        val r = height / 4
+        if (dx * dx + dy * dy < r * r) {
+            return true
+        }
+        return x > width * 3 / 5 && x < width * 4 / 5 && y > height / 5 && y < height * 3 / 5
+    }
+
+    companion object {
+        /** Parses a "WIDTHxHEIGHT" benchmark parameter. */
+        fun forSize(size: String): SyntheticFrame {
+            val (w, h) = size.split("x").map(String::toInt)
+            return SyntheticFrame(w, h)
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.dozingcatsoftware.util
+
+import com.dozingcatsoftware.util.YuvUtils.rgbToY
+import com.dozingcatsoftware.util.YuvUtils.rgbToYuv
+
+/** ARGB pixels that can be read a few rows at a time, such as an android.graphics.Bitmap. */
+interface ArgbPixelSource {
+    val width: Int
+    val height: Int
+
+    /**
+     * Copies the first `numPixels` pixels of `numRows` rows starting at row `y` into `dst`,
+     * which is densely packed.
+     */
+    fun getPixels(dst: IntArray, y: Int, numPixels: Int, numRows: Int)
+}
+
+// Y/U/V planes for an image.
+class YuvImageBuffers(
+        val width: Int, val height: Int, val y: ByteArray, val u: ByteArray, val v: ByteArray) {
+
+    companion object {
+        fun fromPixels(source: ArgbPixelSource, fixedWidth: Int = 0, fixedHeight: Int = 0): YuvImageBuffers {
+            if (fixedWidth > source.width || fixedHeight > source.height) {
+                throw IllegalArgumentException(
+                        "Specified dimensions (${fixedWidth}x${fixedHeight}) exceed image size " +
+                        "(${source.width}x${source.height}")
+            }
+            // Force width and height to be even.
+            val baseWidth = if (fixedWidth > 0) fixedWidth else source.width
+            val baseHeight = if (fixedHeight > 0) fixedHeight else source.height
+            val width = baseWidth - (baseWidth and 1)
+            val height = baseHeight - (baseHeight and 1)
+
+            val yBuffer = ByteArray(width * height)
+            val uBuffer = ByteArray(width * height / 4)
+            val vBuffer = ByteArray(width * height / 4)
+
+            // Read two rows at a time and convert to YUV.
+            // https://www.fourcc.org/fccyvrgb.php.
+            val pixBuffer = IntArray(2 * width)
+            val rb = IntArray(2 * width)
+            val gb = IntArray(2 * width)
+            val bb = IntArray(2 * width)
+
+            var yIndex = 0
+            var uvIndex = 0
+
+            for (r2 in 0 until height / 2) {
+                source.getPixels(pixBuffer, 2 * r2, width, 2)
+                for (i in pixBuffer.indices) {
+                    rb[i] = (pixBuffer[i] shr 16) and 0xFF
+                    gb[i] = (pixBuffer[i] shr 8) and 0xFF
+                    bb[i] = pixBuffer[i] and 0xFF
+                    yBuffer[yIndex++] = rgbToY(rb[i], gb[i], bb[i]).toByte()
+                }
+                // For U and V planes, average the pixels in 2x2 blocks.
+                for (i in 0 until width / 2) {
+                    val x = 2 * i
+                    val ra = (2 + rb[x] + rb[x + 1] + rb[x + width] + rb[x + width + 1]) / 4
+                    val ga = (2 + gb[x] + gb[x + 1] + gb[x + width] + gb[x + width + 1]) / 4
+                    val ba = (2 + bb[x] + rb[x + 1] + bb[x + width] + bb[x + width + 1]) / 4
+                    val yuv = rgbToYuv(ra, ga, ba)
+                    uBuffer[uvIndex] = (yuv shr 8).toByte()
+                    vBuffer[uvIndex] = yuv.toByte()
+                    uvIndex += 1
+                }
+            }
+
+            return YuvImageBuffers(width, height, yBuffer, uBuffer, vBuffer)
+        }
+    }
+}
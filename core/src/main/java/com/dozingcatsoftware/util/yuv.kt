@@ -7,8 +7,27 @@ import kotlin.math.roundToInt
  */
 object YuvUtils {
 
+    // The BT.601 coefficients scaled by 2^16. app/src/main/cpp/yuv.h builds its tables from the
+    // same constants, so the Kotlin and native conversions give bit-identical results.
+    private const val V_TO_R = 89831    // 1.370705
+    private const val V_TO_G = -45744   // -0.698001
+    private const val U_TO_G = -22127   // -0.337633
+    private const val U_TO_B = 113538   // 1.732446
+    private const val ROUNDING = 1 shl 15
+
+    // Per-channel contributions of each U and V value. Red and blue get one term each, so their
+    // tables hold the already-rounded offset from Y. Green's two terms stay in 16.16 fixed point
+    // and are rounded after they're added; the rounding bias is folded into VG_TABLE.
+    private val VR_TABLE = IntArray(256, { (V_TO_R * (it - 128) + ROUNDING) shr 16 })
+    private val UB_TABLE = IntArray(256, { (U_TO_B * (it - 128) + ROUNDING) shr 16 })
+    private val UG_TABLE = IntArray(256, { U_TO_G * (it - 128) })
+    private val VG_TABLE = IntArray(256, { V_TO_G * (it - 128) + ROUNDING })
+
+    private fun clamp(c: Int) = if (c < 0) 0 else if (c > 255) 255 else c
+
     /**
-     * Convert YUV values to RGB using standard ITU-R BT.601 conversion.
+     * Convert YUV values to RGB using standard ITU-R BT.601 conversion, with integer arithmetic
+     * and lookup tables. The result is within 1 of yuvToRgbFloat in each channel.
      * @param y Y (luminance) component (0-255)
      * @param u U (chrominance) component (0-255)
      * @param v V (chrominance) component (0-255)
@@ -16,6 +35,18 @@ object YuvUtils {
      * @return (A)RGB value as packed integer
      */
     fun yuvToRgb(y: Int, u: Int, v: Int, includeAlpha: Boolean = false): Int {
+        val red = clamp(y + VR_TABLE[v])
+        val green = clamp(y + ((UG_TABLE[u] + VG_TABLE[v]) shr 16))
+        val blue = clamp(y + UB_TABLE[u])
+        val rgb = (red shl 16) or (green shl 8) or blue
+        return if (includeAlpha) (0xFF shl 24) or rgb else rgb
+    }
+
+    /**
+     * The floating-point conversion that yuvToRgb replaced, kept as the reference for its
+     * accuracy test and benchmark. Effects should use yuvToRgb.
+     */
+    fun yuvToRgbFloat(y: Int, u: Int, v: Int, includeAlpha: Boolean = false): Int {
         val yValue = y.toFloat()
         val uValue = (u - 128).toFloat()
         val vValue = (v - 128).toFloat()
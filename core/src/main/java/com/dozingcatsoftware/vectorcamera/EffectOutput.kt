@@ -0,0 +1,60 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A reusable target for Effect.renderInto: an ARGB pixel array and a bitmap of the same size,
+ * created by Platform.bitmapFactory. An effect either fills `pixels`, which are copied to
+ * `outputBitmap` by `uploadPixels`, or writes the bitmap itself and calls `markBitmapWritten`.
+ *
+ * Outputs are reference counted in the same way as camera image planes. The creator holds the
+ * first reference, and when the last reference is released an output from an EffectOutputPool
+ * goes back to the pool for reuse.
+ */
+class EffectOutput(val width: Int, val height: Int, val pool: EffectOutputPool? = null) {
+    val pixels = IntArray(width * height)
+    val outputBitmap: OutputBitmap = Platform.bitmapFactory.create(width, height)
+    private val refCount = AtomicInteger(1)
+    @Volatile private var bitmapIsCurrent = false
+
+    fun retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            throw IllegalStateException("Retaining released EffectOutput")
+        }
+    }
+
+    fun release() {
+        val count = refCount.decrementAndGet()
+        if (count == 0) {
+            pool?.recycle(this)
+        }
+        else if (count < 0) {
+            throw IllegalStateException("EffectOutput released too many times")
+        }
+    }
+
+    /** Copies `pixels` to the bitmap, unless the effect already wrote the bitmap directly. */
+    fun uploadPixels() {
+        if (!bitmapIsCurrent) {
+            outputBitmap.setPixels(pixels)
+            bitmapIsCurrent = true
+        }
+    }
+
+    /** Sets the bitmap from an array that the effect produced itself, such as from native code. */
+    fun setBitmapPixels(source: IntArray) {
+        outputBitmap.setPixels(source)
+        bitmapIsCurrent = true
+    }
+
+    /** Called by effects that write into the bitmap directly rather than into `pixels`. */
+    fun markBitmapWritten() {
+        bitmapIsCurrent = true
+    }
+
+    /** Prepares a recycled output to be handed out again. Called by EffectOutputPool. */
+    internal fun reset() {
+        refCount.set(1)
+        bitmapIsCurrent = false
+    }
+}
@@ -0,0 +1,93 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Pool of EffectOutputs, keyed by size, so that effects rendering the live preview don't create
+ * a new pixel array and Bitmap for every frame. Outputs are handed out in the order they were
+ * released, so the most recently displayed bitmap is the last one to be overwritten. Bitmaps are
+ * much larger than plane buffers, so only the `maxSizes` most recently added sizes are kept.
+ */
+class EffectOutputPool(
+        private val maxOutputsPerSize: Int = DEFAULT_MAX_OUTPUTS_PER_SIZE,
+        private val maxSizes: Int = DEFAULT_MAX_SIZES) {
+    private class SizeBucket(val width: Int, val height: Int) {
+        val outputs = ArrayDeque<EffectOutput>()
+    }
+
+    private val buckets = ArrayList<SizeBucket>()
+    private val lock = ReentrantLock()
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    private fun bucketForSize(width: Int, height: Int): SizeBucket? {
+        for (i in 0 until buckets.size) {
+            val b = buckets[i]
+            if (b.width == width && b.height == height) {
+                return b
+            }
+        }
+        return null
+    }
+
+    /**
+     * Returns an output of the given size, reusing a released one if available. The caller owns
+     * the only reference to it. The contents of a reused output are not cleared.
+     */
+    fun acquire(width: Int, height: Int): EffectOutput {
+        lock.withLock({
+            val bucket = bucketForSize(width, height)
+            if (bucket != null && bucket.outputs.isNotEmpty()) {
+                hits.incrementAndGet()
+                val output = bucket.outputs.removeFirst()
+                output.reset()
+                return output
+            }
+        })
+        misses.incrementAndGet()
+        return EffectOutput(width, height, this)
+    }
+
+    /** Called by EffectOutput.release when its last reference is released. */
+    fun recycle(output: EffectOutput) {
+        lock.withLock({
+            var bucket = bucketForSize(output.width, output.height)
+            if (bucket == null) {
+                bucket = SizeBucket(output.width, output.height)
+                buckets.add(bucket)
+                while (buckets.size > maxSizes) {
+                    buckets.removeAt(0)
+                }
+            }
+            if (bucket.outputs.size < maxOutputsPerSize) {
+                bucket.outputs.addLast(output)
+            }
+        })
+    }
+
+    /** Number of `acquire` calls that reused a pooled output. */
+    fun hitCount() = hits.get()
+
+    /** Number of `acquire` calls that had to create a new output. */
+    fun missCount() = misses.get()
+
+    fun resetCounters() {
+        hits.set(0)
+        misses.set(0)
+    }
+
+    /** Drops all pooled outputs, for example when the capture size changes. */
+    fun clear() {
+        lock.withLock({
+            buckets.clear()
+        })
+    }
+
+    companion object {
+        // Enough for frames being rendered in parallel, waiting to be published, and displayed.
+        const val DEFAULT_MAX_OUTPUTS_PER_SIZE = 6
+        const val DEFAULT_MAX_SIZES = 2
+    }
+}
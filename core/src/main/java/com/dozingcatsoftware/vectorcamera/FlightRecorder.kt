@@ -0,0 +1,178 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.io.Writer
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/** Why a frame didn't reach the screen, or NONE if it did. */
+enum class DropReason {
+    NONE,
+    // The drop policy's shouldAccept turned it away, e.g. to hold a target frame rate.
+    REJECTED,
+    // The ingest queue was full.
+    QUEUE_FULL,
+    // The drop policy's shouldProcess found it too old when the ingest stage got to it.
+    STALE,
+    // A newer frame was published first.
+    OUT_OF_ORDER,
+    // The effect workers already had the maximum number of frames queued or rendering.
+    IN_FLIGHT_LIMIT,
+}
+
+/**
+ * Keeps one row of metrics for each of the last `capacity` frames that went through
+ * CameraImageProcessor, published or dropped, so that stutter can be analysed after the fact with
+ * `writeCsv` or `writeJson`. Rows are stored in preallocated parallel arrays, so recording doesn't
+ * allocate; effect and architecture names are stored by reference.
+ *
+ * Timestamps are in the SystemClock.elapsedRealtimeNanos() time base, so `sensorNanos` and
+ * `recordedNanos` can be compared. Durations are in nanoseconds and are 0 for stages the frame
+ * didn't reach. Queue depths are the number of frames in each stage's queue when the row was
+ * recorded.
+ */
+class FlightRecorder(val capacity: Int = DEFAULT_CAPACITY) {
+    private val lock = ReentrantLock()
+    private var nextRow = 0L
+
+    private val frameTimestamps = LongArray(capacity)
+    private val sensorNanos = LongArray(capacity)
+    private val recordedNanos = LongArray(capacity)
+    private val planeCopyNanos = LongArray(capacity)
+    private val effectNanos = LongArray(capacity)
+    private val uploadNanos = LongArray(capacity)
+    private val effectNames = arrayOfNulls<String>(capacity)
+    private val architectures = arrayOfNulls<String>(capacity)
+    private val widths = IntArray(capacity)
+    private val heights = IntArray(capacity)
+    private val numThreads = IntArray(capacity)
+    private val queueDepths = IntArray(capacity * NUM_QUEUES)
+    private val dropReasons = arrayOfNulls<DropReason>(capacity)
+
+    /**
+     * Records a frame, overwriting the oldest row if the buffer is full. `numThreads` is 0 if
+     * unknown, and the queue depths are for the ingest, effect, upload and publish stages.
+     */
+    fun record(frameTimestamp: Long, sensorNanos: Long, recordedNanos: Long,
+               effectName: String, width: Int, height: Int,
+               architecture: String?, numThreads: Int,
+               planeCopyNanos: Long, effectNanos: Long, uploadNanos: Long,
+               ingestQueued: Int, effectQueued: Int, uploadQueued: Int, publishQueued: Int,
+               dropReason: DropReason) {
+        lock.withLock({
+            val i = (nextRow % capacity).toInt()
+            nextRow += 1
+            this.frameTimestamps[i] = frameTimestamp
+            this.sensorNanos[i] = sensorNanos
+            this.recordedNanos[i] = recordedNanos
+            this.effectNames[i] = effectName
+            this.widths[i] = width
+            this.heights[i] = height
+            this.architectures[i] = architecture
+            this.numThreads[i] = numThreads
+            this.planeCopyNanos[i] = planeCopyNanos
+            this.effectNanos[i] = effectNanos
+            this.uploadNanos[i] = uploadNanos
+            val q = i * NUM_QUEUES
+            queueDepths[q] = ingestQueued
+            queueDepths[q + 1] = effectQueued
+            queueDepths[q + 2] = uploadQueued
+            queueDepths[q + 3] = publishQueued
+            this.dropReasons[i] = dropReason
+        })
+    }
+
+    /** Number of rows currently held, at most `capacity`. */
+    fun size(): Int = lock.withLock({minOf(nextRow, capacity.toLong()).toInt()})
+
+    fun clear() {
+        lock.withLock({
+            nextRow = 0
+            effectNames.fill(null)
+            architectures.fill(null)
+            dropReasons.fill(null)
+        })
+    }
+
+    // Calls `fn` with the array index of each row, oldest first. Must hold the lock.
+    private inline fun forEachRowLocked(fn: (Int) -> Unit) {
+        val count = minOf(nextRow, capacity.toLong())
+        for (n in (nextRow - count) until nextRow) {
+            fn((n % capacity).toInt())
+        }
+    }
+
+    private fun rowValues(i: Int): List<Any?> = listOf(
+            frameTimestamps[i], sensorNanos[i], recordedNanos[i],
+            effectNames[i], widths[i], heights[i], architectures[i], numThreads[i],
+            planeCopyNanos[i], effectNanos[i], uploadNanos[i],
+            queueDepths[i * NUM_QUEUES], queueDepths[i * NUM_QUEUES + 1],
+            queueDepths[i * NUM_QUEUES + 2], queueDepths[i * NUM_QUEUES + 3],
+            dropReasons[i]?.name)
+
+    /** Writes a header line and one line per row, oldest first. */
+    fun writeCsv(writer: Writer) {
+        lock.withLock({
+            writer.write(COLUMNS.joinToString(","))
+            writer.write("\n")
+            forEachRowLocked({i ->
+                writer.write(rowValues(i).joinToString(",", transform={it?.toString() ?: ""}))
+                writer.write("\n")
+            })
+        })
+        writer.flush()
+    }
+
+    /** Writes the rows as a JSON array of objects keyed by column name, oldest first. */
+    fun writeJson(writer: Writer) {
+        lock.withLock({
+            writer.write("[")
+            var first = true
+            forEachRowLocked({i ->
+                if (!first) {
+                    writer.write(",")
+                }
+                first = false
+                writer.write("\n{")
+                rowValues(i).forEachIndexed({column, value ->
+                    if (column > 0) {
+                        writer.write(",")
+                    }
+                    writer.write("\"${COLUMNS[column]}\":")
+                    writer.write(when (value) {
+                        null -> "null"
+                        is String -> jsonString(value)
+                        else -> value.toString()
+                    })
+                })
+                writer.write("}")
+            })
+            writer.write("\n]\n")
+        })
+        writer.flush()
+    }
+
+    private fun jsonString(s: String): String {
+        val sb = StringBuilder("\"")
+        for (c in s) {
+            when {
+                c == '"' || c == '\\' -> sb.append('\\').append(c)
+                c < ' ' -> sb.append(String.format("\\u%04x", c.code))
+                else -> sb.append(c)
+            }
+        }
+        return sb.append('"').toString()
+    }
+
+    companion object {
+        // About a minute at 30 fps.
+        const val DEFAULT_CAPACITY = 2048
+        private const val NUM_QUEUES = 4
+
+        val COLUMNS = listOf(
+                "frameTimestamp", "sensorNanos", "recordedNanos",
+                "effect", "width", "height", "architecture", "threads",
+                "planeCopyNanos", "effectNanos", "uploadNanos",
+                "ingestQueued", "effectQueued", "uploadQueued", "publishQueued",
+                "dropReason")
+    }
+}
@@ -0,0 +1,122 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Bounded FIFO queue used to pass frames between pipeline stages. `close` wakes up any waiting
+ * threads and causes further adds to be rejected, so stage threads can exit promptly.
+ */
+class FrameQueue<T>(val capacity: Int) {
+    private val items = ArrayDeque<T>(capacity)
+    private val lock = ReentrantLock()
+    private val notEmpty = lock.newCondition()
+    private val notFull = lock.newCondition()
+    @Volatile private var closed = false
+    @Volatile private var peakSize = 0
+
+    init {
+        if (capacity < 1) {
+            throw IllegalArgumentException("Capacity must be positive: $capacity")
+        }
+    }
+
+    fun size(): Int = lock.withLock({items.size})
+
+    /** Largest number of items that have been in the queue at once. */
+    fun peakSize() = peakSize
+
+    fun isClosed() = closed
+
+    private fun addLocked(item: T) {
+        items.addLast(item)
+        if (items.size > peakSize) {
+            peakSize = items.size
+        }
+        notEmpty.signal()
+    }
+
+    /**
+     * Adds an item without blocking. If the queue is full the oldest item is removed to make room
+     * and returned, so the caller can release it. If the queue is closed, returns `item` itself.
+     */
+    fun addDroppingOldest(item: T): T? {
+        lock.withLock({
+            if (closed) {
+                return item
+            }
+            val dropped = if (items.size >= capacity) items.removeFirst() else null
+            addLocked(item)
+            return dropped
+        })
+    }
+
+    /**
+     * Adds an item without blocking if there's space. Returns false if the queue is full or
+     * closed, in which case the caller still owns the item.
+     */
+    fun offer(item: T): Boolean {
+        lock.withLock({
+            if (closed || items.size >= capacity) {
+                return false
+            }
+            addLocked(item)
+            return true
+        })
+    }
+
+    /**
+     * Adds an item, waiting for space if the queue is full. Returns false if the queue was
+     * closed before the item could be added, in which case the caller still owns the item.
+     */
+    fun put(item: T): Boolean {
+        lock.withLock({
+            while (items.size >= capacity) {
+                if (closed) {
+                    return false
+                }
+                notFull.awaitNanos(250000000)
+            }
+            if (closed) {
+                return false
+            }
+            addLocked(item)
+            return true
+        })
+    }
+
+    /**
+     * Removes and returns the oldest item, waiting until one is available. Returns null if the
+     * queue is closed.
+     */
+    fun take(): T? {
+        lock.withLock({
+            while (items.isEmpty()) {
+                if (closed) {
+                    return null
+                }
+                notEmpty.awaitNanos(250000000)
+            }
+            if (closed) {
+                return null
+            }
+            val item = items.removeFirst()
+            notFull.signal()
+            return item
+        })
+    }
+
+    /**
+     * Closes the queue and returns any items that were still in it.
+     */
+    fun close(): List<T> {
+        lock.withLock({
+            closed = true
+            val remaining = items.toList()
+            items.clear()
+            notEmpty.signalAll()
+            notFull.signalAll()
+            return remaining
+        })
+    }
+}
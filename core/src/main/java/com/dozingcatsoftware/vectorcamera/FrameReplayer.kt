@@ -0,0 +1,102 @@
+package com.dozingcatsoftware.vectorcamera
+
+/**
+ * Feeds the frames of a RecordedVideo to a callback from its own thread, standing in for the
+ * camera so the processing pipeline can be run without one. With Pacing.REAL_TIME frames are
+ * delivered at the intervals they were recorded at, and a frame isn't held back if the callback
+ * is slow, as with a camera. With Pacing.MAX_SPEED each frame is delivered as soon as
+ * `readyForFrame` returns, which lets the consumer apply backpressure to measure throughput.
+ *
+ * The video is played `loops` times. Timestamps passed to the callback keep increasing across
+ * loops, since the pipeline drops frames that are older than ones it has already published.
+ */
+class FrameReplayer(private val video: RecordedVideo,
+                    private val pacing: Pacing,
+                    private val loops: Int = 1) {
+
+    enum class Pacing {REAL_TIME, MAX_SPEED}
+
+    @Volatile private var stopped = false
+    @Volatile var framesDelivered = 0
+        private set
+    private var thread: Thread? = null
+
+    /**
+     * Starts delivering frames. `frameCallback` receives each frame and its timestamp in
+     * milliseconds, and takes over the reference to the ImageData.
+     */
+    fun start(frameCallback: (ImageData, Long) -> Unit, readyForFrame: () -> Unit = {}) {
+        if (thread != null) {
+            throw IllegalStateException("FrameReplayer already started")
+        }
+        val t = Thread({run(frameCallback, readyForFrame)}, "VC-replay")
+        thread = t
+        t.start()
+    }
+
+    /** Stops delivering frames. Frames already passed to the callback aren't affected. */
+    fun stop() {
+        stopped = true
+        thread?.interrupt()
+    }
+
+    /** Waits for all frames to be delivered, or for the thread to exit after `stop`. */
+    fun awaitFinished() {
+        thread?.join()
+    }
+
+    private fun run(frameCallback: (ImageData, Long) -> Unit, readyForFrame: () -> Unit) {
+        val timestamps = video.frameTimestamps
+        val numFrames = video.numberOfFrames()
+        if (numFrames == 0) {
+            return
+        }
+        // Loops are spaced by the average frame interval, as if the video repeated seamlessly.
+        val loopDurationMillis = video.durationMillis() +
+                (if (numFrames > 1) video.durationMillis() / (numFrames - 1) else 0)
+        val startNanos = System.nanoTime()
+        try {
+            for (loop in 0 until loops) {
+                for (i in 0 until numFrames) {
+                    if (stopped) {
+                        return
+                    }
+                    val offsetMillis = loop * loopDurationMillis + timestamps[i] - timestamps[0]
+                    // Read before waiting, so that file I/O doesn't add jitter.
+                    val imageData = video.readFrame(i)
+                    try {
+                        if (pacing == Pacing.REAL_TIME) {
+                            sleepUntil(startNanos + offsetMillis * 1_000_000)
+                        }
+                        else {
+                            readyForFrame()
+                        }
+                    }
+                    catch (ex: InterruptedException) {
+                        imageData.release()
+                        return
+                    }
+                    frameCallback(imageData, timestamps[0] + offsetMillis)
+                    framesDelivered += 1
+                }
+            }
+        }
+        catch (ex: Exception) {
+            Platform.logger.warn(TAG, "Error replaying video: ${ex}")
+        }
+    }
+
+    private fun sleepUntil(targetNanos: Long) {
+        while (true) {
+            val remaining = targetNanos - System.nanoTime()
+            if (remaining <= 0) {
+                return
+            }
+            Thread.sleep(remaining / 1_000_000, (remaining % 1_000_000).toInt())
+        }
+    }
+
+    companion object {
+        const val TAG = "FrameReplayer"
+    }
+}
@@ -0,0 +1,182 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The steps of a frame's trip from the camera to the screen that FrameTracer times.
+ * `sectionName` is what appears in system traces.
+ */
+enum class TraceSpan(val sectionName: String) {
+    // Waiting for and copying a frame from the ImageReader. Includes PLANE_COPY.
+    CAMERA_ACQUIRE("VC camera acquire"),
+    // Copying the camera's planes into pooled arrays.
+    PLANE_COPY("VC plane copy"),
+    // Extracting dense U and V planes in the ingest stage, for effects that need them.
+    PLANE_EXTRACT("VC plane extract"),
+    EFFECT("VC effect"),
+    UPLOAD("VC pixel upload"),
+    DRAW("VC draw"),
+    RECORDER_ENQUEUE("VC recorder enqueue"),
+    // From sensor exposure to the first draw, recorded directly with `record`.
+    SENSOR_TO_SCREEN("VC sensor to screen"),
+}
+
+/**
+ * Times the spans of each frame into a LatencyHistogram per span and effect, and marks them as
+ * sections in system traces through Platform.traceSections so that Perfetto captures show the
+ * pipeline. Spans are attributed to the effect passed to `setCurrentEffect`, which
+ * CameraImageProcessor calls when it starts. Spans must begin and end on the same thread, and
+ * recording one doesn't allocate.
+ *
+ * The histograms cover a window of recent frames rather than the whole session, so that a new
+ * stutter still moves the tail percentiles after the app has been running for a while. Every
+ * WINDOW_NANOS the current window becomes the completed one and a new window starts, and both
+ * are cleared when the effect is selected again or the capture size changes. A sample recorded
+ * while the window rotates may be lost.
+ */
+object FrameTracer {
+    const val WINDOW_NANOS = 5_000_000_000L
+
+    private class Windows {
+        val current = newHistograms()
+        val completed = newHistograms()
+        @Volatile var hasCompleted = false
+
+        fun rotate() {
+            for (i in current.indices) {
+                completed[i].copyFrom(current[i])
+                current[i].reset()
+            }
+            hasCompleted = true
+        }
+
+        fun clear() {
+            current.forEach({it.reset()})
+            completed.forEach({it.reset()})
+            hasCompleted = false
+        }
+    }
+
+    private val windowsByEffect = ConcurrentHashMap<String, Windows>()
+    @Volatile private var currentWindows = Windows()
+    @Volatile var currentEffectName = ""
+        private set
+    @Volatile private var currentWidth = 0
+    @Volatile private var currentHeight = 0
+    private val windowStartNanos = AtomicLong(System.nanoTime())
+    private val windowEpoch = AtomicLong()
+
+    private fun newHistograms() = Array(TraceSpan.entries.size, {LatencyHistogram()})
+
+    fun setCurrentEffect(effectName: String) {
+        val windows = windowsByEffect.computeIfAbsent(effectName, {Windows()})
+        windows.clear()
+        currentWindows = windows
+        currentEffectName = effectName
+        startWindow()
+    }
+
+    /**
+     * Sets the size of the frames being processed, starting new windows if it changed, so that
+     * percentiles don't mix capture sizes.
+     */
+    fun setCurrentSize(width: Int, height: Int) {
+        if (width != currentWidth || height != currentHeight) {
+            currentWidth = width
+            currentHeight = height
+            currentWindows.clear()
+            startWindow()
+        }
+    }
+
+    private fun startWindow() {
+        windowStartNanos.set(System.nanoTime())
+        windowEpoch.incrementAndGet()
+    }
+
+    /** Starts a span on the calling thread, returning the start time to pass to `end`. */
+    fun begin(span: TraceSpan): Long {
+        Platform.traceSections.begin(span.sectionName)
+        return System.nanoTime()
+    }
+
+    fun end(span: TraceSpan, startNanos: Long) {
+        val now = System.nanoTime()
+        recordAt(span, now - startNanos, now)
+        Platform.traceSections.end()
+    }
+
+    inline fun <T> trace(span: TraceSpan, block: () -> T): T {
+        val startNanos = begin(span)
+        try {
+            return block()
+        }
+        finally {
+            end(span, startNanos)
+        }
+    }
+
+    /** Records a duration measured elsewhere, such as one that spans threads. */
+    fun record(span: TraceSpan, nanos: Long) {
+        recordAt(span, nanos, System.nanoTime())
+    }
+
+    private fun recordAt(span: TraceSpan, nanos: Long, nowNanos: Long) {
+        val windowStart = windowStartNanos.get()
+        // Only the thread that wins the compareAndSet rotates.
+        if (nowNanos - windowStart >= WINDOW_NANOS &&
+                windowStartNanos.compareAndSet(windowStart, nowNanos)) {
+            rotateWindow()
+        }
+        currentWindows.current[span.ordinal].record(nanos)
+    }
+
+    /** Ends the current window of the current effect. Called every WINDOW_NANOS, and by tests. */
+    internal fun rotateWindow() {
+        currentWindows.rotate()
+        windowEpoch.incrementAndGet()
+    }
+
+    /**
+     * Returns the histogram of the last completed window for a span of the given effect, or of
+     * the current window if none has completed since the effect or size changed. It's empty if
+     * the effect hasn't been used.
+     */
+    fun histogram(span: TraceSpan, effectName: String = currentEffectName): LatencyHistogram {
+        val windows = windowsByEffect[effectName] ?: return LatencyHistogram()
+        return if (windows.hasCompleted) windows.completed[span.ordinal]
+               else windows.current[span.ordinal]
+    }
+
+    /**
+     * Returns the histogram that the current window of the current effect is recording into. Its
+     * counts only grow until `windowEpoch` changes, so callers can subtract an earlier copy to get
+     * the samples recorded since then.
+     */
+    fun currentWindowHistogram(span: TraceSpan): LatencyHistogram =
+            currentWindows.current[span.ordinal]
+
+    /** Incremented whenever the current window is rotated or cleared. */
+    fun windowEpoch(): Long = windowEpoch.get()
+
+    fun effectNames(): List<String> = windowsByEffect.keys.sorted()
+
+    /** Percentiles in milliseconds of each span recorded for the effect, as in `histogram`. */
+    fun summaryMillis(effectName: String = currentEffectName): Map<String, Any> {
+        if (!windowsByEffect.containsKey(effectName)) {
+            return mapOf()
+        }
+        return TraceSpan.entries
+                .map({it to histogram(it, effectName)})
+                .filter({it.second.count() > 0})
+                .associate({it.first.name.lowercase() to it.second.summaryMillis()})
+    }
+
+    fun reset() {
+        for (windows in windowsByEffect.values) {
+            windows.clear()
+        }
+        startWindow()
+    }
+}
@@ -0,0 +1,148 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Data structure that holds YUV image data, extracted from Android's Image class by
+ * `imageDataFromImage` or read from a file.
+ * If `pool` is set, the plane arrays were acquired from it and are returned to it when the
+ * reference count drops to zero. See `retain` and `release`.
+ *
+ * `plane` returns stride-aware views of the planes. Dense copies of planes that aren't densely
+ * packed are extracted at most once, on first use, and live as long as the image.
+ */
+data class ImageData(
+    val width: Int,
+    val height: Int,
+    val yData: ByteArray,
+    val uData: ByteArray,
+    val vData: ByteArray,
+    val yPixelStride: Int,
+    val yRowStride: Int,
+    val uvPixelStride: Int,
+    val uvRowStride: Int,
+    val pool: PlaneBufferPool? = null
+) {
+    enum class Plane {Y, U, V}
+
+    private val refCount = AtomicInteger(1)
+    // Indexed by Plane.ordinal. Guarded by `planeLock`.
+    private val planeViews = arrayOfNulls<PlaneView>(3)
+    private val densePlanes = arrayOfNulls<ByteArray>(3)
+    private val planeLock = Any()
+
+    fun uvWidth() = (width + 1) / 2
+    fun uvHeight() = (height + 1) / 2
+
+    /**
+     * Returns a view of `plane` with its original strides. Views are created once and cached.
+     */
+    fun plane(plane: Plane): PlaneView {
+        synchronized(planeLock, {
+            val cached = planeViews[plane.ordinal]
+            if (cached != null) {
+                return cached
+            }
+            val view = when (plane) {
+                Plane.Y -> PlaneView(this, plane, yData, width, height, yPixelStride, yRowStride)
+                Plane.U -> PlaneView(
+                        this, plane, uData, uvWidth(), uvHeight(), uvPixelStride, uvRowStride)
+                Plane.V -> PlaneView(
+                        this, plane, vData, uvWidth(), uvHeight(), uvPixelStride, uvRowStride)
+            }
+            planeViews[plane.ordinal] = view
+            return view
+        })
+    }
+
+    /**
+     * Returns `plane` as a densely packed array. If the plane isn't dense, it's copied into an
+     * array from the pool on the first call and later calls return the same array, which must
+     * not be modified. The array is valid until the image is released.
+     */
+    fun denseBytes(plane: Plane): ByteArray {
+        val view = plane(plane)
+        if (view.isDense()) {
+            return view.data
+        }
+        synchronized(planeLock, {
+            val cached = densePlanes[plane.ordinal]
+            if (cached != null) {
+                return cached
+            }
+            val size = view.width * view.height
+            val dense = pool?.acquire(size) ?: ByteArray(size)
+            PlaneView.copyPlane(view.data, view.width, view.height,
+                    view.pixelStride, view.rowStride, dense)
+            densePlanes[plane.ordinal] = dense
+            return dense
+        })
+    }
+
+    /**
+     * Adds a reference to the plane arrays, which must be balanced by a call to `release`.
+     */
+    fun retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            throw IllegalStateException("Retaining released ImageData")
+        }
+    }
+
+    /**
+     * Removes a reference to the plane arrays. When the last reference is removed, the arrays are
+     * returned to the pool and must not be accessed anymore.
+     */
+    fun release() {
+        val count = refCount.decrementAndGet()
+        if (count == 0) {
+            val p = pool ?: return
+            p.release(yData)
+            p.release(uData)
+            p.release(vData)
+            synchronized(planeLock, {
+                for (i in densePlanes.indices) {
+                    densePlanes[i]?.let(p::release)
+                    densePlanes[i] = null
+                }
+            })
+        }
+        else if (count < 0) {
+            throw IllegalStateException("ImageData released too many times")
+        }
+    }
+
+    companion object {
+        /**
+         * Returns an ImageData with densely packed, non-interleaved planes acquired from `pool`.
+         * The contents of the planes are undefined; the caller is expected to fill them.
+         */
+        fun createPlanar(width: Int, height: Int,
+                         pool: PlaneBufferPool = PlaneBufferPool.shared): ImageData {
+            val uvWidth = (width + 1) / 2
+            val uvHeight = (height + 1) / 2
+            return ImageData(
+                width = width,
+                height = height,
+                yData = pool.acquire(width * height),
+                uData = pool.acquire(uvWidth * uvHeight),
+                vData = pool.acquire(uvWidth * uvHeight),
+                yPixelStride = 1,
+                yRowStride = width,
+                uvPixelStride = 1,
+                uvRowStride = uvWidth,
+                pool = pool
+            )
+        }
+
+        fun fromYuvBytes(yuvBytes: ByteArray, width: Int, height: Int,
+                         pool: PlaneBufferPool = PlaneBufferPool.shared): ImageData {
+            val imageData = createPlanar(width, height, pool)
+            val ySize = imageData.yData.size
+            val uvSize = imageData.uData.size
+            System.arraycopy(yuvBytes, 0, imageData.yData, 0, ySize)
+            System.arraycopy(yuvBytes, ySize, imageData.uData, 0, uvSize)
+            System.arraycopy(yuvBytes, ySize + uvSize, imageData.vData, 0, uvSize)
+            return imageData
+        }
+    }
+}
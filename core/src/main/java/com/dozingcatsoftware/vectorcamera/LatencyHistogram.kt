@@ -0,0 +1,145 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Histogram of durations in nanoseconds, in the style of HdrHistogram: each power of two is split
+ * into SUB_BUCKETS linear buckets, so percentiles are accurate to within about 3% from
+ * microseconds to minutes with a fixed array of counters. Recording doesn't allocate or lock, and
+ * can be done from several threads at once.
+ */
+class LatencyHistogram {
+    private val counts = AtomicLongArray(NUM_BUCKETS)
+    private val total = AtomicLong()
+    private val sumNanos = AtomicLong()
+    private val maxNanos = AtomicLong()
+
+    fun record(nanos: Long) {
+        val value = nanos.coerceIn(0L, MAX_VALUE)
+        counts.incrementAndGet(bucketIndex(value))
+        total.incrementAndGet()
+        sumNanos.addAndGet(value)
+        var prevMax = maxNanos.get()
+        while (value > prevMax && !maxNanos.compareAndSet(prevMax, value)) {
+            prevMax = maxNanos.get()
+        }
+    }
+
+    fun count(): Long = total.get()
+
+    fun maxNanos(): Long = maxNanos.get()
+
+    fun meanNanos(): Double {
+        val n = total.get()
+        return if (n == 0L) Double.NaN else sumNanos.get().toDouble() / n
+    }
+
+    /**
+     * Returns the smallest recorded value that at least `percentile` percent of the values are
+     * less than or equal to, rounded up to the end of its bucket. Returns 0 if nothing has been
+     * recorded.
+     */
+    fun percentileNanos(percentile: Double): Long {
+        val n = total.get()
+        if (n == 0L) {
+            return 0
+        }
+        val target = maxOf(1L, Math.ceil(n * percentile.coerceIn(0.0, 100.0) / 100).toLong())
+        var cumulative = 0L
+        for (i in 0 until NUM_BUCKETS) {
+            cumulative += counts.get(i)
+            if (cumulative >= target) {
+                return minOf(bucketUpperBound(i), maxNanos.get())
+            }
+        }
+        return maxNanos.get()
+    }
+
+    fun reset() {
+        for (i in 0 until NUM_BUCKETS) {
+            counts.set(i, 0)
+        }
+        total.set(0)
+        sumNanos.set(0)
+        maxNanos.set(0)
+    }
+
+    /** Makes this a copy of `other`. Values recorded into `other` meanwhile may be missed. */
+    fun copyFrom(other: LatencyHistogram) {
+        for (i in 0 until NUM_BUCKETS) {
+            counts.set(i, other.counts.get(i))
+        }
+        total.set(other.total.get())
+        sumNanos.set(other.sumNanos.get())
+        maxNanos.set(other.maxNanos.get())
+    }
+
+    /**
+     * Sets this to the values recorded into `current` since it was copied into `previous`, so
+     * percentiles can be read for an interval. The exact maximum of the interval isn't known, so
+     * it's the upper bound of the highest bucket with new values.
+     */
+    fun setToDifference(current: LatencyHistogram, previous: LatencyHistogram) {
+        var n = 0L
+        var highest = -1
+        for (i in 0 until NUM_BUCKETS) {
+            val c = maxOf(0L, current.counts.get(i) - previous.counts.get(i))
+            counts.set(i, c)
+            if (c > 0) {
+                n += c
+                highest = i
+            }
+        }
+        total.set(n)
+        sumNanos.set(maxOf(0L, current.sumNanos.get() - previous.sumNanos.get()))
+        maxNanos.set(if (highest < 0) 0 else minOf(bucketUpperBound(highest), current.maxNanos()))
+    }
+
+    /** Count, mean, p50, p90, p95, p99 and max in milliseconds, for reports and logging. */
+    fun summaryMillis(): Map<String, Any> = mapOf(
+            "count" to count(),
+            "mean" to (if (count() == 0L) 0.0 else meanNanos() / 1e6),
+            "p50" to percentileNanos(50.0) / 1e6,
+            "p90" to percentileNanos(90.0) / 1e6,
+            "p95" to percentileNanos(95.0) / 1e6,
+            "p99" to percentileNanos(99.0) / 1e6,
+            "max" to maxNanos() / 1e6)
+
+    override fun toString(): String {
+        fun ms(nanos: Long) = String.format("%.1f", nanos / 1e6)
+        return "n=${count()} p50=${ms(percentileNanos(50.0))} p90=${ms(percentileNanos(90.0))} " +
+                "p99=${ms(percentileNanos(99.0))} max=${ms(maxNanos())}ms"
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 5
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        // About 18 minutes; larger values are clamped.
+        private const val MAX_MAGNITUDE = 40
+        private const val MAX_VALUE = (1L shl (MAX_MAGNITUDE + 1)) - 1
+        private const val NUM_BUCKETS =
+                SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+
+        // Values below SUB_BUCKETS get a bucket each. Larger values with highest bit `m` are in
+        // one of the SUB_BUCKETS buckets for [2^m, 2^(m+1)), selected by the next highest bits.
+        private fun bucketIndex(value: Long): Int {
+            if (value < SUB_BUCKETS) {
+                return value.toInt()
+            }
+            val magnitude = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val shift = magnitude - SUB_BUCKET_BITS
+            val subBucket = (value ushr shift).toInt() - SUB_BUCKETS
+            return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket
+        }
+
+        private fun bucketUpperBound(index: Int): Long {
+            if (index < SUB_BUCKETS) {
+                return index.toLong()
+            }
+            val shift = (index - SUB_BUCKETS) / SUB_BUCKETS
+            val subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS
+            return ((SUB_BUCKETS + subBucket + 1).toLong() shl shift) - 1
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.dozingcatsoftware.vectorcamera
+
+/**
+ * Loads the library with the native effect kernels. On a desktop JVM it's found through
+ * java.library.path if it's been built for the host; if not, callers use their Kotlin code.
+ */
+object NativeLibrary {
+    const val NAME = "vectorcamera_native"
+
+    @Volatile private var loaded = false
+
+    /** Returns whether the library is loaded, trying to load it the first time. */
+    fun load(): Boolean {
+        if (loaded) {
+            return true
+        }
+        try {
+            System.loadLibrary(NAME)
+            loaded = true
+            return true
+        } catch (e: UnsatisfiedLinkError) {
+            Platform.logger.warn("NativeLibrary",
+                    "Failed to load native library, using Kotlin implementation: ${e.message}")
+            return false
+        }
+    }
+}
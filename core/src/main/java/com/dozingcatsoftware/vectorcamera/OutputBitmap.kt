@@ -0,0 +1,35 @@
+package com.dozingcatsoftware.vectorcamera
+
+import com.dozingcatsoftware.util.ArgbPixelSource
+
+/**
+ * The platform bitmap that an EffectOutput's pixels are uploaded to. In the app this wraps an
+ * ARGB_8888 android.graphics.Bitmap; IntArrayBitmap stands in for it on a desktop JVM.
+ */
+interface OutputBitmap {
+    val width: Int
+    val height: Int
+
+    /** Copies `pixels`, which holds width*height ARGB values in row order, into the bitmap. */
+    fun setPixels(pixels: IntArray)
+
+    fun interface Factory {
+        fun create(width: Int, height: Int): OutputBitmap
+    }
+}
+
+/** An OutputBitmap backed by an IntArray, for tests and benchmarks. */
+class IntArrayBitmap(override val width: Int, override val height: Int)
+        : OutputBitmap, ArgbPixelSource {
+    val pixels = IntArray(width * height)
+
+    override fun setPixels(pixels: IntArray) {
+        System.arraycopy(pixels, 0, this.pixels, 0, this.pixels.size)
+    }
+
+    override fun getPixels(dst: IntArray, y: Int, numPixels: Int, numRows: Int) {
+        for (row in 0 until numRows) {
+            System.arraycopy(pixels, (y + row) * width, dst, row * numPixels, numPixels)
+        }
+    }
+}
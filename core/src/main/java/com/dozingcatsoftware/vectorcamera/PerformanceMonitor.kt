@@ -0,0 +1,110 @@
+package com.dozingcatsoftware.vectorcamera
+
+/**
+ * What the performance HUD shows, computed by PerformanceMonitor. `spanP95Nanos` and
+ * `spanP99Nanos` are indexed by TraceSpan ordinal, and are 0 for spans with no samples. The frame
+ * rate, span percentiles and GC values cover the interval since the previous snapshot; drop
+ * counts are totals.
+ */
+class PerformanceSnapshot(
+        val effectName: String,
+        val framesPerSecond: Double,
+        val spanP95Nanos: LongArray,
+        val spanP99Nanos: LongArray,
+        val processorDropped: Long,
+        val recorderDropped: Long,
+        val captureWidth: Int,
+        val captureHeight: Int,
+        val gcCount: Long,
+        val gcPauseMillis: Long) {
+
+    /** The HUD text, formatted once here so that drawing it doesn't format or allocate. */
+    val lines: List<String> = formatLines()
+
+    private fun formatLines(): List<String> {
+        val lines = mutableListOf(
+                String.format("%s %dx%d %.1f fps",
+                        effectName, captureWidth, captureHeight, framesPerSecond),
+                "dropped: processor ${processorDropped} recorder ${recorderDropped}",
+                "gc: ${gcCount} (${gcPauseMillis}ms)")
+        for (span in TraceSpan.entries) {
+            if (spanP99Nanos[span.ordinal] > 0) {
+                lines.add(String.format("%s p95 %.1f p99 %.1f ms", span.name.lowercase(),
+                        spanP95Nanos[span.ordinal] / 1e6, spanP99Nanos[span.ordinal] / 1e6))
+            }
+        }
+        return lines
+    }
+}
+
+/**
+ * Produces PerformanceSnapshots for the HUD from FrameTracer's histograms and the frame counters.
+ * Reading percentiles walks every histogram, so a snapshot is only computed every
+ * `refreshIntervalNanos`; between snapshots `frameDisplayed` just counts. Each update keeps a
+ * copy of FrameTracer's current window and subtracts it next time, so the percentiles cover the
+ * same interval as the frame rate. If the window rotated in between, they cover the part of the
+ * interval since then. The current snapshot is published through a volatile field, so the view
+ * drawing the HUD never waits on the pipeline. `frameDisplayed` and `update` must be called from
+ * a single thread.
+ */
+class PerformanceMonitor(private val refreshIntervalNanos: Long = DEFAULT_REFRESH_INTERVAL_NANOS) {
+    @Volatile var snapshot: PerformanceSnapshot? = null
+        private set
+
+    private var framesSinceUpdate = 0
+    private var lastUpdateNanos = 0L
+    private var lastGcCount = -1L
+    private var lastGcPauseMillis = 0L
+    private val previousWindow = Array(TraceSpan.entries.size, {LatencyHistogram()})
+    private var previousEpoch = -1L
+    private val interval = LatencyHistogram()
+
+    /** Counts a displayed frame, and returns true if it's time to call `update`. */
+    fun frameDisplayed(nowNanos: Long): Boolean {
+        framesSinceUpdate += 1
+        if (lastUpdateNanos == 0L) {
+            lastUpdateNanos = nowNanos
+            return false
+        }
+        return nowNanos - lastUpdateNanos >= refreshIntervalNanos
+    }
+
+    fun update(nowNanos: Long, processorDropped: Long, recorderDropped: Long,
+               captureWidth: Int, captureHeight: Int) {
+        val elapsed = nowNanos - lastUpdateNanos
+        val fps = if (elapsed > 0) framesSinceUpdate * 1e9 / elapsed else 0.0
+        val p95 = LongArray(TraceSpan.entries.size)
+        val p99 = LongArray(TraceSpan.entries.size)
+        val epoch = FrameTracer.windowEpoch()
+        for (span in TraceSpan.entries) {
+            val window = FrameTracer.currentWindowHistogram(span)
+            val previous = previousWindow[span.ordinal]
+            if (epoch == previousEpoch) {
+                interval.setToDifference(window, previous)
+            }
+            else {
+                interval.copyFrom(window)
+            }
+            p95[span.ordinal] = interval.percentileNanos(95.0)
+            p99[span.ordinal] = interval.percentileNanos(99.0)
+            previous.copyFrom(window)
+        }
+        previousEpoch = epoch
+        val gc = Platform.gcStats
+        val gcCount = gc.collectionCount()
+        val gcPauseMillis = gc.pauseMillis()
+        val hasPreviousGc = lastGcCount >= 0
+        snapshot = PerformanceSnapshot(FrameTracer.currentEffectName, fps, p95, p99,
+                processorDropped, recorderDropped, captureWidth, captureHeight,
+                if (hasPreviousGc) gcCount - lastGcCount else 0,
+                if (hasPreviousGc) gcPauseMillis - lastGcPauseMillis else 0)
+        lastGcCount = gcCount
+        lastGcPauseMillis = gcPauseMillis
+        lastUpdateNanos = nowNanos
+        framesSinceUpdate = 0
+    }
+
+    companion object {
+        const val DEFAULT_REFRESH_INTERVAL_NANOS = 500_000_000L
+    }
+}
@@ -0,0 +1,96 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Pool of recycled Y/U/V plane arrays, keyed by array size. Camera frames copy their planes into
+ * arrays from this pool, and return them when the last reference to the frame is released, so
+ * that steady-state capture doesn't create new garbage for every frame.
+ */
+class PlaneBufferPool(private val maxBuffersPerSize: Int = DEFAULT_MAX_BUFFERS_PER_SIZE) {
+    // There are only a handful of distinct plane sizes at any time, so a linear scan is fine and
+    // avoids boxing the size for a map lookup.
+    private class SizeBucket(val size: Int) {
+        val buffers = ArrayList<ByteArray>()
+    }
+
+    private val buckets = ArrayList<SizeBucket>()
+    private val lock = ReentrantLock()
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    private fun bucketForSize(size: Int): SizeBucket? {
+        for (i in 0 until buckets.size) {
+            if (buckets[i].size == size) {
+                return buckets[i]
+            }
+        }
+        return null
+    }
+
+    /**
+     * Returns an array of exactly `size` bytes, reusing a released array if one is available.
+     * The contents of a reused array are not cleared.
+     */
+    fun acquire(size: Int): ByteArray {
+        lock.withLock({
+            val bucket = bucketForSize(size)
+            if (bucket != null && bucket.buffers.isNotEmpty()) {
+                hits.incrementAndGet()
+                return bucket.buffers.removeAt(bucket.buffers.size - 1)
+            }
+        })
+        misses.incrementAndGet()
+        return ByteArray(size)
+    }
+
+    /**
+     * Returns an array to the pool. The caller must not use the array afterwards. If the pool
+     * already holds the maximum number of arrays of that size, the array is left for the GC.
+     * Throws IllegalStateException if the array is already in the pool, since it would otherwise
+     * be handed out to two callers.
+     */
+    fun release(buffer: ByteArray) {
+        lock.withLock({
+            var bucket = bucketForSize(buffer.size)
+            if (bucket == null) {
+                bucket = SizeBucket(buffer.size)
+                buckets.add(bucket)
+            }
+            for (i in 0 until bucket.buffers.size) {
+                if (bucket.buffers[i] === buffer) {
+                    throw IllegalStateException("Buffer released to the pool twice")
+                }
+            }
+            if (bucket.buffers.size < maxBuffersPerSize) {
+                bucket.buffers.add(buffer)
+            }
+        })
+    }
+
+    /** Number of `acquire` calls that reused a pooled array. */
+    fun hitCount() = hits.get()
+
+    /** Number of `acquire` calls that had to allocate a new array. */
+    fun missCount() = misses.get()
+
+    fun resetCounters() {
+        hits.set(0)
+        misses.set(0)
+    }
+
+    /** Drops all pooled arrays, for example when the capture size changes. */
+    fun clear() {
+        lock.withLock({
+            buckets.clear()
+        })
+    }
+
+    companion object {
+        const val DEFAULT_MAX_BUFFERS_PER_SIZE = 8
+
+        val shared = PlaneBufferPool()
+    }
+}
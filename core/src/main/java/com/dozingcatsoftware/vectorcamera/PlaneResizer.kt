@@ -0,0 +1,278 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.ceil
+import kotlin.math.floor
+
+/**
+ * Resizes 8-bit image planes using a separable fixed-point filter. Downscaling uses a box filter
+ * that averages all the source pixels covered by each output pixel, which avoids the aliasing
+ * that point-sampled bilinear interpolation produces for large reductions. Upscaling uses
+ * bilinear interpolation. The source plane can have any pixel and row stride, so the interleaved
+ * U and V planes of NV12/NV21 images can be resized directly into planar output without first
+ * extracting them.
+ *
+ * Each horizontal and vertical filter pass is computed with integer weights that sum to
+ * WEIGHT_ONE, and the native and Kotlin implementations use the same filter tables so they give
+ * identical output.
+ */
+object PlaneResizer {
+    const val TAG = "PlaneResizer"
+    const val WEIGHT_BITS = 14
+    const val WEIGHT_ONE = 1 shl WEIGHT_BITS
+    // The horizontal pass keeps this many fractional bits, so that the vertical pass sums fit in
+    // an Int: 255 << 7 times WEIGHT_ONE is under 2^31.
+    const val INTERMEDIATE_BITS = 7
+    private const val MIN_ROWS_PER_BAND = 32
+    private const val MAX_CACHED_TABLES = 8
+    // The same limits as MAX_NATIVE_THREADS and MAX_KOTLIN_THREADS.
+    private const val MAX_NATIVE_THREADS = 2
+    private const val MAX_KOTLIN_THREADS = 4
+
+    /**
+     * Filter weights for one axis. Output coordinate `i` is the sum of the `taps` source values
+     * starting at `starts[i]`, multiplied by `weights[i * taps]` through
+     * `weights[i * taps + taps - 1]`.
+     */
+    class FilterTable(
+            val srcSize: Int, val dstSize: Int,
+            val starts: IntArray, val weights: IntArray, val taps: Int)
+
+    // Camera frames reuse a few sizes, so keep recent tables rather than recomputing them.
+    private val cachedTables = ArrayList<FilterTable>()
+    private val cacheLock = ReentrantLock()
+
+    private val nativeLibraryLoaded by lazy { NativeLibrary.load() }
+
+    // Per-thread buffers for resizeRows, which grow to the largest size used on the thread.
+    private class RowScratch {
+        var rowRing = IntArray(0)
+        var ringRows = IntArray(0)
+        var ringOffsets = IntArray(0)
+    }
+    private val rowScratch = ThreadLocal.withInitial({RowScratch()})
+
+    fun filterTable(srcSize: Int, dstSize: Int): FilterTable {
+        cacheLock.withLock({
+            for (i in 0 until cachedTables.size) {
+                val t = cachedTables[i]
+                if (t.srcSize == srcSize && t.dstSize == dstSize) {
+                    return t
+                }
+            }
+        })
+        val table =
+                if (dstSize < srcSize) boxFilterTable(srcSize, dstSize)
+                else bilinearFilterTable(srcSize, dstSize)
+        cacheLock.withLock({
+            if (cachedTables.size >= MAX_CACHED_TABLES) {
+                cachedTables.removeAt(0)
+            }
+            cachedTables.add(table)
+        })
+        return table
+    }
+
+    private fun boxFilterTable(srcSize: Int, dstSize: Int): FilterTable {
+        val scale = srcSize.toDouble() / dstSize
+        // The most source pixels any output pixel overlaps. That's at most ceil(scale) + 1, but
+        // often fewer: exactly scale for integer reductions such as 2x.
+        var maxSpan = 1
+        for (i in 0 until dstSize) {
+            maxSpan = maxOf(maxSpan, ceil((i + 1) * scale).toInt() - floor(i * scale).toInt())
+        }
+        val taps = minOf(srcSize, maxSpan)
+        val starts = IntArray(dstSize)
+        val weights = IntArray(dstSize * taps)
+        val coverage = DoubleArray(taps)
+        for (i in 0 until dstSize) {
+            val left = i * scale
+            val right = (i + 1) * scale
+            val first = floor(left).toInt()
+            val start = minOf(first, srcSize - taps)
+            starts[i] = start
+            for (t in 0 until taps) {
+                val pixelLeft = (start + t).toDouble()
+                val overlap = minOf(right, pixelLeft + 1) - maxOf(left, pixelLeft)
+                coverage[t] = if (overlap > 0) overlap / scale else 0.0
+            }
+            setNormalizedWeights(coverage, weights, i * taps, taps)
+        }
+        return FilterTable(srcSize, dstSize, starts, weights, taps)
+    }
+
+    private fun bilinearFilterTable(srcSize: Int, dstSize: Int): FilterTable {
+        val taps = minOf(srcSize, 2)
+        val starts = IntArray(dstSize)
+        val weights = IntArray(dstSize * taps)
+        val coverage = DoubleArray(taps)
+        val scale = srcSize.toDouble() / dstSize
+        for (i in 0 until dstSize) {
+            // Align pixel centers rather than top left corners, so the image doesn't shift.
+            val center = ((i + 0.5) * scale - 0.5).coerceIn(0.0, (srcSize - 1).toDouble())
+            val start = minOf(floor(center).toInt(), srcSize - taps)
+            starts[i] = start
+            if (taps == 1) {
+                coverage[0] = 1.0
+            }
+            else {
+                val frac = center - start
+                coverage[0] = 1 - frac
+                coverage[1] = frac
+            }
+            setNormalizedWeights(coverage, weights, i * taps, taps)
+        }
+        return FilterTable(srcSize, dstSize, starts, weights, taps)
+    }
+
+    /**
+     * Converts weights to fixed point, adding any rounding error to the largest weight so that
+     * they sum to exactly WEIGHT_ONE. That keeps flat areas exactly flat.
+     */
+    private fun setNormalizedWeights(
+            coverage: DoubleArray, weights: IntArray, offset: Int, taps: Int) {
+        var sum = 0
+        var maxIndex = 0
+        for (t in 0 until taps) {
+            val w = Math.round(coverage[t] * WEIGHT_ONE).toInt()
+            weights[offset + t] = w
+            sum += w
+            if (w > weights[offset + maxIndex]) {
+                maxIndex = t
+            }
+        }
+        weights[offset + maxIndex] += WEIGHT_ONE - sum
+    }
+
+    /**
+     * Resizes a dense plane and returns the result in a new array.
+     */
+    fun resize(src: ByteArray, srcWidth: Int, srcHeight: Int,
+               dstWidth: Int, dstHeight: Int): ByteArray {
+        val dst = ByteArray(dstWidth * dstHeight)
+        resize(src, srcWidth, srcHeight, 1, srcWidth, dst, dstWidth, dstHeight)
+        return dst
+    }
+
+    /**
+     * Resizes a plane whose pixel (x, y) is at `src[y * srcRowStride + x * srcPixelStride]` into
+     * the first dstWidth*dstHeight bytes of `dst`, which is densely packed. Uses native code if
+     * it's available.
+     */
+    fun resize(src: ByteArray, srcWidth: Int, srcHeight: Int,
+               srcPixelStride: Int, srcRowStride: Int,
+               dst: ByteArray, dstWidth: Int, dstHeight: Int,
+               numThreads: Int = defaultThreadCount(dstHeight)) {
+        val xTable = filterTable(srcWidth, dstWidth)
+        val yTable = filterTable(srcHeight, dstHeight)
+        if (nativeLibraryLoaded) {
+            try {
+                val ok = resizePlaneNative(
+                        src, srcPixelStride, srcRowStride, dst, dstWidth, dstHeight,
+                        xTable.starts, xTable.weights, xTable.taps,
+                        yTable.starts, yTable.weights, yTable.taps,
+                        minOf(numThreads, MAX_NATIVE_THREADS))
+                if (ok) {
+                    return
+                }
+            }
+            catch (e: Exception) {
+                Platform.logger.warn(TAG, "Native resize failed, falling back to Kotlin: ${e.message}")
+            }
+        }
+        resizeKotlin(src, srcPixelStride, srcRowStride, dst, dstWidth, dstHeight,
+                xTable, yTable, numThreads)
+    }
+
+    fun defaultThreadCount(dstHeight: Int): Int {
+        val numCores = Runtime.getRuntime().availableProcessors()
+        val maxThreads = minOf(numCores, dstHeight / MIN_ROWS_PER_BAND, MAX_KOTLIN_THREADS)
+        return maxOf(1, maxThreads)
+    }
+
+    fun resizeKotlin(src: ByteArray, srcPixelStride: Int, srcRowStride: Int,
+                     dst: ByteArray, dstWidth: Int, dstHeight: Int,
+                     xTable: FilterTable, yTable: FilterTable, numThreads: Int) {
+        RowBandExecutor.parallelFor(dstHeight, numThreads, dstWidth, { startY, endY ->
+            resizeRows(startY, endY, src, srcPixelStride, srcRowStride,
+                    dst, dstWidth, xTable, yTable)
+        })
+    }
+
+    /**
+     * Computes output rows [startY, endY). Horizontally filtered source rows are kept in a ring
+     * of `yTable.taps` rows, so each source row is filtered once per band even though it
+     * contributes to several output rows. The ring is reused across calls on the same thread.
+     */
+    private fun resizeRows(startY: Int, endY: Int,
+                           src: ByteArray, srcPixelStride: Int, srcRowStride: Int,
+                           dst: ByteArray, dstWidth: Int,
+                           xTable: FilterTable, yTable: FilterTable) {
+        val xTaps = xTable.taps
+        val yTaps = yTable.taps
+        val xStarts = xTable.starts
+        val xWeights = xTable.weights
+        val yWeights = yTable.weights
+        val scratch = rowScratch.get()!!
+        if (scratch.rowRing.size < yTaps * dstWidth) {
+            scratch.rowRing = IntArray(yTaps * dstWidth)
+        }
+        if (scratch.ringRows.size < yTaps) {
+            scratch.ringRows = IntArray(yTaps)
+            scratch.ringOffsets = IntArray(yTaps)
+        }
+        val rowRing = scratch.rowRing
+        val ringRows = scratch.ringRows
+        ringRows.fill(-1, 0, yTaps)
+        // Offsets in rowRing of the rows that the current output row reads.
+        val ringOffsets = scratch.ringOffsets
+        val hRound = 1 shl (WEIGHT_BITS - INTERMEDIATE_BITS - 1)
+        val vShift = WEIGHT_BITS + INTERMEDIATE_BITS
+        val vRound = 1 shl (vShift - 1)
+
+        for (y in startY until endY) {
+            val yStart = yTable.starts[y]
+            for (t in 0 until yTaps) {
+                val srcRow = yStart + t
+                val slot = srcRow % yTaps
+                if (ringRows[slot] == srcRow) {
+                    continue
+                }
+                ringRows[slot] = srcRow
+                val srcRowOffset = srcRow * srcRowStride
+                val ringOffset = slot * dstWidth
+                for (x in 0 until dstWidth) {
+                    var srcIndex = srcRowOffset + xStarts[x] * srcPixelStride
+                    var wIndex = x * xTaps
+                    var sum = 0
+                    for (k in 0 until xTaps) {
+                        sum += (src[srcIndex].toInt() and 0xFF) * xWeights[wIndex]
+                        srcIndex += srcPixelStride
+                        wIndex += 1
+                    }
+                    rowRing[ringOffset + x] = (sum + hRound) shr (WEIGHT_BITS - INTERMEDIATE_BITS)
+                }
+            }
+            val dstOffset = y * dstWidth
+            val yWeightOffset = y * yTaps
+            for (t in 0 until yTaps) {
+                ringOffsets[t] = ((yStart + t) % yTaps) * dstWidth
+            }
+            for (x in 0 until dstWidth) {
+                var sum = 0
+                for (t in 0 until yTaps) {
+                    sum += rowRing[ringOffsets[t] + x] * yWeights[yWeightOffset + t]
+                }
+                dst[dstOffset + x] = ((sum + vRound) shr vShift).coerceIn(0, 255).toByte()
+            }
+        }
+    }
+
+    private external fun resizePlaneNative(
+            src: ByteArray, srcPixelStride: Int, srcRowStride: Int,
+            dst: ByteArray, dstWidth: Int, dstHeight: Int,
+            xStarts: IntArray, xWeights: IntArray, xTaps: Int,
+            yStarts: IntArray, yWeights: IntArray, yTaps: Int,
+            numThreads: Int): Boolean
+}
@@ -0,0 +1,52 @@
+package com.dozingcatsoftware.vectorcamera
+
+/**
+ * One Y, U, or V plane of an ImageData, without copying. The sample at (x, y) is
+ * `data[y * rowStride + x * pixelStride]`. For semi-planar (NV12/NV21) camera frames the U and V
+ * planes have a pixel stride of 2, and `data` holds the other chroma plane's samples in between.
+ */
+class PlaneView internal constructor(
+        private val image: ImageData,
+        val plane: ImageData.Plane,
+        val data: ByteArray,
+        val width: Int,
+        val height: Int,
+        val pixelStride: Int,
+        val rowStride: Int) {
+
+    fun isDense() = pixelStride == 1 && rowStride == width
+
+    /**
+     * Returns the unsigned sample at (x, y).
+     */
+    fun get(x: Int, y: Int): Int = data[y * rowStride + x * pixelStride].toInt() and 0xFF
+
+    /**
+     * Returns the plane as a densely packed array of `width * height` bytes. That's `data` itself
+     * if the plane is already dense, otherwise a copy that's extracted on the first call and
+     * returned to the image's pool when the image is released.
+     */
+    fun denseBytes(): ByteArray = image.denseBytes(plane)
+
+    companion object {
+        /**
+         * Copies a plane with the given strides into `output`, packing its rows densely.
+         */
+        fun copyPlane(input: ByteArray, width: Int, height: Int,
+                      pixelStride: Int, rowStride: Int, output: ByteArray) {
+            var outputIndex = 0
+            for (row in 0 until height) {
+                var inputIndex = row * rowStride
+                if (pixelStride == 1) {
+                    System.arraycopy(input, inputIndex, output, outputIndex, width)
+                    outputIndex += width
+                    continue
+                }
+                for (col in 0 until width) {
+                    output[outputIndex++] = input[inputIndex]
+                    inputIndex += pixelStride
+                }
+            }
+        }
+    }
+}
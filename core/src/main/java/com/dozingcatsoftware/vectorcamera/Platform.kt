@@ -0,0 +1,46 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.lang.management.ManagementFactory
+
+/**
+ * The Android services that code in the core module needs, behind small interfaces so that it
+ * also runs on a desktop JVM. VectorCameraApplication installs the Android implementations when
+ * the app starts. The defaults log to stderr, upload EffectOutput pixels into IntArrayBitmaps,
+ * ignore trace sections, and read GC totals from the JVM's management beans.
+ */
+object Platform {
+    fun interface Logger {
+        fun warn(tag: String, message: String)
+    }
+
+    @Volatile var logger = Logger({ tag, message -> System.err.println("$tag: $message") })
+
+    @Volatile var bitmapFactory = OutputBitmap.Factory({ width, height ->
+        IntArrayBitmap(width, height)
+    })
+
+    /** Marks sections of a thread's work in system traces; `end` closes the latest `begin`. */
+    interface TraceSections {
+        fun begin(name: String)
+        fun end()
+    }
+
+    @Volatile var traceSections: TraceSections = object : TraceSections {
+        override fun begin(name: String) {}
+        override fun end() {}
+    }
+
+    /** Running totals of garbage collections since the process started. */
+    interface GcStats {
+        fun collectionCount(): Long
+        fun pauseMillis(): Long
+    }
+
+    @Volatile var gcStats: GcStats = object : GcStats {
+        override fun collectionCount() =
+                ManagementFactory.getGarbageCollectorMXBeans().sumOf({maxOf(0L, it.collectionCount)})
+
+        override fun pauseMillis() =
+                ManagementFactory.getGarbageCollectorMXBeans().sumOf({maxOf(0L, it.collectionTime)})
+    }
+}
@@ -0,0 +1,53 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * Random access to the frames of a raw video file recorded by the app (PhotoLibrary's
+ * `_video.dat` files). Each frame is a width*height Y plane followed by the quarter size U and V
+ * planes. `frameTimestamps` are the capture times in milliseconds, from the video's metadata.
+ */
+class RecordedVideo(file: File, val width: Int, val height: Int,
+                    val frameTimestamps: List<Long>) : Closeable {
+    private val input = RandomAccessFile(file, "r")
+
+    fun numberOfFrames() = frameTimestamps.size
+
+    fun durationMillis(): Long {
+        val n = numberOfFrames()
+        return if (n < 2) 0 else frameTimestamps[n - 1] - frameTimestamps[0]
+    }
+
+    private fun bytesPerFrame() = width * height * 3 / 2
+
+    /**
+     * Reads the given frame into planes acquired from `pool`. The caller owns the returned
+     * ImageData and must release it.
+     */
+    fun readFrame(frameIndex: Int, pool: PlaneBufferPool = PlaneBufferPool.shared): ImageData {
+        if (frameIndex < 0 || frameIndex >= numberOfFrames()) {
+            throw IllegalArgumentException("Invalid frame index: ${frameIndex}")
+        }
+        val imageData = ImageData.createPlanar(width, height, pool)
+        try {
+            // Reads from different threads would interfere through the file position.
+            synchronized(input, {
+                input.seek(frameIndex * bytesPerFrame().toLong())
+                input.readFully(imageData.yData)
+                input.readFully(imageData.uData)
+                input.readFully(imageData.vData)
+            })
+        }
+        catch (ex: Exception) {
+            imageData.release()
+            throw ex
+        }
+        return imageData
+    }
+
+    override fun close() {
+        input.close()
+    }
+}
@@ -0,0 +1,44 @@
+package com.dozingcatsoftware.vectorcamera
+
+/**
+ * Results of replaying a recorded video through the processing pipeline with one effect.
+ * `frameLatency` measures from when each frame was delivered to when its result was published,
+ * and `stageLatencies` holds the time each pipeline stage spent working on a frame, in pipeline
+ * order. Received, processed and dropped are the drop policy's frame counters.
+ */
+class ReplayReport(
+        val effectName: String,
+        val width: Int,
+        val height: Int,
+        val elapsedNanos: Long,
+        val received: Long,
+        val processed: Long,
+        val dropped: Long,
+        val frameLatency: LatencyHistogram,
+        val stageLatencies: List<Pair<String, LatencyHistogram>>) {
+
+    fun framesPerSecond(): Double =
+            if (elapsedNanos <= 0) 0.0 else processed * 1e9 / elapsedNanos
+
+    fun toMap(): Map<String, Any> = mapOf(
+            "effect" to effectName,
+            "width" to width,
+            "height" to height,
+            "elapsedMillis" to elapsedNanos / 1_000_000,
+            "fps" to framesPerSecond(),
+            "received" to received,
+            "processed" to processed,
+            "dropped" to dropped,
+            "frameLatencyMillis" to frameLatency.summaryMillis(),
+            "stageLatencyMillis" to stageLatencies.associate({(name, h) -> name to h.summaryMillis()}))
+
+    override fun toString(): String {
+        val stages = stageLatencies.joinToString(" ", transform={(name, h) ->
+            "${name}[p50=${String.format("%.1f", h.percentileNanos(50.0) / 1e6)} " +
+                    "p99=${String.format("%.1f", h.percentileNanos(99.0) / 1e6)}]"
+        })
+        return "${effectName} ${width}x${height}: ${String.format("%.1f", framesPerSecond())} fps, " +
+                "${processed}/${received} processed, ${dropped} dropped, latency ${frameLatency}, " +
+                stages
+    }
+}
@@ -0,0 +1,256 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Runs the Kotlin implementations of effects over bands of rows on a small set of long-lived
+ * worker threads. This replaces `runBlocking` with a `launch(Dispatchers.Default)` per band, which
+ * created coroutines and jobs for every frame and competed with everything else on the default
+ * dispatcher.
+ *
+ * Rows are split into chunks of roughly `TARGET_CHUNK_BYTES` of output, and each participant
+ * starts with a contiguous run of chunks so that neighbouring rows stay on the same core. A
+ * participant that runs out of chunks takes them from the end of another participant's run, so a
+ * slow band (such as a detailed region in the oil painting effect) no longer holds up the frame.
+ * The calling thread is always a participant, so calls make progress even when every worker is
+ * busy with another frame, and calls can be nested.
+ *
+ * Each call measures how evenly the work was spread, and the largest value seen on the calling
+ * thread since `resetFrameStats` is available from `frameLoadImbalance`.
+ */
+object RowBandExecutor {
+    const val TAG = "RowBandExecutor"
+
+    // Output bytes per chunk, small enough that a chunk's input and output rows stay in L2.
+    const val TARGET_CHUNK_BYTES = 64 * 1024
+    // Each participant gets at least this many chunks so that there is something to steal.
+    const val MIN_CHUNKS_PER_THREAD = 4
+    const val MIN_CHUNK_ROWS = 4
+
+    private val workerCount = max(1, min(Runtime.getRuntime().availableProcessors() - 1, 7))
+
+    private val lock = ReentrantLock()
+    private val workAvailable = lock.newCondition()
+    private val jobs = ArrayDeque<Job>()
+
+    private class FrameStats {
+        var maxImbalance = Float.NaN
+    }
+    private val frameStats = ThreadLocal.withInitial { FrameStats() }
+
+    init {
+        for (i in 0 until workerCount) {
+            val t = Thread(::workerLoop, "RowBandWorker-$i")
+            t.isDaemon = true
+            t.start()
+        }
+    }
+
+    private class Job(
+            val numRows: Int,
+            val chunkRows: Int,
+            val numParticipants: Int,
+            val body: (Int, Int) -> Unit) {
+        val numChunks = (numRows + chunkRows - 1) / chunkRows
+        // Participant i owns chunks [front, back) of ranges[i], packed as (front shl 32) or back.
+        // The owner takes chunks from the front and other participants steal from the back.
+        val ranges = AtomicLongArray(numParticipants)
+        // Time spent running chunks by each participant, or -1 if it never joined. Each slot is
+        // only written by its participant, and read after `finishedParticipants` is complete.
+        val busyNanos = LongArray(numParticipants)
+        val nextParticipant = AtomicInteger(1)
+        val finishedParticipants = AtomicInteger(0)
+        val doneLock = ReentrantLock()
+        val doneCondition = doneLock.newCondition()
+        // The first exception thrown by `body`.
+        val error = AtomicReference<Throwable?>(null)
+
+        init {
+            for (p in 0 until numParticipants) {
+                val front = (p.toLong() * numChunks / numParticipants)
+                val back = ((p + 1).toLong() * numChunks / numParticipants)
+                ranges.set(p, (front shl 32) or back)
+            }
+        }
+
+        fun hasUnclaimedParticipants() = nextParticipant.get() < numParticipants
+    }
+
+    private fun takeFront(job: Job, p: Int): Int {
+        while (true) {
+            val range = job.ranges.get(p)
+            val front = (range ushr 32).toInt()
+            val back = range.toInt()
+            if (front >= back) {
+                return -1
+            }
+            if (job.ranges.compareAndSet(p, range, ((front + 1).toLong() shl 32) or back.toLong())) {
+                return front
+            }
+        }
+    }
+
+    private fun stealBack(job: Job, p: Int): Int {
+        for (offset in 1 until job.numParticipants) {
+            val victim = (p + offset) % job.numParticipants
+            while (true) {
+                val range = job.ranges.get(victim)
+                val front = (range ushr 32).toInt()
+                val back = range.toInt()
+                if (front >= back) {
+                    break
+                }
+                val newRange = (front.toLong() shl 32) or (back - 1).toLong()
+                if (job.ranges.compareAndSet(victim, range, newRange)) {
+                    return back - 1
+                }
+            }
+        }
+        return -1
+    }
+
+    private fun runParticipant(job: Job, p: Int) {
+        val startTime = System.nanoTime()
+        try {
+            while (true) {
+                var chunk = takeFront(job, p)
+                if (chunk < 0) {
+                    chunk = stealBack(job, p)
+                    if (chunk < 0) {
+                        break
+                    }
+                }
+                val startRow = chunk * job.chunkRows
+                job.body(startRow, min(job.numRows, startRow + job.chunkRows))
+            }
+        }
+        catch (ex: Throwable) {
+            job.error.compareAndSet(null, ex)
+            // Drain the remaining chunks so the other participants stop.
+            while (takeFront(job, p) >= 0 || stealBack(job, p) >= 0) {}
+        }
+        job.busyNanos[p] = System.nanoTime() - startTime
+        finishParticipant(job)
+    }
+
+    private fun finishParticipant(job: Job) {
+        if (job.finishedParticipants.incrementAndGet() == job.numParticipants) {
+            job.doneLock.withLock({
+                job.doneCondition.signalAll()
+            })
+        }
+    }
+
+    private fun workerLoop() {
+        while (true) {
+            val job = lock.withLock({
+                while (jobs.isEmpty()) {
+                    workAvailable.await()
+                }
+                val first = jobs.first()
+                if (first.hasUnclaimedParticipants()) first else {
+                    // Every participant is claimed; whoever is running them will finish the job.
+                    jobs.removeFirst()
+                    null
+                }
+            }) ?: continue
+            val p = job.nextParticipant.getAndIncrement()
+            if (p < job.numParticipants) {
+                runParticipant(job, p)
+            }
+        }
+    }
+
+    /**
+     * Calls `body(startRow, endRow)` for consecutive ranges covering [0, numRows), using up to
+     * `numThreads` threads including the caller, and returns when all rows are done. Ranges are
+     * not in order and `body` is usually called several times per thread, so it shouldn't depend
+     * on seeing a fixed band of rows. `bytesPerRow` is the size of an output row, used to pick the
+     * chunk size. If `body` throws, the first exception is rethrown here.
+     */
+    fun parallelFor(numRows: Int, numThreads: Int, bytesPerRow: Int,
+                    body: (startRow: Int, endRow: Int) -> Unit) {
+        if (numThreads <= 1 || numRows <= 1) {
+            body(0, numRows)
+            return
+        }
+        val cacheRows = max(MIN_CHUNK_ROWS, TARGET_CHUNK_BYTES / max(1, bytesPerRow))
+        val balanceRows = max(1, numRows / (numThreads * MIN_CHUNKS_PER_THREAD))
+        val chunkRows = max(1, min(cacheRows, balanceRows))
+        val job = Job(numRows, chunkRows, min(numThreads, workerCount + 1), body)
+        lock.withLock({
+            jobs.addLast(job)
+            if (job.numParticipants - 1 >= workerCount) {
+                workAvailable.signalAll()
+            }
+            else {
+                for (i in 1 until job.numParticipants) {
+                    workAvailable.signal()
+                }
+            }
+        })
+
+        runParticipant(job, 0)
+        // Participants that no worker picked up have nothing left to do, since the caller only
+        // stops when every chunk has been claimed.
+        while (true) {
+            val p = job.nextParticipant.getAndIncrement()
+            if (p >= job.numParticipants) {
+                break
+            }
+            job.busyNanos[p] = -1
+            finishParticipant(job)
+        }
+        job.doneLock.withLock({
+            while (job.finishedParticipants.get() < job.numParticipants) {
+                job.doneCondition.await()
+            }
+        })
+        lock.withLock({
+            jobs.remove(job)
+        })
+
+        recordImbalance(job)
+        job.error.get()?.let { throw it }
+    }
+
+    private fun recordImbalance(job: Job) {
+        var total = 0L
+        var maxNanos = 0L
+        var count = 0
+        for (nanos in job.busyNanos) {
+            if (nanos >= 0) {
+                total += nanos
+                maxNanos = max(maxNanos, nanos)
+                count += 1
+            }
+        }
+        if (count < 2 || total <= 0) {
+            return
+        }
+        // How much longer the busiest participant took than the average: 0 is perfectly even.
+        val imbalance = (maxNanos.toFloat() * count / total) - 1f
+        val stats = frameStats.get()!!
+        if (stats.maxImbalance.isNaN() || imbalance > stats.maxImbalance) {
+            stats.maxImbalance = imbalance
+        }
+    }
+
+    /** Clears the load imbalance recorded for the calling thread. Call before rendering a frame. */
+    fun resetFrameStats() {
+        frameStats.get()!!.maxImbalance = Float.NaN
+    }
+
+    /**
+     * Returns the largest load imbalance of the parallelFor calls made on this thread since
+     * `resetFrameStats`, as the busiest participant's time divided by the average minus 1, or NaN
+     * if there were no parallel calls.
+     */
+    fun frameLoadImbalance() = frameStats.get()!!.maxImbalance
+}
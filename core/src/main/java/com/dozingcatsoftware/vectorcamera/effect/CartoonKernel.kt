@@ -0,0 +1,215 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.util.YuvUtils
+import com.dozingcatsoftware.vectorcamera.RowBandExecutor
+import kotlin.math.roundToInt
+
+/**
+ * Kotlin implementation of CartoonEffect: converts the YUV planes to RGB, reduces each
+ * component to 4 levels, and applies a box blur.
+ */
+object CartoonKernel {
+
+    fun render(yData: ByteArray, uData: ByteArray, vData: ByteArray,
+               width: Int, height: Int, blurRadius: Int, numThreads: Int): IntArray {
+        val pixels = processImageFromPlanes(
+                yData, uData, vData, width, height, numThreads, createColorLUT())
+        return applyBlur(pixels, width, height, blurRadius)
+    }
+
+    /**
+     * Create a color lookup table that reduces each color component to 2 bits (4 levels).
+     * Possible RGB values are (0, 85, 170, 255).
+     */
+    fun createColorLUT(): IntArray {
+        val lut = IntArray(256)
+        for (index in 0 until 256) {
+            val mapval = (index / 85.0).roundToInt() * 85
+            lut[index] = mapval
+        }
+        return lut
+    }
+
+    fun processImageFromPlanes(
+        yData: ByteArray,
+        uData: ByteArray,
+        vData: ByteArray,
+        width: Int,
+        height: Int,
+        numThreads: Int,
+        colorLUT: IntArray
+    ): IntArray {
+        val uvWidth = (width + 1) / 2
+
+        val pixels = IntArray(width * height)
+
+        // Multi-threaded processing
+        RowBandExecutor.parallelFor(height, numThreads, width * 4, { start, end ->
+            processRows(start, end, width, height, yData, uData, vData, uvWidth, pixels, colorLUT)
+        })
+
+        return pixels
+    }
+
+    private fun processRows(
+        startY: Int, 
+        endY: Int, 
+        width: Int, 
+        height: Int, 
+        yData: ByteArray, 
+        uData: ByteArray, 
+        vData: ByteArray, 
+        uvWidth: Int, 
+        pixels: IntArray,
+        colorLUT: IntArray
+    ) {
+        for (y in startY until endY) {
+            for (x in 0 until width) {
+                val pixelIndex = y * width + x
+
+                // Get Y value
+                val yy = yData[pixelIndex].toInt() and 0xFF
+
+                // Get U and V values (subsampled)
+                val uvX = x / 2
+                val uvY = y / 2
+                val uvIndex = uvY * uvWidth + uvX
+                val u = uData[uvIndex].toInt() and 0xFF
+                val v = vData[uvIndex].toInt() and 0xFF
+
+                // Convert YUV to RGB
+                val rgb = YuvUtils.yuvToRgb(yy, u, v, includeAlpha = false)
+                val r = (rgb shr 16) and 0xFF
+                val g = (rgb shr 8) and 0xFF
+                val b = rgb and 0xFF
+
+                // Apply color quantization using LUT
+                val quantizedR = colorLUT[r]
+                val quantizedG = colorLUT[g]
+                val quantizedB = colorLUT[b]
+
+                // Create final ARGB pixel
+                pixels[pixelIndex] = (0xFF shl 24) or (quantizedR shl 16) or (quantizedG shl 8) or quantizedB
+            }
+        }
+    }
+
+    /**
+     * Apply a fast box blur to the image using separable convolution.
+     */
+    fun applyBlur(pixels: IntArray, width: Int, height: Int, radius: Int): IntArray {
+        if (radius <= 0) return pixels
+        
+        // Apply horizontal blur first
+        val horizontalBlur = applyHorizontalBlur(pixels, width, height, radius)
+        
+        // Apply vertical blur to the horizontally blurred image
+        return applyVerticalBlur(horizontalBlur, width, height, radius)
+    }
+    
+    private fun applyHorizontalBlur(pixels: IntArray, width: Int, height: Int, radius: Int): IntArray {
+        val blurred = IntArray(width * height)
+        val kernelSize = radius * 2 + 1
+        
+        for (y in 0 until height) {
+            var totalR = 0
+            var totalG = 0
+            var totalB = 0
+            
+            // Initialize sliding window for first pixel
+            for (kx in -radius..radius) {
+                val sampleX = kx.coerceIn(0, width - 1)
+                val sampleIndex = y * width + sampleX
+                val samplePixel = pixels[sampleIndex]
+                
+                totalR += ((samplePixel shr 16) and 0xFF)
+                totalG += ((samplePixel shr 8) and 0xFF)
+                totalB += (samplePixel and 0xFF)
+            }
+            
+            // Apply blur to each pixel in the row using sliding window
+            for (x in 0 until width) {
+                val avgR = totalR / kernelSize
+                val avgG = totalG / kernelSize
+                val avgB = totalB / kernelSize
+                
+                val pixelIndex = y * width + x
+                blurred[pixelIndex] = (0xFF shl 24) or (avgR shl 16) or (avgG shl 8) or avgB
+                
+                // Update sliding window for next pixel
+                if (x < width - 1) {
+                    // Remove leftmost pixel from window
+                    val leftX = (x - radius).coerceIn(0, width - 1)
+                    val leftIndex = y * width + leftX
+                    val leftPixel = pixels[leftIndex]
+                    totalR -= ((leftPixel shr 16) and 0xFF)
+                    totalG -= ((leftPixel shr 8) and 0xFF)
+                    totalB -= (leftPixel and 0xFF)
+                    
+                    // Add rightmost pixel to window
+                    val rightX = (x + radius + 1).coerceIn(0, width - 1)
+                    val rightIndex = y * width + rightX
+                    val rightPixel = pixels[rightIndex]
+                    totalR += ((rightPixel shr 16) and 0xFF)
+                    totalG += ((rightPixel shr 8) and 0xFF)
+                    totalB += (rightPixel and 0xFF)
+                }
+            }
+        }
+        
+        return blurred
+    }
+    
+    private fun applyVerticalBlur(pixels: IntArray, width: Int, height: Int, radius: Int): IntArray {
+        val blurred = IntArray(width * height)
+        val kernelSize = radius * 2 + 1
+        
+        for (x in 0 until width) {
+            var totalR = 0
+            var totalG = 0
+            var totalB = 0
+            
+            // Initialize sliding window for first pixel
+            for (ky in -radius..radius) {
+                val sampleY = ky.coerceIn(0, height - 1)
+                val sampleIndex = sampleY * width + x
+                val samplePixel = pixels[sampleIndex]
+                
+                totalR += ((samplePixel shr 16) and 0xFF)
+                totalG += ((samplePixel shr 8) and 0xFF)
+                totalB += (samplePixel and 0xFF)
+            }
+            
+            // Apply blur to each pixel in the column using sliding window
+            for (y in 0 until height) {
+                val avgR = totalR / kernelSize
+                val avgG = totalG / kernelSize
+                val avgB = totalB / kernelSize
+                
+                val pixelIndex = y * width + x
+                blurred[pixelIndex] = (0xFF shl 24) or (avgR shl 16) or (avgG shl 8) or avgB
+                
+                // Update sliding window for next pixel
+                if (y < height - 1) {
+                    // Remove topmost pixel from window
+                    val topY = (y - radius).coerceIn(0, height - 1)
+                    val topIndex = topY * width + x
+                    val topPixel = pixels[topIndex]
+                    totalR -= ((topPixel shr 16) and 0xFF)
+                    totalG -= ((topPixel shr 8) and 0xFF)
+                    totalB -= (topPixel and 0xFF)
+                    
+                    // Add bottommost pixel to window
+                    val bottomY = (y + radius + 1).coerceIn(0, height - 1)
+                    val bottomIndex = bottomY * width + x
+                    val bottomPixel = pixels[bottomIndex]
+                    totalR += ((bottomPixel shr 16) and 0xFF)
+                    totalG += ((bottomPixel shr 8) and 0xFF)
+                    totalB += (bottomPixel and 0xFF)
+                }
+            }
+        }
+        
+        return blurred
+    }
+}
@@ -0,0 +1,99 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.vectorcamera.RowBandExecutor
+import kotlin.math.roundToInt
+
+/**
+ * Kotlin implementation of Convolve3x3Effect: a 3x3 convolution of the Y plane, whose results
+ * are mapped to colors with a 256-entry lookup table.
+ */
+object Convolve3x3Kernel {
+
+    fun render(yData: ByteArray, width: Int, height: Int, coefficients: FloatArray,
+               colorMap: IntArray, pixels: IntArray, numThreads: Int) {
+        // First apply convolution to get brightness values
+        val convolvedData = applyConvolution(yData, width, height, coefficients, numThreads)
+
+        // Then map convolved values to colors
+        mapToColors(convolvedData, pixels, colorMap, numThreads)
+    }
+
+    /**
+     * Apply 3x3 convolution to the Y (brightness) data.
+     * Each pixel is replaced by the weighted sum of itself and its 8 neighbors.
+     */
+    fun applyConvolution(yData: ByteArray, width: Int, height: Int,
+                         coefficients: FloatArray, numThreads: Int): ByteArray {
+        val convolvedData = ByteArray(width * height)
+
+        // Multi-threaded convolution processing
+        RowBandExecutor.parallelFor(height, numThreads, width, { start, end ->
+            processConvolutionRows(start, end, width, height, yData, convolvedData, coefficients)
+        })
+
+        return convolvedData
+    }
+
+    private fun processConvolutionRows(
+        startY: Int, 
+        endY: Int, 
+        width: Int, 
+        height: Int, 
+        yData: ByteArray, 
+        convolvedData: ByteArray, 
+        coeffs: FloatArray
+    ) {
+        for (y in startY until endY) {
+            for (x in 0 until width) {
+                val pixelIndex = y * width + x
+                
+                // Apply 3x3 convolution
+                var sum = 0f
+                var coeffIndex = 0
+                
+                // Process 3x3 neighborhood
+                for (dy in -1..1) {
+                    for (dx in -1..1) {
+                        val nx = x + dx
+                        val ny = y + dy
+                        
+                        // Handle boundary conditions by clamping coordinates
+                        val clampedX = nx.coerceIn(0, width - 1)
+                        val clampedY = ny.coerceIn(0, height - 1)
+                        val neighborIndex = clampedY * width + clampedX
+                        
+                        val pixelValue = yData[neighborIndex].toInt() and 0xFF
+                        sum += coeffs[coeffIndex] * pixelValue
+                        coeffIndex++
+                    }
+                }
+                
+                // Clamp result to valid byte range and store
+                val result = sum.roundToInt().coerceIn(0, 255)
+                convolvedData[pixelIndex] = result.toByte()
+            }
+        }
+    }
+
+    /**
+     * Map convolved brightness values to colors using the color map.
+     */
+    fun mapToColors(convolvedData: ByteArray, pixels: IntArray, colorMap: IntArray, numThreads: Int) {
+        RowBandExecutor.parallelFor(convolvedData.size, numThreads, 4, { start, end ->
+            processColorMappingRows(start, end, convolvedData, pixels, colorMap)
+        })
+    }
+
+    private fun processColorMappingRows(
+        startIndex: Int,
+        endIndex: Int,
+        convolvedData: ByteArray,
+        pixels: IntArray,
+        colorMap: IntArray
+    ) {
+        for (i in startIndex until endIndex) {
+            val brightness = convolvedData[i].toInt() and 0xFF
+            pixels[i] = colorMap[brightness]
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.vectorcamera.RowBandExecutor
+
+/**
+ * Kotlin implementation of EdgeEffect: maps the Laplacian edge strength of each pixel of the
+ * Y plane to a color from a 256-entry lookup table. Pixels on the border have strength 0.
+ */
+object EdgeKernel {
+
+    fun render(yData: ByteArray, width: Int, height: Int, multiplier: Int,
+               lookupMap: IntArray, pixels: IntArray, numThreads: Int) {
+        RowBandExecutor.parallelFor(height, numThreads, width * 4, { start, end ->
+            processRows(start, end, width, height, multiplier, yData, pixels, lookupMap)
+        })
+    }
+
+    fun processRows(
+        startY: Int, 
+        endY: Int, 
+        width: Int, 
+        height: Int, 
+        multiplier: Int,
+        yData: ByteArray,
+        pixels: IntArray,
+        lookupMap: IntArray
+    ) {
+        for (y in startY until endY) {
+            for (x in 0 until width) {
+                val pixelIndex = y * width + x
+
+                // Calculate edge strength using Laplacian operator
+                val edgeStrength = if (x > 0 && x < width - 1 && y > 0 && y < height - 1) {
+                    val center = yData[pixelIndex].toInt() and 0xFF
+                    val surroundingSum =
+                        (yData[(y - 1) * width + (x - 1)].toInt() and 0xFF) +
+                        (yData[(y - 1) * width + x].toInt() and 0xFF) +
+                        (yData[(y - 1) * width + (x + 1)].toInt() and 0xFF) +
+                        (yData[y * width + (x - 1)].toInt() and 0xFF) +
+                        (yData[y * width + (x + 1)].toInt() and 0xFF) +
+                        (yData[(y + 1) * width + (x - 1)].toInt() and 0xFF) +
+                        (yData[(y + 1) * width + x].toInt() and 0xFF) +
+                        (yData[(y + 1) * width + (x + 1)].toInt() and 0xFF)
+
+                    val edge = 8 * center - surroundingSum
+                    (multiplier * edge).coerceIn(0, 255)
+                } else {
+                    0
+                }
+
+                // Map edge strength to color using lookup table
+                val color = lookupMap[edgeStrength]
+                pixels[pixelIndex] = color
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.util.YuvUtils
+import com.dozingcatsoftware.vectorcamera.RowBandExecutor
+
+/**
+ * Kotlin implementation of EdgeLuminanceEffect: keeps the color of each pixel as given by its U
+ * and V values, and replaces its brightness with the Laplacian edge strength of the Y plane.
+ * Pixels on the border have strength 0. The planes must be densely packed.
+ */
+object EdgeLuminanceKernel {
+
+    fun render(yData: ByteArray, uData: ByteArray, vData: ByteArray, width: Int, height: Int,
+               multiplier: Int, pixels: IntArray, numThreads: Int) {
+        val uvWidth = (width + 1) / 2
+        RowBandExecutor.parallelFor(height, numThreads, width * 4, { start, end ->
+            processRows(start, end, width, height, multiplier, yData, uData, vData, uvWidth, pixels)
+        })
+    }
+
+    fun processRows(
+        startY: Int,
+        endY: Int,
+        width: Int,
+        height: Int,
+        multiplier: Int,
+        yData: ByteArray,
+        uData: ByteArray,
+        vData: ByteArray,
+        uvWidth: Int,
+        pixels: IntArray
+    ) {
+        for (y in startY until endY) {
+            for (x in 0 until width) {
+                val pixelIndex = y * width + x
+
+                // Calculate edge strength using Laplacian operator
+                val edgeStrength = if (x > 0 && x < width - 1 && y > 0 && y < height - 1) {
+                    val center = yData[pixelIndex].toInt() and 0xFF
+                    // Trying to optimize this by reducing multiplications doesn't help.
+                    val surroundingSum =
+                        (yData[(y - 1) * width + (x - 1)].toInt() and 0xFF) +
+                        (yData[(y - 1) * width + x].toInt() and 0xFF) +
+                        (yData[(y - 1) * width + (x + 1)].toInt() and 0xFF) +
+                        (yData[y * width + (x - 1)].toInt() and 0xFF) +
+                        (yData[y * width + (x + 1)].toInt() and 0xFF) +
+                        (yData[(y + 1) * width + (x - 1)].toInt() and 0xFF) +
+                        (yData[(y + 1) * width + x].toInt() and 0xFF) +
+                        (yData[(y + 1) * width + (x + 1)].toInt() and 0xFF)
+
+                    val edge = 8 * center - surroundingSum
+                    (multiplier * edge).coerceIn(0, 255)
+                } else {
+                    0
+                }
+
+                // Get U and V values (subsampled)
+                val uvX = x / 2
+                val uvY = y / 2
+                val uvIndex = uvY * uvWidth + uvX
+                val u = uData[uvIndex].toInt() and 0xFF
+                val v = vData[uvIndex].toInt() and 0xFF
+
+                // Convert YUV to RGB using edge strength as Y value
+                val rgb = YuvUtils.yuvToRgb(edgeStrength, u, v, includeAlpha = true)
+                pixels[pixelIndex] = rgb
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.util.YuvUtils
+import com.dozingcatsoftware.vectorcamera.RowBandExecutor
+import kotlin.math.abs
+import kotlin.math.roundToInt
+
+/**
+ * Kotlin implementation of OilPaintingEffect, which simulates brush strokes by replacing each
+ * pixel with the most common quantized color in a circular neighborhood whose size depends on
+ * the local contrast.
+ */
+class OilPaintingKernel(
+    private val brushSize: Int,
+    private val levels: Int,
+    private val contrastSensitivity: Float
+) {
+
+    fun render(yData: ByteArray, uData: ByteArray, vData: ByteArray,
+               width: Int, height: Int, numThreads: Int): IntArray {
+        // First pass: Convert YUV to RGB and quantize colors
+        val rgbPixels = convertYuvToRgbQuantized(yData, uData, vData, width, height)
+
+        // Second pass: Apply oil painting effect
+        return applyOilPaintingEffect(rgbPixels, width, height, numThreads)
+    }
+
+    /**
+     * Convert YUV to RGB with color quantization for oil painting look
+     */
+    fun convertYuvToRgbQuantized(
+        yData: ByteArray,
+        uData: ByteArray,
+        vData: ByteArray,
+        width: Int,
+        height: Int
+    ): IntArray {
+        val uvWidth = (width + 1) / 2
+        val pixels = IntArray(width * height)
+        val quantizationStep = 256 / levels
+
+        // Could use threads here but probably not worth it.
+        processYuvToRgbRows(0, height, width, height, yData, uData, vData, uvWidth, pixels, quantizationStep)
+        return pixels
+    }
+
+    private fun processYuvToRgbRows(
+        startY: Int, 
+        endY: Int, 
+        width: Int, 
+        height: Int, 
+        yData: ByteArray, 
+        uData: ByteArray, 
+        vData: ByteArray, 
+        uvWidth: Int, 
+        pixels: IntArray,
+        quantizationStep: Int
+    ) {
+        for (y in startY until endY) {
+            for (x in 0 until width) {
+                val pixelIndex = y * width + x
+
+                // Get Y value
+                val yy = yData[pixelIndex].toInt() and 0xFF
+
+                // Get U and V values (subsampled)
+                val uvX = x / 2
+                val uvY = y / 2
+                val uvIndex = uvY * uvWidth + uvX
+                val u = uData[uvIndex].toInt() and 0xFF
+                val v = vData[uvIndex].toInt() and 0xFF
+
+                // Convert YUV to RGB
+                val rgb = YuvUtils.yuvToRgb(yy, u, v, includeAlpha = false)
+                var r = (rgb shr 16) and 0xFF
+                var g = (rgb shr 8) and 0xFF
+                var b = rgb and 0xFF
+
+                // Quantize colors for oil painting effect
+                r = (r / quantizationStep) * quantizationStep
+                g = (g / quantizationStep) * quantizationStep
+                b = (b / quantizationStep) * quantizationStep
+
+                pixels[pixelIndex] = (0xFF shl 24) or (r shl 16) or (g shl 8) or b
+            }
+        }
+    }
+
+    /**
+     * Apply oil painting effect by finding dominant colors in circular neighborhoods
+     */
+    fun applyOilPaintingEffect(
+        sourcePixels: IntArray,
+        width: Int,
+        height: Int,
+        numThreads: Int
+    ): IntArray {
+        val resultPixels = IntArray(width * height)
+
+        // Multi-threaded processing
+        RowBandExecutor.parallelFor(height, numThreads, width * 4, { start, end ->
+            processOilPaintingRows(start, end, width, height, sourcePixels, resultPixels)
+        })
+
+        return resultPixels
+    }
+
+    fun processOilPaintingRows(
+        startY: Int,
+        endY: Int,
+        width: Int,
+        height: Int,
+        sourcePixels: IntArray,
+        resultPixels: IntArray
+    ) {
+        // Thread-local storage for incremental updates
+        val colorCounts = mutableMapOf<Int, Int>()
+        
+        for (y in startY until endY) {
+            // Clear color counts at start of each row
+            colorCounts.clear()
+            var previousBrushSize = -1
+            
+            for (x in 0 until width) {
+                val pixelIndex = y * width + x
+                
+                // Calculate adaptive brush size based on local contrast
+                val localBrushSize = calculateAdaptiveBrushSize(sourcePixels, x, y, width, height)
+                
+                // Use incremental updates if brush size hasn't changed
+                if (localBrushSize == previousBrushSize && x > 0) {
+                    // Incremental update: slide brush horizontally
+                    updateColorCounts(
+                        sourcePixels, x, y, width, height, localBrushSize,
+                        colorCounts, ColorCountUpdateType.Incremental
+                    )
+                } else {
+                    // Full recalculation: brush size changed or first pixel in row
+                    updateColorCounts(
+                        sourcePixels, x, y, width, height, localBrushSize,
+                        colorCounts, ColorCountUpdateType.Full
+                    )
+                }
+                
+                // Find dominant color using current counts
+                val dominantColor = findDominantColorFromCounts(
+                    colorCounts, sourcePixels[pixelIndex]
+                )
+                
+                resultPixels[pixelIndex] = dominantColor
+                previousBrushSize = localBrushSize
+            }
+        }
+    }
+
+    private fun brightnessForRgb(rgb: Int): Double {
+        val r = (rgb shr 16) and 0xFF
+        val g = (rgb shr 8) and 0xFF
+        val b = rgb and 0xFF
+        return r * 0.299 + g * 0.587 + b * 0.114
+    }
+
+    /**
+     * Calculate brush size based on local contrast - smaller brushes for high detail areas
+     */
+    private fun calculateAdaptiveBrushSize(
+        pixels: IntArray,
+        centerX: Int,
+        centerY: Int,
+        width: Int,
+        height: Int
+    ): Int {
+        val sampleRadius = 3
+        var totalVariance = 0.0
+        var sampleCount = 0
+
+        val centerPixel = pixels[centerY * width + centerX]
+        val centerBrightness = brightnessForRgb(centerPixel)
+
+        // Sample surrounding pixels to measure local contrast
+        for (dy in -sampleRadius..sampleRadius) {
+            for (dx in -sampleRadius..sampleRadius) {
+                val sampleX = centerX + dx
+                val sampleY = centerY + dy
+                
+                if (sampleX >= 0 && sampleX < width && sampleY >= 0 && sampleY < height) {
+                    val samplePixel = pixels[sampleY * width + sampleX]
+                    val sampleBrightness = brightnessForRgb(samplePixel)
+                    
+                    val diff = abs(sampleBrightness - centerBrightness)
+                    totalVariance += diff * diff
+                    sampleCount++
+                }
+            }
+        }
+
+        val avgVariance = if (sampleCount > 0) totalVariance / sampleCount else 0.0
+        val normalizedVariance = (avgVariance / (255.0 * 255.0)).coerceIn(0.0, 1.0)
+        
+        // High contrast = smaller brush, low contrast = larger brush
+        val adaptiveFactor = 1.0 - (normalizedVariance * contrastSensitivity).coerceIn(0.0, 0.8)
+        return (brushSize * adaptiveFactor).roundToInt().coerceIn(2, brushSize)
+    }
+
+    enum class ColorCountUpdateType {Full, Incremental};
+
+    /**
+     * Incrementally update color counts when sliding brush horizontally
+     */
+    private fun updateColorCounts(
+        pixels: IntArray,
+        centerX: Int,
+        centerY: Int,
+        width: Int,
+        height: Int,
+        radius: Int,
+        colorCounts: MutableMap<Int, Int>,
+        updateType: ColorCountUpdateType
+    ) {
+        val pattern = getBrushPattern(radius)
+        
+        if (updateType == ColorCountUpdateType.Full) {
+            // Initialize with full brush pattern
+            colorCounts.clear()
+            for ((dx, dy) in pattern.offsets) {
+                val sampleX = centerX + dx
+                val sampleY = centerY + dy
+                
+                if (sampleX >= 0 && sampleX < width && sampleY >= 0 && sampleY < height) {
+                    val samplePixel = pixels[sampleY * width + sampleX]
+                    colorCounts[samplePixel] = colorCounts.getOrElse(samplePixel, {0}) + 1
+                }
+            }
+        } else {
+            // Remove left edge pixels
+            for ((dx, dy) in pattern.leftEdgeToRemove) {
+                val sampleX = centerX + dx
+                val sampleY = centerY + dy
+                
+                if (sampleX >= 0 && sampleX < width && sampleY >= 0 && sampleY < height) {
+                    val samplePixel = pixels[sampleY * width + sampleX]
+                    val currentCount = colorCounts.getOrElse(samplePixel, {0})
+                    if (currentCount > 1) {
+                        colorCounts[samplePixel] = currentCount - 1
+                    } else {
+                        colorCounts.remove(samplePixel)
+                    }
+                }
+            }
+            
+            // Add right edge pixels
+            for ((dx, dy) in pattern.rightEdgeToAdd) {
+                val sampleX = centerX + dx
+                val sampleY = centerY + dy
+                
+                if (sampleX >= 0 && sampleX < width && sampleY >= 0 && sampleY < height) {
+                    val samplePixel = pixels[sampleY * width + sampleX]
+                    colorCounts[samplePixel] = colorCounts.getOrElse(samplePixel, {0}) + 1
+                }
+            }
+        }
+    }
+    
+    /**
+     * Find dominant color using current color counts (after incremental update)
+     */
+    private fun findDominantColorFromCounts(
+        colorCounts: Map<Int, Int>,
+        fallbackColor: Int
+    ): Int {
+        return colorCounts.maxByOrNull { it.value }?.key ?: fallbackColor
+    }
+    
+    /**
+     * Pre-computed brush pattern for incremental sliding optimization
+     */
+    private data class BrushPattern(
+        val offsets: List<Pair<Int, Int>>,
+        val leftEdgeToRemove: List<Pair<Int, Int>>,
+        val rightEdgeToAdd: List<Pair<Int, Int>>
+    )
+    
+    companion object {
+        // Cache of pre-computed brush patterns for different radii
+        private val brushPatterns = mutableMapOf<Int, BrushPattern>()
+        
+        /**
+         * Initialize brush pattern for a given radius with incremental update patterns
+         */
+        private fun getBrushPattern(radius: Int): BrushPattern {
+            return brushPatterns.getOrPut(radius) {
+                if (radius == 0) {
+                    BrushPattern(
+                        offsets = listOf(Pair(0, 0)),
+                        leftEdgeToRemove = emptyList(),
+                        rightEdgeToAdd = emptyList()
+                    )
+                } else {
+                    val radiusSquared = radius * radius
+                    val offsets = mutableListOf<Pair<Int, Int>>()
+                    
+                    // Compute all offsets within the circular brush
+                    for (dy in -radius..radius) {
+                        for (dx in -radius..radius) {
+                            val distanceSquared = dx * dx + dy * dy
+                            if (distanceSquared <= radiusSquared) {
+                                offsets.add(Pair(dx, dy))
+                            }
+                        }
+                    }
+
+                    // Compute incremental update patterns
+                    val leftEdgeToRemove = mutableListOf<Pair<Int, Int>>()
+                    val rightEdgeToAdd = mutableListOf<Pair<Int, Int>>()
+                    
+                    for ((dx, dy) in offsets) {
+                        // Left edge: points that would go outside if shifted left
+                        val leftDistanceSquared = (dx - 1) * (dx - 1) + dy * dy
+                        if (leftDistanceSquared > radiusSquared) {
+                            leftEdgeToRemove.add(Pair(dx - 1, dy))
+                        }
+                        
+                        // Right edge: current points that are on the right boundary
+                        val rightDistanceSquared = (dx + 1) * (dx + 1) + dy * dy
+                        if (rightDistanceSquared > radiusSquared) {
+                            rightEdgeToAdd.add(Pair(dx, dy))
+                        }
+                    }
+                    
+                    BrushPattern(offsets, leftEdgeToRemove, rightEdgeToAdd)
+                }
+            }
+        }
+    }
+}
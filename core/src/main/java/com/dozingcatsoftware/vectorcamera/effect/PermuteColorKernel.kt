@@ -0,0 +1,96 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.util.YuvUtils
+import com.dozingcatsoftware.vectorcamera.RowBandExecutor
+
+/**
+ * Enum for color component sources used in color permutation.
+ */
+enum class ColorComponentSource(val rsCode: Int) {
+    MIN(0), RED(1), GREEN(2), BLUE(3), MAX(-1)
+}
+
+/**
+ * Kotlin implementation of PermuteColorEffect: converts each pixel to RGB, optionally rotating
+ * its color 180 degrees in UV space first, and then builds the output from the RGB components
+ * given by the sources. The planes are read with their original strides, so the interleaved U and
+ * V planes of a semi-planar frame don't need to be extracted.
+ */
+object PermuteColorKernel {
+
+    fun render(yData: ByteArray, yPixelStride: Int, yRowStride: Int,
+               uData: ByteArray, vData: ByteArray, uvPixelStride: Int, uvRowStride: Int,
+               width: Int, height: Int,
+               redSource: ColorComponentSource, greenSource: ColorComponentSource,
+               blueSource: ColorComponentSource, flipUV: Boolean,
+               pixels: IntArray, numThreads: Int) {
+        RowBandExecutor.parallelFor(height, numThreads, width * 4, { start, end ->
+            processRows(start, end, width, yData, yPixelStride, yRowStride,
+                    uData, vData, uvPixelStride, uvRowStride,
+                    redSource, greenSource, blueSource, flipUV, pixels)
+        })
+    }
+
+    fun processRows(
+        startY: Int,
+        endY: Int,
+        width: Int,
+        yData: ByteArray,
+        yPixelStride: Int,
+        yRowStride: Int,
+        uData: ByteArray,
+        vData: ByteArray,
+        uvPixelStride: Int,
+        uvRowStride: Int,
+        redSource: ColorComponentSource,
+        greenSource: ColorComponentSource,
+        blueSource: ColorComponentSource,
+        flipUV: Boolean,
+        pixels: IntArray
+    ) {
+        for (y in startY until endY) {
+            for (x in 0 until width) {
+                val pixelIndex = y * width + x
+
+                // Get Y value
+                val yy = yData[y * yRowStride + x * yPixelStride].toInt() and 0xFF
+
+                // Get U and V values (subsampled)
+                val uvIndex = (y / 2) * uvRowStride + (x / 2) * uvPixelStride
+                val u = uData[uvIndex].toInt() and 0xFF
+                val v = vData[uvIndex].toInt() and 0xFF
+
+                // flipUV rotates the color 180 degrees in UV space.
+                val uu = if (flipUV) (-u and 0xFF) else u
+                val vv = if (flipUV) (-v and 0xFF) else v
+
+                // Convert YUV to RGB
+                val rgb = YuvUtils.yuvToRgb(yy, uu, vv, includeAlpha = false)
+                val r = (rgb shr 16) and 0xFF
+                val g = (rgb shr 8) and 0xFF
+                val b = rgb and 0xFF
+
+                // Extract color components based on source mapping
+                val outputR = extractComponent(r, g, b, redSource)
+                val outputG = extractComponent(r, g, b, greenSource)
+                val outputB = extractComponent(r, g, b, blueSource)
+
+                // Create final ARGB pixel
+                pixels[pixelIndex] = (0xFF shl 24) or (outputR shl 16) or (outputG shl 8) or outputB
+            }
+        }
+    }
+
+    /**
+     * Extract color component based on ColorComponentSource mapping.
+     */
+    private fun extractComponent(r: Int, g: Int, b: Int, source: ColorComponentSource): Int {
+        return when (source) {
+            ColorComponentSource.RED -> r
+            ColorComponentSource.GREEN -> g
+            ColorComponentSource.BLUE -> b
+            ColorComponentSource.MIN -> 0
+            ColorComponentSource.MAX -> 255
+        }
+    }
+}
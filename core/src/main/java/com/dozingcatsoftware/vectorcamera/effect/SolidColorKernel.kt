@@ -0,0 +1,38 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.vectorcamera.RowBandExecutor
+
+/**
+ * Kotlin implementation of SolidColorEffect: maps the brightness of each pixel of the Y plane to
+ * a color from a 256-entry lookup table.
+ */
+object SolidColorKernel {
+
+    fun render(yData: ByteArray, width: Int, height: Int,
+               colorMap: IntArray, pixels: IntArray, numThreads: Int) {
+        RowBandExecutor.parallelFor(height, numThreads, width * 4, { start, end ->
+            processRows(start, end, width, yData, pixels, colorMap)
+        })
+    }
+
+    fun processRows(
+        startY: Int,
+        endY: Int,
+        width: Int,
+        yData: ByteArray,
+        pixels: IntArray,
+        colorMap: IntArray
+    ) {
+        for (y in startY until endY) {
+            for (x in 0 until width) {
+                val pixelIndex = y * width + x
+
+                // Get Y (luminance) value and use it as index into color map
+                val yValue = yData[pixelIndex].toInt() and 0xFF
+
+                // Map brightness to color using lookup table
+                pixels[pixelIndex] = colorMap[yValue]
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.util.YuvUtils.yuvToRgb
+import kotlin.random.Random
+
+/**
+ * Kotlin implementation of the passes of StainedGlassEffect that don't draw: assigning each pixel
+ * to the nearest of a jittered grid of seed points, averaging the color of each segment, and
+ * filling the segments. StainedGlassEffect draws the edges between segments with a Canvas.
+ */
+object StainedGlassKernel {
+
+    class SeedPoint(val x: Int, val y: Int, val segmentId: Int)
+
+    /**
+     * Create seed points in a grid pattern with random variation.
+     */
+    fun createSeedPoints(width: Int, height: Int, segmentSize: Int,
+                         random: Random = Random.Default): List<List<SeedPoint>> {
+        val seedPoints = mutableListOf<MutableList<SeedPoint>>()
+        val gridSpacing = segmentSize
+        val variation = segmentSize / 3
+
+        var segmentId = 0
+        for (y in gridSpacing/2 until height step gridSpacing) {
+            seedPoints.add(mutableListOf<SeedPoint>())
+            val currentRow = seedPoints.last()
+            for (x in gridSpacing/2 until width step gridSpacing) {
+                // Add random variation to seed point positions
+                val randomX = (x + random.nextInt(-variation, variation)).coerceIn(0, width - 1)
+                val randomY = (y + random.nextInt(-variation, variation)).coerceIn(0, height - 1)
+                currentRow.add(SeedPoint(randomX, randomY, segmentId))
+                segmentId++
+            }
+        }
+
+        return seedPoints
+    }
+
+    /**
+     * Create segment map from seed points using optimized Voronoi-like algorithm.
+     */
+    fun createSegmentMapFromSeeds(width: Int, height: Int, segmentSize: Int, seedPoints: List<List<SeedPoint>>): Array<IntArray> {
+        val segmentMap = Array(height) { IntArray(width) }
+        val gridSpacing = segmentSize
+        
+        // Use a simplified Voronoi-like algorithm to assign pixels to nearest seed
+        for (y in 0 until height) {
+            val cellY = y / gridSpacing
+            // Only need to check 3x3 neighborhood - mathematically sufficient
+            val minCellY = (cellY - 1).coerceAtLeast(0)
+            val maxCellY = (cellY + 1).coerceAtMost(seedPoints.size - 1)
+            for (x in 0 until width) {
+                val cellX = x / gridSpacing
+                val minCellX = (cellX - 1).coerceAtLeast(0)
+                val maxCellX = (cellX + 1).coerceAtMost(seedPoints[0].size - 1)
+                var minDistance = Int.MAX_VALUE
+                var nearestSegment = 0
+
+                // Find nearest seed point
+                for (cy in minCellY..maxCellY) {
+                    for (cx in minCellX..maxCellX) {
+                        val point = seedPoints[cy][cx]
+                        val distanceSquared = (x - point.x) * (x - point.x) +
+                                (y - point.y) * (y - point.y)
+                        if (distanceSquared < minDistance) {
+                            minDistance = distanceSquared
+                            nearestSegment = point.segmentId
+                        }
+                    }
+                }
+                segmentMap[y][x] = nearestSegment
+            }
+        }
+        
+        return segmentMap
+    }
+
+    /**
+     * Calculate the average color for each segment using YUV to RGB conversion with parallel arrays.
+     */
+    fun calculateSegmentColors(
+        yData: ByteArray,
+        uData: ByteArray, 
+        vData: ByteArray,
+        width: Int,
+        height: Int,
+        segmentMap: Array<IntArray>,
+        totalSegments: Int,
+        colorVariation: Float,
+        random: Random = Random.Default
+    ): Map<Int, Int> {
+        
+        // Use parallel arrays for better cache locality and performance
+        val redTotals = LongArray(totalSegments)
+        val greenTotals = LongArray(totalSegments)
+        val blueTotals = LongArray(totalSegments)
+        val pixelCounts = IntArray(totalSegments)
+        
+        // Single-threaded processing for simplicity
+        processColorRowsWithArrays(yData, uData, vData, width, height, segmentMap, 
+                                 redTotals, greenTotals, blueTotals, pixelCounts)
+        
+        // Calculate average color for each segment
+        val segmentColors = mutableMapOf<Int, Int>()
+        for (segmentId in 0 until totalSegments) {
+            if (pixelCounts[segmentId] > 0) {
+                val avgR = (redTotals[segmentId] / pixelCounts[segmentId]).toInt()
+                val avgG = (greenTotals[segmentId] / pixelCounts[segmentId]).toInt()
+                val avgB = (blueTotals[segmentId] / pixelCounts[segmentId]).toInt()
+                
+                // Add slight color variation for more interesting appearance
+                val variation = (colorVariation * 128).toInt()
+                val finalR = (avgR + random.nextInt(-variation, variation)).coerceIn(0, 255)
+                val finalG = (avgG + random.nextInt(-variation, variation)).coerceIn(0, 255)
+                val finalB = (avgB + random.nextInt(-variation, variation)).coerceIn(0, 255)
+                
+                segmentColors[segmentId] = (0xFF shl 24) or (finalR shl 16) or (finalG shl 8) or finalB
+            }
+        }
+        
+        return segmentColors
+    }
+
+    /**
+     * Process color calculation using parallel arrays for better performance.
+     */
+    private fun processColorRowsWithArrays(
+        yData: ByteArray,
+        uData: ByteArray,
+        vData: ByteArray,
+        width: Int,
+        height: Int,
+        segmentMap: Array<IntArray>,
+        redTotals: LongArray,
+        greenTotals: LongArray,
+        blueTotals: LongArray,
+        pixelCounts: IntArray
+    ) {
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val segmentId = segmentMap[y][x]
+                
+                // Get YUV values
+                val yVal = yData[y * width + x].toInt() and 0xFF
+                val uVal = uData[(y / 2) * (width / 2) + (x / 2)].toInt() and 0xFF
+                val vVal = vData[(y / 2) * (width / 2) + (x / 2)].toInt() and 0xFF
+                
+                // Convert YUV to RGB
+                val rgb = yuvToRgb(yVal, uVal, vVal)
+                
+                // Add to parallel arrays (bounds check for safety)
+                if (segmentId < redTotals.size) {
+                    redTotals[segmentId] += (rgb shr 16) and 0xFF
+                    greenTotals[segmentId] += (rgb shr 8) and 0xFF
+                    blueTotals[segmentId] += rgb and 0xFF
+                    pixelCounts[segmentId]++
+                }
+            }
+        }
+    }
+
+    /**
+     * Fill segments with their average colors. Segments without a color are black.
+     */
+    fun fillSegments(width: Int, height: Int, segmentMap: Array<IntArray>,
+                     segmentColors: Map<Int, Int>, pixels: IntArray) {
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val segmentId = segmentMap[y][x]
+                pixels[y * width + x] = segmentColors[segmentId] ?: BLACK
+            }
+        }
+    }
+
+    private const val BLACK = 0xFF000000.toInt()
+}
@@ -0,0 +1,64 @@
+package com.dozingcatsoftware.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.math.abs
+
+class YuvUtilsTest {
+
+    private fun channelError(a: Int, b: Int, shift: Int) =
+            abs(((a shr shift) and 0xFF) - ((b shr shift) and 0xFF))
+
+    @Test
+    fun tableConversionMatchesFloatReference() {
+        var maxError = 0
+        var mismatches = 0
+        for (y in 0 until 256) {
+            for (u in 0 until 256) {
+                for (v in 0 until 256) {
+                    val fixed = YuvUtils.yuvToRgb(y, u, v)
+                    val reference = YuvUtils.yuvToRgbFloat(y, u, v)
+                    if (fixed != reference) {
+                        mismatches += 1
+                        for (shift in intArrayOf(0, 8, 16)) {
+                            maxError = maxOf(maxError, channelError(fixed, reference, shift))
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue("max channel error $maxError", maxError <= 1)
+        // Differences only occur where the float result is within about 0.002 of a rounding
+        // boundary, so they should be very rare.
+        assertTrue("$mismatches of 2^24 inputs differ", mismatches < (1 shl 24) / 1000)
+    }
+
+    @Test
+    fun alphaIsOpaqueWhenRequested() {
+        assertEquals(0xFF000000.toInt() or YuvUtils.yuvToRgb(90, 60, 200),
+                YuvUtils.yuvToRgb(90, 60, 200, includeAlpha = true))
+        assertEquals(0xFFFFFF, YuvUtils.yuvToRgb(255, 128, 128))
+        assertEquals(0, YuvUtils.yuvToRgb(0, 128, 128))
+    }
+
+    // app/src/main/cpp/benchmark/yuv_benchmark.cpp computes the same checksum over all inputs
+    // with the native tables, so a change to either side that breaks bit-identical output fails
+    // one of them.
+    @Test
+    fun checksumMatchesNativeConversion() {
+        var checksum = 0
+        for (y in 0 until 256) {
+            for (u in 0 until 256) {
+                for (v in 0 until 256) {
+                    checksum = checksum * 31 + YuvUtils.yuvToRgb(y, u, v)
+                }
+            }
+        }
+        assertEquals(ALL_INPUTS_CHECKSUM, checksum)
+    }
+
+    companion object {
+        const val ALL_INPUTS_CHECKSUM = -559170304  // 0xDEABBD00
+    }
+}
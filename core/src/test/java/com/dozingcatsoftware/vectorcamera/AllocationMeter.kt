@@ -0,0 +1,39 @@
+package com.dozingcatsoftware.vectorcamera
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Measures the bytes allocated on the calling thread by a per-frame function, using the HotSpot
+ * ThreadMXBean counter. Allocations made by other threads aren't counted, so the code being
+ * measured should run single threaded. The counter includes TLAB refills only approximately, so
+ * results are accurate to a few hundred bytes per frame.
+ */
+object AllocationMeter {
+    private val threadBean =
+            ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    fun isSupported() =
+            threadBean.isThreadAllocatedMemorySupported && threadBean.isThreadAllocatedMemoryEnabled
+
+    private fun allocatedBytes() =
+            threadBean.getThreadAllocatedBytes(Thread.currentThread().threadId())
+
+    /**
+     * Calls `frame` `warmupFrames` times so that lazily created caches and JIT compilation don't
+     * count, then returns the average number of bytes allocated by each of `measuredFrames` calls.
+     */
+    fun bytesPerFrame(warmupFrames: Int, measuredFrames: Int, frame: () -> Unit): Long {
+        for (i in 0 until warmupFrames) {
+            frame()
+        }
+        // Calibrate for anything the counter itself allocates.
+        val calibrationStart = allocatedBytes()
+        val overhead = allocatedBytes() - calibrationStart
+        val start = allocatedBytes()
+        for (i in 0 until measuredFrames) {
+            frame()
+        }
+        val total = allocatedBytes() - start - overhead
+        return maxOf(0L, total / measuredFrames)
+    }
+}
@@ -0,0 +1,62 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.io.StringWriter
+
+class FlightRecorderTest {
+
+    private fun recordFrame(recorder: FlightRecorder, timestamp: Long, reason: DropReason) {
+        recorder.record(
+                frameTimestamp = timestamp, sensorNanos = timestamp * 1000,
+                recordedNanos = timestamp * 1000 + 500, effectName = "edge",
+                width = 640, height = 480, architecture = "Native", numThreads = 2,
+                planeCopyNanos = 10, effectNanos = 20, uploadNanos = 30,
+                ingestQueued = 1, effectQueued = 0, uploadQueued = 0, publishQueued = 1,
+                dropReason = reason)
+    }
+
+    @Test
+    fun keepsMostRecentRows() {
+        val recorder = FlightRecorder(3)
+        for (t in 1L..5L) {
+            recordFrame(recorder, t, if (t == 4L) DropReason.QUEUE_FULL else DropReason.NONE)
+        }
+        assertEquals(3, recorder.size())
+        val csv = StringWriter().also({recorder.writeCsv(it)}).toString().trim().lines()
+        assertEquals(FlightRecorder.COLUMNS.joinToString(","), csv[0])
+        assertEquals(listOf("3", "4", "5"), csv.drop(1).map({it.substringBefore(",")}))
+        assertEquals("4,4000,4500,edge,640,480,Native,2,10,20,30,1,0,0,1,QUEUE_FULL", csv[2])
+    }
+
+    @Test
+    fun writesJson() {
+        val recorder = FlightRecorder(4)
+        recordFrame(recorder, 7, DropReason.NONE)
+        recorder.record(8, 0, 0, "say \"hi\"", 1, 1, null, 0, 0, 0, 0, 0, 0, 0, 0,
+                DropReason.REJECTED)
+        val json = StringWriter().also({recorder.writeJson(it)}).toString()
+        assertTrue(json, json.contains("{\"frameTimestamp\":7,\"sensorNanos\":7000,"))
+        assertTrue(json, json.contains("\"effect\":\"say \\\"hi\\\"\""))
+        assertTrue(json, json.contains("\"architecture\":null"))
+        assertTrue(json, json.contains("\"dropReason\":\"REJECTED\"}"))
+
+        recorder.clear()
+        assertEquals(0, recorder.size())
+        assertEquals("[\n]\n", StringWriter().also({recorder.writeJson(it)}).toString())
+    }
+
+    @Test
+    fun recordingDoesNotAllocate() {
+        assumeTrue(AllocationMeter.isSupported())
+        val recorder = FlightRecorder(16)
+        var t = 0L
+        val bytes = AllocationMeter.bytesPerFrame(1000, 1000, {
+            t += 1
+            recordFrame(recorder, t, DropReason.NONE)
+        })
+        assertEquals(0L, bytes)
+    }
+}
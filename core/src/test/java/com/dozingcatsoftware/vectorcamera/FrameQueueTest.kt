@@ -0,0 +1,98 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+class FrameQueueTest {
+
+    @Test
+    fun capacityMustBePositive() {
+        assertThrows(IllegalArgumentException::class.java, {FrameQueue<String>(0)})
+    }
+
+    @Test
+    fun offerFailsWhenFull() {
+        val queue = FrameQueue<String>(2)
+        assertTrue(queue.offer("a"))
+        assertTrue(queue.offer("b"))
+        assertFalse(queue.offer("c"))
+        assertEquals(2, queue.size())
+        assertEquals("a", queue.take())
+        assertTrue(queue.offer("c"))
+        assertEquals("b", queue.take())
+        assertEquals("c", queue.take())
+        assertEquals(2, queue.peakSize())
+    }
+
+    @Test
+    fun addDroppingOldestReturnsTheDroppedItem() {
+        val queue = FrameQueue<String>(2)
+        assertNull(queue.addDroppingOldest("a"))
+        assertNull(queue.addDroppingOldest("b"))
+        assertEquals("a", queue.addDroppingOldest("c"))
+        assertEquals(2, queue.size())
+        assertEquals("b", queue.take())
+        assertEquals("c", queue.take())
+    }
+
+    @Test
+    fun putWaitsForSpace() {
+        val queue = FrameQueue<String>(1)
+        queue.put("a")
+        val added = CountDownLatch(1)
+        val thread = Thread({
+            queue.put("b")
+            added.countDown()
+        })
+        thread.start()
+        assertFalse(added.await(50, TimeUnit.MILLISECONDS))
+        assertEquals("a", queue.take())
+        assertTrue(added.await(5, TimeUnit.SECONDS))
+        assertEquals("b", queue.take())
+        thread.join()
+    }
+
+    @Test
+    fun closeReturnsRemainingItemsAndRejectsAdds() {
+        val queue = FrameQueue<String>(3)
+        queue.offer("a")
+        queue.offer("b")
+        assertEquals(listOf("a", "b"), queue.close())
+        assertTrue(queue.isClosed())
+        assertEquals(0, queue.size())
+        assertFalse(queue.offer("c"))
+        assertFalse(queue.put("c"))
+        // The caller keeps ownership of an item the closed queue didn't take.
+        assertEquals("c", queue.addDroppingOldest("c"))
+        assertNull(queue.take())
+    }
+
+    @Test
+    fun closeWakesWaitingThreads() {
+        val queue = FrameQueue<String>(1)
+        queue.put("a")
+        val putResult = AtomicReference<Boolean>()
+        val putter = Thread({putResult.set(queue.put("b"))})
+        val emptyQueue = FrameQueue<String>(1)
+        val takeResult = AtomicReference<String>("unset")
+        val taker = Thread({takeResult.set(emptyQueue.take())})
+        putter.start()
+        taker.start()
+        Thread.sleep(50)
+        queue.close()
+        emptyQueue.close()
+        putter.join(5000)
+        taker.join(5000)
+        assertFalse(putter.isAlive)
+        assertFalse(taker.isAlive)
+        assertEquals(false, putResult.get())
+        assertNull(takeResult.get())
+    }
+}
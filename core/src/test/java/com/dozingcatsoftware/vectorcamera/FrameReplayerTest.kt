@@ -0,0 +1,81 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.Collections
+
+class FrameReplayerTest {
+    private val width = 8
+    private val height = 4
+    private val numFrames = 5
+    // 20 fps, with one late frame.
+    private val timestamps = listOf(1000L, 1050L, 1100L, 1170L, 1200L)
+    private lateinit var file: File
+
+    @Before
+    fun writeVideo() {
+        file = File.createTempFile("replay", "_video.dat")
+        file.outputStream().use({out ->
+            for (i in 0 until numFrames) {
+                // Y planes filled with the frame index, U and V with 100+index and 200+index.
+                out.write(ByteArray(width * height, {i.toByte()}))
+                out.write(ByteArray(width * height / 4, {(100 + i).toByte()}))
+                out.write(ByteArray(width * height / 4, {(200 + i).toByte()}))
+            }
+        })
+    }
+
+    @After
+    fun deleteVideo() {
+        file.delete()
+    }
+
+    private fun replay(pacing: FrameReplayer.Pacing, loops: Int): List<Pair<Int, Long>> {
+        val frames = Collections.synchronizedList(mutableListOf<Pair<Int, Long>>())
+        RecordedVideo(file, width, height, timestamps).use({video ->
+            val replayer = FrameReplayer(video, pacing, loops)
+            replayer.start({imageData, timestamp ->
+                val index = imageData.yData[0].toInt()
+                assertEquals((100 + index).toByte(), imageData.uData[0])
+                assertEquals((200 + index).toByte(), imageData.vData[3])
+                frames.add(Pair(index, timestamp))
+                imageData.release()
+            })
+            replayer.awaitFinished()
+            assertEquals(numFrames * loops, replayer.framesDelivered)
+        })
+        return frames
+    }
+
+    @Test
+    fun maxSpeedDeliversFramesInOrder() {
+        val frames = replay(FrameReplayer.Pacing.MAX_SPEED, 2)
+        assertEquals(listOf(0, 1, 2, 3, 4, 0, 1, 2, 3, 4), frames.map({it.first}))
+        // The second loop starts one average frame interval after the last frame.
+        assertEquals(timestamps + timestamps.map({it + 250}), frames.map({it.second}))
+    }
+
+    @Test
+    fun realTimeFollowsRecordedTimestamps() {
+        val start = System.nanoTime()
+        val frames = replay(FrameReplayer.Pacing.REAL_TIME, 1)
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+        assertEquals(timestamps, frames.map({it.second}))
+        assertTrue("elapsed ${elapsedMillis}ms", elapsedMillis >= 200)
+    }
+
+    @Test
+    fun stopEndsReplay() {
+        RecordedVideo(file, width, height, timestamps).use({video ->
+            val replayer = FrameReplayer(video, FrameReplayer.Pacing.REAL_TIME, 100)
+            replayer.start({imageData, _ -> imageData.release()})
+            replayer.stop()
+            replayer.awaitFinished()
+            assertTrue(replayer.framesDelivered < numFrames * 100)
+        })
+    }
+}
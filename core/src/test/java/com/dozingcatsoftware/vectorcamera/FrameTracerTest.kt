@@ -0,0 +1,86 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameTracerTest {
+    private val defaultSections = Platform.traceSections
+
+    @After
+    fun restoreSections() {
+        Platform.traceSections = defaultSections
+        FrameTracer.reset()
+    }
+
+    @Test
+    fun spansAreRecordedPerEffectAndTraced() {
+        val sections = mutableListOf<String>()
+        Platform.traceSections = object : Platform.TraceSections {
+            override fun begin(name: String) {
+                sections.add("begin ${name}")
+            }
+            override fun end() {
+                sections.add("end")
+            }
+        }
+        FrameTracer.setCurrentEffect("first")
+        val result = FrameTracer.trace(TraceSpan.EFFECT, {
+            Thread.sleep(2)
+            42
+        })
+        FrameTracer.record(TraceSpan.SENSOR_TO_SCREEN, 5_000_000)
+        FrameTracer.setCurrentEffect("second")
+        FrameTracer.trace(TraceSpan.UPLOAD, {})
+
+        assertEquals(42, result)
+        assertEquals(listOf("begin VC effect", "end", "begin VC pixel upload", "end"), sections)
+        val effectTimes = FrameTracer.histogram(TraceSpan.EFFECT, "first")
+        assertEquals(1L, effectTimes.count())
+        assertTrue(effectTimes.maxNanos() >= 2_000_000)
+        assertEquals(0L, FrameTracer.histogram(TraceSpan.EFFECT, "second").count())
+        assertEquals(1L, FrameTracer.histogram(TraceSpan.UPLOAD).count())
+        assertEquals(setOf("effect", "sensor_to_screen"), FrameTracer.summaryMillis("first").keys)
+    }
+
+    @Test
+    fun histogramsCoverTheLastWindow() {
+        FrameTracer.setCurrentEffect("windowed")
+        FrameTracer.setCurrentSize(640, 480)
+        FrameTracer.record(TraceSpan.EFFECT, 50_000_000)
+        FrameTracer.rotateWindow()
+        FrameTracer.record(TraceSpan.EFFECT, 10_000_000)
+        FrameTracer.record(TraceSpan.EFFECT, 10_000_000)
+        // The completed window is reported until the next one completes.
+        assertEquals(1L, FrameTracer.histogram(TraceSpan.EFFECT).count())
+        FrameTracer.rotateWindow()
+        val effectTimes = FrameTracer.histogram(TraceSpan.EFFECT)
+        assertEquals(2L, effectTimes.count())
+        assertTrue(effectTimes.maxNanos() < 50_000_000)
+
+        val epoch = FrameTracer.windowEpoch()
+        FrameTracer.setCurrentSize(1280, 720)
+        assertTrue(FrameTracer.windowEpoch() > epoch)
+        assertEquals(0L, FrameTracer.histogram(TraceSpan.EFFECT).count())
+    }
+
+    @Test
+    fun sectionEndsWhenSpanThrows() {
+        var depth = 0
+        Platform.traceSections = object : Platform.TraceSections {
+            override fun begin(name: String) {
+                depth += 1
+            }
+            override fun end() {
+                depth -= 1
+            }
+        }
+        try {
+            FrameTracer.trace(TraceSpan.DRAW, {throw IllegalStateException()})
+        }
+        catch (ex: IllegalStateException) {
+        }
+        assertEquals(0, depth)
+    }
+}
@@ -0,0 +1,72 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ImageDataTest {
+    // A 4x2 frame laid out like a camera's NV12 output: Y rows padded to 6 bytes, and U and V
+    // arrays that each see the interleaved UVUV... buffer with a pixel stride of 2.
+    private fun semiPlanarImage(pool: PlaneBufferPool): ImageData {
+        val y = byteArrayOf(1, 2, 3, 4, 0, 0, 5, 6, 7, 8, 0, 0)
+        val uv = byteArrayOf(10, 20, 11, 21, 0, 0)
+        return ImageData(
+                width = 4, height = 2,
+                yData = y, uData = uv, vData = uv.copyOfRange(1, uv.size),
+                yPixelStride = 1, yRowStride = 6, uvPixelStride = 2, uvRowStride = 6,
+                pool = pool)
+    }
+
+    @Test
+    fun planeViewsReadWithStrides() {
+        val image = semiPlanarImage(PlaneBufferPool())
+        val u = image.plane(ImageData.Plane.U)
+        assertFalse(u.isDense())
+        assertEquals(2, u.width)
+        assertEquals(1, u.height)
+        assertEquals(11, u.get(1, 0))
+        assertEquals(21, image.plane(ImageData.Plane.V).get(1, 0))
+        assertEquals(7, image.plane(ImageData.Plane.Y).get(2, 1))
+        assertSame(u, image.plane(ImageData.Plane.U))
+    }
+
+    @Test
+    fun denseBytesAreExtractedOnce() {
+        val pool = PlaneBufferPool()
+        val image = semiPlanarImage(pool)
+        val y = image.denseBytes(ImageData.Plane.Y)
+        assertArrayEquals(byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8), y)
+        assertArrayEquals(byteArrayOf(10, 11), image.denseBytes(ImageData.Plane.U))
+        assertArrayEquals(byteArrayOf(20, 21), image.denseBytes(ImageData.Plane.V))
+        assertEquals(3L, pool.missCount())
+
+        assertSame(y, image.plane(ImageData.Plane.Y).denseBytes())
+        assertSame(image.denseBytes(ImageData.Plane.U), image.denseBytes(ImageData.Plane.U))
+        assertEquals(3L, pool.missCount())
+    }
+
+    @Test
+    fun densePlanesAreReturnedDirectly() {
+        val image = ImageData.createPlanar(4, 2, PlaneBufferPool())
+        val v = image.plane(ImageData.Plane.V)
+        assertTrue(v.isDense())
+        assertSame(image.vData, image.denseBytes(ImageData.Plane.V))
+    }
+
+    @Test
+    fun extractedPlanesAreReturnedToPoolOnRelease() {
+        val pool = PlaneBufferPool()
+        val image = semiPlanarImage(pool)
+        val u = image.denseBytes(ImageData.Plane.U)
+        image.retain()
+        image.release()
+        assertEquals(0L, pool.hitCount())
+
+        image.release()
+        assertSame(u, pool.acquire(u.size))
+        assertEquals(1L, pool.hitCount())
+    }
+}
@@ -0,0 +1,72 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LatencyHistogramTest {
+
+    private fun assertWithin(expected: Long, actual: Long, relativeError: Double) {
+        assertTrue("expected ${expected}, got ${actual}",
+                Math.abs(actual - expected) <= expected * relativeError)
+    }
+
+    @Test
+    fun percentilesOfUniformValues() {
+        val h = LatencyHistogram()
+        // 1..1000 ms.
+        for (i in 1..1000) {
+            h.record(i * 1_000_000L)
+        }
+        assertEquals(1000L, h.count())
+        assertWithin(500_000_000L, h.percentileNanos(50.0), 0.035)
+        assertWithin(900_000_000L, h.percentileNanos(90.0), 0.035)
+        assertWithin(990_000_000L, h.percentileNanos(99.0), 0.035)
+        assertEquals(1_000_000_000L, h.percentileNanos(100.0))
+        assertEquals(1_000_000_000L, h.maxNanos())
+        assertEquals(500.5e6, h.meanNanos(), 1.0)
+    }
+
+    @Test
+    fun smallValuesAreExact() {
+        val h = LatencyHistogram()
+        for (i in 0 until 10) {
+            h.record(i.toLong())
+        }
+        assertEquals(4L, h.percentileNanos(50.0))
+        assertEquals(9L, h.percentileNanos(100.0))
+    }
+
+    @Test
+    fun emptyAndReset() {
+        val h = LatencyHistogram()
+        assertEquals(0L, h.percentileNanos(50.0))
+        assertTrue(h.meanNanos().isNaN())
+        h.record(123_456_789L)
+        h.record(-5)
+        h.record(Long.MAX_VALUE)
+        assertEquals(3L, h.count())
+        h.reset()
+        assertEquals(0L, h.count())
+        assertEquals(0L, h.maxNanos())
+    }
+
+    @Test
+    fun differenceSinceCopy() {
+        val h = LatencyHistogram()
+        h.record(50_000_000)
+        val previous = LatencyHistogram()
+        previous.copyFrom(h)
+        for (i in 1..10) {
+            h.record(i * 1_000_000L)
+        }
+        val interval = LatencyHistogram()
+        interval.setToDifference(h, previous)
+        assertEquals(10L, interval.count())
+        assertEquals(5.5e6, interval.meanNanos(), 1.0)
+        assertWithin(10_000_000L, interval.percentileNanos(100.0), 0.035)
+        assertTrue(interval.maxNanos() < 50_000_000)
+        interval.setToDifference(h, h)
+        assertEquals(0L, interval.count())
+    }
+}
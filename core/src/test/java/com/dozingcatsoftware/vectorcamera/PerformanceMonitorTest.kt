@@ -0,0 +1,59 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PerformanceMonitorTest {
+    private val defaultGcStats = Platform.gcStats
+
+    @After
+    fun restore() {
+        Platform.gcStats = defaultGcStats
+        FrameTracer.reset()
+    }
+
+    @Test
+    fun snapshotsAtRefreshInterval() {
+        var gcCount = 10L
+        Platform.gcStats = object : Platform.GcStats {
+            override fun collectionCount() = gcCount
+            override fun pauseMillis() = gcCount * 3
+        }
+        FrameTracer.setCurrentEffect("hud")
+        // Before the first update, so it's not in the snapshot after the second one.
+        FrameTracer.record(TraceSpan.EFFECT, 20_000_000)
+
+        val monitor = PerformanceMonitor(1_000_000_000)
+        assertFalse(monitor.frameDisplayed(1_000_000_000))
+        monitor.update(1_000_000_000, 0, 0, 640, 480)
+        // 30 frames in the next second.
+        var due = false
+        for (i in 1..30) {
+            due = monitor.frameDisplayed(1_000_000_000 + i * 33_333_334L)
+        }
+        assertTrue(due)
+        FrameTracer.record(TraceSpan.EFFECT, 8_000_000)
+        FrameTracer.record(TraceSpan.EFFECT, 8_000_000)
+        gcCount = 12
+        monitor.update(2_000_000_000, 4, 1, 640, 480)
+
+        val snapshot = monitor.snapshot!!
+        assertEquals(30.0, snapshot.framesPerSecond, 0.01)
+        assertEquals(2L, snapshot.gcCount)
+        assertEquals(6L, snapshot.gcPauseMillis)
+        assertEquals(4L, snapshot.processorDropped)
+        assertEquals(1L, snapshot.recorderDropped)
+        assertTrue(snapshot.lines[0], snapshot.lines[0].startsWith("hud 640x480 30.0 fps"))
+        assertTrue(snapshot.lines.contains("effect p95 8.1 p99 8.1 ms"))
+        assertFalse(snapshot.lines.any({it.startsWith("draw ")}))
+    }
+
+    @Test
+    fun noSnapshotBeforeUpdate() {
+        assertNull(PerformanceMonitor().snapshot)
+    }
+}
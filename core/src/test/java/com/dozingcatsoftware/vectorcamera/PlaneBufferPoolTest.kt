@@ -0,0 +1,93 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertThrows
+import org.junit.Test
+
+class PlaneBufferPoolTest {
+
+    @Test
+    fun releasedBufferIsReused() {
+        val pool = PlaneBufferPool()
+        val buffer = pool.acquire(100)
+        assertEquals(1L, pool.missCount())
+        pool.release(buffer)
+        assertSame(buffer, pool.acquire(100))
+        assertEquals(1L, pool.hitCount())
+        // The pool is empty again, so the next acquire allocates.
+        assertNotSame(buffer, pool.acquire(100))
+        assertEquals(2L, pool.missCount())
+    }
+
+    @Test
+    fun buffersOnlyMatchTheirExactSize() {
+        val pool = PlaneBufferPool()
+        val sizes = intArrayOf(99, 100, 101, 50, 200)
+        for (size in sizes) {
+            pool.release(ByteArray(size))
+        }
+        assertEquals(0L, pool.hitCount())
+        for (size in sizes.reversedArray()) {
+            assertEquals(size, pool.acquire(size).size)
+        }
+        assertEquals(sizes.size.toLong(), pool.hitCount())
+        assertEquals(0L, pool.missCount())
+        // A size with no bucket allocates rather than returning a larger array.
+        assertEquals(75, pool.acquire(75).size)
+        assertEquals(1L, pool.missCount())
+    }
+
+    @Test
+    fun doubleReleaseThrows() {
+        val pool = PlaneBufferPool()
+        val buffer = pool.acquire(16)
+        pool.release(buffer)
+        assertThrows(IllegalStateException::class.java, {pool.release(buffer)})
+        // The buffer is only in the pool once, so it can't be handed out to two callers.
+        assertSame(buffer, pool.acquire(16))
+        assertNotSame(buffer, pool.acquire(16))
+    }
+
+    @Test
+    fun poolSizeIsBounded() {
+        val pool = PlaneBufferPool(maxBuffersPerSize = 2)
+        val buffers = List(3, {ByteArray(8)})
+        buffers.forEach(pool::release)
+        pool.acquire(8)
+        pool.acquire(8)
+        pool.acquire(8)
+        assertEquals(2L, pool.hitCount())
+        assertEquals(1L, pool.missCount())
+    }
+
+    @Test
+    fun imageReleasePastZeroThrows() {
+        val pool = PlaneBufferPool()
+        val image = ImageData.createPlanar(4, 2, pool)
+        image.release()
+        assertThrows(IllegalStateException::class.java, {image.release()})
+        assertThrows(IllegalStateException::class.java, {image.retain()})
+        // Each plane was returned once, not once per release call.
+        assertEquals(8, pool.acquire(8).size)
+        assertEquals(2, pool.acquire(2).size)
+        assertEquals(2, pool.acquire(2).size)
+        assertEquals(3L, pool.hitCount())
+        pool.acquire(2)
+        assertEquals(3L, pool.hitCount())
+    }
+
+    @Test
+    fun retainedImageBuffersAreNotReused() {
+        val pool = PlaneBufferPool()
+        val image = ImageData.createPlanar(4, 2, pool)
+        image.retain()
+        image.release()
+        assertNotSame(image.yData, pool.acquire(8))
+        assertEquals(0L, pool.hitCount())
+
+        image.release()
+        assertSame(image.yData, pool.acquire(8))
+    }
+}
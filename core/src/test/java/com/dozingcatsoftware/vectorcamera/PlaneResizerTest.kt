@@ -0,0 +1,135 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+import kotlin.math.floor
+
+/**
+ * Checks the Kotlin PlaneResizer against a floating point version of the same filters. Timings
+ * are in EffectKernelBenchmark.planeResizeHalf, run with `./gradlew :core:jmh`.
+ */
+class PlaneResizerTest {
+
+    private fun randomPlane(width: Int, height: Int): ByteArray {
+        val bytes = ByteArray(width * height)
+        Random(42).nextBytes(bytes)
+        return bytes
+    }
+
+    /**
+     * Returns the weight of each source coordinate for each destination coordinate, computed in
+     * floating point from the definitions of the box and bilinear filters rather than from
+     * PlaneResizer's fixed-point tables.
+     */
+    private fun referenceWeights(srcSize: Int, dstSize: Int): Array<DoubleArray> {
+        val scale = srcSize.toDouble() / dstSize
+        return Array(dstSize, { i ->
+            val w = DoubleArray(srcSize)
+            if (dstSize < srcSize) {
+                val left = i * scale
+                val right = (i + 1) * scale
+                for (p in 0 until srcSize) {
+                    val overlap = minOf(right, p + 1.0) - maxOf(left, p.toDouble())
+                    if (overlap > 0) {
+                        w[p] = overlap / scale
+                    }
+                }
+            }
+            else {
+                val center = ((i + 0.5) * scale - 0.5).coerceIn(0.0, (srcSize - 1).toDouble())
+                val p = floor(center).toInt()
+                val frac = center - p
+                w[p] += 1 - frac
+                w[minOf(p + 1, srcSize - 1)] += frac
+            }
+            w
+        })
+    }
+
+    private fun referenceResize(src: ByteArray, srcWidth: Int, srcHeight: Int,
+                                dstWidth: Int, dstHeight: Int): IntArray {
+        val xWeights = referenceWeights(srcWidth, dstWidth)
+        val yWeights = referenceWeights(srcHeight, dstHeight)
+        val result = IntArray(dstWidth * dstHeight)
+        for (y in 0 until dstHeight) {
+            for (x in 0 until dstWidth) {
+                var sum = 0.0
+                for (sy in 0 until srcHeight) {
+                    val wy = yWeights[y][sy]
+                    if (wy == 0.0) continue
+                    for (sx in 0 until srcWidth) {
+                        sum += wy * xWeights[x][sx] * (src[sy * srcWidth + sx].toInt() and 0xFF)
+                    }
+                }
+                result[y * dstWidth + x] = Math.round(sum).toInt()
+            }
+        }
+        return result
+    }
+
+    private fun assertMatchesReference(srcWidth: Int, srcHeight: Int,
+                                       dstWidth: Int, dstHeight: Int) {
+        val src = randomPlane(srcWidth, srcHeight)
+        val dst = ByteArray(dstWidth * dstHeight)
+        PlaneResizer.resizeKotlin(src, 1, srcWidth, dst, dstWidth, dstHeight,
+                PlaneResizer.filterTable(srcWidth, dstWidth),
+                PlaneResizer.filterTable(srcHeight, dstHeight), 2)
+        val expected = referenceResize(src, srcWidth, srcHeight, dstWidth, dstHeight)
+        for (i in expected.indices) {
+            val actual = dst[i].toInt() and 0xFF
+            // Fixed-point weights and intermediate rounding can be off by one from the float sum.
+            assertTrue("${srcWidth}x${srcHeight} -> ${dstWidth}x${dstHeight} at ${i}: " +
+                    "expected ${expected[i]}, got ${actual}",
+                    Math.abs(actual - expected[i]) <= 1)
+        }
+    }
+
+    @Test
+    fun downscaleMatchesReference() {
+        // Integer and fractional scale factors, and different factors on each axis.
+        assertMatchesReference(240, 160, 60, 40)
+        assertMatchesReference(197, 113, 61, 37)
+        assertMatchesReference(320, 90, 33, 89)
+    }
+
+    @Test
+    fun upscaleMatchesReference() {
+        assertMatchesReference(40, 30, 97, 71)
+        assertMatchesReference(64, 48, 128, 96)
+    }
+
+    @Test
+    fun flatPlaneStaysFlat() {
+        val src = ByteArray(1920 * 1080) { 200.toByte() }
+        val dst = ByteArray(333 * 187)
+        PlaneResizer.resizeKotlin(src, 1, 1920, dst, 333, 187,
+                PlaneResizer.filterTable(1920, 333), PlaneResizer.filterTable(1080, 187), 1)
+        assertTrue(dst.all { it == 200.toByte() })
+    }
+
+    @Test
+    fun interleavedSourceMatchesPlanar() {
+        val width = 320
+        val height = 240
+        val planar = randomPlane(width, height)
+        // U values interleaved with V values, as in an NV12 chroma plane.
+        val rowStride = 2 * width + 16
+        val interleaved = ByteArray(rowStride * height)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                interleaved[y * rowStride + 2 * x] = planar[y * width + x]
+                interleaved[y * rowStride + 2 * x + 1] = 0x55
+            }
+        }
+        val xTable = PlaneResizer.filterTable(width, 100)
+        val yTable = PlaneResizer.filterTable(height, 75)
+        val fromPlanar = ByteArray(100 * 75)
+        val fromInterleaved = ByteArray(100 * 75)
+        PlaneResizer.resizeKotlin(planar, 1, width, fromPlanar, 100, 75, xTable, yTable, 1)
+        PlaneResizer.resizeKotlin(
+                interleaved, 2, rowStride, fromInterleaved, 100, 75, xTable, yTable, 2)
+        assertArrayEquals(fromPlanar, fromInterleaved)
+    }
+}
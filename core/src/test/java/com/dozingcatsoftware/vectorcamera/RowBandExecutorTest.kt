@@ -0,0 +1,110 @@
+package com.dozingcatsoftware.vectorcamera
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicIntegerArray
+
+class RowBandExecutorTest {
+
+    private fun assertEachRowOnce(counts: AtomicIntegerArray) {
+        for (i in 0 until counts.length()) {
+            assertEquals("row ${i}", 1, counts.get(i))
+        }
+    }
+
+    private fun countRows(numRows: Int, numThreads: Int, bytesPerRow: Int): AtomicIntegerArray {
+        val counts = AtomicIntegerArray(numRows)
+        RowBandExecutor.parallelFor(numRows, numThreads, bytesPerRow, { start, end ->
+            assertTrue("bad range ${start}..${end}", start in 0 until end && end <= numRows)
+            for (row in start until end) {
+                counts.incrementAndGet(row)
+            }
+        })
+        return counts
+    }
+
+    @Test(timeout = 10000)
+    fun everyRowIsCoveredOnce() {
+        // More threads than workers, and row counts that don't divide into chunks evenly.
+        val threadCounts = intArrayOf(2, 3, Runtime.getRuntime().availableProcessors() + 4, 64)
+        for (numRows in intArrayOf(2, 7, 33, 481, 1081)) {
+            for (numThreads in threadCounts) {
+                // Both tiny chunks and chunks limited by the cache size.
+                assertEachRowOnce(countRows(numRows, numThreads, 1))
+                assertEachRowOnce(countRows(numRows, numThreads, 1 shl 20))
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    fun singleThreadRunsOneBandOnTheCaller() {
+        for (numThreads in intArrayOf(1, 0, -1)) {
+            val calls = Collections.synchronizedList(mutableListOf<Pair<Int, Int>>())
+            val caller = Thread.currentThread()
+            RowBandExecutor.parallelFor(100, numThreads, 4, { start, end ->
+                assertSame(caller, Thread.currentThread())
+                calls.add(Pair(start, end))
+            })
+            assertEquals(listOf(Pair(0, 100)), calls)
+        }
+        RowBandExecutor.resetFrameStats()
+        RowBandExecutor.parallelFor(100, 1, 4, { _, _ -> })
+        assertTrue(RowBandExecutor.frameLoadImbalance().isNaN())
+    }
+
+    @Test(timeout = 10000)
+    fun nestedCallsCoverEveryCell() {
+        val outerRows = 37
+        val innerRows = 53
+        val counts = AtomicIntegerArray(outerRows * innerRows)
+        RowBandExecutor.parallelFor(outerRows, 4, 1, { outerStart, outerEnd ->
+            for (outer in outerStart until outerEnd) {
+                RowBandExecutor.parallelFor(innerRows, 4, 1, { innerStart, innerEnd ->
+                    for (inner in innerStart until innerEnd) {
+                        counts.incrementAndGet(outer * innerRows + inner)
+                    }
+                })
+            }
+        })
+        assertEachRowOnce(counts)
+    }
+
+    @Test(timeout = 10000)
+    fun exceptionIsRethrown() {
+        for (badRow in intArrayOf(0, 250, 499)) {
+            val thrown = IllegalStateException("row ${badRow}")
+            val rethrown = assertThrows(IllegalStateException::class.java, {
+                RowBandExecutor.parallelFor(500, 4, 1, { start, end ->
+                    if (badRow in start until end) {
+                        throw thrown
+                    }
+                })
+            })
+            assertSame(thrown, rethrown)
+        }
+        // The workers are still usable afterwards.
+        assertEachRowOnce(countRows(500, 4, 1))
+    }
+
+    @Test(timeout = 10000)
+    fun firstOfSeveralExceptionsIsRethrown() {
+        val thrown = Collections.synchronizedList(mutableListOf<Throwable>())
+        val calls = AtomicInteger()
+        val rethrown = assertThrows(RuntimeException::class.java, {
+            RowBandExecutor.parallelFor(1000, 8, 1, { start, _ ->
+                calls.incrementAndGet()
+                val ex = RuntimeException("chunk at ${start}")
+                thrown.add(ex)
+                throw ex
+            })
+        })
+        assertTrue(thrown.contains(rethrown))
+        // Each participant stops after its first failure, so the remaining chunks are skipped.
+        assertTrue("${calls.get()} calls", calls.get() <= 8)
+    }
+}
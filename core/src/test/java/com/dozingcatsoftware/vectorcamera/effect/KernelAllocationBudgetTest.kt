@@ -0,0 +1,194 @@
+package com.dozingcatsoftware.vectorcamera.effect
+
+import com.dozingcatsoftware.vectorcamera.AllocationMeter
+import com.dozingcatsoftware.vectorcamera.PlaneResizer
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Renders 320x240 frames with the Kotlin kernel of each effect and checks the bytes allocated per
+ * frame after warming up. The goal is no per-frame allocation at all, so most kernels may only
+ * allocate SMALL_OBJECT_BYTES of lambdas and the like. Kernels that still allocate per-frame
+ * arrays are known debt: their budget is the measured allocation, and the test fails if they
+ * allocate more than DEBT_MARGIN above it, or less than DEBT_MARGIN below it so that the budget
+ * is lowered whenever an allocation is removed.
+ *
+ * Every effect in EffectRegistry is listed here:
+ * - edge, and custom effects based on it: `edge`. Gradient backgrounds are drawn with a Canvas
+ *   when the frame is displayed, not rendered per pixel.
+ * - edge_luminance: `edgeLuminance`.
+ * - solid_color, and custom effects based on it: `solidColor`.
+ * - permute_color: `permuteColor` and `permuteColorFlipUV`, reading interleaved chroma.
+ * - cartoon: `cartoon`.
+ * - convolve3x3: `convolve3x3`.
+ * - oil_painting: `oilPainting`.
+ * - stained_glass: `stainedGlass`. The segment map is cached by the effect; the edges between
+ *   segments are drawn with a Canvas.
+ * - ascii and matrix: not covered. Their Kotlin fallbacks draw characters with android.graphics
+ *   Bitmap templates and a Canvas, which need the Android runtime.
+ * The combination grid, which isn't a registry effect, resizes the planes for each tile:
+ * `planeResize`.
+ *
+ * Kernels run with 1 thread, since only the calling thread's allocations are counted.
+ */
+class KernelAllocationBudgetTest {
+
+    private val width = 320
+    private val height = 240
+    private val numPixels = width * height
+    private val yData = ByteArray(numPixels)
+    private val uData = ByteArray(numPixels / 4)
+    private val vData = ByteArray(numPixels / 4)
+    private val pixels = IntArray(numPixels)
+    private val colorMap = IntArray(256, {0xFF000000.toInt() or (it * 0x010101)})
+
+    init {
+        // Gradients with noise, so that the edge and oil painting kernels have detail to work on.
+        val random = Random(1)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                yData[y * width + x] = ((x + y) / 2 + random.nextInt(32)).toByte()
+            }
+        }
+        for (i in uData.indices) {
+            uData[i] = (i % 256).toByte()
+            vData[i] = (255 - i % 256).toByte()
+        }
+    }
+
+    private fun measure(frame: () -> Unit): Long {
+        assumeTrue("Thread allocation counter not supported", AllocationMeter.isSupported())
+        return AllocationMeter.bytesPerFrame(WARMUP_FRAMES, MEASURED_FRAMES, frame)
+    }
+
+    private fun checkNoAllocation(name: String, frame: () -> Unit) {
+        val bytes = measure(frame)
+        assertTrue("${name} allocated ${bytes} bytes per frame, at most ${SMALL_OBJECT_BYTES} " +
+                "are allowed for small objects", bytes <= SMALL_OBJECT_BYTES)
+    }
+
+    /**
+     * Checks a kernel that's known to allocate `debtBytes` per frame. Lower `debtBytes` to the
+     * new measurement when the test reports that the kernel allocates less.
+     */
+    private fun checkKnownDebt(name: String, debtBytes: Long, frame: () -> Unit) {
+        val bytes = measure(frame)
+        val margin = (debtBytes * DEBT_MARGIN).toLong() + SMALL_OBJECT_BYTES
+        assertTrue("${name} allocated ${bytes} bytes per frame, more than its budget of " +
+                "${debtBytes}", bytes <= debtBytes + margin)
+        assertTrue("${name} allocated ${bytes} bytes per frame, less than its budget of " +
+                "${debtBytes}; lower the budget", bytes >= debtBytes - margin)
+    }
+
+    @Test
+    fun edge() {
+        checkNoAllocation("edge", {
+            EdgeKernel.render(yData, width, height, 4, colorMap, pixels, 1)
+        })
+    }
+
+    @Test
+    fun edgeLuminance() {
+        checkNoAllocation("edge_luminance", {
+            EdgeLuminanceKernel.render(yData, uData, vData, width, height, 4, pixels, 1)
+        })
+    }
+
+    @Test
+    fun solidColor() {
+        checkNoAllocation("solid_color", {
+            SolidColorKernel.render(yData, width, height, colorMap, pixels, 1)
+        })
+    }
+
+    @Test
+    fun permuteColor() {
+        checkNoAllocation("permute_color", {
+            PermuteColorKernel.render(yData, 1, width, uData, vData, 1, width / 2, width, height,
+                    ColorComponentSource.BLUE, ColorComponentSource.RED,
+                    ColorComponentSource.GREEN, false, pixels, 1)
+        })
+    }
+
+    @Test
+    fun permuteColorFlipUV() {
+        // The U and V planes interleaved as in an NV12 frame.
+        val uv = ByteArray(numPixels / 2)
+        for (i in uData.indices) {
+            uv[2 * i] = uData[i]
+            uv[2 * i + 1] = vData[i]
+        }
+        val v = uv.copyOfRange(1, uv.size)
+        checkNoAllocation("permute_color flipUV", {
+            PermuteColorKernel.render(yData, 1, width, uv, v, 2, width, width, height,
+                    ColorComponentSource.RED, ColorComponentSource.GREEN,
+                    ColorComponentSource.BLUE, true, pixels, 1)
+        })
+    }
+
+    @Test
+    fun convolve3x3() {
+        val coefficients = floatArrayOf(-1f, -1f, -1f, -1f, 8f, -1f, -1f, -1f, -1f)
+        // The convolved brightness plane.
+        checkKnownDebt("convolve3x3", 76_904L, {
+            Convolve3x3Kernel.render(yData, width, height, coefficients, colorMap, pixels, 1)
+        })
+    }
+
+    @Test
+    fun cartoon() {
+        // The quantized pixels, the results of the horizontal and vertical blur passes, and the
+        // color lookup table.
+        checkKnownDebt("cartoon", 922_752L, {
+            CartoonKernel.render(yData, uData, vData, width, height, 4, 1)
+        })
+    }
+
+    @Test
+    fun oilPainting() {
+        val kernel = OilPaintingKernel(8, 32, 2.0f)
+        // Two pixel arrays, plus the boxed keys and values of the per-pixel color count maps,
+        // which are most of it.
+        checkKnownDebt("oil_painting", 106_618_496L, {
+            kernel.render(yData, uData, vData, width, height, 1)
+        })
+    }
+
+    @Test
+    fun stainedGlass() {
+        // StainedGlassEffect caches the segment map, so only the colors are computed per frame.
+        val segmentSize = 20
+        val seeds = StainedGlassKernel.createSeedPoints(width, height, segmentSize, Random(1))
+        val segmentMap = StainedGlassKernel.createSegmentMapFromSeeds(
+                width, height, segmentSize, seeds)
+        val numSegments = seeds.sumOf({it.size})
+        val random = Random(2)
+        // The per-segment totals and the segment color map, and boxing segment IDs to look up
+        // each pixel's color in the map.
+        checkKnownDebt("stained_glass", 424_448L, {
+            val colors = StainedGlassKernel.calculateSegmentColors(
+                    yData, uData, vData, width, height, segmentMap, numSegments, 0.1f, random)
+            StainedGlassKernel.fillSegments(width, height, segmentMap, colors, pixels)
+        })
+    }
+
+    @Test
+    fun planeResize() {
+        // CombinationEffect resizes the planes into each grid tile.
+        val dst = ByteArray(numPixels / 4)
+        checkNoAllocation("plane_resize", {
+            PlaneResizer.resize(yData, width, height, 1, width, dst, width / 2, height / 2, 1)
+        })
+    }
+
+    companion object {
+        const val WARMUP_FRAMES = 5
+        const val MEASURED_FRAMES = 5
+        // Lambdas, iterators and the like, which don't grow with the frame size.
+        const val SMALL_OBJECT_BYTES = 1024L
+        // How far a known-debt kernel's allocation may drift from its budget.
+        const val DEBT_MARGIN = 0.02
+    }
+}